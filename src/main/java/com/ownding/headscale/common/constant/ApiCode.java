@@ -3,7 +3,9 @@ package com.ownding.headscale.common.constant;
 public enum ApiCode {
     SUCCESS(200, "成功"),
     BAD_REQUEST(400, "非法参数"),
+    TOO_MANY_REQUESTS(429, "请求过于频繁"),
     SERVER_ERROR(500, "服务器内部错误"),
+    SERVICE_UNAVAILABLE(503, "服务暂不可用"),
     UPLOAD_FILE_EXCEED_MAX(600, "上传文件超过最大限制限制"),
     FAIL(999, "操作失败"),
 
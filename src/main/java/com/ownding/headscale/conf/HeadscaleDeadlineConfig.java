@@ -0,0 +1,98 @@
+package com.ownding.headscale.conf;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.ownding.headscale.common.constant.ApiCode;
+import com.ownding.headscale.dal.vo.Result;
+import com.ownding.headscale.utils.HeadscaleDeadlineUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.web.servlet.FilterRegistrationBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Per-request deadline
+ * Each /headscale/** request gets a time budget (X-Request-Timeout in milliseconds, or headscale.server.requestTimeout)
+ * that every upstream REST and gRPC call made on its behalf is bounded by.
+ * Bulk endpoints, whose work grows with the number of items, use headscale.server.bulkRequestTimeout instead.
+ */
+@Configuration
+public class HeadscaleDeadlineConfig {
+
+    private static final Set<String> BULK_PATHS = new HashSet<>(Arrays.asList(
+            "/headscale/users/bulk-delete",
+            "/headscale/nodes/bulk-delete",
+            "/headscale/nodes/bulk-expire",
+            "/headscale/preauth-keys/sweep",
+            "/headscale/nodes/reaper/run"));
+
+    @Autowired
+    private HeadscaleProperties headscaleProperties;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Bean
+    public FilterRegistrationBean<OncePerRequestFilter> requestDeadlineFilter() {
+        FilterRegistrationBean<OncePerRequestFilter> registration = new FilterRegistrationBean<>(new RequestDeadlineFilter());
+        registration.addUrlPatterns("/headscale/*");
+        return registration;
+    }
+
+    private class RequestDeadlineFilter extends OncePerRequestFilter {
+
+        @Override
+        protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+                throws ServletException, IOException {
+            long timeout;
+            try {
+                String path = request.getRequestURI().substring(request.getContextPath().length());
+                timeout = resolveTimeout(request.getHeader(HeadscaleDeadlineUtils.TIMEOUT_HEADER), BULK_PATHS.contains(path));
+            } catch (NumberFormatException e) {
+                response.setStatus(HttpStatus.BAD_REQUEST.value());
+                response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+                response.getOutputStream().write(objectMapper.writeValueAsBytes(Result.toResult(ApiCode.BAD_REQUEST,
+                        HeadscaleDeadlineUtils.TIMEOUT_HEADER + " 必须为正整数（毫秒）")));
+                return;
+            }
+
+            if (timeout <= 0) {
+                chain.doFilter(request, response);
+                return;
+            }
+            HeadscaleDeadlineUtils.start(timeout);
+            try {
+                chain.doFilter(request, response);
+            } finally {
+                HeadscaleDeadlineUtils.clear();
+            }
+        }
+    }
+
+    private long resolveTimeout(String header, boolean bulk) {
+        if (StringUtils.isBlank(header)) {
+            return bulk ? headscaleProperties.getBulkRequestTimeout() : headscaleProperties.getRequestTimeout();
+        }
+        long requested = Long.parseLong(header.trim());
+        if (requested <= 0) {
+            throw new NumberFormatException(header);
+        }
+        long max = headscaleProperties.getMaxRequestTimeout();
+        if (bulk && max > 0) {
+            max = headscaleProperties.getBulkRequestTimeout() > 0 ? Math.max(max, headscaleProperties.getBulkRequestTimeout()) : 0;
+        }
+        return max > 0 ? Math.min(requested, max) : requested;
+    }
+}
@@ -0,0 +1,132 @@
+package com.ownding.headscale.conf;
+
+import com.ownding.headscale.utils.HeadscaleActorUtils;
+import com.ownding.headscale.utils.HeadscaleDeadlineUtils;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.web.embedded.tomcat.TomcatProtocolHandlerCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.core.task.support.TaskExecutorAdapter;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.web.servlet.config.annotation.AsyncSupportConfigurer;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
+
+/**
+ * Executor configuration for upstream Headscale calls and Spring MVC async processing
+ * Uses bounded platform thread pools with bounded queues by default, or one virtual thread per task
+ * when headscale.server.virtualThreads=true and the JVM supports it (Java 21+)
+ */
+@Configuration
+@Slf4j
+public class HeadscaleExecutorConfig implements WebMvcConfigurer {
+
+    @Autowired
+    private HeadscaleProperties headscaleProperties;
+
+    /**
+     * Executor used for all upstream fan-out (concurrent REST/gRPC calls)
+     * Tasks keep the submitting request's actor (so audited mutations are attributed correctly) and deadline
+     */
+    @Bean(name = "headscaleExecutor")
+    public AsyncTaskExecutor headscaleExecutor() {
+        if (headscaleProperties.isVirtualThreads()) {
+            ExecutorService virtualExecutor = newVirtualThreadExecutor();
+            if (virtualExecutor != null) {
+                log.info("Headscale upstream calls run on virtual threads");
+                TaskExecutorAdapter adapter = new TaskExecutorAdapter(virtualExecutor);
+                adapter.setTaskDecorator(HeadscaleExecutorConfig::propagateRequestContext);
+                return adapter;
+            }
+        }
+
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(headscaleProperties.getUpstreamThreads());
+        executor.setMaxPoolSize(headscaleProperties.getUpstreamThreads());
+        // bounded so that a full queue makes the submitter run the call itself, which throttles fan-out loops
+        // (mapBounded, pipelined gRPC) instead of letting them park an unlimited backlog on the pool
+        executor.setQueueCapacity(Math.max(1, headscaleProperties.getUpstreamQueueCapacity()));
+        executor.setThreadNamePrefix("headscale-upstream-");
+        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.CallerRunsPolicy());
+        executor.setTaskDecorator(HeadscaleExecutorConfig::propagateRequestContext);
+        executor.setWaitForTasksToCompleteOnShutdown(false);
+        executor.initialize();
+        log.info("Headscale upstream calls run on a pool of {} platform threads (queue {})",
+                headscaleProperties.getUpstreamThreads(), headscaleProperties.getUpstreamQueueCapacity());
+        return executor;
+    }
+
+    /**
+     * Executor for MVC async work (StreamingResponseBody imports, exports and delimited protobuf streams).
+     * Declaring headscaleExecutor makes Boot's applicationTaskExecutor back off, which would leave MVC on a
+     * thread-per-request SimpleAsyncTaskExecutor; a full pool rejects new streams instead.
+     * Tasks are submitted on the request thread, so they keep its actor for audited mutations (the deadline is
+     * not propagated: a stream runs for as long as its body takes).
+     */
+    @Bean(name = "headscaleMvcAsyncExecutor")
+    public AsyncTaskExecutor headscaleMvcAsyncExecutor() {
+        if (headscaleProperties.isVirtualThreads()) {
+            ExecutorService virtualExecutor = newVirtualThreadExecutor();
+            if (virtualExecutor != null) {
+                TaskExecutorAdapter adapter = new TaskExecutorAdapter(virtualExecutor);
+                adapter.setTaskDecorator(HeadscaleActorUtils::propagate);
+                return adapter;
+            }
+        }
+
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(headscaleProperties.getAsyncThreads());
+        executor.setMaxPoolSize(headscaleProperties.getAsyncThreads());
+        executor.setQueueCapacity(Math.max(1, headscaleProperties.getAsyncQueueCapacity()));
+        executor.setThreadNamePrefix("headscale-mvc-async-");
+        executor.setTaskDecorator(HeadscaleActorUtils::propagate);
+        executor.setWaitForTasksToCompleteOnShutdown(false);
+        executor.initialize();
+        return executor;
+    }
+
+    @Override
+    public void configureAsyncSupport(AsyncSupportConfigurer configurer) {
+        configurer.setTaskExecutor(headscaleMvcAsyncExecutor());
+    }
+
+    private static Runnable propagateRequestContext(Runnable task) {
+        return HeadscaleActorUtils.propagate(HeadscaleDeadlineUtils.propagate(task));
+    }
+
+    /**
+     * Run Tomcat request handling on virtual threads when enabled
+     */
+    @Bean
+    @ConditionalOnProperty(prefix = "headscale.server", name = "virtualThreads", havingValue = "true")
+    public TomcatProtocolHandlerCustomizer<?> virtualThreadProtocolHandlerCustomizer() {
+        return protocolHandler -> {
+            ExecutorService virtualExecutor = newVirtualThreadExecutor();
+            if (virtualExecutor != null) {
+                protocolHandler.setExecutor(virtualExecutor);
+                log.info("Tomcat request handling runs on virtual threads");
+            }
+        };
+    }
+
+    /**
+     * Create a virtual-thread-per-task executor reflectively so the project still compiles for Java 8
+     *
+     * @return the executor, or null if the running JVM has no virtual thread support
+     */
+    static ExecutorService newVirtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (Exception e) {
+            log.warn("Virtual threads requested but not supported by Java {}, falling back to platform threads",
+                    System.getProperty("java.version"));
+            return null;
+        }
+    }
+}
@@ -4,6 +4,9 @@ import lombok.Data;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.stereotype.Component;
 
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * Headscale configuration properties
  */
@@ -27,6 +30,375 @@ public class HeadscaleProperties {
      */
     private int timeout = 30000;
 
+    /**
+     * REST connect timeout in milliseconds, 0 falls back to {@link #timeout}
+     */
+    private int connectTimeout = 0;
+
+    /**
+     * REST read/write timeout in milliseconds, 0 falls back to {@link #timeout}
+     */
+    private int readTimeout = 0;
+
+    /**
+     * REST whole-call timeout in milliseconds (connect + request + response), 0 means no limit
+     */
+    private int callTimeout = 0;
+
+    /**
+     * Default time budget in milliseconds of a /headscale/** request, shared by all upstream calls it makes;
+     * clients may send their own budget in the X-Request-Timeout header, 0 disables deadlines
+     */
+    private long requestTimeout = 60000;
+
+    /**
+     * Largest budget in milliseconds a client may request via X-Request-Timeout
+     */
+    private long maxRequestTimeout = 300000;
+
+    /**
+     * Time budget in milliseconds of the bulk endpoints (bulk delete/expire, pre-auth key sweep, node reaper run),
+     * used instead of requestTimeout and as their X-Request-Timeout cap when larger than maxRequestTimeout;
+     * 0 disables deadlines for them
+     */
+    private long bulkRequestTimeout = 600000;
+
+    /**
+     * Maximum number of idle connections kept in the REST connection pool
+     */
+    private int maxIdleConnections = 20;
+
+    /**
+     * How long an idle pooled REST connection is kept alive, in milliseconds
+     */
+    private long keepAliveDuration = 300000;
+
+    /**
+     * Maximum number of concurrent asynchronous REST requests
+     */
+    private int maxRequests = 128;
+
+    /**
+     * Maximum number of concurrent asynchronous REST requests per host
+     */
+    private int maxRequestsPerHost = 64;
+
+    /**
+     * REST protocol preference: http1 (HTTP/1.1 only), h2 (HTTP/2 via ALPN with HTTP/1.1 fallback)
+     * or h2c (cleartext HTTP/2 with prior knowledge)
+     */
+    private String protocol = "h2";
+
+    /**
+     * Number of REST connections opened ahead of the first request, 0 disables warm-up
+     */
+    private int warmupConnections = 2;
+
+    /**
+     * Maximum time in milliseconds the startup warm-up waits for the gRPC channel to become ready
+     */
+    private long warmupTimeout = 10000;
+
+    /**
+     * Parse/serialize iterations used to JIT-warm the response paths at startup, 0 skips it
+     */
+    private int warmupIterations = 50;
+
+    /**
+     * Run request handling and upstream fan-out on virtual threads (requires Java 21, see the java21 profile)
+     */
+    private boolean virtualThreads = false;
+
+    /**
+     * Size of the platform thread pool used for upstream fan-out when virtual threads are disabled
+     */
+    private int upstreamThreads = 32;
+
+    /**
+     * Tasks queued for the upstream thread pool; when it is full the submitting thread runs the call itself
+     */
+    private int upstreamQueueCapacity = 256;
+
+    /**
+     * Size of the platform thread pool running MVC async work (streamed imports, exports and protobuf lists)
+     * when virtual threads are disabled
+     */
+    private int asyncThreads = 16;
+
+    /**
+     * Streams queued for the MVC async pool; when it is full further streams are rejected
+     */
+    private int asyncQueueCapacity = 64;
+
+    /**
+     * Maximum number of concurrent upstream calls a single fan-out operation may issue
+     */
+    private int fanOutConcurrency = 16;
+
+    /**
+     * Interval between inventory (users + nodes) polls in milliseconds, 0 disables polling
+     */
+    private long inventoryRefreshInterval = 5000;
+
+    /**
+     * Maximum age in milliseconds of the inventory served by /users and /nodes before a read refreshes it
+     */
+    private long inventoryMaxAge = 10000;
+
+    /**
+     * File the inventory snapshot is persisted to for warm startup, empty disables persistence
+     */
+    private String snapshotFile = "data/headscale-inventory.snap";
+
+    /**
+     * Directory of the mutation audit journal segments, empty disables the journal
+     */
+    private String auditDir = "data/audit";
+
+    /**
+     * Size in bytes after which the audit journal rolls over to a new segment
+     */
+    private long auditSegmentSize = 16777216;
+
+    /**
+     * Maximum number of node events buffered per SSE subscriber before it is asked to resync
+     */
+    private int nodeEventBufferSize = 256;
+
+    /**
+     * SSE subscription timeout in milliseconds, clients are expected to reconnect
+     */
+    private long nodeEventTimeout = 1800000;
+
+    /**
+     * Number of node change records kept for delta sync (/nodes/changes)
+     */
+    private int nodeChangeLogSize = 10000;
+
+    /**
+     * Whether client requests to /headscale/** are rate limited; off by default because enabling it throttles
+     * existing clients (e.g. writes beyond rateLimitWriteRate per second get 429)
+     */
+    private boolean rateLimitEnabled = false;
+
+    /**
+     * Request header carrying a client key for rate limiting
+     */
+    private String rateLimitKeyHeader = "X-Api-Key";
+
+    /**
+     * Client keys that get their own buckets when sent in rateLimitKeyHeader; any other value (or none)
+     * is limited per IP address
+     */
+    private List<String> rateLimitClientKeys = new ArrayList<>();
+
+    /**
+     * Read requests (GET) allowed per second and client
+     */
+    private double rateLimitReadRate = 20;
+
+    /**
+     * Read requests a client may burst above the steady rate
+     */
+    private int rateLimitReadBurst = 40;
+
+    /**
+     * Write requests (POST/PUT/DELETE) allowed per second and client
+     */
+    private double rateLimitWriteRate = 2;
+
+    /**
+     * Write requests a client may burst above the steady rate
+     */
+    private int rateLimitWriteBurst = 10;
+
+    /**
+     * Diagnostic requests (/test, /status, /grpc/**, /debug/**, test-create) allowed per second and client
+     */
+    private double rateLimitDiagnosticRate = 0.2;
+
+    /**
+     * Diagnostic requests a client may burst above the steady rate
+     */
+    private int rateLimitDiagnosticBurst = 3;
+
+    /**
+     * Whether REST and gRPC calls to Headscale pass through the adaptive concurrency limiter
+     */
+    private boolean upstreamLimitEnabled = true;
+
+    /**
+     * Initial in-flight limit per transport (rest, grpc) before RTT measurements adjust it
+     */
+    private int upstreamLimitInitial = 20;
+
+    /**
+     * Lowest in-flight limit the limiter shrinks to
+     */
+    private int upstreamLimitMin = 4;
+
+    /**
+     * Highest in-flight limit the limiter grows to
+     */
+    private int upstreamLimitMax = 128;
+
+    /**
+     * Calls that may wait for a slot beyond the limit, further calls are rejected at once
+     */
+    private int upstreamLimitQueueSize = 64;
+
+    /**
+     * Maximum time in milliseconds a call waits for a slot before it is rejected
+     */
+    private long upstreamLimitQueueTimeout = 2000;
+
+    /**
+     * RTT inflation (short-term RTT over the long-term baseline) tolerated before the limit shrinks
+     */
+    private double upstreamLimitTolerance = 2.0;
+
+    /**
+     * Ready pre-auth keys kept per pool (user + reusable + ephemeral) for /preauth-keys/claim, 0 disables the pool
+     */
+    private int preAuthKeyPoolSize = 5;
+
+    /**
+     * Users whose default (single-use, non-ephemeral) pool is filled at startup; other pools are created on first claim
+     */
+    private List<String> preAuthKeyPoolUsers = new ArrayList<>();
+
+    /**
+     * Maximum number of pools created by claims (pools of preAuthKeyPoolUsers do not count); further claim misses
+     * create their key directly without starting a pool
+     */
+    private int preAuthKeyPoolMaxPools = 50;
+
+    /**
+     * Expiration in hours of pooled keys at Headscale
+     */
+    private int preAuthKeyPoolExpirationHours = 24;
+
+    /**
+     * Max time in milliseconds a key waits in the pool; older keys are expired at Headscale and replaced,
+     * and pools created by a claim are dropped after this long without claims
+     */
+    private long preAuthKeyPoolMaxAge = 3600000;
+
+    /**
+     * Interval in milliseconds at which the background minter tops pools up
+     */
+    private long preAuthKeyPoolRefillInterval = 1000;
+
+    /**
+     * Interval in milliseconds between scheduled pre-auth key sweeps, 0 disables scheduled sweeps
+     */
+    private long preAuthKeySweepInterval = 0;
+
+    /**
+     * Scheduled sweeps only report what they would expire
+     */
+    private boolean preAuthKeySweepDryRun = false;
+
+    /**
+     * Sweep used single-use keys
+     */
+    private boolean preAuthKeySweepUsed = true;
+
+    /**
+     * Sweep keys created more than this many days ago, 0 disables
+     */
+    private int preAuthKeySweepMaxAgeDays = 0;
+
+    /**
+     * Sweep keys still unused this many days after creation, 0 disables
+     */
+    private int preAuthKeySweepUnusedDays = 0;
+
+    /**
+     * Sweep reports kept for /preauth-keys/sweeps
+     */
+    private int preAuthKeySweepHistory = 20;
+
+    /**
+     * Reap stale nodes in the background when their deadline passes; when false only on-demand runs reap
+     */
+    private boolean nodeReaperEnabled = false;
+
+    /**
+     * What the reaper does with a stale node: delete or expire
+     */
+    private String nodeReaperAction = "delete";
+
+    /**
+     * Offline nodes not seen for this many hours are stale, 0 disables the inactivity rule
+     */
+    private int nodeReaperInactiveHours = 168;
+
+    /**
+     * Nodes expired this many hours ago are stale (delete action only), -1 disables the expiry rule
+     */
+    private int nodeReaperExpiredHours = -1;
+
+    /**
+     * Only reap nodes of these usernames, empty means all users
+     */
+    private List<String> nodeReaperUsers = new ArrayList<>();
+
+    /**
+     * Only reap nodes carrying at least one of these tags (with or without the "tag:" prefix), empty means any node
+     */
+    private List<String> nodeReaperTags = new ArrayList<>();
+
+    /**
+     * Only reap nodes registered with an ephemeral pre-auth key
+     */
+    private boolean nodeReaperEphemeralOnly = false;
+
+    /**
+     * Maximum nodes reaped per batch
+     */
+    private int nodeReaperBatchSize = 50;
+
+    /**
+     * Maximum nodes reaped per second across batches
+     */
+    private double nodeReaperRate = 10;
+
+    /**
+     * Background runs only report what they would reap
+     */
+    private boolean nodeReaperDryRun = false;
+
+    /**
+     * Reaper reports kept for /nodes/reaper/runs
+     */
+    private int nodeReaperHistory = 20;
+
+    /**
+     * Users (and their pre-auth keys) created in parallel by one bulk import
+     */
+    private int userImportConcurrency = 8;
+
+    /**
+     * Maximum rows read from one bulk import, the rest is ignored
+     */
+    private int userImportMaxRows = 10000;
+
+    /**
+     * Lifetime of pre-auth keys created by a bulk import when the row does not set one
+     */
+    private int userImportKeyExpirationHours = 24;
+
+    /**
+     * Users per page of /users when a page is requested without a limit
+     */
+    private int userPageDefaultLimit = 50;
+
+    /**
+     * Largest page of /users a client may request
+     */
+    private int userPageMaxLimit = 1000;
+
     /**
      * Number of retry attempts for failed requests
      */
@@ -51,4 +423,44 @@ public class HeadscaleProperties {
      * gRPC connection timeout in milliseconds
      */
     private int grpcTimeout = 30000;
+
+    /**
+     * Maximum number of in-flight gRPC calls when pipelining bulk operations
+     */
+    private int grpcWindow = 32;
+
+    /**
+     * Name of the cluster configured by url / apiKey / grpcHost above
+     */
+    private String clusterName = "default";
+
+    /**
+     * Additional Headscale control planes, e.g. headscale.server.clusters[0].name=eu and headscale.server.clusters[0].url=...
+     * Unset url / apiKey / grpc fields inherit the values above
+     */
+    private List<Cluster> clusters = new ArrayList<>();
+
+    /**
+     * Time budget in milliseconds per cluster for cross-cluster reads; slower clusters are reported as failed
+     */
+    private long clusterTimeout = 5000;
+
+    /**
+     * One additional Headscale control plane
+     */
+    @Data
+    public static class Cluster {
+
+        private String name;
+
+        private String url;
+
+        private String apiKey;
+
+        private String grpcHost;
+
+        private Integer grpcPort;
+
+        private Boolean grpcTls;
+    }
 }
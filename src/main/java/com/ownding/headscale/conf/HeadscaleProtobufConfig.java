@@ -0,0 +1,20 @@
+package com.ownding.headscale.conf;
+
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.converter.protobuf.ProtobufHttpMessageConverter;
+
+/**
+ * Protobuf content negotiation
+ * Lets controller methods return headscale.proto messages as application/x-protobuf
+ */
+@Configuration
+public class HeadscaleProtobufConfig {
+
+    public static final String PROTOBUF_VALUE = "application/x-protobuf";
+
+    @Bean
+    public ProtobufHttpMessageConverter protobufHttpMessageConverter() {
+        return new ProtobufHttpMessageConverter();
+    }
+}
@@ -0,0 +1,110 @@
+package com.ownding.headscale.conf;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.ownding.headscale.common.constant.ApiCode;
+import com.ownding.headscale.dal.vo.Result;
+import com.ownding.headscale.service.HeadscaleRateLimitService;
+import com.ownding.headscale.service.HeadscaleRateLimitService.EndpointClass;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.util.AntPathMatcher;
+import org.springframework.web.servlet.HandlerInterceptor;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+import javax.servlet.DispatcherType;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Client-facing admission control
+ * Every /headscale/** request takes a token from its client's bucket for the endpoint class (read, write,
+ * diagnostic); requests over the limit get an immediate 429 with Retry-After and never reach Headscale.
+ */
+@Configuration
+public class HeadscaleRateLimitConfig implements WebMvcConfigurer {
+
+    /**
+     * Endpoints that probe or debug the upstream connection
+     */
+    private static final List<String> DIAGNOSTIC_PATTERNS = Arrays.asList(
+            "/headscale/test", "/headscale/status", "/headscale/grpc/**", "/headscale/debug/**",
+            "/headscale/users/test-create", "/headscale/users/test-grpc-create");
+
+    /**
+     * Writes usually answered from memory (pooled pre-auth key claims) that only cost a read token;
+     * a claim that has to create its key upstream takes a write token as well (see claimPreAuthKey)
+     */
+    private static final List<String> READ_PATTERNS = Collections.singletonList(
+            "/headscale/users/*/preauth-keys/claim");
+
+    private static final AntPathMatcher PATH_MATCHER = new AntPathMatcher();
+
+    @Autowired
+    private HeadscaleProperties headscaleProperties;
+
+    @Autowired
+    private HeadscaleRateLimitService rateLimitService;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Override
+    public void addInterceptors(InterceptorRegistry registry) {
+        if (!headscaleProperties.isRateLimitEnabled()) {
+            return;
+        }
+        // readiness probes must not be throttled
+        registry.addInterceptor(new RateLimitInterceptor())
+                .addPathPatterns("/headscale/**")
+                .excludePathPatterns("/headscale/ready");
+    }
+
+    private class RateLimitInterceptor implements HandlerInterceptor {
+
+        @Override
+        public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) throws IOException {
+            if (request.getDispatcherType() == DispatcherType.ASYNC) {
+                // the streaming/SSE re-dispatch of an already admitted request
+                return true;
+            }
+            long wait = rateLimitService.tryAcquire(rateLimitService.clientOf(request), classify(request));
+            if (wait <= 0) {
+                return true;
+            }
+
+            long retryAfter = HeadscaleRateLimitService.retryAfterSeconds(wait);
+            response.setStatus(HttpStatus.TOO_MANY_REQUESTS.value());
+            response.setHeader(HttpHeaders.RETRY_AFTER, String.valueOf(retryAfter));
+            response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+            response.getOutputStream().write(objectMapper.writeValueAsBytes(
+                    Result.toResult(ApiCode.TOO_MANY_REQUESTS, "请求过于频繁，请在" + retryAfter + "秒后重试")));
+            return false;
+        }
+    }
+
+    private static EndpointClass classify(HttpServletRequest request) {
+        String path = request.getRequestURI().substring(request.getContextPath().length());
+        for (String pattern : DIAGNOSTIC_PATTERNS) {
+            if (PATH_MATCHER.match(pattern, path)) {
+                return EndpointClass.DIAGNOSTIC;
+            }
+        }
+        for (String pattern : READ_PATTERNS) {
+            if (PATH_MATCHER.match(pattern, path)) {
+                return EndpointClass.READ;
+            }
+        }
+        HttpMethod method = HttpMethod.resolve(request.getMethod());
+        return method == HttpMethod.GET || method == HttpMethod.HEAD || method == HttpMethod.OPTIONS
+                ? EndpointClass.READ : EndpointClass.WRITE;
+    }
+}
@@ -1,26 +1,82 @@
 package com.ownding.headscale.controller;
 
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.protobuf.Descriptors;
+import com.google.protobuf.MessageLite;
 import com.ownding.headscale.common.constant.ApiCode;
+import com.ownding.headscale.conf.HeadscaleProtobufConfig;
+import com.ownding.headscale.dal.vo.HeadscaleAuditRecord;
+import com.ownding.headscale.dal.vo.HeadscaleBulkDeleteUsersRequest;
+import com.ownding.headscale.dal.vo.HeadscaleBulkNodeRequest;
+import com.ownding.headscale.dal.vo.HeadscaleBulkResult;
+import com.ownding.headscale.dal.vo.HeadscaleConnectionInfo;
+import com.ownding.headscale.dal.vo.HeadscaleDeleteCheck;
+import com.ownding.headscale.dal.vo.HeadscaleInventorySnapshot;
 import com.ownding.headscale.dal.vo.HeadscaleNode;
+import com.ownding.headscale.dal.vo.HeadscaleNodeChanges;
+import com.ownding.headscale.dal.vo.HeadscaleNodeStatusSummary;
 import com.ownding.headscale.dal.vo.HeadscalePreAuthKey;
+import com.ownding.headscale.dal.vo.HeadscalePreAuthKeyDebug;
 import com.ownding.headscale.dal.vo.HeadscaleUser;
+import com.ownding.headscale.dal.vo.HeadscaleUserSummary;
+import com.ownding.headscale.dal.vo.HeadscaleWarmupStatus;
 import com.ownding.headscale.dal.vo.Result;
+import com.ownding.headscale.service.HeadscaleAuditJournalService;
+import com.ownding.headscale.service.HeadscaleClusterService;
 import com.ownding.headscale.service.HeadscaleGrpcService;
 import com.ownding.headscale.service.HeadscaleHybridService;
+import com.ownding.headscale.service.HeadscaleInventoryService;
+import com.ownding.headscale.service.HeadscaleNodeChangeLogService;
+import com.ownding.headscale.service.HeadscaleNodeEventService;
+import com.ownding.headscale.service.HeadscaleNodeExportService;
+import com.ownding.headscale.service.HeadscaleNodeReaperService;
+import com.ownding.headscale.service.HeadscalePreAuthKeyPoolService;
+import com.ownding.headscale.service.HeadscalePreAuthKeySweeperService;
+import com.ownding.headscale.service.HeadscaleRateLimitService;
+import com.ownding.headscale.service.HeadscaleResponseCacheService;
 import com.ownding.headscale.service.HeadscaleService;
+import com.ownding.headscale.service.HeadscaleUserImportService;
+import com.ownding.headscale.service.HeadscaleUserSearchService;
+import com.ownding.headscale.service.HeadscaleWarmupService;
+import com.ownding.headscale.utils.HeadscaleConcurrencyUtils;
+import com.ownding.headscale.utils.HeadscaleFieldProjection;
+import com.ownding.headscale.utils.HeadscaleProtoConverter;
+import com.ownding.headscale.utils.HeadscaleTimeUtils;
+import com.ownding.headscale.utils.HeadscaleValidationUtils;
+import headscale.v1.Headscale;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.lang3.StringUtils;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
-
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
 @RestController
 @RequestMapping("/headscale")
 @Slf4j
 public class HeadscaleController {
 
+    private static final String SNAPSHOT_VERSION_HEADER = "X-Snapshot-Version";
+    private static final String SNAPSHOT_AGE_HEADER = "X-Snapshot-Age";
+    private static final String SNAPSHOT_STALE_HEADER = "X-Snapshot-Stale";
+
     @Autowired
     private HeadscaleService headscaleService;
 
@@ -30,6 +86,51 @@ public class HeadscaleController {
     @Autowired
     private HeadscaleGrpcService grpcService;
 
+    @Autowired
+    private HeadscaleNodeEventService nodeEventService;
+
+    @Autowired
+    private HeadscaleNodeChangeLogService nodeChangeLogService;
+
+    @Autowired
+    private HeadscaleInventoryService inventoryService;
+
+    @Autowired
+    private HeadscaleAuditJournalService auditJournalService;
+
+    @Autowired
+    private HeadscaleWarmupService warmupService;
+
+    @Autowired
+    private HeadscaleResponseCacheService responseCacheService;
+
+    @Autowired
+    private HeadscaleClusterService clusterService;
+
+    @Autowired
+    private HeadscalePreAuthKeyPoolService preAuthKeyPoolService;
+
+    @Autowired
+    private HeadscalePreAuthKeySweeperService preAuthKeySweeperService;
+
+    @Autowired
+    private HeadscaleNodeReaperService nodeReaperService;
+
+    @Autowired
+    private HeadscaleUserImportService userImportService;
+
+    @Autowired
+    private HeadscaleNodeExportService nodeExportService;
+
+    @Autowired
+    private HeadscaleUserSearchService userSearchService;
+
+    @Autowired
+    private HeadscaleRateLimitService rateLimitService;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
     /**
      * Test Headscale connection (both REST and gRPC)
      */
@@ -51,6 +152,28 @@ public class HeadscaleController {
         }
     }
 
+    /**
+     * Readiness probe: 200 once the startup warm-up has finished, 503 before that
+     */
+    @RequestMapping(value = "/ready", method = RequestMethod.GET)
+    public ResponseEntity<Result> getReadiness() {
+
+        HeadscaleWarmupStatus status = warmupService.getStatus();
+        if (status.isReady()) {
+            return ResponseEntity.ok(Result.success(status));
+        }
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body(Result.toResult(ApiCode.SERVICE_UNAVAILABLE, status));
+    }
+
+    /**
+     * Adaptive upstream concurrency limits: live limit, in-flight calls, queue depth, rejections and RTTs
+     */
+    @RequestMapping(value = "/upstream/limits", method = RequestMethod.GET)
+    public Result getUpstreamLimits() {
+
+        return Result.success(clusterService.getUpstreamLimits());
+    }
+
     /**
      * Get detailed connection status
      */
@@ -60,13 +183,13 @@ public class HeadscaleController {
         try {
             HeadscaleHybridService.ConnectionStatus status = hybridService.getConnectionStatus();
 
-            return Result.success(new Object() {
-                public final boolean restAvailable = status.isRestAvailable();
-                public final boolean grpcAvailable = status.isGrpcAvailable();
-                public final String message = status.getStatus();
-                public final String restStatus = status.isRestAvailable() ? "可用" : "不可用";
-                public final String grpcStatus = status.isGrpcAvailable() ? "可用" : "不可用";
-            });
+            HeadscaleConnectionInfo info = new HeadscaleConnectionInfo();
+            info.setRestAvailable(status.isRestAvailable());
+            info.setGrpcAvailable(status.isGrpcAvailable());
+            info.setMessage(status.getStatus());
+            info.setRestStatus(status.isRestAvailable() ? "可用" : "不可用");
+            info.setGrpcStatus(status.isGrpcAvailable() ? "可用" : "不可用");
+            return Result.success(info);
         } catch (Exception e) {
             log.error("[HeadscaleController#getConnectionStatus] exception", e);
             return Result.toResult(ApiCode.SERVER_ERROR, "获取连接状态失败: " + e.getMessage());
@@ -84,7 +207,7 @@ public class HeadscaleController {
         }
 
         // 校验命名空间名称格式
-        if (!namespaceName.matches("^[a-zA-Z0-9_-]+$")) {
+        if (!HeadscaleValidationUtils.isValidName(namespaceName)) {
             return Result.toResult(ApiCode.BAD_REQUEST, "命名空间名称只能包含字母、数字、下划线和连字符");
         }
 
@@ -98,17 +221,68 @@ public class HeadscaleController {
     }
 
     /**
-     * Get all users
+     * Get all users, or one page of them when limit, cursor or q is given
+     * (q is matched case-insensitively against name, displayName and email, by prefix or substring)
      */
     @RequestMapping(value = "/users", method = RequestMethod.GET)
-    public Result getUsers() {
+    public ResponseEntity<?> getUsers(@RequestParam(value = "q", required = false) String query,
+                                      @RequestParam(value = "match", required = false) String match,
+                                      @RequestParam(value = "cursor", required = false) String cursor,
+                                      @RequestParam(value = "limit", required = false) Integer limit,
+                                      WebRequest request) {
 
         try {
-            List<HeadscaleUser> users = headscaleService.getUsers();
-            return Result.success(users);
+            if (limit != null || StringUtils.isNotBlank(cursor) || StringUtils.isNotBlank(query)) {
+                return ResponseEntity.ok(Result.success(userSearchService.page(query, match, cursor, limit)));
+            }
+            HeadscaleInventorySnapshot snapshot = inventoryService.current();
+            return cachedJson(request, snapshot, "users", snapshot::getUsers);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.ok(Result.toResult(ApiCode.BAD_REQUEST, e.getMessage()));
         } catch (Exception e) {
             log.error("[HeadscaleController#getUsers] exception", e);
-            return Result.toResult(ApiCode.SERVER_ERROR, "获取用户列表失败: " + e.getMessage());
+            return ResponseEntity.ok(Result.toResult(ApiCode.SERVER_ERROR, "获取用户列表失败: " + e.getMessage()));
+        }
+    }
+
+    /**
+     * Get all users as headscale.v1.ListUsersResponse
+     */
+    @RequestMapping(value = "/users", method = RequestMethod.GET, produces = HeadscaleProtobufConfig.PROTOBUF_VALUE)
+    public ResponseEntity<?> getUsersProtobuf(WebRequest request) {
+
+        try {
+            HeadscaleInventorySnapshot snapshot = inventoryService.current();
+            return cachedProtobuf(request, snapshot, "users.pb", Headscale.ListUsersResponse.getDescriptor(),
+                    () -> HeadscaleProtoConverter.toListUsersResponse(snapshot.getUsers()).toByteArray());
+        } catch (Exception e) {
+            log.error("[HeadscaleController#getUsersProtobuf] exception", e);
+            return protobufError("获取用户列表失败: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Stream all users as length-delimited headscale.v1.User messages
+     */
+    @RequestMapping(value = "/users", method = RequestMethod.GET, params = "delimited=true", produces = HeadscaleProtobufConfig.PROTOBUF_VALUE)
+    public ResponseEntity<StreamingResponseBody> streamUsersProtobuf(WebRequest request) throws IOException {
+
+        HeadscaleInventorySnapshot snapshot = inventoryService.current();
+        return delimitedResponse(request, snapshot, "users.pb-delimited", snapshot.getUsers(), HeadscaleProtoConverter::toProto);
+    }
+
+    /**
+     * Get all users with node counts, optional pre-auth key counts and delete eligibility
+     */
+    @RequestMapping(value = "/users/summary", method = RequestMethod.GET)
+    public Result getUserSummaries(@RequestParam(value = "includeKeys", defaultValue = "false") boolean includeKeys) {
+
+        try {
+            List<HeadscaleUserSummary> summaries = headscaleService.getUserSummaries(includeKeys);
+            return Result.success(summaries);
+        } catch (Exception e) {
+            log.error("[HeadscaleController#getUserSummaries] exception", e);
+            return Result.toResult(ApiCode.SERVER_ERROR, "获取用户概要失败: " + e.getMessage());
         }
     }
 
@@ -124,18 +298,18 @@ public class HeadscaleController {
         }
 
         // 校验用户名不能是纯数字
-        if (username.matches("^\\d+$")) {
+        if (HeadscaleValidationUtils.isNumeric(username)) {
             return Result.toResult(ApiCode.BAD_REQUEST, "用户名不能是纯数字，请使用包含字母的用户名");
         }
 
         // 校验用户名格式
-        if (!username.matches("^[a-zA-Z0-9_-]+$")) {
+        if (!HeadscaleValidationUtils.isValidName(username)) {
             return Result.toResult(ApiCode.BAD_REQUEST, "用户名只能包含字母、数字、下划线和连字符");
         }
 
         // 校验displayName格式（如果提供）
         if (StringUtils.isNotBlank(displayName)) {
-            if (!displayName.matches("^[a-zA-Z0-9_-]+$")) {
+            if (!HeadscaleValidationUtils.isValidName(displayName)) {
                 return Result.toResult(ApiCode.BAD_REQUEST, "显示名称只能包含字母、数字、下划线和连字符");
             }
         }
@@ -175,6 +349,53 @@ public class HeadscaleController {
         }
     }
 
+    /**
+     * Bulk import users from a CSV or NDJSON body; per-row results are streamed back as NDJSON while the import runs
+     */
+    @RequestMapping(value = "/users/import", method = RequestMethod.POST)
+    public ResponseEntity<StreamingResponseBody> importUsers(@RequestParam(value = "format", required = false) String format,
+                                                             HttpServletRequest request) throws IOException {
+
+        String resolvedFormat;
+        try {
+            resolvedFormat = userImportService.resolveFormat(format, request.getContentType());
+        } catch (IllegalArgumentException e) {
+            return streamedResult(Result.toResult(ApiCode.BAD_REQUEST, e.getMessage()));
+        }
+        InputStream input = request.getInputStream();
+        StreamingResponseBody body = out -> {
+            try {
+                userImportService.importUsers(input, resolvedFormat, out);
+            } catch (IOException | RuntimeException e) {
+                log.error("[HeadscaleController#importUsers] exception", e);
+                throw e;
+            }
+        };
+        return ResponseEntity.ok()
+                .contentType(MediaType.parseMediaType("application/x-ndjson"))
+                .body(body);
+    }
+
+    /**
+     * Delete many users at once, returning one result per user
+     */
+    @RequestMapping(value = "/users/bulk-delete", method = RequestMethod.POST)
+    public Result deleteUsers(@RequestBody HeadscaleBulkDeleteUsersRequest request) {
+
+        if (request == null || request.getUsernames() == null || request.getUsernames().isEmpty()) {
+            return Result.toResult(ApiCode.BAD_REQUEST, "用户名列表不能为空");
+        }
+
+        try {
+            HeadscaleBulkResult result = headscaleService.deleteUsers(request.getUsernames(),
+                    request.isCascadeNodes(), request.getConcurrency());
+            return Result.success(result);
+        } catch (Exception e) {
+            log.error("[HeadscaleController#deleteUsers] exception", e);
+            return Result.toResult(ApiCode.SERVER_ERROR, "批量删除用户失败: " + e.getMessage());
+        }
+    }
+
     /**
      * Check if user can be deleted (has no nodes)
      */
@@ -187,10 +408,7 @@ public class HeadscaleController {
 
         try {
             boolean hasNodes = headscaleService.userHasNodes(username);
-            return Result.success(new Object() {
-                public final boolean canDelete = !hasNodes;
-                public final String message = hasNodes ? "该用户下还有设备节点，无法删除" : "可以删除";
-            });
+            return Result.success(new HeadscaleDeleteCheck(!hasNodes, hasNodes ? "该用户下还有设备节点，无法删除" : "可以删除"));
         } catch (Exception e) {
             log.error("[HeadscaleController#canDeleteUser] exception", e);
             return Result.toResult(ApiCode.SERVER_ERROR, "检查失败: " + e.getMessage());
@@ -201,20 +419,42 @@ public class HeadscaleController {
      * Get pre-auth keys for a user
      */
     @RequestMapping(value = "/users/{username}/preauth-keys", method = RequestMethod.GET)
-    public Result getPreAuthKeys(@PathVariable("username") String username) {
+    public ResponseEntity<Result> getPreAuthKeys(@PathVariable("username") String username) {
 
         if (StringUtils.isBlank(username)) {
-            return Result.toResult(ApiCode.BAD_REQUEST, "用户名不能为空");
+            return ResponseEntity.ok(Result.toResult(ApiCode.BAD_REQUEST, "用户名不能为空"));
         }
 
         try {
             log.info("Getting pre-auth keys for user: {}", username);
             List<HeadscalePreAuthKey> keys = headscaleService.getPreAuthKeys(username);
             log.info("Successfully retrieved {} pre-auth keys for user: {}", keys != null ? keys.size() : 0, username);
-            return Result.success(keys);
+            inventoryService.recordPreAuthKeys(username, keys);
+            return ResponseEntity.ok(Result.success(keys));
         } catch (Exception e) {
+            List<HeadscalePreAuthKey> cached = inventoryService.getCachedPreAuthKeys(username);
+            if (cached != null) {
+                log.warn("[HeadscaleController#getPreAuthKeys] serving last known keys for user: {}: {}", username, e.getMessage());
+                return ResponseEntity.ok().header(SNAPSHOT_STALE_HEADER, "true").body(Result.success(cached));
+            }
             log.error("[HeadscaleController#getPreAuthKeys] exception for user: {}", username, e);
-            return Result.toResult(ApiCode.SERVER_ERROR, "获取预授权密钥失败: " + e.getMessage());
+            return ResponseEntity.ok(Result.toResult(ApiCode.SERVER_ERROR, "获取预授权密钥失败: " + e.getMessage()));
+        }
+    }
+
+    /**
+     * Get pre-auth keys for a user as headscale.v1.ListPreAuthKeysResponse
+     */
+    @RequestMapping(value = "/users/{username}/preauth-keys", method = RequestMethod.GET, produces = HeadscaleProtobufConfig.PROTOBUF_VALUE)
+    public ResponseEntity<?> getPreAuthKeysProtobuf(@PathVariable("username") String username) {
+
+        try {
+            List<HeadscalePreAuthKey> keys = headscaleService.getPreAuthKeys(username);
+            inventoryService.recordPreAuthKeys(username, keys);
+            return ResponseEntity.ok(HeadscaleProtoConverter.toListPreAuthKeysResponse(keys));
+        } catch (Exception e) {
+            log.error("[HeadscaleController#getPreAuthKeysProtobuf] exception for user: {}", username, e);
+            return protobufError("获取预授权密钥失败: " + e.getMessage());
         }
     }
 
@@ -240,36 +480,247 @@ public class HeadscaleController {
     }
 
     /**
-     * Get all nodes/devices
+     * Claim a ready pre-auth key from the user's pool; falls back to creating one when the pool is empty
+     */
+    @RequestMapping(value = "/users/{username}/preauth-keys/claim", method = RequestMethod.POST)
+    public Result claimPreAuthKey(@PathVariable("username") String username,
+                                  @RequestParam(value = "reusable", defaultValue = "false") Boolean reusable,
+                                  @RequestParam(value = "ephemeral", defaultValue = "false") Boolean ephemeral,
+                                  HttpServletRequest request, HttpServletResponse response) {
+
+        if (StringUtils.isBlank(username)) {
+            return Result.toResult(ApiCode.BAD_REQUEST, "用户名不能为空");
+        }
+
+        try {
+            HeadscalePreAuthKey key = preAuthKeyPoolService.claimPooled(username, reusable, ephemeral);
+            if (key == null) {
+                // the request was admitted as a read; a miss creates keys upstream, so it also costs a write
+                long wait = rateLimitService.isEnabled()
+                        ? rateLimitService.tryAcquire(rateLimitService.clientOf(request), HeadscaleRateLimitService.EndpointClass.WRITE) : 0;
+                if (wait > 0) {
+                    long retryAfter = HeadscaleRateLimitService.retryAfterSeconds(wait);
+                    response.setStatus(HttpStatus.TOO_MANY_REQUESTS.value());
+                    response.setHeader(HttpHeaders.RETRY_AFTER, String.valueOf(retryAfter));
+                    return Result.toResult(ApiCode.TOO_MANY_REQUESTS, "请求过于频繁，请在" + retryAfter + "秒后重试");
+                }
+                key = preAuthKeyPoolService.claim(username, reusable, ephemeral);
+            }
+            return Result.success(key);
+        } catch (Exception e) {
+            log.error("[HeadscaleController#claimPreAuthKey] exception", e);
+            return Result.toResult(ApiCode.SERVER_ERROR, "领取预授权密钥失败: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Pre-auth key pools: ready keys, hits, misses, minted and expired counts
+     */
+    @RequestMapping(value = "/preauth-keys/pools", method = RequestMethod.GET)
+    public Result getPreAuthKeyPools() {
+
+        return Result.success(preAuthKeyPoolService.getPools());
+    }
+
+    /**
+     * Run a pre-auth key sweep now: expire used single-use keys and keys past the configured age thresholds
+     */
+    @RequestMapping(value = "/preauth-keys/sweep", method = RequestMethod.POST)
+    public Result sweepPreAuthKeys(@RequestParam(value = "dryRun", defaultValue = "true") Boolean dryRun) {
+
+        try {
+            return Result.success(preAuthKeySweeperService.sweep(dryRun));
+        } catch (IllegalStateException e) {
+            return Result.toResult(ApiCode.FAIL, "预授权密钥清理正在进行中");
+        } catch (Exception e) {
+            log.error("[HeadscaleController#sweepPreAuthKeys] exception", e);
+            return Result.toResult(ApiCode.SERVER_ERROR, "清理预授权密钥失败: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Reports of the most recent pre-auth key sweeps, newest first
+     */
+    @RequestMapping(value = "/preauth-keys/sweeps", method = RequestMethod.GET)
+    public Result getPreAuthKeySweeps() {
+
+        return Result.success(preAuthKeySweeperService.getReports());
+    }
+
+    /**
+     * Node reaper policy and queue, with the next {@code limit} nodes in deadline order as a preview
+     */
+    @RequestMapping(value = "/nodes/reaper", method = RequestMethod.GET)
+    public Result getNodeReaper(@RequestParam(value = "limit", defaultValue = "20") int limit) {
+
+        if (limit < 0 || limit > 1000) {
+            return Result.toResult(ApiCode.BAD_REQUEST, "limit必须在0到1000之间");
+        }
+        return Result.success(nodeReaperService.getStatus(limit));
+    }
+
+    /**
+     * Reap every node that is due now; dry run by default
+     */
+    @RequestMapping(value = "/nodes/reaper/run", method = RequestMethod.POST)
+    public Result runNodeReaper(@RequestParam(value = "dryRun", defaultValue = "true") Boolean dryRun) {
+
+        try {
+            return Result.success(nodeReaperService.reap(dryRun));
+        } catch (Exception e) {
+            log.error("[HeadscaleController#runNodeReaper] exception", e);
+            return Result.toResult(ApiCode.SERVER_ERROR, "清理过期节点失败: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Reports of the most recent node reaper runs, newest first
+     */
+    @RequestMapping(value = "/nodes/reaper/runs", method = RequestMethod.GET)
+    public Result getNodeReaperRuns() {
+
+        return Result.success(nodeReaperService.getReports());
+    }
+
+    /**
+     * Get all nodes/devices, optionally projected to the given fields (e.g. fields=id,givenName,online)
      */
     @RequestMapping(value = "/nodes", method = RequestMethod.GET)
-    public Result getNodes() {
+    public ResponseEntity<?> getNodes(@RequestParam(value = "fields", required = false) String fields, WebRequest request) {
 
         try {
-            List<HeadscaleNode> nodes = headscaleService.getNodes();
-            return Result.success(nodes);
+            HeadscaleFieldProjection projection = HeadscaleFieldProjection.of(HeadscaleNode.class, fields);
+            HeadscaleInventorySnapshot snapshot = inventoryService.current();
+            return cachedJson(request, snapshot, "nodes?fields=" + StringUtils.defaultString(fields),
+                    () -> projection != null ? projection.apply(snapshot.getNodes()) : snapshot.getNodes());
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.ok(Result.toResult(ApiCode.BAD_REQUEST, e.getMessage()));
         } catch (Exception e) {
             log.error("[HeadscaleController#getNodes] exception", e);
-            return Result.toResult(ApiCode.SERVER_ERROR, "获取设备节点失败: " + e.getMessage());
+            return ResponseEntity.ok(Result.toResult(ApiCode.SERVER_ERROR, "获取设备节点失败: " + e.getMessage()));
         }
     }
 
     /**
-     * Get nodes for a specific user
+     * Get all nodes as headscale.v1.ListNodesResponse
+     */
+    @RequestMapping(value = "/nodes", method = RequestMethod.GET, produces = HeadscaleProtobufConfig.PROTOBUF_VALUE)
+    public ResponseEntity<?> getNodesProtobuf(WebRequest request) {
+
+        try {
+            HeadscaleInventorySnapshot snapshot = inventoryService.current();
+            return cachedProtobuf(request, snapshot, "nodes.pb", Headscale.ListNodesResponse.getDescriptor(),
+                    () -> HeadscaleProtoConverter.toListNodesResponse(snapshot.getNodes()).toByteArray());
+        } catch (Exception e) {
+            log.error("[HeadscaleController#getNodesProtobuf] exception", e);
+            return protobufError("获取设备节点失败: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Stream all nodes as length-delimited headscale.v1.Node messages
+     */
+    @RequestMapping(value = "/nodes", method = RequestMethod.GET, params = "delimited=true", produces = HeadscaleProtobufConfig.PROTOBUF_VALUE)
+    public ResponseEntity<StreamingResponseBody> streamNodesProtobuf(WebRequest request) throws IOException {
+
+        HeadscaleInventorySnapshot snapshot = inventoryService.current();
+        return delimitedResponse(request, snapshot, "nodes.pb-delimited", snapshot.getNodes(), HeadscaleProtoConverter::toProto);
+    }
+
+    /**
+     * Export all nodes (or one user's) as NDJSON, one node per line, without buffering the fleet in memory.
+     * source=upstream (default) streams straight from Headscale, source=snapshot from the inventory snapshot.
+     */
+    @RequestMapping(value = "/nodes/export", method = RequestMethod.GET)
+    public ResponseEntity<StreamingResponseBody> exportNodes(@RequestParam(value = "source", required = false) String source,
+                                                             @RequestParam(value = "user", required = false) String user,
+                                                             @RequestParam(value = "fields", required = false) String fields)
+            throws IOException {
+
+        String resolvedSource;
+        HeadscaleFieldProjection projection;
+        HeadscaleUser owner;
+        try {
+            resolvedSource = nodeExportService.resolveSource(source);
+            projection = HeadscaleFieldProjection.of(HeadscaleNode.class, fields);
+            owner = StringUtils.isNotBlank(user) ? nodeExportService.resolveUser(user.trim()) : null;
+        } catch (IllegalArgumentException e) {
+            return streamedResult(Result.toResult(ApiCode.BAD_REQUEST, e.getMessage()));
+        } catch (Exception e) {
+            log.error("[HeadscaleController#exportNodes] exception", e);
+            return streamedResult(Result.toResult(ApiCode.SERVER_ERROR, "导出设备节点失败: " + e.getMessage()));
+        }
+        StreamingResponseBody body = out -> {
+            try {
+                nodeExportService.export(resolvedSource, owner, projection, out);
+            } catch (IOException | RuntimeException e) {
+                log.error("[HeadscaleController#exportNodes] exception", e);
+                throw e;
+            }
+        };
+        return ResponseEntity.ok()
+                .contentType(MediaType.parseMediaType("application/x-ndjson"))
+                .body(body);
+    }
+
+    /**
+     * Get nodes for a specific user as headscale.v1.ListNodesResponse
+     */
+    @RequestMapping(value = "/users/{username}/nodes", method = RequestMethod.GET, produces = HeadscaleProtobufConfig.PROTOBUF_VALUE)
+    public ResponseEntity<?> getNodesByUserProtobuf(@PathVariable("username") String username, WebRequest request) {
+
+        if (StringUtils.isBlank(username)) {
+            return protobufError(HttpStatus.BAD_REQUEST, ApiCode.BAD_REQUEST, "用户名不能为空");
+        }
+
+        try {
+            HeadscaleInventorySnapshot snapshot = inventoryService.current();
+            boolean userExists = snapshot.getUsers().stream().anyMatch(user -> username.equals(user.getName()));
+            if (!userExists) {
+                return protobufError("获取用户设备节点失败: 用户不存在: " + username);
+            }
+            return cachedProtobuf(request, snapshot, "users/" + username + "/nodes.pb", Headscale.ListNodesResponse.getDescriptor(), () -> {
+                List<HeadscaleNode> nodes = snapshot.getNodes().stream()
+                        .filter(node -> node.getUser() != null && username.equals(node.getUser().getName()))
+                        .collect(Collectors.toList());
+                return HeadscaleProtoConverter.toListNodesResponse(nodes).toByteArray();
+            });
+        } catch (Exception e) {
+            log.error("[HeadscaleController#getNodesByUserProtobuf] exception", e);
+            return protobufError("获取用户设备节点失败: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Get nodes for a specific user, optionally projected to the given fields
      */
     @RequestMapping(value = "/users/{username}/nodes", method = RequestMethod.GET)
-    public Result getNodesByUser(@PathVariable("username") String username) {
+    public ResponseEntity<?> getNodesByUser(@PathVariable("username") String username,
+                                            @RequestParam(value = "fields", required = false) String fields,
+                                            WebRequest request) {
 
         if (StringUtils.isBlank(username)) {
-            return Result.toResult(ApiCode.BAD_REQUEST, "用户名不能为空");
+            return ResponseEntity.ok(Result.toResult(ApiCode.BAD_REQUEST, "用户名不能为空"));
         }
 
         try {
-            List<HeadscaleNode> nodes = headscaleService.getNodesByUser(username);
-            return Result.success(nodes);
+            HeadscaleFieldProjection projection = HeadscaleFieldProjection.of(HeadscaleNode.class, fields);
+            HeadscaleInventorySnapshot snapshot = inventoryService.current();
+            boolean userExists = snapshot.getUsers().stream().anyMatch(user -> username.equals(user.getName()));
+            if (!userExists) {
+                return snapshotResponse(snapshot, Result.toResult(ApiCode.SERVER_ERROR, "获取用户设备节点失败: 用户不存在: " + username));
+            }
+            return cachedJson(request, snapshot, "users/" + username + "/nodes?fields=" + StringUtils.defaultString(fields), () -> {
+                List<HeadscaleNode> nodes = snapshot.getNodes().stream()
+                        .filter(node -> node.getUser() != null && username.equals(node.getUser().getName()))
+                        .collect(Collectors.toList());
+                return projection != null ? projection.apply(nodes) : nodes;
+            });
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.ok(Result.toResult(ApiCode.BAD_REQUEST, e.getMessage()));
         } catch (Exception e) {
             log.error("[HeadscaleController#getNodesByUser] exception", e);
-            return Result.toResult(ApiCode.SERVER_ERROR, "获取用户设备节点失败: " + e.getMessage());
+            return ResponseEntity.ok(Result.toResult(ApiCode.SERVER_ERROR, "获取用户设备节点失败: " + e.getMessage()));
         }
     }
 
@@ -293,26 +744,195 @@ public class HeadscaleController {
     }
 
     /**
-     * Get online devices count and status
+     * Delete nodes in bulk by ids and/or filter (user, tag, inactiveHours)
      */
-    @RequestMapping(value = "/nodes/status", method = RequestMethod.GET)
-    public Result getNodesStatus() {
+    @RequestMapping(value = "/nodes/bulk-delete", method = RequestMethod.POST)
+    public Result deleteNodes(@RequestBody(required = false) HeadscaleBulkNodeRequest request) {
+
+        if (request == null) {
+            return Result.toResult(ApiCode.BAD_REQUEST, "请求体不能为空");
+        }
 
         try {
-            List<HeadscaleNode> nodes = headscaleService.getNodes();
+            HeadscaleBulkResult result = hybridService.deleteNodes(request);
+            return Result.success(result);
+        } catch (IllegalArgumentException e) {
+            return Result.toResult(ApiCode.BAD_REQUEST, e.getMessage());
+        } catch (Exception e) {
+            log.error("[HeadscaleController#deleteNodes] exception", e);
+            return Result.toResult(ApiCode.SERVER_ERROR, "批量删除设备节点失败: " + e.getMessage());
+        }
+    }
 
-            long onlineCount = nodes.stream().filter(node -> Boolean.TRUE.equals(node.getOnline())).count();
-            long totalCount = nodes.size();
-            long offlineCount = totalCount - onlineCount;
+    /**
+     * Expire nodes in bulk by ids and/or filter (user, tag, inactiveHours)
+     */
+    @RequestMapping(value = "/nodes/bulk-expire", method = RequestMethod.POST)
+    public Result expireNodes(@RequestBody(required = false) HeadscaleBulkNodeRequest request) {
 
-            return Result.success(new Object() {
-                public final long total = totalCount;
-                public final long online = onlineCount;
-                public final long offline = offlineCount;
+        if (request == null) {
+            return Result.toResult(ApiCode.BAD_REQUEST, "请求体不能为空");
+        }
+
+        try {
+            HeadscaleBulkResult result = hybridService.expireNodes(request);
+            return Result.success(result);
+        } catch (IllegalArgumentException e) {
+            return Result.toResult(ApiCode.BAD_REQUEST, e.getMessage());
+        } catch (Exception e) {
+            log.error("[HeadscaleController#expireNodes] exception", e);
+            return Result.toResult(ApiCode.SERVER_ERROR, "批量过期设备节点失败: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Stream node inventory changes (node.added, node.removed, node.online, node.offline, node.renamed, node.updated)
+     * as Server-Sent Events. A "resync" event means the client should reload /nodes.
+     */
+    @RequestMapping(value = "/nodes/events", method = RequestMethod.GET, produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter streamNodeEvents(@RequestParam(value = "types", required = false) String types) {
+
+        Set<String> typeFilter = new HashSet<>();
+        if (StringUtils.isNotBlank(types)) {
+            for (String type : types.split(",")) {
+                if (StringUtils.isNotBlank(type)) {
+                    typeFilter.add(type.trim());
+                }
+            }
+        }
+        return nodeEventService.subscribe(typeFilter);
+    }
+
+    /**
+     * Get node changes since a previously returned token (delta sync)
+     */
+    @RequestMapping(value = "/nodes/changes", method = RequestMethod.GET)
+    public Result getNodeChanges(@RequestParam("since") String since) {
+
+        try {
+            HeadscaleNodeChanges changes = nodeChangeLogService.getChangesSince(since);
+            return Result.success(changes);
+        } catch (Exception e) {
+            log.error("[HeadscaleController#getNodeChanges] exception", e);
+            return Result.toResult(ApiCode.SERVER_ERROR, "获取设备变更失败: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Get online devices count and status
+     */
+    @RequestMapping(value = "/nodes/status", method = RequestMethod.GET)
+    public ResponseEntity<?> getNodesStatus(WebRequest request) {
+
+        try {
+            HeadscaleInventorySnapshot snapshot = inventoryService.current();
+            return cachedJson(request, snapshot, "nodes/status", () -> {
+                List<HeadscaleNode> nodes = snapshot.getNodes();
+                long onlineCount = nodes.stream().filter(node -> Boolean.TRUE.equals(node.getOnline())).count();
+                return new HeadscaleNodeStatusSummary(nodes.size(), onlineCount);
             });
         } catch (Exception e) {
             log.error("[HeadscaleController#getNodesStatus] exception", e);
-            return Result.toResult(ApiCode.SERVER_ERROR, "获取设备状态失败: " + e.getMessage());
+            return ResponseEntity.ok(Result.toResult(ApiCode.SERVER_ERROR, "获取设备状态失败: " + e.getMessage()));
+        }
+    }
+
+    /**
+     * Configured Headscale clusters
+     */
+    @RequestMapping(value = "/clusters", method = RequestMethod.GET)
+    public Result getClusters() {
+
+        return Result.success(clusterService.getClusters());
+    }
+
+    /**
+     * Users of all (or the listed) clusters, fetched in parallel and tagged by cluster
+     */
+    @RequestMapping(value = "/clusters/users", method = RequestMethod.GET)
+    public Result getClusterUsers(@RequestParam(value = "clusters", required = false) String clusters) {
+
+        try {
+            return Result.success(clusterService.getUsers(parseClusters(clusters)));
+        } catch (IllegalArgumentException e) {
+            return Result.toResult(ApiCode.BAD_REQUEST, e.getMessage());
+        } catch (Exception e) {
+            log.error("[HeadscaleController#getClusterUsers] exception", e);
+            return Result.toResult(ApiCode.FAIL, "获取集群用户列表失败: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Nodes of all (or the listed) clusters, fetched in parallel and tagged by cluster
+     */
+    @RequestMapping(value = "/clusters/nodes", method = RequestMethod.GET)
+    public Result getClusterNodes(@RequestParam(value = "clusters", required = false) String clusters) {
+
+        try {
+            return Result.success(clusterService.getNodes(parseClusters(clusters)));
+        } catch (IllegalArgumentException e) {
+            return Result.toResult(ApiCode.BAD_REQUEST, e.getMessage());
+        } catch (Exception e) {
+            log.error("[HeadscaleController#getClusterNodes] exception", e);
+            return Result.toResult(ApiCode.FAIL, "获取集群设备列表失败: " + e.getMessage());
+        }
+    }
+
+    /**
+     * User and node counts per cluster and in total
+     */
+    @RequestMapping(value = "/clusters/status", method = RequestMethod.GET)
+    public Result getClusterStatus(@RequestParam(value = "clusters", required = false) String clusters) {
+
+        try {
+            return Result.success(clusterService.getStatus(parseClusters(clusters)));
+        } catch (IllegalArgumentException e) {
+            return Result.toResult(ApiCode.BAD_REQUEST, e.getMessage());
+        } catch (Exception e) {
+            log.error("[HeadscaleController#getClusterStatus] exception", e);
+            return Result.toResult(ApiCode.FAIL, "获取集群状态失败: " + e.getMessage());
+        }
+    }
+
+    private static List<String> parseClusters(String clusters) {
+        List<String> names = new ArrayList<>();
+        if (StringUtils.isNotBlank(clusters)) {
+            for (String name : clusters.split(",")) {
+                if (StringUtils.isNotBlank(name)) {
+                    names.add(name.trim());
+                }
+            }
+        }
+        return names;
+    }
+
+    /**
+     * Query the mutation audit journal by commit time range (ISO-8601 or epoch millis) and optional filters
+     * Records are returned in sequence order; pass the last seq as afterSeq to fetch the next page
+     */
+    @RequestMapping(value = "/audit", method = RequestMethod.GET)
+    public Result getAuditRecords(@RequestParam(value = "from", required = false) String from,
+                                  @RequestParam(value = "to", required = false) String to,
+                                  @RequestParam(value = "action", required = false) String action,
+                                  @RequestParam(value = "target", required = false) String target,
+                                  @RequestParam(value = "actor", required = false) String actor,
+                                  @RequestParam(value = "afterSeq", defaultValue = "0") long afterSeq,
+                                  @RequestParam(value = "limit", defaultValue = "100") int limit) {
+
+        if (limit <= 0 || limit > 1000) {
+            return Result.toResult(ApiCode.BAD_REQUEST, "limit必须在1到1000之间");
+        }
+
+        try {
+            List<HeadscaleAuditRecord> records = auditJournalService.query(HeadscaleTimeUtils.parseEpochMillis(from),
+                    HeadscaleTimeUtils.parseEpochMillis(to), StringUtils.trimToNull(action), StringUtils.trimToNull(target),
+                    StringUtils.trimToNull(actor), afterSeq, limit);
+            return Result.success(records);
+        } catch (IllegalArgumentException e) {
+            return Result.toResult(ApiCode.BAD_REQUEST, e.getMessage());
+        } catch (Exception e) {
+            log.error("[HeadscaleController#getAuditRecords] exception", e);
+            return Result.toResult(ApiCode.SERVER_ERROR, "查询审计日志失败: " + e.getMessage());
         }
     }
 
@@ -427,18 +1047,18 @@ public class HeadscaleController {
         }
 
         // 校验用户名不能是纯数字
-        if (username.matches("^\\d+$")) {
+        if (HeadscaleValidationUtils.isNumeric(username)) {
             return Result.toResult(ApiCode.BAD_REQUEST, "用户名不能是纯数字，请使用包含字母的用户名");
         }
 
         // 校验用户名格式
-        if (!username.matches("^[a-zA-Z0-9_-]+$")) {
+        if (!HeadscaleValidationUtils.isValidName(username)) {
             return Result.toResult(ApiCode.BAD_REQUEST, "用户名只能包含字母、数字、下划线和连字符");
         }
 
         // 校验displayName格式（如果提供）
         if (StringUtils.isNotBlank(displayName)) {
-            if (!displayName.matches("^[a-zA-Z0-9_-]+$")) {
+            if (!HeadscaleValidationUtils.isValidName(displayName)) {
                 return Result.toResult(ApiCode.BAD_REQUEST, "显示名称只能包含字母、数字、下划线和连字符");
             }
         }
@@ -470,12 +1090,12 @@ public class HeadscaleController {
         }
 
         // 校验用户名不能是纯数字
-        if (username.matches("^\\d+$")) {
+        if (HeadscaleValidationUtils.isNumeric(username)) {
             return Result.toResult(ApiCode.BAD_REQUEST, "用户名不能是纯数字，请使用包含字母的用户名");
         }
 
         // 校验用户名格式
-        if (!username.matches("^[a-zA-Z0-9_-]+$")) {
+        if (!HeadscaleValidationUtils.isValidName(username)) {
             return Result.toResult(ApiCode.BAD_REQUEST, "用户名只能包含字母、数字、下划线和连字符");
         }
 
@@ -518,17 +1138,144 @@ public class HeadscaleController {
             log.info("Debug: Successfully retrieved {} pre-auth keys for user: {}",
                     keys != null ? keys.size() : 0, username);
 
-            final String finalUsername = username;
-            final List<HeadscalePreAuthKey> finalKeys = keys;
-            return Result.success(new Object() {
-                public final String username = finalUsername;
-                public final int keyCount = finalKeys != null ? finalKeys.size() : 0;
-                public final List<HeadscalePreAuthKey> keys = finalKeys;
-            });
+            HeadscalePreAuthKeyDebug debug = new HeadscalePreAuthKeyDebug();
+            debug.setUsername(username);
+            debug.setKeyCount(keys != null ? keys.size() : 0);
+            debug.setKeys(keys);
+            return Result.success(debug);
         } catch (Exception e) {
             log.error("[HeadscaleController#debugGetPreAuthKeys] exception for user: {}", username, e);
             return Result.toResult(ApiCode.SERVER_ERROR, "调试获取预授权密钥失败: " + e.getMessage());
         }
     }
-}
 
+    /**
+     * Wrap a snapshot-backed body with the snapshot version, age (ms) and stale flag
+     */
+    private <T> ResponseEntity<T> snapshotResponse(HeadscaleInventorySnapshot snapshot, T body) {
+        return snapshotHeaders(snapshot).body(body);
+    }
+
+    private ResponseEntity.BodyBuilder snapshotHeaders(HeadscaleInventorySnapshot snapshot) {
+        return snapshotHeaders(ResponseEntity.ok(), snapshot);
+    }
+
+    private ResponseEntity.BodyBuilder snapshotHeaders(ResponseEntity.BodyBuilder builder, HeadscaleInventorySnapshot snapshot) {
+        return builder
+                .header(SNAPSHOT_VERSION_HEADER, String.valueOf(snapshot.getVersion()))
+                .header(SNAPSHOT_AGE_HEADER, String.valueOf(snapshot.getAge()))
+                .header(SNAPSHOT_STALE_HEADER, String.valueOf(inventoryService.isStale(snapshot)));
+    }
+
+    /**
+     * Snapshot-backed Result JSON served from the per-version response cache
+     */
+    private ResponseEntity<byte[]> cachedJson(WebRequest request, HeadscaleInventorySnapshot snapshot, String key,
+                                              HeadscaleConcurrencyUtils.IOCallable<Object> data) throws IOException {
+        String eTag = snapshotETag(snapshot, key);
+        if (isNotModified(request, eTag)) {
+            return notModified(snapshot, eTag);
+        }
+        byte[] body = responseCacheService.json(snapshot, key, () -> Result.success(data.call()));
+        return snapshotHeaders(snapshot).eTag(eTag).contentType(MediaType.APPLICATION_JSON).body(body);
+    }
+
+    /**
+     * Snapshot-backed protobuf message served from the per-version response cache
+     */
+    private ResponseEntity<byte[]> cachedProtobuf(WebRequest request, HeadscaleInventorySnapshot snapshot, String key,
+                                                  Descriptors.Descriptor message,
+                                                  HeadscaleConcurrencyUtils.IOCallable<byte[]> encoder) throws IOException {
+        String eTag = snapshotETag(snapshot, key);
+        if (isNotModified(request, eTag)) {
+            return notModified(snapshot, eTag);
+        }
+        byte[] body = responseCacheService.bytes(snapshot, key, encoder);
+        return snapshotHeaders(snapshot)
+                .eTag(eTag)
+                .contentType(MediaType.parseMediaType(HeadscaleProtobufConfig.PROTOBUF_VALUE))
+                .header("X-Protobuf-Schema", message.getFile().getName())
+                .header("X-Protobuf-Message", message.getFullName())
+                .body(body);
+    }
+
+    /**
+     * Stream items as length-delimited messages (readable with parseDelimitedFrom), converting one at a time
+     * so a large list is never materialized as a single message
+     */
+    private <T> ResponseEntity<StreamingResponseBody> delimitedResponse(WebRequest request, HeadscaleInventorySnapshot snapshot,
+                                                                      String key, List<T> items,
+                                                                      Function<T, ? extends MessageLite> itemConverter) {
+        String eTag = snapshotETag(snapshot, key);
+        if (isNotModified(request, eTag)) {
+            return notModified(snapshot, eTag);
+        }
+        StreamingResponseBody body = out -> {
+            for (T item : items) {
+                itemConverter.apply(item).writeDelimitedTo(out);
+            }
+        };
+        return snapshotHeaders(snapshot)
+                .eTag(eTag)
+                .contentType(MediaType.parseMediaType(HeadscaleProtobufConfig.PROTOBUF_VALUE + ";delimited=true"))
+                .body(body);
+    }
+
+    /**
+     * A JSON Result from an endpoint whose success response is streamed
+     */
+    private ResponseEntity<StreamingResponseBody> streamedResult(Result result) throws IOException {
+        byte[] bytes = objectMapper.writeValueAsBytes(result);
+        return ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(out -> out.write(bytes));
+    }
+
+    /**
+     * Weak ETag of a snapshot-backed representation: the response hash of the snapshot (content plus node
+     * liveness timestamps) and the endpoint, projection and format key. It survives restarts because the hash
+     * is derived from the content only. Weak because the same tag covers the gzip and identity encodings,
+     * which RFC 7232 does not allow for a strong validator.
+     */
+    private static String snapshotETag(HeadscaleInventorySnapshot snapshot, String key) {
+        return "W/\"" + Long.toHexString(snapshot.getResponseHash()) + "-" + Integer.toHexString(key.hashCode()) + "\"";
+    }
+
+    /**
+     * If-None-Match check (weak comparison, as RFC 7232 requires for this header) against the given ETag
+     */
+    private static boolean isNotModified(WebRequest request, String eTag) {
+        String ifNoneMatch = request.getHeader(HttpHeaders.IF_NONE_MATCH);
+        if (StringUtils.isBlank(ifNoneMatch)) {
+            return false;
+        }
+        String opaqueTag = StringUtils.removeStart(eTag, "W/");
+        for (String candidate : StringUtils.split(ifNoneMatch, ',')) {
+            candidate = candidate.trim();
+            if ("*".equals(candidate) || opaqueTag.equals(StringUtils.removeStart(candidate, "W/"))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 304 answer: no body is encoded or written, the inventory is not touched beyond the current snapshot
+     */
+    private <T> ResponseEntity<T> notModified(HeadscaleInventorySnapshot snapshot, String eTag) {
+        return snapshotHeaders(ResponseEntity.status(HttpStatus.NOT_MODIFIED), snapshot).eTag(eTag).build();
+    }
+
+    /**
+     * Errors on protobuf endpoints are reported as the usual JSON Result
+     */
+    private ResponseEntity<Result> protobufError(String message) {
+        return protobufError(HttpStatus.INTERNAL_SERVER_ERROR, ApiCode.SERVER_ERROR, message);
+    }
+
+    private ResponseEntity<Result> protobufError(HttpStatus status, ApiCode code, String message) {
+        return ResponseEntity.status(status)
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(Result.toResult(code, message));
+    }
+}
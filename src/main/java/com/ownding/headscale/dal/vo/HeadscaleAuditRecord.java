@@ -0,0 +1,55 @@
+package com.ownding.headscale.dal.vo;
+
+import lombok.Data;
+
+/**
+ * One entry of the mutation audit journal
+ */
+@Data
+public class HeadscaleAuditRecord {
+
+    /**
+     * Journal sequence number, strictly increasing
+     */
+    private long seq;
+
+    /**
+     * Epoch millis at which the record was committed, non-decreasing in seq order
+     */
+    private long timestamp;
+
+    /**
+     * Authenticated user and client address of the request (see HeadscaleActorUtils)
+     */
+    private String actor;
+
+    /**
+     * Unverified actor sent by the client in the X-Actor header, null if none
+     */
+    private String claimedActor;
+
+    /**
+     * Mutation, e.g. user.create, user.delete, preauthkey.create, node.delete, node.expire, policy.update
+     */
+    private String action;
+
+    private String target;
+
+    private boolean success;
+
+    private long latencyMs;
+
+    /**
+     * Known state of the target before the mutation, null if unknown: the current policy for policy.update, the key
+     * from the cached key list for preauthkey.expire, otherwise the inventory snapshot.
+     * Pre-auth key secrets are masked
+     */
+    private Object before;
+
+    /**
+     * Object returned by Headscale after the mutation, null if none. Pre-auth key secrets are masked
+     */
+    private Object after;
+
+    private String error;
+}
@@ -0,0 +1,24 @@
+package com.ownding.headscale.dal.vo;
+
+import lombok.Data;
+
+import java.util.List;
+
+/**
+ * Bulk user deletion request
+ */
+@Data
+public class HeadscaleBulkDeleteUsersRequest {
+
+    private List<String> usernames;
+
+    /**
+     * Delete the users' nodes first instead of rejecting users that still own nodes
+     */
+    private boolean cascadeNodes;
+
+    /**
+     * Optional concurrency, capped by headscale.server.fanOutConcurrency
+     */
+    private Integer concurrency;
+}
@@ -0,0 +1,29 @@
+package com.ownding.headscale.dal.vo;
+
+import lombok.Data;
+
+/**
+ * Outcome of one item in a bulk operation
+ * status follows HTTP semantics: 200 done, 400 invalid, 404 not found, 409 conflict, 5xx upstream failure
+ */
+@Data
+public class HeadscaleBulkItemResult {
+
+    private String target;
+
+    private int status;
+
+    private String message;
+
+    public HeadscaleBulkItemResult() {}
+
+    public HeadscaleBulkItemResult(String target, int status, String message) {
+        this.target = target;
+        this.status = status;
+        this.message = message;
+    }
+
+    public boolean isSuccess() {
+        return status >= 200 && status < 300;
+    }
+}
@@ -0,0 +1,35 @@
+package com.ownding.headscale.dal.vo;
+
+import lombok.Data;
+
+import java.util.List;
+
+/**
+ * Bulk node expire/delete request
+ * Nodes are selected by explicit ids and/or a filter; all given criteria must match
+ */
+@Data
+public class HeadscaleBulkNodeRequest {
+
+    private List<String> nodeIds;
+
+    /**
+     * Only nodes owned by this username
+     */
+    private String user;
+
+    /**
+     * Only nodes carrying this tag (with or without the "tag:" prefix)
+     */
+    private String tag;
+
+    /**
+     * Only nodes whose last_seen is older than this many hours, must be positive
+     */
+    private Integer inactiveHours;
+
+    /**
+     * Optional in-flight window, capped by headscale.server.grpcWindow
+     */
+    private Integer window;
+}
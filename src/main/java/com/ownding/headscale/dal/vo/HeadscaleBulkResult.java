@@ -0,0 +1,34 @@
+package com.ownding.headscale.dal.vo;
+
+import lombok.Data;
+
+import java.util.List;
+
+/**
+ * Multi-status result of a bulk operation, one entry per requested item
+ */
+@Data
+public class HeadscaleBulkResult {
+
+    private int total;
+
+    private int succeeded;
+
+    private int failed;
+
+    private List<HeadscaleBulkItemResult> items;
+
+    public HeadscaleBulkResult() {}
+
+    public HeadscaleBulkResult(List<HeadscaleBulkItemResult> items) {
+        this.items = items;
+        this.total = items.size();
+        for (HeadscaleBulkItemResult item : items) {
+            if (item.isSuccess()) {
+                succeeded++;
+            } else {
+                failed++;
+            }
+        }
+    }
+}
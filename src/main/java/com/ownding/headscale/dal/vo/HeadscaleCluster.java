@@ -0,0 +1,25 @@
+package com.ownding.headscale.dal.vo;
+
+import lombok.Data;
+
+/**
+ * A configured Headscale control plane (the api key is never exposed)
+ */
+@Data
+public class HeadscaleCluster {
+
+    private String name;
+
+    private String url;
+
+    private String grpcHost;
+
+    private int grpcPort;
+
+    private boolean grpcTls;
+
+    /**
+     * The cluster configured by headscale.server.url, which backs every non-cluster endpoint
+     */
+    private boolean primary;
+}
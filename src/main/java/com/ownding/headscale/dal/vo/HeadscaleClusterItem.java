@@ -0,0 +1,23 @@
+package com.ownding.headscale.dal.vo;
+
+import com.fasterxml.jackson.annotation.JsonUnwrapped;
+import lombok.Data;
+
+/**
+ * An item from a cross-cluster read, serialized as the item's own fields plus "cluster"
+ */
+@Data
+public class HeadscaleClusterItem<T> {
+
+    private String cluster;
+
+    @JsonUnwrapped
+    private T item;
+
+    public HeadscaleClusterItem() {}
+
+    public HeadscaleClusterItem(String cluster, T item) {
+        this.cluster = cluster;
+        this.item = item;
+    }
+}
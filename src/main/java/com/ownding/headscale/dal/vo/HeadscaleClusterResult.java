@@ -0,0 +1,26 @@
+package com.ownding.headscale.dal.vo;
+
+import lombok.Data;
+
+/**
+ * How one cluster answered a cross-cluster read
+ */
+@Data
+public class HeadscaleClusterResult {
+
+    private String cluster;
+
+    private boolean success;
+
+    /**
+     * Failure or timeout reason, null on success
+     */
+    private String message;
+
+    private long elapsedMs;
+
+    /**
+     * Items returned by this cluster
+     */
+    private int count;
+}
@@ -0,0 +1,25 @@
+package com.ownding.headscale.dal.vo;
+
+import lombok.Data;
+
+/**
+ * User and node counts of one cluster, or of all clusters combined
+ */
+@Data
+public class HeadscaleClusterStatus {
+
+    private long users;
+
+    private long nodes;
+
+    private long online;
+
+    private long offline;
+
+    public void add(HeadscaleClusterStatus other) {
+        users += other.users;
+        nodes += other.nodes;
+        online += other.online;
+        offline += other.offline;
+    }
+}
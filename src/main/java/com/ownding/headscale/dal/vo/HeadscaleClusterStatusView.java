@@ -0,0 +1,14 @@
+package com.ownding.headscale.dal.vo;
+
+import lombok.Data;
+import lombok.EqualsAndHashCode;
+
+/**
+ * Per-cluster status counts plus their sum over the clusters that answered
+ */
+@Data
+@EqualsAndHashCode(callSuper = true)
+public class HeadscaleClusterStatusView extends HeadscaleClusterView<HeadscaleClusterStatus> {
+
+    private HeadscaleClusterStatus total = new HeadscaleClusterStatus();
+}
@@ -0,0 +1,20 @@
+package com.ownding.headscale.dal.vo;
+
+import lombok.Data;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Merged result of a read fanned out to several clusters
+ * Items from clusters that failed or timed out are missing; partial tells the caller so
+ */
+@Data
+public class HeadscaleClusterView<T> {
+
+    private List<HeadscaleClusterItem<T>> items = new ArrayList<>();
+
+    private List<HeadscaleClusterResult> clusters = new ArrayList<>();
+
+    private boolean partial;
+}
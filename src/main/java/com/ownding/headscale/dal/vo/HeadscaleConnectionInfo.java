@@ -0,0 +1,20 @@
+package com.ownding.headscale.dal.vo;
+
+import lombok.Data;
+
+/**
+ * REST/gRPC availability reported by /status
+ */
+@Data
+public class HeadscaleConnectionInfo {
+
+    private boolean restAvailable;
+
+    private boolean grpcAvailable;
+
+    private String message;
+
+    private String restStatus;
+
+    private String grpcStatus;
+}
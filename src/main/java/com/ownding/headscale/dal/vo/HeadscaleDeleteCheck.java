@@ -0,0 +1,21 @@
+package com.ownding.headscale.dal.vo;
+
+import lombok.Data;
+
+/**
+ * Result of /users/{username}/can-delete
+ */
+@Data
+public class HeadscaleDeleteCheck {
+
+    private boolean canDelete;
+
+    private String message;
+
+    public HeadscaleDeleteCheck() {}
+
+    public HeadscaleDeleteCheck(boolean canDelete, String message) {
+        this.canDelete = canDelete;
+        this.message = message;
+    }
+}
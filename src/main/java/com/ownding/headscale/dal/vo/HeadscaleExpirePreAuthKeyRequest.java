@@ -0,0 +1,24 @@
+package com.ownding.headscale.dal.vo;
+
+import com.alibaba.fastjson.annotation.JSONField;
+import lombok.Data;
+
+/**
+ * Headscale Expire PreAuth Key Request DTO
+ */
+@Data
+public class HeadscaleExpirePreAuthKeyRequest {
+
+    @JSONField(name = "user")
+    private String user;
+
+    @JSONField(name = "key")
+    private String key;
+
+    public HeadscaleExpirePreAuthKeyRequest() {}
+
+    public HeadscaleExpirePreAuthKeyRequest(String user, String key) {
+        this.user = user;
+        this.key = key;
+    }
+}
@@ -0,0 +1,70 @@
+package com.ownding.headscale.dal.vo;
+
+import lombok.Getter;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable, versioned view of the Headscale user and node inventory
+ * The version increases whenever the content changes
+ */
+@Getter
+public class HeadscaleInventorySnapshot {
+
+    private final long version;
+
+    /**
+     * Epoch millis of the upstream refresh that produced this content
+     */
+    private final long refreshedAt;
+
+    private final List<HeadscaleUser> users;
+
+    private final List<HeadscaleNode> nodes;
+
+    /**
+     * Hash over the content except node liveness timestamps, used to decide whether a refresh bumps the version
+     */
+    private final long contentHash;
+
+    /**
+     * Content hash plus node liveness timestamps, keys cached response bodies and ETags so a last_seen change
+     * is served without bumping the version
+     */
+    private final long responseHash;
+
+    private final Map<String, HeadscaleNode> nodesById;
+
+    /**
+     * Per-node fingerprint over the fields that matter for change detection (see HeadscaleNodeDiffUtils)
+     */
+    private final Map<String, Long> nodeFingerprints;
+
+    /**
+     * True if this snapshot was loaded from the persisted file and not yet confirmed by a live refresh
+     */
+    private final boolean persisted;
+
+    public HeadscaleInventorySnapshot(long version, long refreshedAt, List<HeadscaleUser> users, List<HeadscaleNode> nodes,
+                                      long contentHash, long responseHash, Map<String, HeadscaleNode> nodesById, Map<String, Long> nodeFingerprints,
+                                      boolean persisted) {
+        this.version = version;
+        this.refreshedAt = refreshedAt;
+        this.users = Collections.unmodifiableList(users);
+        this.nodes = Collections.unmodifiableList(nodes);
+        this.contentHash = contentHash;
+        this.responseHash = responseHash;
+        this.nodesById = Collections.unmodifiableMap(nodesById);
+        this.nodeFingerprints = Collections.unmodifiableMap(nodeFingerprints);
+        this.persisted = persisted;
+    }
+
+    /**
+     * Age of the content in milliseconds
+     */
+    public long getAge() {
+        return Math.max(0, System.currentTimeMillis() - refreshedAt);
+    }
+}
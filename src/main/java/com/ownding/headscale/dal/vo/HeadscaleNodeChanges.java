@@ -0,0 +1,32 @@
+package com.ownding.headscale.dal.vo;
+
+import lombok.Data;
+
+import java.util.List;
+
+/**
+ * Delta sync response for /nodes/changes
+ * When resyncRequired is true the client must reload the full /nodes list and continue from token
+ */
+@Data
+public class HeadscaleNodeChanges {
+
+    /**
+     * Token supplied by the client
+     */
+    private String since;
+
+    /**
+     * Current inventory version
+     */
+    private long version;
+
+    /**
+     * Opaque token of the current version (change log epoch + version), to be used as the next since
+     */
+    private String token;
+
+    private boolean resyncRequired;
+
+    private List<HeadscaleNodeEvent> changes;
+}
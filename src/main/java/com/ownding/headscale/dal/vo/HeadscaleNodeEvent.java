@@ -0,0 +1,49 @@
+package com.ownding.headscale.dal.vo;
+
+import lombok.Data;
+
+/**
+ * Node inventory change event
+ * type is one of node.added, node.removed, node.online, node.offline, node.renamed, node.updated
+ */
+@Data
+public class HeadscaleNodeEvent {
+
+    public static final String ADDED = "node.added";
+    public static final String REMOVED = "node.removed";
+    public static final String ONLINE = "node.online";
+    public static final String OFFLINE = "node.offline";
+    public static final String RENAMED = "node.renamed";
+    public static final String UPDATED = "node.updated";
+
+    private String type;
+
+    private String nodeId;
+
+    /**
+     * Inventory version in which the change was detected
+     */
+    private long version;
+
+    private long timestamp;
+
+    /**
+     * Current node state (last known state for node.removed)
+     */
+    private HeadscaleNode node;
+
+    /**
+     * Previous given name, only set for node.renamed
+     */
+    private String previousName;
+
+    public HeadscaleNodeEvent() {}
+
+    public HeadscaleNodeEvent(String type, HeadscaleNode node, long version, long timestamp) {
+        this.type = type;
+        this.nodeId = node.getId();
+        this.node = node;
+        this.version = version;
+        this.timestamp = timestamp;
+    }
+}
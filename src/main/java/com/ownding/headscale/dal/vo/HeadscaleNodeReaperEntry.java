@@ -0,0 +1,35 @@
+package com.ownding.headscale.dal.vo;
+
+import lombok.Data;
+
+/**
+ * A node waiting in the reaper queue
+ */
+@Data
+public class HeadscaleNodeReaperEntry {
+
+    private String nodeId;
+
+    private String name;
+
+    private String user;
+
+    private String lastSeen;
+
+    private String expiry;
+
+    /**
+     * Epoch millis at which the node becomes stale
+     */
+    private long deadline;
+
+    /**
+     * Rule that set the deadline: inactive or expired
+     */
+    private String reason;
+
+    /**
+     * Deadline has passed, the node is reaped by the next run
+     */
+    private boolean due;
+}
@@ -0,0 +1,45 @@
+package com.ownding.headscale.dal.vo;
+
+import lombok.Data;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Statistics of one node reaper run
+ */
+@Data
+public class HeadscaleNodeReaperReport {
+
+    private long startedAt;
+
+    private long elapsedMs;
+
+    private boolean dryRun;
+
+    /**
+     * scheduled or the actor of a manual run
+     */
+    private String trigger;
+
+    private String action;
+
+    /**
+     * Nodes taken from the queue because their deadline had passed
+     */
+    private int due;
+
+    /**
+     * Due nodes that no longer matched (gone, back online, seen again) and were dropped or re-queued
+     */
+    private int skipped;
+
+    private int reaped;
+
+    private int failed;
+
+    /**
+     * One entry per selected node (target is the node id, message the selection reason or the failure)
+     */
+    private List<HeadscaleBulkItemResult> items = new ArrayList<>();
+}
@@ -0,0 +1,47 @@
+package com.ownding.headscale.dal.vo;
+
+import lombok.Data;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Node reaper policy, queue state and the nodes up next
+ */
+@Data
+public class HeadscaleNodeReaperStatus {
+
+    private boolean enabled;
+
+    private boolean dryRun;
+
+    private String action;
+
+    private int inactiveHours;
+
+    private int expiredHours;
+
+    /**
+     * Nodes currently tracked by the queue
+     */
+    private int queued;
+
+    /**
+     * Queued nodes whose deadline has passed
+     */
+    private int due;
+
+    /**
+     * Earliest deadline in epoch millis, 0 when the queue is empty
+     */
+    private long nextDeadline;
+
+    private long reaped;
+
+    private long failed;
+
+    /**
+     * Queued nodes in deadline order, limited by the request
+     */
+    private List<HeadscaleNodeReaperEntry> upcoming = new ArrayList<>();
+}
@@ -0,0 +1,24 @@
+package com.ownding.headscale.dal.vo;
+
+import lombok.Data;
+
+/**
+ * Node counts reported by /nodes/status
+ */
+@Data
+public class HeadscaleNodeStatusSummary {
+
+    private long total;
+
+    private long online;
+
+    private long offline;
+
+    public HeadscaleNodeStatusSummary() {}
+
+    public HeadscaleNodeStatusSummary(long total, long online) {
+        this.total = total;
+        this.online = online;
+        this.offline = total - online;
+    }
+}
@@ -0,0 +1,18 @@
+package com.ownding.headscale.dal.vo;
+
+import lombok.Data;
+
+import java.util.List;
+
+/**
+ * Result of /debug/users/{username}/preauth-keys
+ */
+@Data
+public class HeadscalePreAuthKeyDebug {
+
+    private String username;
+
+    private int keyCount;
+
+    private List<HeadscalePreAuthKey> keys;
+}
@@ -0,0 +1,47 @@
+package com.ownding.headscale.dal.vo;
+
+import lombok.Data;
+
+/**
+ * State of one pre-auth key pool (user + flags)
+ */
+@Data
+public class HeadscalePreAuthKeyPool {
+
+    private String user;
+
+    private boolean reusable;
+
+    private boolean ephemeral;
+
+    /**
+     * Filled at startup from preAuthKeyPoolUsers and never dropped for inactivity
+     */
+    private boolean pinned;
+
+    /**
+     * Keys ready to be claimed
+     */
+    private int available;
+
+    private int target;
+
+    /**
+     * Claims answered from the pool
+     */
+    private long hits;
+
+    /**
+     * Claims that found the pool empty and created a key directly
+     */
+    private long misses;
+
+    private long minted;
+
+    /**
+     * Unclaimed keys expired at Headscale after preAuthKeyPoolMaxAge
+     */
+    private long expired;
+
+    private String lastError;
+}
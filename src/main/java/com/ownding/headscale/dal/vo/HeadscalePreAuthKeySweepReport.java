@@ -0,0 +1,53 @@
+package com.ownding.headscale.dal.vo;
+
+import lombok.Data;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Statistics of one pre-auth key sweep
+ */
+@Data
+public class HeadscalePreAuthKeySweepReport {
+
+    private long startedAt;
+
+    private long elapsedMs;
+
+    private boolean dryRun;
+
+    /**
+     * scheduled or the actor of a manual run
+     */
+    private String trigger;
+
+    private int users;
+
+    /**
+     * Users whose keys could not be listed (skipped this run)
+     */
+    private int userFailures;
+
+    private int keysScanned;
+
+    /**
+     * Keys already expired at Headscale, left alone
+     */
+    private int alreadyExpired;
+
+    private int selectedUsed;
+
+    private int selectedTooOld;
+
+    private int selectedUnused;
+
+    private int expired;
+
+    private int failed;
+
+    /**
+     * One entry per selected key (target is the key id, message the selection reason or the failure)
+     */
+    private List<HeadscaleBulkItemResult> items = new ArrayList<>();
+}
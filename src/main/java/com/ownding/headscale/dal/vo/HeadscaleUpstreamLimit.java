@@ -0,0 +1,36 @@
+package com.ownding.headscale.dal.vo;
+
+import lombok.Data;
+
+/**
+ * Live state of an adaptive upstream concurrency limiter (rest or grpc)
+ */
+@Data
+public class HeadscaleUpstreamLimit {
+
+    private String name;
+
+    /**
+     * Current in-flight limit
+     */
+    private int limit;
+
+    private int inFlight;
+
+    /**
+     * Calls waiting for a slot
+     */
+    private int queued;
+
+    /**
+     * Calls rejected since startup because the queue was full or the wait timed out
+     */
+    private long rejected;
+
+    private double shortRttMs;
+
+    /**
+     * Near no-load RTT the short-term RTT is compared against
+     */
+    private double baselineRttMs;
+}
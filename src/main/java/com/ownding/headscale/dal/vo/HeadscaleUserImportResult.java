@@ -0,0 +1,46 @@
+package com.ownding.headscale.dal.vo;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.Data;
+
+/**
+ * Outcome of one import row, streamed back as soon as it is known
+ * status is one of created, exists, duplicate, invalid, failed
+ */
+@Data
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class HeadscaleUserImportResult {
+
+    public static final String CREATED = "created";
+    public static final String EXISTS = "exists";
+    public static final String DUPLICATE = "duplicate";
+    public static final String INVALID = "invalid";
+    public static final String FAILED = "failed";
+
+    /**
+     * Line number in the uploaded body
+     */
+    private int line;
+
+    private String username;
+
+    private String status;
+
+    private String message;
+
+    private String userId;
+
+    /**
+     * The created pre-auth key, when requested and created
+     */
+    private String preAuthKey;
+
+    public HeadscaleUserImportResult() {}
+
+    public HeadscaleUserImportResult(int line, String username, String status, String message) {
+        this.line = line;
+        this.username = username;
+        this.status = status;
+        this.message = message;
+    }
+}
@@ -0,0 +1,28 @@
+package com.ownding.headscale.dal.vo;
+
+import lombok.Data;
+
+/**
+ * One row of a bulk user import (a CSV line or an NDJSON object)
+ */
+@Data
+public class HeadscaleUserImportRow {
+
+    private String username;
+
+    private String displayName;
+
+    /**
+     * Also create a pre-auth key for the new user
+     */
+    private Boolean preAuthKey;
+
+    private Boolean reusable;
+
+    private Boolean ephemeral;
+
+    /**
+     * Key lifetime, headscale.server.userImportKeyExpirationHours when absent
+     */
+    private Integer expirationHours;
+}
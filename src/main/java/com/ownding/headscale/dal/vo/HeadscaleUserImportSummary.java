@@ -0,0 +1,41 @@
+package com.ownding.headscale.dal.vo;
+
+import lombok.Data;
+
+/**
+ * Totals of a bulk user import, written as the last line of the stream
+ */
+@Data
+public class HeadscaleUserImportSummary {
+
+    /**
+     * Always true, tells the summary apart from row results
+     */
+    private boolean summary = true;
+
+    private int rows;
+
+    private int created;
+
+    private int exists;
+
+    private int duplicate;
+
+    private int invalid;
+
+    private int failed;
+
+    private int preAuthKeys;
+
+    /**
+     * Users created whose pre-auth key could not be created
+     */
+    private int keyFailures;
+
+    /**
+     * Rows beyond headscale.server.userImportMaxRows were not read
+     */
+    private boolean truncated;
+
+    private long elapsedMs;
+}
@@ -0,0 +1,29 @@
+package com.ownding.headscale.dal.vo;
+
+import lombok.Data;
+
+import java.util.List;
+
+/**
+ * One page of /users?limit=...; pass nextCursor as cursor to get the following page
+ */
+@Data
+public class HeadscaleUserPage {
+
+    /**
+     * Inventory version the page was served from
+     */
+    private long version;
+
+    /**
+     * Number of users matching the query across all pages
+     */
+    private int total;
+
+    /**
+     * Opaque cursor of the next page, null on the last page
+     */
+    private String nextCursor;
+
+    private List<HeadscaleUser> items;
+}
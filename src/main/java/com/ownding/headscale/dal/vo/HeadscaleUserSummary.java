@@ -0,0 +1,30 @@
+package com.ownding.headscale.dal.vo;
+
+import lombok.Data;
+
+/**
+ * Headscale user summary DTO
+ * One row of the user management page: the user plus its node and pre-auth key counts
+ */
+@Data
+public class HeadscaleUserSummary {
+
+    private HeadscaleUser user;
+
+    private int totalNodes;
+
+    private int onlineNodes;
+
+    /**
+     * Total pre-auth keys, null when key counts were not requested
+     */
+    private Integer preAuthKeys;
+
+    /**
+     * Pre-auth keys that can still register a device (not expired, reusable or unused),
+     * null when key counts were not requested
+     */
+    private Integer activePreAuthKeys;
+
+    private boolean canDelete;
+}
@@ -0,0 +1,28 @@
+package com.ownding.headscale.dal.vo;
+
+import lombok.Data;
+
+import java.util.Map;
+
+/**
+ * Startup warm-up progress reported by /ready
+ */
+@Data
+public class HeadscaleWarmupStatus {
+
+    /**
+     * True once every warm-up step has finished (successfully or not)
+     */
+    private boolean ready;
+
+    private long startedAt;
+
+    private long finishedAt;
+
+    private long durationMs;
+
+    /**
+     * Outcome per step (grpc, inventory, jit) in execution order
+     */
+    private Map<String, String> steps;
+}
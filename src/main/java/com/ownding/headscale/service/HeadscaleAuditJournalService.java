@@ -0,0 +1,446 @@
+package com.ownding.headscale.service;
+
+import com.alibaba.fastjson.JSON;
+import com.ownding.headscale.conf.HeadscaleProperties;
+import com.ownding.headscale.dal.vo.HeadscaleAuditRecord;
+import com.ownding.headscale.dal.vo.HeadscaleInventorySnapshot;
+import com.ownding.headscale.dal.vo.HeadscaleUser;
+import com.ownding.headscale.utils.HeadscaleSecretUtils;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Headscale Audit Journal Service
+ * Append-only journal of every mutation (who, what, before/after, latency, outcome) stored as NDJSON segments.
+ * A single writer thread group-commits whatever records are queued with one write and one fsync, so concurrent
+ * mutations share the cost of durability. Segments roll over at auditSegmentSize and are never rewritten.
+ */
+@Service
+@Slf4j
+public class HeadscaleAuditJournalService {
+
+    private static final String SEGMENT_PREFIX = "audit-";
+    private static final String SEGMENT_SUFFIX = ".log";
+
+    /**
+     * Maximum records per group commit
+     */
+    private static final int MAX_BATCH = 1024;
+
+    /**
+     * How long a mutation waits for its record to be committed before giving up on the acknowledgement
+     */
+    private static final long COMMIT_WAIT = 5000;
+
+    @Autowired
+    private HeadscaleProperties headscaleProperties;
+
+    @Autowired
+    private HeadscaleInventoryService inventoryService;
+
+    private final BlockingQueue<PendingRecord> queue = new LinkedBlockingQueue<>();
+
+    /**
+     * Segments by first sequence number
+     */
+    private final ConcurrentSkipListMap<Long, Segment> segments = new ConcurrentSkipListMap<>();
+
+    // Writer state, only touched by the writer thread after init
+    private Segment active;
+    private FileChannel channel;
+    private long nextSeq = 1;
+    private long lastTimestamp;
+
+    private volatile boolean running;
+
+    private Thread writer;
+
+    private static class PendingRecord {
+        final HeadscaleAuditRecord record;
+        final CompletableFuture<Long> committed = new CompletableFuture<>();
+
+        PendingRecord(HeadscaleAuditRecord record) {
+            this.record = record;
+        }
+    }
+
+    private static class Segment {
+        final Path path;
+        final long firstSeq;
+
+        /**
+         * Commit time of the first record, -1 while the segment is empty
+         */
+        volatile long firstTimestamp = -1;
+
+        Segment(Path path, long firstSeq) {
+            this.path = path;
+            this.firstSeq = firstSeq;
+        }
+    }
+
+    @PostConstruct
+    public void init() throws IOException {
+        if (!isEnabled()) {
+            log.info("Headscale audit journal disabled");
+            return;
+        }
+
+        Path dir = Paths.get(headscaleProperties.getAuditDir());
+        Files.createDirectories(dir);
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            for (Path path : stream) {
+                String name = path.getFileName().toString();
+                try {
+                    long firstSeq = Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+                    segments.put(firstSeq, new Segment(path, firstSeq));
+                } catch (NumberFormatException e) {
+                    log.warn("Ignoring unexpected file in audit journal directory: {}", path);
+                }
+            }
+        }
+
+        for (Segment segment : segments.values()) {
+            segment.firstTimestamp = readFirstTimestamp(segment.path);
+        }
+
+        Map.Entry<Long, Segment> last = segments.lastEntry();
+        if (last != null) {
+            recover(last.getValue());
+        } else {
+            openSegment(nextSeq);
+        }
+
+        running = true;
+        writer = new Thread(this::writeLoop, "headscale-audit-writer");
+        writer.setDaemon(true);
+        writer.start();
+        log.info("Headscale audit journal at {} ({} segments, next seq {})", dir.toAbsolutePath(), segments.size(), nextSeq);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (writer == null) {
+            return;
+        }
+        // No interrupt: an interrupted FileChannel write closes the channel. The writer drains the queue and exits.
+        running = false;
+        try {
+            writer.join(COMMIT_WAIT);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        closeChannel();
+    }
+
+    public boolean isEnabled() {
+        return StringUtils.isNotBlank(headscaleProperties.getAuditDir());
+    }
+
+    @EventListener
+    public void onMutation(HeadscaleMutationEvent event) {
+        if (!isEnabled()) {
+            return;
+        }
+
+        HeadscaleAuditRecord record = new HeadscaleAuditRecord();
+        record.setActor(event.getActor());
+        record.setClaimedActor(event.getClaimedActor());
+        record.setAction(event.getAction());
+        record.setTarget(event.getTarget());
+        record.setSuccess(event.isSuccess());
+        record.setLatencyMs(event.getLatencyMs());
+        // created keys (and nodes carrying their registration key) must not put secrets on disk or into /audit
+        Object before = event.getBefore() != null ? event.getBefore() : lookupBefore(event.getAction(), event.getTarget());
+        record.setBefore(HeadscaleSecretUtils.redact(before));
+        record.setAfter(HeadscaleSecretUtils.redact(event.getResult()));
+        record.setError(event.getError());
+        append(record);
+    }
+
+    /**
+     * Queue a record and wait for the group commit that makes it durable
+     *
+     * @return the assigned sequence number, or -1 if the record could not be confirmed in time
+     */
+    public long append(HeadscaleAuditRecord record) {
+        PendingRecord pending = new PendingRecord(record);
+        queue.add(pending);
+        try {
+            return pending.committed.get(COMMIT_WAIT, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            log.error("Failed to journal {} {}: {}", record.getAction(), record.getTarget(), e.getCause().getMessage());
+        } catch (TimeoutException e) {
+            log.warn("Audit journal commit of {} {} not confirmed within {}ms", record.getAction(), record.getTarget(), COMMIT_WAIT);
+        }
+        return -1;
+    }
+
+    /**
+     * Scan the journal in sequence order
+     *
+     * @param from     inclusive lower bound of the commit time (epoch millis), null for none
+     * @param to       inclusive upper bound of the commit time (epoch millis), null for none
+     * @param action   exact action to match, null for all
+     * @param target   exact target to match, null for all
+     * @param actor    exact actor to match, null for all
+     * @param afterSeq only records with a greater sequence number (for paging)
+     * @param limit    maximum number of records
+     */
+    public List<HeadscaleAuditRecord> query(Long from, Long to, String action, String target, String actor,
+                                            long afterSeq, int limit) throws IOException {
+        List<HeadscaleAuditRecord> records = new ArrayList<>();
+        if (!isEnabled()) {
+            return records;
+        }
+
+        for (Segment segment : segments.values()) {
+            if (records.size() >= limit) {
+                break;
+            }
+            if (to != null && segment.firstTimestamp > to) {
+                break;
+            }
+            Map.Entry<Long, Segment> next = segments.higherEntry(segment.firstSeq);
+            if (next != null) {
+                // Every record of this segment precedes the next segment's first record
+                long nextTimestamp = next.getValue().firstTimestamp;
+                if (next.getKey() <= afterSeq + 1 || (from != null && nextTimestamp >= 0 && nextTimestamp < from)) {
+                    continue;
+                }
+            }
+
+            try (BufferedReader reader = Files.newBufferedReader(segment.path, StandardCharsets.UTF_8)) {
+                String line;
+                while ((line = reader.readLine()) != null && records.size() < limit) {
+                    HeadscaleAuditRecord record = parse(line);
+                    if (record == null || record.getSeq() <= afterSeq) {
+                        continue;
+                    }
+                    if (to != null && record.getTimestamp() > to) {
+                        return records;
+                    }
+                    if ((from == null || record.getTimestamp() >= from)
+                            && (action == null || action.equals(record.getAction()))
+                            && (target == null || target.equals(record.getTarget()))
+                            && (actor == null || actor.equals(record.getActor()))) {
+                        records.add(record);
+                    }
+                }
+            }
+        }
+        return records;
+    }
+
+    private void writeLoop() {
+        List<PendingRecord> batch = new ArrayList<>(MAX_BATCH);
+        while (running || !queue.isEmpty()) {
+            try {
+                PendingRecord first = queue.poll(200, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                queue.drainTo(batch, MAX_BATCH - 1);
+                commit(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (RuntimeException e) {
+                log.error("Audit journal writer error", e);
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    /**
+     * Write a batch with a single write and fsync, then acknowledge every record in it
+     */
+    private void commit(List<PendingRecord> batch) {
+        long timestamp = Math.max(System.currentTimeMillis(), lastTimestamp);
+        long seq = nextSeq;
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(batch.size() * 256);
+        for (PendingRecord pending : batch) {
+            pending.record.setSeq(seq++);
+            pending.record.setTimestamp(timestamp);
+            byte[] line = JSON.toJSONString(pending.record).getBytes(StandardCharsets.UTF_8);
+            out.write(line, 0, line.length);
+            out.write('\n');
+        }
+        byte[] bytes = out.toByteArray();
+
+        long position = -1;
+        try {
+            if (channel.size() > 0 && channel.size() + bytes.length > headscaleProperties.getAuditSegmentSize()) {
+                closeChannel();
+                openSegment(nextSeq);
+            }
+            position = channel.size();
+            ByteBuffer buffer = ByteBuffer.wrap(bytes);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(false);
+        } catch (IOException e) {
+            rollback(position);
+            for (PendingRecord pending : batch) {
+                pending.committed.completeExceptionally(e);
+            }
+            return;
+        }
+
+        if (active.firstTimestamp < 0) {
+            active.firstTimestamp = timestamp;
+        }
+        nextSeq = seq;
+        lastTimestamp = timestamp;
+        for (PendingRecord pending : batch) {
+            pending.committed.complete(pending.record.getSeq());
+        }
+    }
+
+    /**
+     * Drop a partially written batch so the segment keeps ending on a complete record
+     */
+    private void rollback(long position) {
+        if (position < 0 || channel == null || !channel.isOpen()) {
+            return;
+        }
+        try {
+            channel.truncate(position);
+        } catch (IOException e) {
+            log.error("Failed to roll back partial audit journal write in {}", active.path, e);
+        }
+    }
+
+    private void openSegment(long firstSeq) throws IOException {
+        Path path = Paths.get(headscaleProperties.getAuditDir(), String.format("%s%020d%s", SEGMENT_PREFIX, firstSeq, SEGMENT_SUFFIX));
+        Segment segment = new Segment(path, firstSeq);
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        channel.position(channel.size());
+        active = segment;
+        segments.put(firstSeq, segment);
+        log.debug("Opened audit journal segment {}", path);
+    }
+
+    /**
+     * Reopen the last segment, cutting off a record torn by a crash, and continue its sequence
+     */
+    private void recover(Segment segment) throws IOException {
+        byte[] bytes = Files.readAllBytes(segment.path);
+        long validEnd = 0;
+        HeadscaleAuditRecord lastRecord = null;
+        int start = 0;
+        for (int i = 0; i < bytes.length; i++) {
+            if (bytes[i] != '\n') {
+                continue;
+            }
+            HeadscaleAuditRecord record = parse(new String(bytes, start, i - start, StandardCharsets.UTF_8));
+            if (record != null) {
+                lastRecord = record;
+                validEnd = i + 1;
+            }
+            start = i + 1;
+        }
+
+        channel = FileChannel.open(segment.path, StandardOpenOption.WRITE);
+        if (validEnd < bytes.length) {
+            log.warn("Truncating {} bytes of incomplete audit records from {}", bytes.length - validEnd, segment.path);
+            channel.truncate(validEnd);
+        }
+        channel.position(validEnd);
+        active = segment;
+
+        if (lastRecord != null) {
+            nextSeq = lastRecord.getSeq() + 1;
+            lastTimestamp = lastRecord.getTimestamp();
+        } else {
+            nextSeq = segment.firstSeq;
+        }
+    }
+
+    private long readFirstTimestamp(Path path) {
+        try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            HeadscaleAuditRecord record = parse(reader.readLine());
+            return record != null ? record.getTimestamp() : -1;
+        } catch (IOException e) {
+            log.warn("Failed to read audit journal segment {}: {}", path, e.getMessage());
+            return -1;
+        }
+    }
+
+    private HeadscaleAuditRecord parse(String line) {
+        if (StringUtils.isBlank(line)) {
+            return null;
+        }
+        try {
+            return JSON.parseObject(line, HeadscaleAuditRecord.class);
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    private void closeChannel() {
+        if (channel == null) {
+            return;
+        }
+        try {
+            channel.close();
+        } catch (IOException e) {
+            log.warn("Failed to close audit journal segment: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * State of the target as last seen by the inventory (users by id or name, nodes by id), for mutations that
+     * did not capture it themselves
+     */
+    private Object lookupBefore(String action, String target) {
+        HeadscaleInventorySnapshot snapshot = inventoryService.getSnapshot();
+        if (snapshot == null || target == null) {
+            return null;
+        }
+        if (action.startsWith("node.")) {
+            return snapshot.getNodesById().get(target);
+        }
+        if (action.startsWith("user.")) {
+            for (HeadscaleUser user : snapshot.getUsers()) {
+                if (target.equals(user.getId()) || target.equals(user.getName())) {
+                    return user;
+                }
+            }
+        }
+        return null;
+    }
+}
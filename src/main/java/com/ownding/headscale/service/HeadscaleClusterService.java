@@ -0,0 +1,364 @@
+package com.ownding.headscale.service;
+
+import com.ownding.headscale.conf.HeadscaleProperties;
+import com.ownding.headscale.dal.vo.HeadscaleCluster;
+import com.ownding.headscale.dal.vo.HeadscaleClusterItem;
+import com.ownding.headscale.dal.vo.HeadscaleClusterResult;
+import com.ownding.headscale.dal.vo.HeadscaleClusterStatus;
+import com.ownding.headscale.dal.vo.HeadscaleClusterStatusView;
+import com.ownding.headscale.dal.vo.HeadscaleClusterView;
+import com.ownding.headscale.dal.vo.HeadscaleNode;
+import com.ownding.headscale.dal.vo.HeadscaleUpstreamLimit;
+import com.ownding.headscale.dal.vo.HeadscaleUser;
+import com.ownding.headscale.utils.HeadscaleConcurrencyUtils;
+import com.ownding.headscale.utils.HeadscaleDeadlineUtils;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.beans.BeanUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.config.AutowireCapableBeanFactory;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Headscale Cluster Service
+ * Holds REST and gRPC clients for every configured Headscale control plane and fans cross-cluster
+ * reads out to them in parallel. Each cluster has its own connection pool, channel and upstream
+ * limiter, and its own time budget, so a slow region is reported as failed instead of holding up the rest.
+ */
+@Service
+@Slf4j
+public class HeadscaleClusterService {
+
+    @Autowired
+    private HeadscaleProperties headscaleProperties;
+
+    @Autowired
+    private HeadscaleService headscaleService;
+
+    @Autowired
+    private HeadscaleGrpcService grpcService;
+
+    @Autowired
+    private HeadscaleUpstreamLimitService upstreamLimitService;
+
+    @Autowired
+    @Qualifier("headscaleExecutor")
+    private Executor headscaleExecutor;
+
+    @Autowired
+    private AutowireCapableBeanFactory beanFactory;
+
+    private final Map<String, ClusterClients> clusters = new LinkedHashMap<>();
+
+    /**
+     * Clients bound to one control plane
+     */
+    private static class ClusterClients {
+        private final HeadscaleCluster info;
+        private final HeadscaleService rest;
+        private final HeadscaleGrpcService grpc;
+        private final HeadscaleUpstreamLimitService limits;
+
+        ClusterClients(HeadscaleCluster info, HeadscaleService rest, HeadscaleGrpcService grpc,
+                       HeadscaleUpstreamLimitService limits) {
+            this.info = info;
+            this.rest = rest;
+            this.grpc = grpc;
+            this.limits = limits;
+        }
+    }
+
+    /**
+     * Read executed against one cluster
+     */
+    @FunctionalInterface
+    private interface ClusterCall<T> {
+        T call(ClusterClients clients) throws IOException;
+    }
+
+    @PostConstruct
+    public void init() {
+        String primaryName = StringUtils.defaultIfBlank(headscaleProperties.getClusterName(), "default");
+        clusters.put(primaryName, new ClusterClients(describe(primaryName, headscaleProperties, true),
+                headscaleService, grpcService, upstreamLimitService));
+
+        for (HeadscaleProperties.Cluster cluster : headscaleProperties.getClusters()) {
+            if (StringUtils.isBlank(cluster.getName()) || StringUtils.isBlank(cluster.getUrl())) {
+                throw new IllegalStateException("headscale.server.clusters entries need a name and a url");
+            }
+            if (clusters.containsKey(cluster.getName())) {
+                throw new IllegalStateException("Duplicate Headscale cluster name: " + cluster.getName());
+            }
+            clusters.put(cluster.getName(), createClients(cluster));
+        }
+
+        if (clusters.size() > 1) {
+            log.info("Headscale clusters: {} (per-cluster budget {}ms)", clusters.keySet(),
+                    headscaleProperties.getClusterTimeout());
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        for (ClusterClients clients : clusters.values()) {
+            if (!clients.info.isPrimary()) {
+                clients.grpc.shutdown();
+            }
+        }
+    }
+
+    /**
+     * Build clients for an additional cluster; they are wired like the primary beans but not registered in the context
+     */
+    private ClusterClients createClients(HeadscaleProperties.Cluster cluster) {
+        HeadscaleProperties properties = new HeadscaleProperties();
+        BeanUtils.copyProperties(headscaleProperties, properties, "clusters");
+        properties.setClusters(new ArrayList<>());
+        properties.setClusterName(cluster.getName());
+        properties.setUrl(cluster.getUrl());
+        if (cluster.getApiKey() != null) {
+            properties.setApiKey(cluster.getApiKey());
+        }
+        if (cluster.getGrpcHost() != null) {
+            properties.setGrpcHost(cluster.getGrpcHost());
+        }
+        if (cluster.getGrpcPort() != null) {
+            properties.setGrpcPort(cluster.getGrpcPort());
+        }
+        if (cluster.getGrpcTls() != null) {
+            properties.setGrpcTls(cluster.getGrpcTls());
+        }
+
+        HeadscaleUpstreamLimitService limits = new HeadscaleUpstreamLimitService();
+        beanFactory.autowireBean(limits);
+        beanFactory.initializeBean(limits, "headscaleUpstreamLimitService#" + cluster.getName());
+
+        HeadscaleService rest = new HeadscaleService();
+        beanFactory.autowireBean(rest);
+        rest.bindCluster(properties, limits);
+        beanFactory.initializeBean(rest, "headscaleService#" + cluster.getName());
+
+        HeadscaleGrpcService grpc = new HeadscaleGrpcService();
+        beanFactory.autowireBean(grpc);
+        grpc.bindCluster(properties, limits);
+        beanFactory.initializeBean(grpc, "headscaleGrpcService#" + cluster.getName());
+
+        return new ClusterClients(describe(cluster.getName(), properties, false), rest, grpc, limits);
+    }
+
+    private static HeadscaleCluster describe(String name, HeadscaleProperties properties, boolean primary) {
+        HeadscaleCluster info = new HeadscaleCluster();
+        info.setName(name);
+        info.setUrl(properties.getUrl());
+        info.setGrpcHost(properties.getGrpcHost());
+        info.setGrpcPort(properties.getGrpcPort());
+        info.setGrpcTls(properties.isGrpcTls());
+        info.setPrimary(primary);
+        return info;
+    }
+
+    public List<HeadscaleCluster> getClusters() {
+        List<HeadscaleCluster> result = new ArrayList<>();
+        for (ClusterClients clients : clusters.values()) {
+            result.add(clients.info);
+        }
+        return result;
+    }
+
+    /**
+     * REST client of a cluster
+     *
+     * @throws IllegalArgumentException unknown cluster
+     */
+    public HeadscaleService rest(String cluster) {
+        return get(cluster).rest;
+    }
+
+    /**
+     * gRPC client of a cluster
+     *
+     * @throws IllegalArgumentException unknown cluster
+     */
+    public HeadscaleGrpcService grpc(String cluster) {
+        return get(cluster).grpc;
+    }
+
+    /**
+     * Upstream limiter state of every cluster; names of non-primary clusters are prefixed with "cluster/"
+     */
+    public List<HeadscaleUpstreamLimit> getUpstreamLimits() {
+        List<HeadscaleUpstreamLimit> result = new ArrayList<>();
+        for (ClusterClients clients : clusters.values()) {
+            for (HeadscaleUpstreamLimit limit : clients.limits.getLimits()) {
+                if (!clients.info.isPrimary()) {
+                    limit.setName(clients.info.getName() + "/" + limit.getName());
+                }
+                result.add(limit);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Users of the selected clusters (all when names is empty), tagged by cluster
+     */
+    public HeadscaleClusterView<HeadscaleUser> getUsers(List<String> names) throws IOException {
+        HeadscaleClusterView<HeadscaleUser> view = new HeadscaleClusterView<>();
+        merge(view, fanOut(names, clients -> clients.rest.getUsers()));
+        return view;
+    }
+
+    /**
+     * Nodes of the selected clusters (all when names is empty), tagged by cluster
+     */
+    public HeadscaleClusterView<HeadscaleNode> getNodes(List<String> names) throws IOException {
+        HeadscaleClusterView<HeadscaleNode> view = new HeadscaleClusterView<>();
+        merge(view, fanOut(names, clients -> clients.rest.getNodes()));
+        return view;
+    }
+
+    /**
+     * User and node counts per selected cluster, plus their sum
+     */
+    public HeadscaleClusterStatusView getStatus(List<String> names) throws IOException {
+        HeadscaleClusterStatusView view = new HeadscaleClusterStatusView();
+        List<Outcome<List<HeadscaleClusterStatus>>> outcomes = fanOut(names, clients -> {
+            HeadscaleClusterStatus status = new HeadscaleClusterStatus();
+            status.setUsers(clients.rest.getUsers().size());
+            List<HeadscaleNode> nodes = clients.rest.getNodes();
+            long online = nodes.stream().filter(node -> Boolean.TRUE.equals(node.getOnline())).count();
+            status.setNodes(nodes.size());
+            status.setOnline(online);
+            status.setOffline(nodes.size() - online);
+            List<HeadscaleClusterStatus> single = new ArrayList<>(1);
+            single.add(status);
+            return single;
+        });
+        merge(view, outcomes);
+        for (HeadscaleClusterItem<HeadscaleClusterStatus> item : view.getItems()) {
+            view.getTotal().add(item.getItem());
+        }
+        return view;
+    }
+
+    /**
+     * Result of one cluster in a fan-out
+     */
+    private static class Outcome<T> {
+        private final HeadscaleClusterResult result = new HeadscaleClusterResult();
+        private T value;
+    }
+
+    private <T> void merge(HeadscaleClusterView<T> view, List<Outcome<List<T>>> outcomes) throws IOException {
+        StringBuilder failures = new StringBuilder();
+        for (Outcome<List<T>> outcome : outcomes) {
+            HeadscaleClusterResult result = outcome.result;
+            if (outcome.value != null) {
+                for (T item : outcome.value) {
+                    view.getItems().add(new HeadscaleClusterItem<>(result.getCluster(), item));
+                }
+                result.setCount(outcome.value.size());
+            } else {
+                view.setPartial(true);
+                failures.append(failures.length() > 0 ? "; " : "").append(result.getCluster()).append(": ").append(result.getMessage());
+            }
+            view.getClusters().add(result);
+        }
+        if (!outcomes.isEmpty() && view.getClusters().stream().noneMatch(HeadscaleClusterResult::isSuccess)) {
+            throw new IOException("All clusters failed: " + failures);
+        }
+    }
+
+    /**
+     * Run the call against every selected cluster in parallel and wait at most the per-cluster budget
+     * (bounded by the request deadline) for each; clusters that fail or run out of time are recorded, not thrown
+     */
+    private <T> List<Outcome<T>> fanOut(List<String> names, ClusterCall<T> call) throws IOException {
+        Collection<ClusterClients> targets = select(names);
+        long budgetMillis = HeadscaleDeadlineUtils.boundTimeoutMillis(headscaleProperties.getClusterTimeout());
+        long started = System.nanoTime();
+        long deadline = budgetMillis > 0 ? started + TimeUnit.MILLISECONDS.toNanos(budgetMillis) : Long.MAX_VALUE;
+
+        List<CompletableFuture<T>> futures = new ArrayList<>(targets.size());
+        for (ClusterClients clients : targets) {
+            futures.add(HeadscaleConcurrencyUtils.supplyAsync(() -> callWithin(deadline, () -> call.call(clients)),
+                    headscaleExecutor));
+        }
+
+        List<Outcome<T>> outcomes = new ArrayList<>(targets.size());
+        int index = 0;
+        for (ClusterClients clients : targets) {
+            CompletableFuture<T> future = futures.get(index++);
+            Outcome<T> outcome = new Outcome<>();
+            outcome.result.setCluster(clients.info.getName());
+            try {
+                outcome.value = deadline == Long.MAX_VALUE ? future.get()
+                        : future.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+                outcome.result.setSuccess(true);
+            } catch (TimeoutException e) {
+                future.cancel(false);
+                outcome.result.setMessage("timed out after " + budgetMillis + "ms");
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause() != null ? e.getCause() : e;
+                outcome.result.setMessage(cause.getMessage());
+                log.warn("Headscale cluster {} failed: {}", clients.info.getName(), outcome.result.getMessage());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for cluster " + clients.info.getName());
+            }
+            outcome.result.setElapsedMs(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started));
+            outcomes.add(outcome);
+        }
+        return outcomes;
+    }
+
+    /**
+     * Run the call with its upstream requests bounded by the fan-out deadline
+     */
+    private static <T> T callWithin(long deadline, HeadscaleConcurrencyUtils.IOCallable<T> call) throws IOException {
+        if (deadline == Long.MAX_VALUE) {
+            return call.call();
+        }
+        HeadscaleDeadlineUtils.start(Math.max(1, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime())));
+        try {
+            return call.call();
+        } finally {
+            HeadscaleDeadlineUtils.clear();
+        }
+    }
+
+    private Collection<ClusterClients> select(List<String> names) {
+        if (names == null || names.isEmpty()) {
+            return clusters.values();
+        }
+        Map<String, ClusterClients> selected = new LinkedHashMap<>();
+        for (String name : names) {
+            selected.put(name, get(name));
+        }
+        return selected.values();
+    }
+
+    private ClusterClients get(String name) {
+        ClusterClients clients = clusters.get(name);
+        if (clients == null) {
+            throw new IllegalArgumentException("Unknown Headscale cluster: " + name + " (configured: " + clusters.keySet() + ")");
+        }
+        return clients;
+    }
+}
@@ -1,20 +1,34 @@
 package com.ownding.headscale.service;
 
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
 import com.ownding.headscale.conf.HeadscaleProperties;
+import com.ownding.headscale.dal.vo.HeadscaleBulkItemResult;
 import com.ownding.headscale.dal.vo.HeadscalePreAuthKey;
 import com.ownding.headscale.dal.vo.HeadscaleUser;
+import com.ownding.headscale.utils.HeadscaleActorUtils;
+import com.ownding.headscale.utils.HeadscaleDeadlineUtils;
 import io.grpc.*;
 import io.grpc.stub.MetadataUtils;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.stereotype.Service;
 
 import javax.annotation.PostConstruct;
 import javax.annotation.PreDestroy;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.IntFunction;
 
 /**
  * Headscale gRPC Service
@@ -30,8 +44,44 @@ public class HeadscaleGrpcService {
     @Autowired
     private HeadscaleProperties headscaleProperties;
 
+    @Autowired
+    private ApplicationEventPublisher eventPublisher;
+
+    @Autowired
+    @Qualifier("headscaleExecutor")
+    private Executor headscaleExecutor;
+
+    @Autowired
+    private HeadscaleUpstreamLimitService upstreamLimitService;
+
     private ManagedChannel channel;
 
+    /**
+     * Caps every call's deadline at the remaining budget of the HTTP request it runs for
+     * (runs before the concurrency limiter so queueing also respects the budget)
+     */
+    private static final ClientInterceptor REQUEST_DEADLINE_INTERCEPTOR = new ClientInterceptor() {
+        @Override
+        public <ReqT, RespT> ClientCall<ReqT, RespT> interceptCall(MethodDescriptor<ReqT, RespT> method,
+                                                                   CallOptions callOptions, Channel next) {
+            if (HeadscaleDeadlineUtils.hasDeadline()) {
+                Deadline requestDeadline = Deadline.after(Math.max(0, HeadscaleDeadlineUtils.remainingNanos()), TimeUnit.NANOSECONDS);
+                if (callOptions.getDeadline() == null || requestDeadline.isBefore(callOptions.getDeadline())) {
+                    callOptions = callOptions.withDeadline(requestDeadline);
+                }
+            }
+            return next.newCall(method, callOptions);
+        }
+    };
+
+    /**
+     * Point this instance at another control plane; called by HeadscaleClusterService before init()
+     */
+    void bindCluster(HeadscaleProperties properties, HeadscaleUpstreamLimitService limitService) {
+        this.headscaleProperties = properties;
+        this.upstreamLimitService = limitService;
+    }
+
     @PostConstruct
     public void init() {
         try {
@@ -60,6 +110,8 @@ public class HeadscaleGrpcService {
                     .keepAliveTimeout(5, TimeUnit.SECONDS)
                     .keepAliveWithoutCalls(true)
                     .maxInboundMessageSize(4 * 1024 * 1024) // 4MB
+                    .intercept(upstreamLimitService.grpcInterceptor())
+                    .intercept(REQUEST_DEADLINE_INTERCEPTOR)
                     .build();
 
             log.info("Headscale gRPC channel initialized: {}:{} (TLS: {})",
@@ -85,6 +137,36 @@ public class HeadscaleGrpcService {
         }
     }
 
+    /**
+     * Ask the channel to connect and wait until it is READY, fails for good, or the timeout elapses
+     *
+     * @return the channel state when waiting stopped
+     */
+    public ConnectivityState connect(long timeoutMs) {
+        if (channel == null || channel.isShutdown()) {
+            return ConnectivityState.SHUTDOWN;
+        }
+
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        ConnectivityState state = channel.getState(true);
+        while (state != ConnectivityState.READY && state != ConnectivityState.SHUTDOWN) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                break;
+            }
+            CountDownLatch changed = new CountDownLatch(1);
+            channel.notifyWhenStateChanged(state, changed::countDown);
+            try {
+                changed.await(remaining, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+            state = channel.getState(true);
+        }
+        return state;
+    }
+
     /**
      * Test gRPC connection
      */
@@ -156,6 +238,9 @@ public class HeadscaleGrpcService {
             throw new IOException("gRPC channel is not available");
         }
 
+        long startedAt = System.currentTimeMillis();
+        HeadscaleUser created = null;
+        String error = null;
         try {
             log.info("Creating user with gRPC: username={}, displayName={}", username, displayName);
 
@@ -203,14 +288,20 @@ public class HeadscaleGrpcService {
             }
 
             log.info("Successfully created user via gRPC: {}", headscaleUser.getName());
+            created = headscaleUser;
             return headscaleUser;
 
         } catch (StatusRuntimeException e) {
             log.error("gRPC call failed for createUserWithNamespace", e);
+            error = e.getStatus().getCode() + ": " + e.getStatus().getDescription();
             throw new IOException("Failed to create user via gRPC: " + e.getStatus().getDescription());
         } catch (Exception e) {
             log.error("Unexpected error in createUserWithNamespace", e);
+            error = e.getMessage();
             throw new IOException("Failed to create user via gRPC: " + e.getMessage());
+        } finally {
+            eventPublisher.publishEvent(new HeadscaleMutationEvent("user.create", username, created != null,
+                    HeadscaleActorUtils.currentActor(), HeadscaleActorUtils.claimedActor(), startedAt, created, error));
         }
     }
 
@@ -321,6 +412,182 @@ public class HeadscaleGrpcService {
         }
     }
 
+    /**
+     * Delete nodes by id, pipelined over the async stub with at most {@code window} calls in flight
+     */
+    public List<HeadscaleBulkItemResult> deleteNodes(List<String> nodeIds, int window) throws IOException {
+        headscale.v1.HeadscaleServiceGrpc.HeadscaleServiceFutureStub stub = newFutureStub();
+        return pipelineNodeCalls(nodeIds, window, "delete", nodeId -> stub
+                .withDeadlineAfter(headscaleProperties.getGrpcTimeout(), TimeUnit.MILLISECONDS)
+                .deleteNode(headscale.v1.Headscale.DeleteNodeRequest.newBuilder().setNodeId(nodeId).build()));
+    }
+
+    /**
+     * Expire nodes by id, pipelined over the async stub with at most {@code window} calls in flight
+     */
+    public List<HeadscaleBulkItemResult> expireNodes(List<String> nodeIds, int window) throws IOException {
+        headscale.v1.HeadscaleServiceGrpc.HeadscaleServiceFutureStub stub = newFutureStub();
+        return pipelineNodeCalls(nodeIds, window, "expire", nodeId -> stub
+                .withDeadlineAfter(headscaleProperties.getGrpcTimeout(), TimeUnit.MILLISECONDS)
+                .expireNode(headscale.v1.Headscale.ExpireNodeRequest.newBuilder().setNodeId(nodeId).build()));
+    }
+
+    /**
+     * Expire pre-auth keys through the ExpirePreAuthKey RPC, pipelined with at most {@code window} calls in flight
+     *
+     * @param owners owner of each key, same order as keys
+     * @param keys   keys to expire; results are reported by key id so secrets never reach logs or the audit journal
+     */
+    public List<HeadscaleBulkItemResult> expirePreAuthKeys(List<HeadscaleUser> owners, List<HeadscalePreAuthKey> keys,
+                                                           int window) throws IOException {
+        headscale.v1.HeadscaleServiceGrpc.HeadscaleServiceFutureStub stub = newFutureStub();
+        List<String> targets = new ArrayList<>(keys.size());
+        for (HeadscalePreAuthKey key : keys) {
+            targets.add(key.getId());
+        }
+        return pipelineCalls(targets, window, "preauthkey.expire", index -> stub
+                .withDeadlineAfter(headscaleProperties.getGrpcTimeout(), TimeUnit.MILLISECONDS)
+                .expirePreAuthKey(headscale.v1.Headscale.ExpirePreAuthKeyRequest.newBuilder()
+                        .setUser(owners.get(index).getName())
+                        .setKey(keys.get(index).getKey())
+                        .build()));
+    }
+
+    private List<HeadscaleBulkItemResult> pipelineNodeCalls(List<String> nodeIds, int window, String action,
+                                                            Function<Long, ListenableFuture<?>> call) throws IOException {
+        return pipelineCalls(nodeIds, window, "node." + action, index -> {
+            String nodeId = nodeIds.get(index);
+            try {
+                return call.apply(Long.parseUnsignedLong(nodeId));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("非法的节点ID: " + nodeId);
+            }
+        });
+    }
+
+    /**
+     * Issue one async call per target, keeping at most {@code window} calls in flight on the channel,
+     * and wait for all outcomes. Results are returned in input order; a call that cannot be built
+     * (IllegalArgumentException) is reported as 400 without reaching Headscale.
+     */
+    private List<HeadscaleBulkItemResult> pipelineCalls(List<String> targets, int window, String action,
+                                                        IntFunction<ListenableFuture<?>> call) throws IOException {
+        HeadscaleBulkItemResult[] results = new HeadscaleBulkItemResult[targets.size()];
+        Semaphore inFlight = new Semaphore(Math.max(1, window));
+        CountDownLatch done = new CountDownLatch(targets.size());
+
+        // Callbacks run on gRPC threads, so capture the caller once
+        String actor = HeadscaleActorUtils.currentActor();
+        String claimedActor = HeadscaleActorUtils.claimedActor();
+
+        log.info("Pipelining {} {} calls over gRPC (window: {})", targets.size(), action, window);
+        try {
+            for (int i = 0; i < targets.size(); i++) {
+                final int index = i;
+                final String target = targets.get(i);
+
+                inFlight.acquire();
+                long startedAt = System.currentTimeMillis();
+                ListenableFuture<?> future;
+                try {
+                    future = call.apply(index);
+                } catch (IllegalArgumentException e) {
+                    inFlight.release();
+                    results[index] = new HeadscaleBulkItemResult(target, 400, e.getMessage());
+                    done.countDown();
+                    continue;
+                } catch (RuntimeException e) {
+                    inFlight.release();
+                    results[index] = toBulkItemResult(target, e);
+                    done.countDown();
+                    continue;
+                }
+
+                Futures.addCallback(future, new FutureCallback<Object>() {
+                    @Override
+                    public void onSuccess(Object response) {
+                        results[index] = new HeadscaleBulkItemResult(target, 200, "ok");
+                        inFlight.release();
+                        eventPublisher.publishEvent(new HeadscaleMutationEvent(action, target, true,
+                                actor, claimedActor, startedAt, null, null));
+                        done.countDown();
+                    }
+
+                    @Override
+                    public void onFailure(Throwable t) {
+                        log.warn("gRPC {} failed for {}: {}", action, target, t.getMessage());
+                        results[index] = toBulkItemResult(target, t);
+                        inFlight.release();
+                        eventPublisher.publishEvent(new HeadscaleMutationEvent(action, target, false,
+                                actor, claimedActor, startedAt, null, t.getMessage()));
+                        done.countDown();
+                    }
+                    // Listeners may block (audit journal commit), keep them off the gRPC transport threads
+                }, headscaleExecutor);
+            }
+            done.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for gRPC " + action + " calls");
+        }
+
+        return Arrays.asList(results);
+    }
+
+    /**
+     * Map a failed gRPC call to a bulk item result with an HTTP-like status
+     */
+    private static HeadscaleBulkItemResult toBulkItemResult(String target, Throwable t) {
+        Status status = Status.fromThrowable(t);
+        int code;
+        switch (status.getCode()) {
+            case NOT_FOUND:
+                code = 404;
+                break;
+            case INVALID_ARGUMENT:
+                code = 400;
+                break;
+            case FAILED_PRECONDITION:
+            case ALREADY_EXISTS:
+                code = 409;
+                break;
+            case RESOURCE_EXHAUSTED:
+                code = 429;
+                break;
+            case UNAVAILABLE:
+                code = 503;
+                break;
+            case DEADLINE_EXCEEDED:
+                code = 504;
+                break;
+            default:
+                code = 500;
+        }
+        String description = status.getDescription() != null ? status.getDescription() : status.getCode().name();
+        return new HeadscaleBulkItemResult(target, code, description);
+    }
+
+    /**
+     * Create an authenticated async stub; deadlines are applied per call
+     */
+    private headscale.v1.HeadscaleServiceGrpc.HeadscaleServiceFutureStub newFutureStub() throws IOException {
+        if (channel == null || channel.isShutdown()) {
+            throw new IOException("gRPC channel is not available");
+        }
+        return headscale.v1.HeadscaleServiceGrpc.newFutureStub(channel)
+                .withInterceptors(MetadataUtils.newAttachHeadersInterceptor(authMetadata()));
+    }
+
+    /**
+     * Authorization metadata attached to every gRPC call
+     */
+    private Metadata authMetadata() {
+        Metadata metadata = new Metadata();
+        Metadata.Key<String> authKey = Metadata.Key.of("authorization", Metadata.ASCII_STRING_MARSHALLER);
+        metadata.put(authKey, "Bearer " + headscaleProperties.getApiKey());
+        return metadata;
+    }
+
     /**
      * Check if gRPC is available and properly configured
      */
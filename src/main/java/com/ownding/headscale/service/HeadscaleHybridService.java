@@ -1,13 +1,25 @@
 package com.ownding.headscale.service;
 
+import com.ownding.headscale.conf.HeadscaleProperties;
+import com.ownding.headscale.dal.vo.HeadscaleBulkNodeRequest;
+import com.ownding.headscale.dal.vo.HeadscaleBulkResult;
+import com.ownding.headscale.dal.vo.HeadscaleNode;
 import com.ownding.headscale.dal.vo.HeadscalePreAuthKey;
 import com.ownding.headscale.dal.vo.HeadscaleUser;
+import com.ownding.headscale.utils.HeadscaleTimeUtils;
 import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.StringUtils;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
 import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
 
 /**
  * Headscale Hybrid Service
@@ -25,6 +37,9 @@ public class HeadscaleHybridService {
     @Autowired
     private HeadscaleGrpcService grpcService;
 
+    @Autowired
+    private HeadscaleProperties headscaleProperties;
+
     /**
      * Create user with optional displayName (namespace)
      * Uses gRPC when displayName is provided, falls back to REST API otherwise
@@ -127,6 +142,93 @@ public class HeadscaleHybridService {
         return restService.userHasNodes(username);
     }
 
+    /**
+     * Delete nodes in bulk: selection via the REST node listing, deletion pipelined over gRPC
+     */
+    public HeadscaleBulkResult deleteNodes(HeadscaleBulkNodeRequest request) throws IOException {
+        List<String> nodeIds = selectNodeIds(request);
+        return new HeadscaleBulkResult(grpcService.deleteNodes(nodeIds, resolveWindow(request)));
+    }
+
+    /**
+     * Expire nodes in bulk: selection via the REST node listing, expiry pipelined over gRPC
+     */
+    public HeadscaleBulkResult expireNodes(HeadscaleBulkNodeRequest request) throws IOException {
+        List<String> nodeIds = selectNodeIds(request);
+        return new HeadscaleBulkResult(grpcService.expireNodes(nodeIds, resolveWindow(request)));
+    }
+
+    /**
+     * Resolve the node ids targeted by a bulk request.
+     * Explicit ids alone need no upstream call; any filter (user, tag, inactivity) is applied
+     * against one node listing and intersected with the explicit ids when both are given.
+     * Nodes that were never seen are measured from their creation time; nodes with neither time are skipped,
+     * so a node that registered but has not checked in yet is never selected by inactivity.
+     */
+    private List<String> selectNodeIds(HeadscaleBulkNodeRequest request) throws IOException {
+        boolean hasIds = request.getNodeIds() != null && !request.getNodeIds().isEmpty();
+        boolean hasFilter = StringUtils.isNotBlank(request.getUser()) || StringUtils.isNotBlank(request.getTag())
+                || request.getInactiveHours() != null;
+        if (!hasIds && !hasFilter) {
+            throw new IllegalArgumentException("Either node ids or a filter (user, tag, inactiveHours) is required");
+        }
+        if (request.getInactiveHours() != null && request.getInactiveHours() <= 0) {
+            // 0 or less would select every node that was ever seen
+            throw new IllegalArgumentException("inactiveHours must be a positive number of hours");
+        }
+        if (!hasFilter) {
+            return new ArrayList<>(new LinkedHashSet<>(request.getNodeIds()));
+        }
+
+        String tag = StringUtils.isBlank(request.getTag()) ? null
+                : request.getTag().startsWith("tag:") ? request.getTag() : "tag:" + request.getTag();
+        Instant seenBefore = request.getInactiveHours() != null
+                ? Instant.now().minus(Duration.ofHours(request.getInactiveHours())) : null;
+        Set<String> explicitIds = hasIds ? new HashSet<>(request.getNodeIds()) : null;
+
+        List<String> selected = new ArrayList<>();
+        List<HeadscaleNode> nodes = restService.getNodes();
+        if (nodes == null) {
+            return selected;
+        }
+        for (HeadscaleNode node : nodes) {
+            if (explicitIds != null && !explicitIds.contains(node.getId())) {
+                continue;
+            }
+            if (StringUtils.isNotBlank(request.getUser())
+                    && (node.getUser() == null || !request.getUser().equals(node.getUser().getName()))) {
+                continue;
+            }
+            if (tag != null && !hasTag(node, tag)) {
+                continue;
+            }
+            if (seenBefore != null) {
+                Instant lastSeen = HeadscaleTimeUtils.parseHeadscaleInstant(node.getLastSeen());
+                if (lastSeen == null || lastSeen.getEpochSecond() <= 0) {
+                    // never seen (absent, unparseable or the zero time): fall back to when the node registered
+                    lastSeen = HeadscaleTimeUtils.parseHeadscaleInstant(node.getCreatedAt());
+                }
+                if (lastSeen == null || lastSeen.getEpochSecond() <= 0 || lastSeen.isAfter(seenBefore)) {
+                    continue;
+                }
+            }
+            selected.add(node.getId());
+        }
+        log.info("Bulk node filter (user={}, tag={}, inactiveHours={}) selected {} of {} nodes",
+                request.getUser(), tag, request.getInactiveHours(), selected.size(), nodes.size());
+        return selected;
+    }
+
+    private static boolean hasTag(HeadscaleNode node, String tag) {
+        return (node.getValidTags() != null && node.getValidTags().contains(tag))
+                || (node.getForcedTags() != null && node.getForcedTags().contains(tag));
+    }
+
+    private int resolveWindow(HeadscaleBulkNodeRequest request) {
+        int maxWindow = headscaleProperties.getGrpcWindow();
+        return request.getWindow() != null && request.getWindow() > 0 ? Math.min(request.getWindow(), maxWindow) : maxWindow;
+    }
+
     /**
      * Test connection (tests both REST and gRPC)
      */
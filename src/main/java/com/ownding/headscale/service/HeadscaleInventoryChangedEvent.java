@@ -0,0 +1,33 @@
+package com.ownding.headscale.service;
+
+import com.ownding.headscale.dal.vo.HeadscaleInventorySnapshot;
+import com.ownding.headscale.dal.vo.HeadscaleNodeEvent;
+import lombok.Getter;
+
+import java.util.List;
+
+/**
+ * Published by HeadscaleInventoryService whenever a refresh produces a new inventory version
+ */
+@Getter
+public class HeadscaleInventoryChangedEvent {
+
+    /**
+     * Snapshot before the change, null on the first load
+     */
+    private final HeadscaleInventorySnapshot previous;
+
+    private final HeadscaleInventorySnapshot current;
+
+    /**
+     * Node changes between previous and current, computed once for all listeners
+     */
+    private final List<HeadscaleNodeEvent> nodeEvents;
+
+    public HeadscaleInventoryChangedEvent(HeadscaleInventorySnapshot previous, HeadscaleInventorySnapshot current,
+                                          List<HeadscaleNodeEvent> nodeEvents) {
+        this.previous = previous;
+        this.current = current;
+        this.nodeEvents = nodeEvents;
+    }
+}
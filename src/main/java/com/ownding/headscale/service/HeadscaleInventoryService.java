@@ -0,0 +1,371 @@
+package com.ownding.headscale.service;
+
+import com.ownding.headscale.conf.HeadscaleProperties;
+import com.ownding.headscale.dal.vo.HeadscaleInventorySnapshot;
+import com.ownding.headscale.dal.vo.HeadscaleNode;
+import com.ownding.headscale.dal.vo.HeadscalePreAuthKey;
+import com.ownding.headscale.dal.vo.HeadscaleUser;
+import com.ownding.headscale.utils.HeadscaleConcurrencyUtils;
+import com.ownding.headscale.utils.HeadscaleDeadlineUtils;
+import com.ownding.headscale.utils.HeadscaleNodeDiffUtils;
+import com.ownding.headscale.utils.HeadscaleSnapshotCodec;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Headscale Inventory Service
+ * Polls users and nodes from Headscale on a fixed interval and keeps the latest versioned snapshot.
+ * One upstream poll feeds every consumer; consumers react to HeadscaleInventoryChangedEvent.
+ * The snapshot (plus the last known pre-auth keys) is persisted so a restart serves stale-but-flagged data
+ * while the first live refresh runs in the background.
+ */
+@Service
+@Slf4j
+public class HeadscaleInventoryService {
+
+    /**
+     * Rewrite an unchanged snapshot at least this often so the persisted age stays accurate
+     */
+    private static final long PERSIST_INTERVAL = 60000;
+
+    @Autowired
+    private HeadscaleService restService;
+
+    @Autowired
+    private HeadscaleProperties headscaleProperties;
+
+    @Autowired
+    @Qualifier("headscaleExecutor")
+    private Executor headscaleExecutor;
+
+    @Autowired
+    private ApplicationEventPublisher eventPublisher;
+
+    @Autowired
+    private HeadscaleSnapshotStore snapshotStore;
+
+    private final AtomicReference<HeadscaleInventorySnapshot> snapshot = new AtomicReference<>();
+
+    private final Object refreshLock = new Object();
+
+    /**
+     * Set by mutations so the next read refreshes instead of serving pre-mutation data
+     */
+    private volatile boolean dirty;
+
+    private final AtomicBoolean backgroundRefreshing = new AtomicBoolean();
+
+    /**
+     * Last known pre-auth keys by username, persisted alongside the snapshot
+     */
+    private final Map<String, List<HeadscalePreAuthKey>> preAuthKeys = new ConcurrentHashMap<>();
+
+    private final AtomicReference<HeadscaleInventorySnapshot> pendingPersist = new AtomicReference<>();
+
+    private final AtomicBoolean persisting = new AtomicBoolean();
+
+    private volatile long lastPersistedRefreshAt;
+
+    private ScheduledExecutorService scheduler;
+
+    @PostConstruct
+    public void init() {
+        loadPersistedSnapshot();
+
+        long interval = headscaleProperties.getInventoryRefreshInterval();
+        if (interval <= 0) {
+            log.info("Headscale inventory polling disabled");
+            return;
+        }
+
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "headscale-inventory");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::scheduledRefresh, interval, interval, TimeUnit.MILLISECONDS);
+        log.info("Headscale inventory polling every {}ms", interval);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+
+    /**
+     * Latest snapshot, or null if the inventory has never been loaded
+     */
+    public HeadscaleInventorySnapshot getSnapshot() {
+        return snapshot.get();
+    }
+
+    /**
+     * Snapshot for serving reads.
+     * A persisted snapshot is returned immediately while a live refresh runs in the background; a live snapshot
+     * is refreshed when older than inventoryMaxAge or after a mutation, falling back to the stale one on failure.
+     */
+    public HeadscaleInventorySnapshot current() throws IOException {
+        HeadscaleInventorySnapshot current = snapshot.get();
+        if (current == null) {
+            return refreshIfStale();
+        }
+        if (current.isPersisted()) {
+            refreshInBackground();
+            return current;
+        }
+        if (!isStale(current)) {
+            return current;
+        }
+
+        try {
+            return refreshIfStale();
+        } catch (IOException e) {
+            log.warn("Headscale inventory refresh failed, serving snapshot version {} aged {}ms: {}",
+                    current.getVersion(), current.getAge(), e.getMessage());
+            return current;
+        }
+    }
+
+    /**
+     * True if the snapshot was loaded from disk or is older than inventoryMaxAge
+     */
+    public boolean isStale(HeadscaleInventorySnapshot current) {
+        return current.isPersisted() || dirty || current.getAge() > headscaleProperties.getInventoryMaxAge();
+    }
+
+    /**
+     * Remember the latest pre-auth keys of a user so they can be served while Headscale is unreachable
+     */
+    public void recordPreAuthKeys(String username, List<HeadscalePreAuthKey> keys) {
+        if (username == null || keys == null) {
+            return;
+        }
+        List<HeadscalePreAuthKey> previous = preAuthKeys.put(username, new ArrayList<>(keys));
+        HeadscaleInventorySnapshot current = snapshot.get();
+        if (current != null && !keys.equals(previous)) {
+            schedulePersist(current);
+        }
+    }
+
+    /**
+     * Last known pre-auth keys of a user, or null if never seen
+     */
+    public List<HeadscalePreAuthKey> getCachedPreAuthKeys(String username) {
+        return preAuthKeys.get(username);
+    }
+
+    @EventListener
+    public void onMutation(HeadscaleMutationEvent event) {
+        dirty = true;
+    }
+
+    /**
+     * Fetch users and nodes concurrently and install them as the new snapshot.
+     * The version is only bumped (and HeadscaleInventoryChangedEvent published) when the content changed.
+     * The refresh is shared by every reader, so it runs without the deadline of the request that triggered it.
+     */
+    public HeadscaleInventorySnapshot refresh() throws IOException {
+        Long deadline = HeadscaleDeadlineUtils.suspend();
+        try {
+            return refreshLocked();
+        } finally {
+            HeadscaleDeadlineUtils.resume(deadline);
+        }
+    }
+
+    private HeadscaleInventorySnapshot refreshLocked() throws IOException {
+        synchronized (refreshLock) {
+            // Cleared before the fetch so a mutation during it marks the result dirty again
+            dirty = false;
+            List<HeadscaleUser> users;
+            List<HeadscaleNode> nodes;
+            try {
+                CompletableFuture<List<HeadscaleUser>> usersFuture = HeadscaleConcurrencyUtils.supplyAsync(restService::getUsers, headscaleExecutor);
+                CompletableFuture<List<HeadscaleNode>> nodesFuture = HeadscaleConcurrencyUtils.supplyAsync(restService::getNodes, headscaleExecutor);
+                users = HeadscaleConcurrencyUtils.join(usersFuture);
+                nodes = HeadscaleConcurrencyUtils.join(nodesFuture);
+            } catch (IOException | RuntimeException e) {
+                // The installed snapshot still predates the mutation, keep it marked stale
+                dirty = true;
+                throw e;
+            }
+
+            HeadscaleInventorySnapshot previous = snapshot.get();
+            HeadscaleInventorySnapshot current = buildSnapshot(previous, users, nodes, System.currentTimeMillis());
+            snapshot.set(current);
+
+            if (previous == null || previous.isPersisted() || previous.getVersion() != current.getVersion()
+                    || current.getRefreshedAt() - lastPersistedRefreshAt >= PERSIST_INTERVAL) {
+                schedulePersist(current);
+            }
+
+            if (previous == null || previous.getVersion() != current.getVersion()) {
+                log.debug("Headscale inventory changed: version {} ({} users, {} nodes)",
+                        current.getVersion(), current.getUsers().size(), current.getNodes().size());
+                eventPublisher.publishEvent(new HeadscaleInventoryChangedEvent(previous, current,
+                        HeadscaleNodeDiffUtils.diff(previous, current)));
+            }
+            return current;
+        }
+    }
+
+    private HeadscaleInventorySnapshot refreshIfStale() throws IOException {
+        synchronized (refreshLock) {
+            // Another caller may have refreshed while this one waited for the lock
+            HeadscaleInventorySnapshot current = snapshot.get();
+            if (current != null && !isStale(current)) {
+                return current;
+            }
+            return refresh();
+        }
+    }
+
+    private void refreshInBackground() {
+        if (!backgroundRefreshing.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            headscaleExecutor.execute(() -> {
+                try {
+                    scheduledRefresh();
+                } finally {
+                    backgroundRefreshing.set(false);
+                }
+            });
+        } catch (RuntimeException e) {
+            backgroundRefreshing.set(false);
+            log.warn("Failed to schedule Headscale inventory refresh: {}", e.getMessage());
+        }
+    }
+
+    private void loadPersistedSnapshot() {
+        HeadscaleSnapshotCodec.Contents contents = snapshotStore.load();
+        if (contents == null) {
+            return;
+        }
+
+        HeadscaleInventorySnapshot loaded = assemble(contents.version, contents.refreshedAt,
+                contents.users, contents.nodes, true);
+        snapshot.set(loaded);
+        preAuthKeys.putAll(contents.preAuthKeys);
+        lastPersistedRefreshAt = contents.refreshedAt;
+        log.info("Loaded persisted Headscale inventory version {} aged {}ms ({} users, {} nodes)",
+                loaded.getVersion(), loaded.getAge(), loaded.getUsers().size(), loaded.getNodes().size());
+
+        refreshInBackground();
+    }
+
+    /**
+     * Queue the snapshot for persistence; a single writer always writes the latest queued snapshot
+     */
+    private void schedulePersist(HeadscaleInventorySnapshot current) {
+        if (!snapshotStore.isEnabled() || current.isPersisted()) {
+            return;
+        }
+        pendingPersist.set(current);
+        if (!persisting.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            headscaleExecutor.execute(this::drainPersist);
+        } catch (RuntimeException e) {
+            persisting.set(false);
+            log.warn("Failed to schedule Headscale snapshot persistence: {}", e.getMessage());
+        }
+    }
+
+    private void drainPersist() {
+        try {
+            HeadscaleInventorySnapshot next;
+            while ((next = pendingPersist.getAndSet(null)) != null) {
+                HeadscaleSnapshotCodec.Contents contents = new HeadscaleSnapshotCodec.Contents();
+                contents.version = next.getVersion();
+                contents.refreshedAt = next.getRefreshedAt();
+                contents.users.addAll(next.getUsers());
+                contents.nodes.addAll(next.getNodes());
+                contents.preAuthKeys.putAll(preAuthKeys);
+                try {
+                    snapshotStore.save(contents);
+                    lastPersistedRefreshAt = next.getRefreshedAt();
+                } catch (IOException e) {
+                    log.warn("Failed to persist Headscale snapshot: {}", e.getMessage());
+                }
+            }
+        } finally {
+            persisting.set(false);
+        }
+        // A snapshot queued between the last poll and the flag reset would otherwise be left behind
+        HeadscaleInventorySnapshot missed = pendingPersist.get();
+        if (missed != null) {
+            schedulePersist(missed);
+        }
+    }
+
+    private void scheduledRefresh() {
+        try {
+            refresh();
+        } catch (Exception e) {
+            log.warn("Headscale inventory refresh failed: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Build a snapshot, keeping the previous version if the content is unchanged
+     */
+    static HeadscaleInventorySnapshot buildSnapshot(HeadscaleInventorySnapshot previous, List<HeadscaleUser> users,
+                                                    List<HeadscaleNode> nodes, long refreshedAt) {
+        List<HeadscaleUser> userList = users != null ? new ArrayList<>(users) : new ArrayList<>();
+        List<HeadscaleNode> nodeList = nodes != null ? new ArrayList<>(nodes) : new ArrayList<>();
+
+        Map<String, HeadscaleNode> nodesById = new HashMap<>(nodeList.size() * 2);
+        Map<String, Long> fingerprints = new HashMap<>(nodeList.size() * 2);
+        for (HeadscaleNode node : nodeList) {
+            nodesById.put(node.getId(), node);
+            fingerprints.put(node.getId(), HeadscaleNodeDiffUtils.fingerprint(node));
+        }
+        long contentHash = HeadscaleNodeDiffUtils.contentHash(userList, nodeList, fingerprints);
+
+        long version;
+        if (previous == null) {
+            version = 1;
+        } else if (previous.getContentHash() == contentHash) {
+            version = previous.getVersion();
+        } else {
+            version = previous.getVersion() + 1;
+        }
+        return new HeadscaleInventorySnapshot(version, refreshedAt, userList, nodeList, contentHash,
+                HeadscaleNodeDiffUtils.responseHash(contentHash, nodeList), nodesById, fingerprints, false);
+    }
+
+    /**
+     * Build a snapshot with a known version (e.g. one read back from disk)
+     */
+    static HeadscaleInventorySnapshot assemble(long version, long refreshedAt, List<HeadscaleUser> users,
+                                               List<HeadscaleNode> nodes, boolean persisted) {
+        HeadscaleInventorySnapshot built = buildSnapshot(null, users, nodes, refreshedAt);
+        return new HeadscaleInventorySnapshot(version, refreshedAt, built.getUsers(), built.getNodes(),
+                built.getContentHash(), built.getResponseHash(), built.getNodesById(), built.getNodeFingerprints(), persisted);
+    }
+}
@@ -0,0 +1,70 @@
+package com.ownding.headscale.service;
+
+import lombok.Getter;
+
+/**
+ * Published after every mutating call to Headscale (successful or not)
+ */
+@Getter
+public class HeadscaleMutationEvent {
+
+    /**
+     * What was done, e.g. user.create, node.delete
+     */
+    private final String action;
+
+    /**
+     * What it was done to (username, user id, node id, ...)
+     */
+    private final String target;
+
+    private final boolean success;
+
+    /**
+     * Who did it (see HeadscaleActorUtils)
+     */
+    private final String actor;
+
+    /**
+     * Unverified actor sent by the client in the X-Actor header, null if none
+     */
+    private final String claimedActor;
+
+    /**
+     * Duration of the upstream call in milliseconds
+     */
+    private final long latencyMs;
+
+    /**
+     * State of the target read right before the call, null if not captured (see HeadscaleService.recordMutation)
+     */
+    private final Object before;
+
+    /**
+     * Object returned by the call (created user, key, policy, ...), null if none or failed
+     */
+    private final Object result;
+
+    /**
+     * Failure message, null on success
+     */
+    private final String error;
+
+    public HeadscaleMutationEvent(String action, String target, boolean success, String actor, String claimedActor,
+                                  long startedAt, Object result, String error) {
+        this(action, target, success, actor, claimedActor, startedAt, null, result, error);
+    }
+
+    public HeadscaleMutationEvent(String action, String target, boolean success, String actor, String claimedActor,
+                                  long startedAt, Object before, Object result, String error) {
+        this.action = action;
+        this.target = target;
+        this.success = success;
+        this.actor = actor;
+        this.claimedActor = claimedActor;
+        this.latencyMs = Math.max(0, System.currentTimeMillis() - startedAt);
+        this.before = before;
+        this.result = result;
+        this.error = error;
+    }
+}
@@ -0,0 +1,127 @@
+package com.ownding.headscale.service;
+
+import com.ownding.headscale.conf.HeadscaleProperties;
+import com.ownding.headscale.dal.vo.HeadscaleNodeChanges;
+import com.ownding.headscale.dal.vo.HeadscaleNodeEvent;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Headscale Node Change Log Service
+ * Keeps the most recent node inventory changes in a bounded ring buffer so that mirrors
+ * (CMDB, monitoring) can sync only what changed since the version they last saw.
+ * Clients continue from an "epoch.version" token. The epoch identifies this change log instance, because inventory
+ * versions restart at 1 when no snapshot is persisted; a token from another epoch always requires a resync.
+ */
+@Service
+@Slf4j
+public class HeadscaleNodeChangeLogService {
+
+    @Autowired
+    private HeadscaleProperties headscaleProperties;
+
+    /**
+     * Identifies this change log instance, so tokens handed out before a restart are recognized
+     */
+    private final String epoch = Long.toString(System.currentTimeMillis(), 36);
+
+    private HeadscaleNodeEvent[] ring;
+
+    /**
+     * Index of the oldest record
+     */
+    private int head;
+
+    private int size;
+
+    /**
+     * Changes up to and including this version may be missing from the ring (not observed or evicted);
+     * -1 until the first inventory has been loaded
+     */
+    private long floorVersion = -1;
+
+    /**
+     * Latest inventory version seen by the log; clients continue from here
+     */
+    private long currentVersion;
+
+    @PostConstruct
+    public void init() {
+        ring = new HeadscaleNodeEvent[Math.max(1, headscaleProperties.getNodeChangeLogSize())];
+    }
+
+    @EventListener
+    public synchronized void onInventoryChanged(HeadscaleInventoryChangedEvent event) {
+        if (floorVersion < 0 || event.getPrevious() == null) {
+            // Changes before the first observed inventory are unknown
+            floorVersion = event.getCurrent().getVersion();
+        }
+        currentVersion = event.getCurrent().getVersion();
+        for (HeadscaleNodeEvent nodeEvent : event.getNodeEvents()) {
+            if (size == ring.length) {
+                floorVersion = Math.max(floorVersion, ring[head].getVersion());
+                head = (head + 1) % ring.length;
+                size--;
+            }
+            ring[(head + size) % ring.length] = nodeEvent;
+            size++;
+        }
+    }
+
+    /**
+     * Get the node changes recorded after the version of the {@code since} token
+     */
+    public synchronized HeadscaleNodeChanges getChangesSince(String token) {
+        HeadscaleNodeChanges result = new HeadscaleNodeChanges();
+        result.setSince(token);
+        result.setVersion(currentVersion);
+        result.setToken(epoch + "." + currentVersion);
+
+        long since = parseToken(token);
+        if (floorVersion < 0 || since < floorVersion || since > currentVersion) {
+            result.setResyncRequired(true);
+            result.setChanges(Collections.emptyList());
+            return result;
+        }
+
+        // Records are ordered by version, so binary search the first one after since
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (ring[(head + mid) % ring.length].getVersion() <= since) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        List<HeadscaleNodeEvent> changes = new ArrayList<>(size - low);
+        for (int i = low; i < size; i++) {
+            changes.add(ring[(head + i) % ring.length]);
+        }
+        result.setChanges(changes);
+        return result;
+    }
+
+    /**
+     * Version of a token issued by this epoch, -1 for anything else (other epoch, bare version, malformed)
+     */
+    private long parseToken(String token) {
+        int dot = token != null ? token.lastIndexOf('.') : -1;
+        if (dot <= 0 || !epoch.equals(token.substring(0, dot))) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(token.substring(dot + 1));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+}
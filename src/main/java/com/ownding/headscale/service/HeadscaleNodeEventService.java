@@ -0,0 +1,183 @@
+package com.ownding.headscale.service;
+
+import com.ownding.headscale.conf.HeadscaleProperties;
+import com.ownding.headscale.dal.vo.HeadscaleInventorySnapshot;
+import com.ownding.headscale.dal.vo.HeadscaleNodeEvent;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.event.EventListener;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Headscale Node Event Service
+ * Fans node change events from the single inventory poll out to Server-Sent Events subscribers.
+ * Every subscriber has a bounded buffer; when a slow client overflows it, its buffer is dropped
+ * and it receives a "resync" event telling it to reload the full node list.
+ */
+@Service
+@Slf4j
+public class HeadscaleNodeEventService {
+
+    public static final String RESYNC_EVENT = "resync";
+
+    @Autowired
+    private HeadscaleProperties headscaleProperties;
+
+    @Autowired
+    private HeadscaleInventoryService inventoryService;
+
+    private final Set<Subscriber> subscribers = ConcurrentHashMap.newKeySet();
+
+    private ExecutorService deliveryExecutor;
+
+    @PostConstruct
+    public void init() {
+        AtomicInteger threadCount = new AtomicInteger();
+        deliveryExecutor = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "headscale-sse-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        for (Subscriber subscriber : subscribers) {
+            subscriber.emitter.complete();
+        }
+        subscribers.clear();
+        deliveryExecutor.shutdownNow();
+    }
+
+    /**
+     * Register a new SSE subscriber. The first event is always "resync" carrying the current
+     * inventory version, after which only changes are streamed.
+     *
+     * @param types event types to receive, empty for all
+     */
+    public SseEmitter subscribe(Set<String> types) {
+        SseEmitter emitter = new SseEmitter(headscaleProperties.getNodeEventTimeout());
+        Subscriber subscriber = new Subscriber(emitter, types, headscaleProperties.getNodeEventBufferSize());
+
+        emitter.onCompletion(() -> subscribers.remove(subscriber));
+        emitter.onTimeout(() -> subscribers.remove(subscriber));
+        emitter.onError(e -> subscribers.remove(subscriber));
+
+        subscribers.add(subscriber);
+        subscriber.requestResync();
+        log.info("Node event subscriber connected (types: {}, subscribers: {})",
+                types.isEmpty() ? "all" : types, subscribers.size());
+        return emitter;
+    }
+
+    public int getSubscriberCount() {
+        return subscribers.size();
+    }
+
+    @EventListener
+    public void onInventoryChanged(HeadscaleInventoryChangedEvent event) {
+        List<HeadscaleNodeEvent> nodeEvents = event.getNodeEvents();
+        if (subscribers.isEmpty() || nodeEvents.isEmpty()) {
+            return;
+        }
+        for (Subscriber subscriber : subscribers) {
+            subscriber.offer(nodeEvents);
+        }
+    }
+
+    private long currentVersion() {
+        HeadscaleInventorySnapshot snapshot = inventoryService.getSnapshot();
+        return snapshot != null ? snapshot.getVersion() : 0;
+    }
+
+    /**
+     * One SSE client with its own bounded buffer; at most one delivery task runs per subscriber
+     */
+    private class Subscriber {
+        private final SseEmitter emitter;
+        private final Set<String> types;
+        private final ArrayBlockingQueue<HeadscaleNodeEvent> buffer;
+        private final AtomicBoolean draining = new AtomicBoolean();
+        private volatile boolean resync;
+
+        Subscriber(SseEmitter emitter, Set<String> types, int bufferSize) {
+            this.emitter = emitter;
+            this.types = types != null ? types : Collections.emptySet();
+            this.buffer = new ArrayBlockingQueue<>(Math.max(1, bufferSize));
+        }
+
+        void offer(List<HeadscaleNodeEvent> events) {
+            for (HeadscaleNodeEvent event : events) {
+                if (!types.isEmpty() && !types.contains(event.getType())) {
+                    continue;
+                }
+                if (!buffer.offer(event)) {
+                    // Slow client: drop everything buffered and let it resync from the full list
+                    buffer.clear();
+                    resync = true;
+                    log.debug("Node event subscriber overflowed, dropping buffer and requesting resync");
+                    break;
+                }
+            }
+            scheduleDrain();
+        }
+
+        void requestResync() {
+            resync = true;
+            scheduleDrain();
+        }
+
+        private void scheduleDrain() {
+            if (draining.compareAndSet(false, true)) {
+                deliveryExecutor.execute(this::drain);
+            }
+        }
+
+        private void drain() {
+            try {
+                while (true) {
+                    if (resync) {
+                        resync = false;
+                        emitter.send(SseEmitter.event()
+                                .name(RESYNC_EVENT)
+                                .id(String.valueOf(currentVersion()))
+                                .data(Collections.singletonMap("version", currentVersion()), MediaType.APPLICATION_JSON));
+                    }
+                    HeadscaleNodeEvent event = buffer.poll();
+                    if (event == null) {
+                        break;
+                    }
+                    emitter.send(SseEmitter.event()
+                            .name(event.getType())
+                            .id(String.valueOf(event.getVersion()))
+                            .data(event, MediaType.APPLICATION_JSON));
+                }
+            } catch (Exception e) {
+                log.debug("Node event subscriber disconnected: {}", e.getMessage());
+                subscribers.remove(this);
+                emitter.completeWithError(e);
+                return;
+            } finally {
+                draining.set(false);
+            }
+            // Events may have arrived after the last poll but before draining was cleared
+            if ((resync || !buffer.isEmpty()) && subscribers.contains(this)) {
+                scheduleDrain();
+            }
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package com.ownding.headscale.service;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.ownding.headscale.dal.vo.HeadscaleNode;
+import com.ownding.headscale.dal.vo.HeadscaleUser;
+import com.ownding.headscale.utils.HeadscaleFieldProjection;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Headscale Node Export Service
+ * Writes the node inventory as NDJSON, one node per line, through a single JSON generator. The upstream source
+ * decodes the Headscale response one node at a time and writes it out before reading the next, so neither the
+ * response body nor a node list is ever held in memory; the snapshot source walks the nodes already in memory.
+ */
+@Service
+@Slf4j
+public class HeadscaleNodeExportService {
+
+    public static final String SOURCE_UPSTREAM = "upstream";
+    public static final String SOURCE_SNAPSHOT = "snapshot";
+
+    @Autowired
+    private HeadscaleService restService;
+
+    @Autowired
+    private HeadscaleInventoryService inventoryService;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    private ObjectWriter nodeWriter;
+
+    @PostConstruct
+    public void init() {
+        // the generator buffers and the servlet stream flushes on its own; a flush per node would send one chunk per line
+        nodeWriter = objectMapper.writer().without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+    }
+
+    /**
+     * @throws IllegalArgumentException unknown source
+     */
+    public String resolveSource(String source) {
+        String normalized = StringUtils.defaultIfBlank(source, SOURCE_UPSTREAM).trim().toLowerCase();
+        if (!SOURCE_UPSTREAM.equals(normalized) && !SOURCE_SNAPSHOT.equals(normalized)) {
+            throw new IllegalArgumentException("source只能是upstream或snapshot");
+        }
+        return normalized;
+    }
+
+    /**
+     * Look a username up in the inventory
+     *
+     * @throws IllegalArgumentException the user does not exist
+     */
+    public HeadscaleUser resolveUser(String username) throws IOException {
+        for (HeadscaleUser user : inventoryService.current().getUsers()) {
+            if (username.equals(user.getName())) {
+                return user;
+            }
+        }
+        throw new IllegalArgumentException("用户不存在: " + username);
+    }
+
+    /**
+     * Write the nodes (of one user when given) as NDJSON
+     *
+     * @param projection only these fields per node, null for the full node
+     * @return number of nodes written
+     */
+    public int export(String source, HeadscaleUser user, HeadscaleFieldProjection projection, OutputStream output)
+            throws IOException {
+        long started = System.nanoTime();
+        int count;
+        try (JsonGenerator generator = objectMapper.getFactory().createGenerator(output)) {
+            // closing the generator must not close the servlet stream; lines are separated by '\n' instead of
+            // the default root separator (a space)
+            generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+            generator.setRootValueSeparator(null);
+            HeadscaleService.NodeConsumer writer = node -> {
+                nodeWriter.writeValue(generator, projection != null ? projection.apply(node) : node);
+                generator.writeRaw('\n');
+            };
+
+            if (SOURCE_SNAPSHOT.equals(source)) {
+                count = 0;
+                for (HeadscaleNode node : inventoryService.current().getNodes()) {
+                    if (user == null || (node.getUser() != null && user.getName().equals(node.getUser().getName()))) {
+                        writer.accept(node);
+                        count++;
+                    }
+                }
+            } else {
+                count = restService.streamNodes(user != null ? user.getId() : null, writer);
+            }
+        }
+        log.info("Exported {} nodes from {}{} in {}ms", count, source, user != null ? " for user " + user.getName() : "",
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started));
+        return count;
+    }
+}
@@ -0,0 +1,598 @@
+package com.ownding.headscale.service;
+
+import com.ownding.headscale.conf.HeadscaleProperties;
+import com.ownding.headscale.dal.vo.HeadscaleBulkItemResult;
+import com.ownding.headscale.dal.vo.HeadscaleInventorySnapshot;
+import com.ownding.headscale.dal.vo.HeadscaleNode;
+import com.ownding.headscale.dal.vo.HeadscaleNodeEvent;
+import com.ownding.headscale.dal.vo.HeadscaleNodeReaperEntry;
+import com.ownding.headscale.dal.vo.HeadscaleNodeReaperReport;
+import com.ownding.headscale.dal.vo.HeadscaleNodeReaperStatus;
+import com.ownding.headscale.utils.HeadscaleActorUtils;
+import com.ownding.headscale.utils.HeadscaleConcurrencyUtils;
+import com.ownding.headscale.utils.HeadscaleTimeUtils;
+import com.ownding.headscale.utils.HeadscaleTokenBucket;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.context.event.ContextClosedEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Headscale Node Reaper Service
+ * Keeps every offline node that matches the reaper policy (users, tags, ephemeral) in a queue ordered by the
+ * moment it becomes stale: last_seen plus nodeReaperInactiveHours, or expiry plus nodeReaperExpiredHours.
+ * The queue is maintained from inventory change events, so only changed nodes are touched; a single worker
+ * sleeps until the earliest deadline, re-checks due nodes against the current snapshot and deletes or
+ * expires them in rate-limited batches. Manual runs and the preview use the same queue.
+ */
+@Service
+@Slf4j
+public class HeadscaleNodeReaperService {
+
+    private static final String ACTION_DELETE = "delete";
+    private static final String ACTION_EXPIRE = "expire";
+    private static final String REASON_INACTIVE = "inactive";
+    private static final String REASON_EXPIRED = "expired";
+
+    /**
+     * Delay before a node whose reap failed is tried again
+     */
+    private static final long RETRY_DELAY = 60000;
+
+    private static final long HOUR = 3600000L;
+
+    @Autowired
+    private HeadscaleProperties headscaleProperties;
+
+    @Autowired
+    private HeadscaleService restService;
+
+    @Autowired
+    private HeadscaleGrpcService grpcService;
+
+    @Autowired
+    private HeadscaleInventoryService inventoryService;
+
+    @Autowired
+    @Qualifier("headscaleExecutor")
+    private Executor headscaleExecutor;
+
+    private static class Entry {
+        private final HeadscaleNode node;
+        private final long deadline;
+        private final String reason;
+
+        Entry(HeadscaleNode node, long deadline, String reason) {
+            this.node = node;
+            this.deadline = deadline;
+            this.reason = reason;
+        }
+    }
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private final Condition queueChanged = lock.newCondition();
+
+    // earliest deadline first; replaced entries stay in the heap and are skipped when they reach the head
+    private final PriorityQueue<Entry> queue = new PriorityQueue<>(Comparator.comparingLong((Entry entry) -> entry.deadline));
+
+    // node id -> the entry currently in force
+    private final Map<String, Entry> live = new HashMap<>();
+
+    private final Deque<HeadscaleNodeReaperReport> reports = new ArrayDeque<>();
+
+    private final LongAdder reaped = new LongAdder();
+
+    private final LongAdder failed = new LongAdder();
+
+    private String action;
+
+    private Set<String> users;
+
+    private Set<String> tags;
+
+    private HeadscaleTokenBucket rateLimiter;
+
+    private ExecutorService worker;
+
+    @PostConstruct
+    public void init() {
+        action = StringUtils.defaultIfBlank(headscaleProperties.getNodeReaperAction(), ACTION_DELETE).trim().toLowerCase();
+        if (!ACTION_DELETE.equals(action) && !ACTION_EXPIRE.equals(action)) {
+            throw new IllegalArgumentException("Unsupported headscale.server.nodeReaperAction: " + action);
+        }
+        users = new HashSet<>();
+        for (String user : headscaleProperties.getNodeReaperUsers()) {
+            if (StringUtils.isNotBlank(user)) {
+                users.add(user.trim());
+            }
+        }
+        tags = new HashSet<>();
+        for (String tag : headscaleProperties.getNodeReaperTags()) {
+            if (StringUtils.isNotBlank(tag)) {
+                tags.add(tag.trim().startsWith("tag:") ? tag.trim() : "tag:" + tag.trim());
+            }
+        }
+        int batchSize = Math.max(1, headscaleProperties.getNodeReaperBatchSize());
+        rateLimiter = new HeadscaleTokenBucket(headscaleProperties.getNodeReaperRate() > 0
+                ? headscaleProperties.getNodeReaperRate() : batchSize, batchSize);
+
+        HeadscaleInventorySnapshot snapshot = inventoryService.getSnapshot();
+        if (snapshot != null) {
+            resync(snapshot);
+        }
+
+        if (!headscaleProperties.isNodeReaperEnabled()) {
+            return;
+        }
+        worker = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "headscale-node-reaper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        worker.execute(this::reapLoop);
+        log.info("Node reaper enabled: {} offline nodes after {}h inactive / {}h expired (users: {}, tags: {}, ephemeral only: {}, dry run: {})",
+                action, headscaleProperties.getNodeReaperInactiveHours(), headscaleProperties.getNodeReaperExpiredHours(),
+                users.isEmpty() ? "all" : users, tags.isEmpty() ? "any" : tags,
+                headscaleProperties.isNodeReaperEphemeralOnly(), headscaleProperties.isNodeReaperDryRun());
+    }
+
+    /**
+     * Stop the worker on context close, before the audit listeners are destroyed
+     */
+    @EventListener(ContextClosedEvent.class)
+    public void shutdown() {
+        if (worker != null) {
+            worker.shutdownNow();
+        }
+    }
+
+    @EventListener
+    public void onInventoryChanged(HeadscaleInventoryChangedEvent event) {
+        if (event.getPrevious() == null) {
+            resync(event.getCurrent());
+            return;
+        }
+        if (event.getNodeEvents().isEmpty()) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        lock.lock();
+        try {
+            for (HeadscaleNodeEvent nodeEvent : event.getNodeEvents()) {
+                if (HeadscaleNodeEvent.REMOVED.equals(nodeEvent.getType())) {
+                    live.remove(nodeEvent.getNodeId());
+                } else {
+                    track(nodeEvent.getNode(), now);
+                }
+            }
+            compact();
+            queueChanged.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Reap every node that is due now, in batches of nodeReaperBatchSize
+     *
+     * @param dryRun only report the nodes that would be reaped; the queue is left untouched
+     */
+    public HeadscaleNodeReaperReport reap(boolean dryRun) throws IOException {
+        HeadscaleNodeReaperReport report = newReport(dryRun);
+        long started = System.nanoTime();
+        if (dryRun) {
+            List<Entry> due = new ArrayList<>();
+            long now = System.currentTimeMillis();
+            lock.lock();
+            try {
+                for (Entry entry : live.values()) {
+                    if (entry.deadline <= now) {
+                        due.add(entry);
+                    }
+                }
+            } finally {
+                lock.unlock();
+            }
+            due.sort(Comparator.comparingLong((Entry entry) -> entry.deadline));
+            process(due, true, report);
+        } else {
+            List<Entry> batch;
+            while (!(batch = pollDue(System.currentTimeMillis())).isEmpty()) {
+                process(batch, false, report);
+            }
+        }
+        report.setElapsedMs(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started));
+        record(report);
+        return report;
+    }
+
+    /**
+     * Policy, queue state and the first {@code limit} queued nodes in deadline order
+     */
+    public HeadscaleNodeReaperStatus getStatus(int limit) {
+        HeadscaleNodeReaperStatus status = new HeadscaleNodeReaperStatus();
+        status.setEnabled(worker != null);
+        status.setDryRun(headscaleProperties.isNodeReaperDryRun());
+        status.setAction(action);
+        status.setInactiveHours(headscaleProperties.getNodeReaperInactiveHours());
+        status.setExpiredHours(headscaleProperties.getNodeReaperExpiredHours());
+        status.setReaped(reaped.sum());
+        status.setFailed(failed.sum());
+
+        long now = System.currentTimeMillis();
+        List<Entry> entries;
+        lock.lock();
+        try {
+            entries = new ArrayList<>(live.values());
+            Entry head = peekLive();
+            status.setNextDeadline(head != null ? head.deadline : 0);
+        } finally {
+            lock.unlock();
+        }
+        status.setQueued(entries.size());
+        entries.sort(Comparator.comparingLong((Entry entry) -> entry.deadline));
+        int due = 0;
+        for (Entry entry : entries) {
+            if (entry.deadline <= now) {
+                due++;
+            }
+            if (status.getUpcoming().size() < limit) {
+                status.getUpcoming().add(toView(entry, now));
+            }
+        }
+        status.setDue(due);
+        return status;
+    }
+
+    /**
+     * Most recent reports, newest first
+     */
+    public List<HeadscaleNodeReaperReport> getReports() {
+        synchronized (reports) {
+            return new ArrayList<>(reports);
+        }
+    }
+
+    /**
+     * Worker: sleep until the earliest deadline (or a queue change), then reap the due batch
+     */
+    private void reapLoop() {
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                List<Entry> batch = awaitDue();
+                boolean dryRun = headscaleProperties.isNodeReaperDryRun();
+                HeadscaleNodeReaperReport report = newReport(dryRun);
+                long started = System.nanoTime();
+                process(batch, dryRun, report);
+                report.setElapsedMs(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started));
+                record(report);
+            } catch (InterruptedException | InterruptedIOException e) {
+                Thread.currentThread().interrupt();
+            } catch (Exception e) {
+                log.warn("Node reaper run failed: {}", e.getMessage());
+            }
+        }
+    }
+
+    private List<Entry> awaitDue() throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (true) {
+                Entry head = peekLive();
+                long now = System.currentTimeMillis();
+                if (head == null) {
+                    queueChanged.await();
+                } else if (head.deadline > now) {
+                    queueChanged.await(head.deadline - now, TimeUnit.MILLISECONDS);
+                } else {
+                    return pollDue(now);
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Take up to one batch of due entries off the queue
+     */
+    private List<Entry> pollDue(long now) {
+        int batchSize = Math.max(1, headscaleProperties.getNodeReaperBatchSize());
+        List<Entry> batch = new ArrayList<>();
+        lock.lock();
+        try {
+            Entry head;
+            while (batch.size() < batchSize && (head = peekLive()) != null && head.deadline <= now) {
+                queue.poll();
+                live.remove(head.node.getId());
+                batch.add(head);
+            }
+        } finally {
+            lock.unlock();
+        }
+        return batch;
+    }
+
+    /**
+     * Re-check the entries against the current snapshot and reap the ones still stale
+     */
+    private void process(List<Entry> entries, boolean dryRun, HeadscaleNodeReaperReport report) throws IOException {
+        report.setDue(report.getDue() + entries.size());
+        HeadscaleInventorySnapshot snapshot = inventoryService.getSnapshot();
+        long now = System.currentTimeMillis();
+
+        List<Entry> selected = new ArrayList<>();
+        for (Entry entry : entries) {
+            HeadscaleNode node = snapshot != null ? snapshot.getNodesById().get(entry.node.getId()) : entry.node;
+            Entry current = node != null ? evaluate(node, now) : null;
+            if (current == null || current.deadline > now) {
+                // gone, back online, seen again or out of policy; keep tracking it if it still qualifies later
+                report.setSkipped(report.getSkipped() + 1);
+                if (current != null) {
+                    requeue(current);
+                }
+                continue;
+            }
+            selected.add(current);
+        }
+        if (selected.isEmpty()) {
+            return;
+        }
+
+        List<HeadscaleBulkItemResult> results;
+        if (dryRun) {
+            results = new ArrayList<>(selected.size());
+            for (Entry entry : selected) {
+                results.add(new HeadscaleBulkItemResult(entry.node.getId(), 200, "dry-run: " + entry.reason));
+            }
+        } else {
+            acquire(selected.size());
+            results = execute(selected);
+        }
+
+        for (int i = 0; i < results.size(); i++) {
+            HeadscaleBulkItemResult result = results.get(i);
+            Entry entry = selected.get(i);
+            if (!dryRun && result.isSuccess()) {
+                result.setMessage(entry.reason);
+                report.setReaped(report.getReaped() + 1);
+                reaped.increment();
+            } else if (!dryRun) {
+                report.setFailed(report.getFailed() + 1);
+                failed.increment();
+                requeue(new Entry(entry.node, now + RETRY_DELAY, entry.reason));
+            }
+            report.getItems().add(result);
+        }
+    }
+
+    /**
+     * Block until the rate limiter grants one permit per node
+     */
+    private void acquire(int permits) throws InterruptedIOException {
+        try {
+            for (int i = 0; i < permits; i++) {
+                long wait;
+                while ((wait = rateLimiter.tryAcquire(System.nanoTime())) > 0) {
+                    TimeUnit.NANOSECONDS.sleep(wait);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the node reaper rate limit");
+        }
+    }
+
+    /**
+     * Delete or expire over pipelined gRPC; fall back to bounded parallel REST calls when the gRPC channel is unavailable
+     */
+    private List<HeadscaleBulkItemResult> execute(List<Entry> entries) {
+        List<String> nodeIds = new ArrayList<>(entries.size());
+        for (Entry entry : entries) {
+            nodeIds.add(entry.node.getId());
+        }
+        boolean delete = ACTION_DELETE.equals(action);
+        try {
+            return delete ? grpcService.deleteNodes(nodeIds, headscaleProperties.getGrpcWindow())
+                    : grpcService.expireNodes(nodeIds, headscaleProperties.getGrpcWindow());
+        } catch (IOException e) {
+            log.warn("gRPC unavailable for node reaper, falling back to REST: {}", e.getMessage());
+        }
+
+        return HeadscaleConcurrencyUtils.mapBounded(nodeIds, headscaleProperties.getFanOutConcurrency(), headscaleExecutor, nodeId -> {
+            try {
+                if (delete) {
+                    restService.deleteNode(nodeId);
+                } else {
+                    restService.expireNode(nodeId);
+                }
+                return new HeadscaleBulkItemResult(nodeId, 200, null);
+            } catch (Exception e) {
+                return new HeadscaleBulkItemResult(nodeId, 500, e.getMessage());
+            }
+        }, nodeId -> new HeadscaleBulkItemResult(nodeId, 504, "请求已超出时限，未执行"));
+    }
+
+    /**
+     * When the node becomes stale under the policy, or null if it never will in its current state
+     */
+    private Entry evaluate(HeadscaleNode node, long now) {
+        if (Boolean.TRUE.equals(node.getOnline())) {
+            return null;
+        }
+        if (!users.isEmpty() && (node.getUser() == null || !users.contains(node.getUser().getName()))) {
+            return null;
+        }
+        if (!tags.isEmpty() && !hasAnyTag(node)) {
+            return null;
+        }
+        if (headscaleProperties.isNodeReaperEphemeralOnly()
+                && (node.getPreAuthKey() == null || !Boolean.TRUE.equals(node.getPreAuthKey().getEphemeral()))) {
+            return null;
+        }
+
+        Instant expiry = HeadscaleTimeUtils.parseHeadscaleInstant(node.getExpiry());
+        if (expiry != null && expiry.getEpochSecond() <= 0) {
+            // Headscale reports "no expiry" as the zero time
+            expiry = null;
+        }
+        if (ACTION_EXPIRE.equals(action) && expiry != null && expiry.toEpochMilli() <= now) {
+            return null;
+        }
+
+        Entry entry = null;
+        if (headscaleProperties.getNodeReaperInactiveHours() > 0) {
+            Instant seen = HeadscaleTimeUtils.parseHeadscaleInstant(node.getLastSeen());
+            if (seen == null || seen.getEpochSecond() <= 0) {
+                seen = HeadscaleTimeUtils.parseHeadscaleInstant(node.getCreatedAt());
+            }
+            // never seen and no creation time: no inactivity deadline, like the bulk inactivity filter
+            if (seen != null && seen.getEpochSecond() > 0) {
+                entry = new Entry(node, seen.toEpochMilli() + headscaleProperties.getNodeReaperInactiveHours() * HOUR,
+                        REASON_INACTIVE);
+            }
+        }
+        if (ACTION_DELETE.equals(action) && headscaleProperties.getNodeReaperExpiredHours() >= 0 && expiry != null) {
+            long deadline = expiry.toEpochMilli() + headscaleProperties.getNodeReaperExpiredHours() * HOUR;
+            if (entry == null || deadline < entry.deadline) {
+                entry = new Entry(node, deadline, REASON_EXPIRED);
+            }
+        }
+        return entry;
+    }
+
+    private boolean hasAnyTag(HeadscaleNode node) {
+        for (String tag : tags) {
+            if ((node.getValidTags() != null && node.getValidTags().contains(tag))
+                    || (node.getForcedTags() != null && node.getForcedTags().contains(tag))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Rebuild the queue from a full snapshot (first load only; later changes arrive as node events)
+     */
+    private void resync(HeadscaleInventorySnapshot snapshot) {
+        long now = System.currentTimeMillis();
+        lock.lock();
+        try {
+            live.clear();
+            queue.clear();
+            for (HeadscaleNode node : snapshot.getNodes()) {
+                track(node, now);
+            }
+            queueChanged.signal();
+        } finally {
+            lock.unlock();
+        }
+        log.debug("Node reaper queue rebuilt: {} of {} nodes tracked", live.size(), snapshot.getNodes().size());
+    }
+
+    /**
+     * Add, move or drop a node in the queue; caller holds the lock
+     */
+    private void track(HeadscaleNode node, long now) {
+        Entry entry = evaluate(node, now);
+        if (entry == null) {
+            live.remove(node.getId());
+            return;
+        }
+        live.put(node.getId(), entry);
+        queue.offer(entry);
+    }
+
+    private void requeue(Entry entry) {
+        lock.lock();
+        try {
+            // a node event may have re-queued the node meanwhile; that entry is newer
+            if (live.putIfAbsent(entry.node.getId(), entry) == null) {
+                queue.offer(entry);
+                queueChanged.signal();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Head of the heap after discarding replaced entries; caller holds the lock
+     */
+    private Entry peekLive() {
+        Entry head;
+        while ((head = queue.peek()) != null && live.get(head.node.getId()) != head) {
+            queue.poll();
+        }
+        return head;
+    }
+
+    /**
+     * Rebuild the heap when replaced entries outnumber live ones; caller holds the lock
+     */
+    private void compact() {
+        if (queue.size() > 2 * live.size() + 64) {
+            queue.clear();
+            queue.addAll(live.values());
+        }
+    }
+
+    private HeadscaleNodeReaperReport newReport(boolean dryRun) {
+        HeadscaleNodeReaperReport report = new HeadscaleNodeReaperReport();
+        report.setStartedAt(System.currentTimeMillis());
+        report.setDryRun(dryRun);
+        report.setTrigger(HeadscaleActorUtils.currentActor());
+        report.setAction(action);
+        return report;
+    }
+
+    private void record(HeadscaleNodeReaperReport report) {
+        synchronized (reports) {
+            reports.addFirst(report);
+            while (reports.size() > Math.max(1, headscaleProperties.getNodeReaperHistory())) {
+                reports.removeLast();
+            }
+        }
+        log.info("Node reaper{}: {} due, {} skipped, {} {}d, {} failed in {}ms", report.isDryRun() ? " (dry run)" : "",
+                report.getDue(), report.getSkipped(), report.getReaped(), action, report.getFailed(), report.getElapsedMs());
+    }
+
+    private static HeadscaleNodeReaperEntry toView(Entry entry, long now) {
+        HeadscaleNodeReaperEntry view = new HeadscaleNodeReaperEntry();
+        view.setNodeId(entry.node.getId());
+        view.setName(StringUtils.defaultIfBlank(entry.node.getGivenName(), entry.node.getName()));
+        view.setUser(entry.node.getUser() != null ? entry.node.getUser().getName() : null);
+        view.setLastSeen(entry.node.getLastSeen());
+        view.setExpiry(entry.node.getExpiry());
+        view.setDeadline(entry.deadline);
+        view.setReason(entry.reason);
+        view.setDue(entry.deadline <= now);
+        return view;
+    }
+}
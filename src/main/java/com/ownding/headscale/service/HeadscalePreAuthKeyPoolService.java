@@ -0,0 +1,364 @@
+package com.ownding.headscale.service;
+
+import com.ownding.headscale.conf.HeadscaleProperties;
+import com.ownding.headscale.dal.vo.HeadscaleInventorySnapshot;
+import com.ownding.headscale.dal.vo.HeadscalePreAuthKey;
+import com.ownding.headscale.dal.vo.HeadscalePreAuthKeyPool;
+import com.ownding.headscale.dal.vo.HeadscaleUser;
+import com.ownding.headscale.utils.HeadscaleConcurrencyUtils;
+import com.ownding.headscale.utils.HeadscaleDeadlineUtils;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.context.event.ContextClosedEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Headscale Pre-Auth Key Pool Service
+ * Keeps pools of ready pre-auth keys per user and flags so a claim is answered from memory instead of
+ * a user lookup plus a create round-trip. A background minter tops pools up to preAuthKeyPoolSize and
+ * expires keys that wait longer than preAuthKeyPoolMaxAge, so a claimed key always has most of its lifetime left.
+ */
+@Service
+@Slf4j
+public class HeadscalePreAuthKeyPoolService {
+
+    private static final long SHUTDOWN_EXPIRE_BUDGET = 5000;
+
+    @Autowired
+    private HeadscaleProperties headscaleProperties;
+
+    @Autowired
+    private HeadscaleService restService;
+
+    @Autowired
+    private HeadscaleInventoryService inventoryService;
+
+    @Autowired
+    @Qualifier("headscaleExecutor")
+    private Executor headscaleExecutor;
+
+    private final ConcurrentMap<String, Pool> pools = new ConcurrentHashMap<>();
+
+    private final AtomicBoolean refillRequested = new AtomicBoolean();
+
+    private ScheduledExecutorService scheduler;
+
+    private static class PooledKey {
+        private final HeadscalePreAuthKey key;
+        private final long mintedAt;
+
+        PooledKey(HeadscalePreAuthKey key, long mintedAt) {
+            this.key = key;
+            this.mintedAt = mintedAt;
+        }
+    }
+
+    private static class Pool {
+        private final String username;
+        private final boolean reusable;
+        private final boolean ephemeral;
+        private final boolean pinned;
+        // oldest key first; claims poll the head, the minter appends at the tail
+        private final ConcurrentLinkedDeque<PooledKey> keys = new ConcurrentLinkedDeque<>();
+        private final AtomicInteger size = new AtomicInteger();
+        private final ConcurrentLinkedQueue<PooledKey> retired = new ConcurrentLinkedQueue<>();
+        private final LongAdder hits = new LongAdder();
+        private final LongAdder misses = new LongAdder();
+        private final LongAdder minted = new LongAdder();
+        private final LongAdder expired = new LongAdder();
+        private volatile HeadscaleUser user;
+        private volatile long lastClaimAt = System.currentTimeMillis();
+        private volatile long retryAt;
+        private volatile String lastError;
+
+        Pool(String username, boolean reusable, boolean ephemeral, boolean pinned) {
+            this.username = username;
+            this.reusable = reusable;
+            this.ephemeral = ephemeral;
+            this.pinned = pinned;
+        }
+
+        PooledKey poll() {
+            PooledKey pooled = keys.pollFirst();
+            if (pooled != null) {
+                size.decrementAndGet();
+            }
+            return pooled;
+        }
+    }
+
+    @PostConstruct
+    public void init() {
+        if (headscaleProperties.getPreAuthKeyPoolSize() <= 0) {
+            log.info("Headscale pre-auth key pool disabled");
+            return;
+        }
+        for (String username : headscaleProperties.getPreAuthKeyPoolUsers()) {
+            if (StringUtils.isNotBlank(username)) {
+                pools.put(poolKey(username.trim(), false, false), new Pool(username.trim(), false, false, true));
+            }
+        }
+
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "headscale-preauthkey-pool");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long interval = Math.max(100, headscaleProperties.getPreAuthKeyPoolRefillInterval());
+        scheduler.scheduleWithFixedDelay(this::refill, interval, interval, TimeUnit.MILLISECONDS);
+        log.info("Headscale pre-auth key pool: {} key(s) per pool, max age {}ms, pinned users {}",
+                headscaleProperties.getPreAuthKeyPoolSize(), headscaleProperties.getPreAuthKeyPoolMaxAge(),
+                headscaleProperties.getPreAuthKeyPoolUsers());
+    }
+
+    /**
+     * Stop minting and expire the keys nobody claimed, so they do not outlive the service
+     * (on context close rather than @PreDestroy, while the audit listeners are still alive)
+     */
+    @EventListener(ContextClosedEvent.class)
+    public void shutdown() {
+        if (scheduler == null) {
+            return;
+        }
+        scheduler.shutdownNow();
+        HeadscaleDeadlineUtils.start(SHUTDOWN_EXPIRE_BUDGET);
+        try {
+            for (Pool pool : pools.values()) {
+                drain(pool);
+            }
+        } finally {
+            HeadscaleDeadlineUtils.clear();
+        }
+    }
+
+    /**
+     * Hand out a ready key from memory, without any upstream call
+     *
+     * @return the key, or null when there is no pool or it is empty
+     */
+    public HeadscalePreAuthKey claimPooled(String username, boolean reusable, boolean ephemeral) {
+        Pool pool = scheduler != null ? pools.get(poolKey(username, reusable, ephemeral)) : null;
+        if (pool == null) {
+            return null;
+        }
+        pool.lastClaimAt = System.currentTimeMillis();
+        long oldest = pool.lastClaimAt - headscaleProperties.getPreAuthKeyPoolMaxAge();
+        PooledKey pooled;
+        while ((pooled = pool.poll()) != null) {
+            if (pooled.mintedAt >= oldest) {
+                pool.hits.increment();
+                requestRefill();
+                return pooled.key;
+            }
+            // expired by the minter, never on the claim path
+            pool.retired.offer(pooled);
+        }
+        return null;
+    }
+
+    /**
+     * Hand out a ready key, or create one directly when the pool is empty. A new pool is created and filled for
+     * next time unless preAuthKeyPoolMaxPools claim-created pools already exist.
+     * The miss path writes to Headscale, so callers serving clients should admit it as a write first.
+     */
+    public HeadscalePreAuthKey claim(String username, boolean reusable, boolean ephemeral) throws IOException {
+        HeadscalePreAuthKey pooledKey = claimPooled(username, reusable, ephemeral);
+        if (pooledKey != null) {
+            return pooledKey;
+        }
+        int expirationHours = headscaleProperties.getPreAuthKeyPoolExpirationHours();
+        if (scheduler == null) {
+            return restService.createPreAuthKey(username, reusable, ephemeral, expirationHours);
+        }
+
+        String poolKey = poolKey(username, reusable, ephemeral);
+        Pool pool = pools.get(poolKey);
+        if (pool == null) {
+            // only remember pools for users that exist
+            pool = new Pool(username, reusable, ephemeral, false);
+        }
+
+        pool.misses.increment();
+        HeadscalePreAuthKey key;
+        try {
+            key = restService.createPreAuthKey(resolveUser(pool), reusable, ephemeral, expirationHours);
+        } catch (IOException e) {
+            pool.user = null;
+            throw e;
+        }
+        if (!pools.containsKey(poolKey)) {
+            if (claimCreatedPools() >= headscaleProperties.getPreAuthKeyPoolMaxPools()) {
+                log.debug("Not pooling keys for user {} (reusable: {}, ephemeral: {}): {} claim-created pools exist",
+                        username, reusable, ephemeral, headscaleProperties.getPreAuthKeyPoolMaxPools());
+                return key;
+            }
+            if (pools.putIfAbsent(poolKey, pool) == null) {
+                log.info("Created pre-auth key pool for user {} (reusable: {}, ephemeral: {})", username, reusable, ephemeral);
+            }
+        }
+        requestRefill();
+        return key;
+    }
+
+    public List<HeadscalePreAuthKeyPool> getPools() {
+        List<HeadscalePreAuthKeyPool> result = new ArrayList<>();
+        for (Pool pool : pools.values()) {
+            HeadscalePreAuthKeyPool status = new HeadscalePreAuthKeyPool();
+            status.setUser(pool.username);
+            status.setReusable(pool.reusable);
+            status.setEphemeral(pool.ephemeral);
+            status.setPinned(pool.pinned);
+            status.setAvailable(Math.max(0, pool.size.get()));
+            status.setTarget(headscaleProperties.getPreAuthKeyPoolSize());
+            status.setHits(pool.hits.sum());
+            status.setMisses(pool.misses.sum());
+            status.setMinted(pool.minted.sum());
+            status.setExpired(pool.expired.sum());
+            status.setLastError(pool.lastError);
+            result.add(status);
+        }
+        return result;
+    }
+
+    private void requestRefill() {
+        if (refillRequested.compareAndSet(false, true)) {
+            try {
+                scheduler.execute(this::refill);
+            } catch (RuntimeException e) {
+                refillRequested.set(false);
+            }
+        }
+    }
+
+    /**
+     * Expire aged keys, drop abandoned pools and top the rest up; pools are minted in parallel
+     */
+    private void refill() {
+        refillRequested.set(false);
+        long now = System.currentTimeMillis();
+        long oldest = now - headscaleProperties.getPreAuthKeyPoolMaxAge();
+
+        List<Pool> toFill = new ArrayList<>();
+        for (Iterator<Pool> it = pools.values().iterator(); it.hasNext(); ) {
+            Pool pool = it.next();
+            if (!pool.pinned && pool.lastClaimAt < oldest) {
+                it.remove();
+                drain(pool);
+                log.info("Dropped idle pre-auth key pool for user {}", pool.username);
+                continue;
+            }
+
+            PooledKey head;
+            while ((head = pool.retired.poll()) != null) {
+                expire(pool, head);
+            }
+            while ((head = pool.keys.peekFirst()) != null && head.mintedAt < oldest) {
+                // remove(head) fails if a claim took the key meanwhile
+                if (pool.keys.remove(head)) {
+                    pool.size.decrementAndGet();
+                    expire(pool, head);
+                }
+            }
+            if (pool.size.get() < headscaleProperties.getPreAuthKeyPoolSize() && now >= pool.retryAt) {
+                toFill.add(pool);
+            }
+        }
+
+        if (!toFill.isEmpty()) {
+            HeadscaleConcurrencyUtils.mapBounded(toFill, headscaleProperties.getFanOutConcurrency(), headscaleExecutor, pool -> {
+                topUp(pool);
+                return null;
+            });
+        }
+    }
+
+    private void topUp(Pool pool) {
+        try {
+            while (pool.size.get() < headscaleProperties.getPreAuthKeyPoolSize()) {
+                HeadscalePreAuthKey key = restService.createPreAuthKey(resolveUser(pool), pool.reusable, pool.ephemeral,
+                        headscaleProperties.getPreAuthKeyPoolExpirationHours());
+                if (key == null) {
+                    throw new IOException("Headscale returned no pre-auth key");
+                }
+                pool.keys.offerLast(new PooledKey(key, System.currentTimeMillis()));
+                pool.size.incrementAndGet();
+                pool.minted.increment();
+            }
+            pool.lastError = null;
+        } catch (Exception e) {
+            // the user may have been deleted or recreated with another id; look it up again next time
+            pool.user = null;
+            pool.lastError = e.getMessage();
+            pool.retryAt = System.currentTimeMillis() + Math.max(5000, headscaleProperties.getPreAuthKeyPoolRefillInterval());
+            log.warn("Failed to mint pre-auth keys for user {}: {}", pool.username, e.getMessage());
+        }
+    }
+
+    /**
+     * Resolve the pool's user from the inventory snapshot, falling back to a Headscale lookup
+     */
+    private HeadscaleUser resolveUser(Pool pool) throws IOException {
+        HeadscaleUser user = pool.user;
+        if (user != null) {
+            return user;
+        }
+        HeadscaleInventorySnapshot snapshot = inventoryService.getSnapshot();
+        if (snapshot != null) {
+            for (HeadscaleUser candidate : snapshot.getUsers()) {
+                if (pool.username.equals(candidate.getName())) {
+                    user = candidate;
+                    break;
+                }
+            }
+        }
+        if (user == null) {
+            user = restService.getUserByName(pool.username);
+        }
+        pool.user = user;
+        return user;
+    }
+
+    private void drain(Pool pool) {
+        PooledKey pooled;
+        while ((pooled = pool.poll()) != null || (pooled = pool.retired.poll()) != null) {
+            expire(pool, pooled);
+        }
+    }
+
+    private void expire(Pool pool, PooledKey pooled) {
+        try {
+            restService.expirePreAuthKey(resolveUser(pool), pooled.key.getKey());
+            pool.expired.increment();
+        } catch (Exception e) {
+            log.warn("Failed to expire pooled pre-auth key {} of user {}: {}", pooled.key.getId(), pool.username, e.getMessage());
+        }
+    }
+
+    private long claimCreatedPools() {
+        return pools.values().stream().filter(pool -> !pool.pinned).count();
+    }
+
+    private static String poolKey(String username, boolean reusable, boolean ephemeral) {
+        return username + "|" + reusable + "|" + ephemeral;
+    }
+}
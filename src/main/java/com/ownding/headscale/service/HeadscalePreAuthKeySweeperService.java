@@ -0,0 +1,266 @@
+package com.ownding.headscale.service;
+
+import com.ownding.headscale.conf.HeadscaleProperties;
+import com.ownding.headscale.dal.vo.HeadscaleBulkItemResult;
+import com.ownding.headscale.dal.vo.HeadscalePreAuthKey;
+import com.ownding.headscale.dal.vo.HeadscalePreAuthKeySweepReport;
+import com.ownding.headscale.dal.vo.HeadscaleUser;
+import com.ownding.headscale.utils.HeadscaleActorUtils;
+import com.ownding.headscale.utils.HeadscaleConcurrencyUtils;
+import com.ownding.headscale.utils.HeadscaleTimeUtils;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Headscale Pre-Auth Key Sweeper Service
+ * Lists the keys of every user concurrently, selects used single-use keys and keys past the configured
+ * age thresholds, and expires them through the pipelined ExpirePreAuthKey RPC (REST when gRPC is down).
+ * Runs on a schedule and on demand; the latest reports are kept for /preauth-keys/sweeps.
+ */
+@Service
+@Slf4j
+public class HeadscalePreAuthKeySweeperService {
+
+    private static final String REASON_USED = "used";
+    private static final String REASON_TOO_OLD = "too-old";
+    private static final String REASON_UNUSED = "unused";
+
+    @Autowired
+    private HeadscaleProperties headscaleProperties;
+
+    @Autowired
+    private HeadscaleService restService;
+
+    @Autowired
+    private HeadscaleGrpcService grpcService;
+
+    @Autowired
+    private HeadscaleInventoryService inventoryService;
+
+    @Autowired
+    @Qualifier("headscaleExecutor")
+    private Executor headscaleExecutor;
+
+    private final AtomicBoolean running = new AtomicBoolean();
+
+    private final Deque<HeadscalePreAuthKeySweepReport> reports = new ArrayDeque<>();
+
+    private ScheduledExecutorService scheduler;
+
+    @PostConstruct
+    public void init() {
+        long interval = headscaleProperties.getPreAuthKeySweepInterval();
+        if (interval <= 0) {
+            return;
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "headscale-preauthkey-sweeper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::scheduledSweep, interval, interval, TimeUnit.MILLISECONDS);
+        log.info("Pre-auth key sweep every {}ms (dry run: {}, used: {}, max age: {}d, unused: {}d)", interval,
+                headscaleProperties.isPreAuthKeySweepDryRun(), headscaleProperties.isPreAuthKeySweepUsed(),
+                headscaleProperties.getPreAuthKeySweepMaxAgeDays(), headscaleProperties.getPreAuthKeySweepUnusedDays());
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+
+    private void scheduledSweep() {
+        try {
+            sweep(headscaleProperties.isPreAuthKeySweepDryRun());
+        } catch (Exception e) {
+            log.warn("Scheduled pre-auth key sweep failed: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Run one sweep
+     *
+     * @param dryRun only report the keys that would be expired
+     * @throws IllegalStateException a sweep is already running
+     */
+    public HeadscalePreAuthKeySweepReport sweep(boolean dryRun) throws IOException {
+        if (!running.compareAndSet(false, true)) {
+            throw new IllegalStateException("A pre-auth key sweep is already running");
+        }
+        try {
+            HeadscalePreAuthKeySweepReport report = doSweep(dryRun);
+            synchronized (reports) {
+                reports.addFirst(report);
+                while (reports.size() > Math.max(1, headscaleProperties.getPreAuthKeySweepHistory())) {
+                    reports.removeLast();
+                }
+            }
+            log.info("Pre-auth key sweep{}: {} users ({} failed), {} keys, selected {} used / {} too old / {} unused, expired {}, failed {} in {}ms",
+                    dryRun ? " (dry run)" : "", report.getUsers(), report.getUserFailures(), report.getKeysScanned(),
+                    report.getSelectedUsed(), report.getSelectedTooOld(), report.getSelectedUnused(),
+                    report.getExpired(), report.getFailed(), report.getElapsedMs());
+            return report;
+        } finally {
+            running.set(false);
+        }
+    }
+
+    /**
+     * Most recent reports, newest first
+     */
+    public List<HeadscalePreAuthKeySweepReport> getReports() {
+        synchronized (reports) {
+            return new ArrayList<>(reports);
+        }
+    }
+
+    private HeadscalePreAuthKeySweepReport doSweep(boolean dryRun) throws IOException {
+        HeadscalePreAuthKeySweepReport report = new HeadscalePreAuthKeySweepReport();
+        report.setStartedAt(System.currentTimeMillis());
+        report.setDryRun(dryRun);
+        report.setTrigger(HeadscaleActorUtils.currentActor());
+        long started = System.nanoTime();
+
+        List<HeadscaleUser> users = inventoryService.current().getUsers();
+        report.setUsers(users.size());
+
+        // keys of every user, null where listing failed
+        List<List<HeadscalePreAuthKey>> keysByUser = HeadscaleConcurrencyUtils.mapBounded(users,
+                headscaleProperties.getFanOutConcurrency(), headscaleExecutor, user -> {
+                    try {
+                        return restService.getPreAuthKeys(user);
+                    } catch (Exception e) {
+                        log.warn("Sweep could not list pre-auth keys of user {}: {}", user.getName(), e.getMessage());
+                        return null;
+                    }
+                });
+
+        Instant now = Instant.now();
+        List<HeadscaleUser> owners = new ArrayList<>();
+        List<HeadscalePreAuthKey> selected = new ArrayList<>();
+        List<String> reasons = new ArrayList<>();
+        for (int i = 0; i < users.size(); i++) {
+            List<HeadscalePreAuthKey> keys = keysByUser.get(i);
+            if (keys == null) {
+                report.setUserFailures(report.getUserFailures() + 1);
+                continue;
+            }
+            for (HeadscalePreAuthKey key : keys) {
+                report.setKeysScanned(report.getKeysScanned() + 1);
+                Instant expiration = HeadscaleTimeUtils.parseHeadscaleInstant(key.getExpiration());
+                if (expiration != null && !expiration.isAfter(now)) {
+                    report.setAlreadyExpired(report.getAlreadyExpired() + 1);
+                    continue;
+                }
+                String reason = selectReason(key, now);
+                if (reason == null) {
+                    continue;
+                }
+                if (REASON_USED.equals(reason)) {
+                    report.setSelectedUsed(report.getSelectedUsed() + 1);
+                } else if (REASON_TOO_OLD.equals(reason)) {
+                    report.setSelectedTooOld(report.getSelectedTooOld() + 1);
+                } else {
+                    report.setSelectedUnused(report.getSelectedUnused() + 1);
+                }
+                owners.add(users.get(i));
+                selected.add(key);
+                reasons.add(reason);
+            }
+        }
+
+        List<HeadscaleBulkItemResult> results;
+        if (dryRun || selected.isEmpty()) {
+            results = new ArrayList<>(selected.size());
+            for (HeadscalePreAuthKey key : selected) {
+                results.add(new HeadscaleBulkItemResult(key.getId(), 200, null));
+            }
+        } else {
+            results = expire(owners, selected);
+        }
+
+        for (int i = 0; i < results.size(); i++) {
+            HeadscaleBulkItemResult result = results.get(i);
+            if (dryRun) {
+                result.setMessage("dry-run: " + reasons.get(i));
+            } else if (result.isSuccess()) {
+                result.setMessage(reasons.get(i));
+                report.setExpired(report.getExpired() + 1);
+            } else {
+                report.setFailed(report.getFailed() + 1);
+            }
+            report.getItems().add(result);
+        }
+
+        report.setElapsedMs(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started));
+        return report;
+    }
+
+    /**
+     * Why the key should be expired, or null to keep it
+     */
+    private String selectReason(HeadscalePreAuthKey key, Instant now) {
+        boolean used = Boolean.TRUE.equals(key.getUsed());
+        if (headscaleProperties.isPreAuthKeySweepUsed() && used && !Boolean.TRUE.equals(key.getReusable())) {
+            return REASON_USED;
+        }
+        Instant createdAt = HeadscaleTimeUtils.parseHeadscaleInstant(key.getCreatedAt());
+        if (createdAt == null) {
+            return null;
+        }
+        Duration age = Duration.between(createdAt, now);
+        if (headscaleProperties.getPreAuthKeySweepMaxAgeDays() > 0
+                && age.compareTo(Duration.ofDays(headscaleProperties.getPreAuthKeySweepMaxAgeDays())) > 0) {
+            return REASON_TOO_OLD;
+        }
+        if (headscaleProperties.getPreAuthKeySweepUnusedDays() > 0 && !used
+                && age.compareTo(Duration.ofDays(headscaleProperties.getPreAuthKeySweepUnusedDays())) > 0) {
+            return REASON_UNUSED;
+        }
+        return null;
+    }
+
+    /**
+     * Expire over pipelined gRPC; fall back to bounded parallel REST calls when the gRPC channel is unavailable
+     */
+    private List<HeadscaleBulkItemResult> expire(List<HeadscaleUser> owners, List<HeadscalePreAuthKey> keys) {
+        try {
+            return grpcService.expirePreAuthKeys(owners, keys, headscaleProperties.getGrpcWindow());
+        } catch (IOException e) {
+            log.warn("gRPC unavailable for pre-auth key sweep, falling back to REST: {}", e.getMessage());
+        }
+
+        List<Integer> indexes = new ArrayList<>(keys.size());
+        for (int i = 0; i < keys.size(); i++) {
+            indexes.add(i);
+        }
+        return HeadscaleConcurrencyUtils.mapBounded(indexes, headscaleProperties.getFanOutConcurrency(), headscaleExecutor, i -> {
+            HeadscalePreAuthKey key = keys.get(i);
+            try {
+                restService.expirePreAuthKey(owners.get(i), key.getKey());
+                return new HeadscaleBulkItemResult(key.getId(), 200, null);
+            } catch (Exception e) {
+                return new HeadscaleBulkItemResult(key.getId(), 500, e.getMessage());
+            }
+        }, i -> new HeadscaleBulkItemResult(keys.get(i).getId(), 504, "请求已超出时限，未执行"));
+    }
+}
@@ -0,0 +1,113 @@
+package com.ownding.headscale.service;
+
+import com.ownding.headscale.conf.HeadscaleProperties;
+import com.ownding.headscale.utils.HeadscaleTokenBucket;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.servlet.http.HttpServletRequest;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Headscale Rate Limit Service
+ * Keeps one lock-free token bucket per client and endpoint class so a single client cannot turn
+ * into unbounded load on the Headscale control plane. Clients are identified by something the server
+ * can verify: a configured client key, otherwise the remote address. Buckets live in a bounded LRU map,
+ * so a flood of new clients evicts the least recently used bucket instead of scanning the map.
+ */
+@Service
+@Slf4j
+public class HeadscaleRateLimitService {
+
+    /**
+     * Maximum number of buckets kept; the least recently used one is dropped beyond it and starts full again
+     */
+    private static final int MAX_BUCKETS = 10000;
+
+    public enum EndpointClass {
+        READ, WRITE, DIAGNOSTIC
+    }
+
+    @Autowired
+    private HeadscaleProperties headscaleProperties;
+
+    /**
+     * Configured client key -> stable client id used in bucket keys and logs (never the key itself)
+     */
+    private final Map<String, String> clientIds = new HashMap<>();
+
+    private final Map<String, HeadscaleTokenBucket> buckets = new LinkedHashMap<String, HeadscaleTokenBucket>(256, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, HeadscaleTokenBucket> eldest) {
+            return size() > MAX_BUCKETS;
+        }
+    };
+
+    @PostConstruct
+    public void init() {
+        List<String> keys = headscaleProperties.getRateLimitClientKeys();
+        for (int i = 0; i < keys.size(); i++) {
+            if (StringUtils.isNotBlank(keys.get(i))) {
+                clientIds.put(keys.get(i).trim(), "client-" + (i + 1));
+            }
+        }
+    }
+
+    public boolean isEnabled() {
+        return headscaleProperties.isRateLimitEnabled();
+    }
+
+    /**
+     * Retry-After value in whole seconds (rounded up, at least 1) for a wait returned by tryAcquire
+     */
+    public static long retryAfterSeconds(long waitNanos) {
+        return Math.max(1, TimeUnit.NANOSECONDS.toSeconds(waitNanos + TimeUnit.SECONDS.toNanos(1) - 1));
+    }
+
+    /**
+     * Identify the client of a request: a configured client key in the key header, otherwise the remote address.
+     * Unknown header values are ignored, so inventing a new value per request does not yield a fresh bucket.
+     */
+    public String clientOf(HttpServletRequest request) {
+        String header = request.getHeader(headscaleProperties.getRateLimitKeyHeader());
+        String clientId = StringUtils.isNotBlank(header) ? clientIds.get(header.trim()) : null;
+        return clientId != null ? "key:" + clientId : "ip:" + request.getRemoteAddr();
+    }
+
+    /**
+     * Take a permit for the client in the given endpoint class
+     *
+     * @return 0 if admitted, otherwise the nanoseconds until the next permit is available
+     */
+    public long tryAcquire(String client, EndpointClass endpointClass) {
+        String key = endpointClass.name() + ":" + client;
+        HeadscaleTokenBucket bucket;
+        synchronized (buckets) {
+            bucket = buckets.computeIfAbsent(key, k -> newBucket(endpointClass));
+        }
+
+        long wait = bucket.tryAcquire(System.nanoTime());
+        if (wait > 0) {
+            log.debug("Rate limited {} request from {}, next permit in {}ms", endpointClass, client, wait / 1_000_000);
+        }
+        return wait;
+    }
+
+    private HeadscaleTokenBucket newBucket(EndpointClass endpointClass) {
+        switch (endpointClass) {
+            case WRITE:
+                return new HeadscaleTokenBucket(headscaleProperties.getRateLimitWriteRate(), headscaleProperties.getRateLimitWriteBurst());
+            case DIAGNOSTIC:
+                return new HeadscaleTokenBucket(headscaleProperties.getRateLimitDiagnosticRate(), headscaleProperties.getRateLimitDiagnosticBurst());
+            default:
+                return new HeadscaleTokenBucket(headscaleProperties.getRateLimitReadRate(), headscaleProperties.getRateLimitReadBurst());
+        }
+    }
+}
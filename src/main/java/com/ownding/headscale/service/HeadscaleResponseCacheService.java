@@ -0,0 +1,105 @@
+package com.ownding.headscale.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.ownding.headscale.dal.vo.HeadscaleInventorySnapshot;
+import com.ownding.headscale.utils.HeadscaleConcurrencyUtils;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Headscale Response Cache Service
+ * Keeps encoded response bodies of snapshot-backed endpoints for the current inventory version, keyed by
+ * endpoint and projection/format. The whole cache is dropped as soon as a newer snapshot version is served,
+ * or a newer refresh of the same version whose node liveness timestamps differ (see responseHash).
+ */
+@Service
+@Slf4j
+public class HeadscaleResponseCacheService {
+
+    /**
+     * Maximum cached bodies per version; further keys (e.g. unusual projections) are encoded per request
+     */
+    private static final int MAX_ENTRIES = 64;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    private final AtomicReference<Generation> generation = new AtomicReference<>(new Generation(-1, 0, 0));
+
+    private static class Generation {
+        final long version;
+        final long responseHash;
+        final long refreshedAt;
+        final Map<String, byte[]> bodies = new ConcurrentHashMap<>();
+
+        Generation(long version, long responseHash, long refreshedAt) {
+            this.version = version;
+            this.responseHash = responseHash;
+            this.refreshedAt = refreshedAt;
+        }
+    }
+
+    /**
+     * JSON-encoded body for the snapshot, computed at most once per version and key
+     */
+    public byte[] json(HeadscaleInventorySnapshot snapshot, String key, HeadscaleConcurrencyUtils.IOCallable<Object> body) throws IOException {
+        return bytes(snapshot, key, () -> objectMapper.writeValueAsBytes(body.call()));
+    }
+
+    /**
+     * Encoded body for the snapshot, computed at most once per version and key
+     */
+    public byte[] bytes(HeadscaleInventorySnapshot snapshot, String key, HeadscaleConcurrencyUtils.IOCallable<byte[]> encoder) throws IOException {
+        Generation current = generationFor(snapshot);
+        if (current == null) {
+            // An older snapshot than the cached one (e.g. a stale fallback), do not cache it
+            return encoder.call();
+        }
+
+        byte[] cached = current.bodies.get(key);
+        if (cached != null) {
+            return cached;
+        }
+        if (current.bodies.size() >= MAX_ENTRIES) {
+            return encoder.call();
+        }
+
+        try {
+            return current.bodies.computeIfAbsent(key, k -> {
+                try {
+                    return encoder.call();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    private Generation generationFor(HeadscaleInventorySnapshot snapshot) {
+        long version = snapshot.getVersion();
+        while (true) {
+            Generation current = generation.get();
+            if (current.version == version && current.responseHash == snapshot.getResponseHash()) {
+                return current;
+            }
+            if (current.version > version
+                    || (current.version == version && current.refreshedAt > snapshot.getRefreshedAt())) {
+                return null;
+            }
+            Generation next = new Generation(version, snapshot.getResponseHash(), snapshot.getRefreshedAt());
+            if (generation.compareAndSet(current, next)) {
+                log.debug("Response cache moved to inventory version {} ({})", version, Long.toHexString(next.responseHash));
+                return next;
+            }
+        }
+    }
+}
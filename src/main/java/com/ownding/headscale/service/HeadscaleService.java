@@ -2,20 +2,38 @@ package com.ownding.headscale.service;
 
 
 import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONException;
+import com.alibaba.fastjson.JSONReader;
 import com.alibaba.fastjson.TypeReference;
+import com.alibaba.fastjson.parser.JSONToken;
 
 import com.ownding.headscale.conf.HeadscaleProperties;
 import com.ownding.headscale.dal.vo.*;
+import com.ownding.headscale.utils.HeadscaleActorUtils;
+import com.ownding.headscale.utils.HeadscaleConcurrencyUtils;
+import com.ownding.headscale.utils.HeadscaleDeadlineUtils;
+import com.ownding.headscale.utils.HeadscaleTimeUtils;
 import lombok.extern.slf4j.Slf4j;
 import okhttp3.*;
 import org.apache.commons.lang3.StringUtils;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.annotation.Lazy;
 import org.springframework.stereotype.Service;
 
 import javax.annotation.PostConstruct;
 import java.io.IOException;
+import java.time.Instant;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -28,17 +46,131 @@ public class HeadscaleService {
     @Autowired
     private HeadscaleProperties headscaleProperties;
 
+    @Autowired
+    @Qualifier("headscaleExecutor")
+    private Executor headscaleExecutor;
+
+    @Autowired
+    private ApplicationEventPublisher eventPublisher;
+
+    @Autowired
+    private HeadscaleUpstreamLimitService upstreamLimitService;
+
+    // lazy: the inventory itself depends on this service
+    @Lazy
+    @Autowired
+    private HeadscaleInventoryService inventoryService;
+
     private OkHttpClient httpClient;
 
+    private ConnectionPool connectionPool;
+
     private static final MediaType JSON_MEDIA_TYPE = MediaType.get("application/json; charset=utf-8");
 
+    /**
+     * Point this instance at another control plane; called by HeadscaleClusterService before init()
+     */
+    void bindCluster(HeadscaleProperties properties, HeadscaleUpstreamLimitService limitService) {
+        this.headscaleProperties = properties;
+        this.upstreamLimitService = limitService;
+    }
+
     @PostConstruct
     public void init() {
+        int connectTimeout = headscaleProperties.getConnectTimeout() > 0
+                ? headscaleProperties.getConnectTimeout() : headscaleProperties.getTimeout();
+        int readTimeout = headscaleProperties.getReadTimeout() > 0
+                ? headscaleProperties.getReadTimeout() : headscaleProperties.getTimeout();
+
+        Dispatcher dispatcher = new Dispatcher();
+        dispatcher.setMaxRequests(headscaleProperties.getMaxRequests());
+        dispatcher.setMaxRequestsPerHost(headscaleProperties.getMaxRequestsPerHost());
+
+        this.connectionPool = new ConnectionPool(headscaleProperties.getMaxIdleConnections(),
+                headscaleProperties.getKeepAliveDuration(), TimeUnit.MILLISECONDS);
         this.httpClient = new OkHttpClient.Builder()
-                .connectTimeout(headscaleProperties.getTimeout(), TimeUnit.MILLISECONDS)
-                .readTimeout(headscaleProperties.getTimeout(), TimeUnit.MILLISECONDS)
-                .writeTimeout(headscaleProperties.getTimeout(), TimeUnit.MILLISECONDS)
+                .connectTimeout(connectTimeout, TimeUnit.MILLISECONDS)
+                .readTimeout(readTimeout, TimeUnit.MILLISECONDS)
+                .writeTimeout(readTimeout, TimeUnit.MILLISECONDS)
+                .callTimeout(headscaleProperties.getCallTimeout(), TimeUnit.MILLISECONDS)
+                .connectionPool(connectionPool)
+                .dispatcher(dispatcher)
+                .addInterceptor(upstreamLimitService.restInterceptor())
+                .protocols(resolveProtocols(headscaleProperties.getProtocol()))
                 .build();
+
+        log.info("Headscale REST client initialized: {} (protocol: {}, pool: {} idle / {}ms keep-alive, per-host: {})",
+                headscaleProperties.getUrl(), headscaleProperties.getProtocol(),
+                headscaleProperties.getMaxIdleConnections(), headscaleProperties.getKeepAliveDuration(),
+                headscaleProperties.getMaxRequestsPerHost());
+
+        warmUpConnections();
+    }
+
+    /**
+     * Open pooled connections ahead of the first real request.
+     * Requests are enqueued asynchronously so startup is never blocked; any response
+     * (even 404) leaves a connection in the pool, failures are only logged.
+     */
+    public void warmUpConnections() {
+        int connections = headscaleProperties.getWarmupConnections();
+        if (connections <= 0) {
+            return;
+        }
+
+        for (int i = 0; i < connections; i++) {
+            Request httpRequest = new Request.Builder()
+                    .url(headscaleProperties.getUrl() + "/health")
+                    .head()
+                    .build();
+
+            httpClient.newCall(httpRequest).enqueue(new Callback() {
+                @Override
+                public void onFailure(Call call, IOException e) {
+                    log.debug("Headscale REST warm-up request failed: {}", e.getMessage());
+                }
+
+                @Override
+                public void onResponse(Call call, Response response) {
+                    response.close();
+                }
+            });
+        }
+        log.info("Warming up {} Headscale REST connection(s)", connections);
+    }
+
+    /**
+     * Number of open connections (idle and in use) in the REST pool
+     */
+    public int getConnectionCount() {
+        return connectionPool.connectionCount();
+    }
+
+    /**
+     * New call whose whole-call timeout is bounded by the remaining request deadline
+     *
+     * @throws HeadscaleDeadlineUtils.DeadlineExceededException if the request budget is already spent
+     */
+    private Call newCall(Request httpRequest) throws IOException {
+        long timeout = HeadscaleDeadlineUtils.boundTimeoutMillis(headscaleProperties.getCallTimeout());
+        Call call = httpClient.newCall(httpRequest);
+        if (timeout > 0) {
+            call.timeout().timeout(timeout, TimeUnit.MILLISECONDS);
+        }
+        return call;
+    }
+
+    /**
+     * Map the configured protocol preference to OkHttp protocols
+     */
+    private static List<Protocol> resolveProtocols(String protocol) {
+        if ("h2c".equalsIgnoreCase(protocol)) {
+            return Collections.singletonList(Protocol.H2_PRIOR_KNOWLEDGE);
+        }
+        if ("http1".equalsIgnoreCase(protocol)) {
+            return Collections.singletonList(Protocol.HTTP_1_1);
+        }
+        return Arrays.asList(Protocol.HTTP_2, Protocol.HTTP_1_1);
     }
 
     /**
@@ -49,6 +181,10 @@ public class HeadscaleService {
             throw new IllegalArgumentException("Username cannot be blank");
         }
 
+        return recordMutation("user.create", username, () -> doCreateUser(username));
+    }
+
+    private HeadscaleUser doCreateUser(String username) throws IOException {
         HeadscaleCreateUserRequest request = new HeadscaleCreateUserRequest(username);
         String jsonBody = JSON.toJSONString(request);
 
@@ -59,7 +195,7 @@ public class HeadscaleService {
                 .addHeader("Authorization", "Bearer " + headscaleProperties.getApiKey())
                 .build();
 
-        try (Response response = httpClient.newCall(httpRequest).execute()) {
+        try (Response response = newCall(httpRequest).execute()) {
             if (!response.isSuccessful()) {
                 throw new IOException("Failed to create user: " + response.code() + " " + response.message());
             }
@@ -67,15 +203,14 @@ public class HeadscaleService {
             String responseBody = response.body().string();
             log.debug("Create user response: {}", responseBody);
 
-            // Try to parse as a direct user object first
-            try {
-                return JSON.parseObject(responseBody, HeadscaleUser.class);
-            } catch (Exception e) {
-                // If that fails, try to parse as wrapped response
-                HeadscaleApiResponse<HeadscaleUser> apiResponse = JSON.parseObject(responseBody,
-                        new TypeReference<HeadscaleApiResponse<HeadscaleUser>>() {});
+            // Headscale wraps the user as {"user": {...}}; a bare user object would also parse as
+            // HeadscaleUser (with every field null), so the wrapped form has to be tried first
+            HeadscaleApiResponse<HeadscaleUser> apiResponse = JSON.parseObject(responseBody,
+                    new TypeReference<HeadscaleApiResponse<HeadscaleUser>>() {});
+            if (apiResponse != null && apiResponse.getItem() != null) {
                 return apiResponse.getItem();
             }
+            return JSON.parseObject(responseBody, HeadscaleUser.class);
         }
     }
 
@@ -107,13 +242,20 @@ public class HeadscaleService {
             throw new IllegalArgumentException("User ID cannot be blank");
         }
 
+        recordMutation("user.delete", userId, () -> {
+            doDeleteUserById(userId);
+            return null;
+        });
+    }
+
+    private void doDeleteUserById(String userId) throws IOException {
         Request httpRequest = new Request.Builder()
                 .url(headscaleProperties.getUrl() + "/api/v1/user/" + userId)
                 .delete()
                 .addHeader("Authorization", "Bearer " + headscaleProperties.getApiKey())
                 .build();
 
-        try (Response response = httpClient.newCall(httpRequest).execute()) {
+        try (Response response = newCall(httpRequest).execute()) {
             if (!response.isSuccessful()) {
                 String errorMessage = "Failed to delete user: " + response.code() + " " + response.message();
 
@@ -166,23 +308,29 @@ public class HeadscaleService {
                 .addHeader("Authorization", "Bearer " + headscaleProperties.getApiKey())
                 .build();
 
-        try (Response response = httpClient.newCall(httpRequest).execute()) {
+        try (Response response = newCall(httpRequest).execute()) {
             if (!response.isSuccessful()) {
                 throw new IOException("Failed to get users: " + response.code() + " " + response.message());
             }
 
             String responseBody = response.body().string();
             log.debug("Get users response: {}", responseBody);
+            return parseUsers(responseBody);
+        }
+    }
 
-            // Try to parse as a direct list first
-            try {
-                return JSON.parseArray(responseBody, HeadscaleUser.class);
-            } catch (Exception e) {
-                // If that fails, try to parse as wrapped response
-                HeadscaleApiResponse<HeadscaleUser> apiResponse = JSON.parseObject(responseBody,
-                        new TypeReference<HeadscaleApiResponse<HeadscaleUser>>() {});
-                return apiResponse.getItems();
-            }
+    /**
+     * Parse a user list response body (direct array or wrapped)
+     */
+    List<HeadscaleUser> parseUsers(String responseBody) {
+        // Try to parse as a direct list first
+        try {
+            return JSON.parseArray(responseBody, HeadscaleUser.class);
+        } catch (Exception e) {
+            // If that fails, try to parse as wrapped response
+            HeadscaleApiResponse<HeadscaleUser> apiResponse = JSON.parseObject(responseBody,
+                    new TypeReference<HeadscaleApiResponse<HeadscaleUser>>() {});
+            return apiResponse.getItems();
         }
     }
 
@@ -214,6 +362,20 @@ public class HeadscaleService {
             throw new IOException("用户不存在: " + username);
         }
 
+        return recordMutation("preauthkey.create", username, () -> doCreatePreAuthKey(user, reusable, ephemeral, expirationHours));
+    }
+
+    /**
+     * Create a pre-auth key for an already resolved user (no user lookup)
+     */
+    public HeadscalePreAuthKey createPreAuthKey(HeadscaleUser user, Boolean reusable, Boolean ephemeral, Integer expirationHours) throws IOException {
+        return recordMutation("preauthkey.create", user.getName(),
+                () -> doCreatePreAuthKey(user, reusable, ephemeral, expirationHours));
+    }
+
+    private HeadscalePreAuthKey doCreatePreAuthKey(HeadscaleUser user, Boolean reusable, Boolean ephemeral, Integer expirationHours) throws IOException {
+        String username = user.getName();
+
         // Calculate expiration time
         String expirationTime = calculateExpirationTime(expirationHours);
 
@@ -229,7 +391,7 @@ public class HeadscaleService {
                 .addHeader("Authorization", "Bearer " + headscaleProperties.getApiKey())
                 .build();
 
-        try (Response response = httpClient.newCall(httpRequest).execute()) {
+        try (Response response = newCall(httpRequest).execute()) {
             if (!response.isSuccessful()) {
                 String errorBody = "";
                 try {
@@ -297,6 +459,15 @@ public class HeadscaleService {
             throw new IOException("用户不存在: " + username);
         }
 
+        return getPreAuthKeys(user);
+    }
+
+    /**
+     * Get all pre-auth keys for an already resolved user (no user lookup)
+     */
+    public List<HeadscalePreAuthKey> getPreAuthKeys(HeadscaleUser user) throws IOException {
+        String username = user.getName();
+
         // Build URL with user ID instead of username
         String url = headscaleProperties.getUrl() + "/api/v1/preauthkey?user=" + user.getId();
         log.debug("Getting pre-auth keys for user: {} (ID: {}) with URL: {}", username, user.getId(), url);
@@ -307,7 +478,7 @@ public class HeadscaleService {
                 .addHeader("Authorization", "Bearer " + headscaleProperties.getApiKey())
                 .build();
 
-        try (Response response = httpClient.newCall(httpRequest).execute()) {
+        try (Response response = newCall(httpRequest).execute()) {
             if (!response.isSuccessful()) {
                 String errorBody = "";
                 try {
@@ -345,6 +516,43 @@ public class HeadscaleService {
         }
     }
 
+    /**
+     * Expire a pre-auth key of an already resolved user so it can no longer register nodes
+     */
+    public void expirePreAuthKey(HeadscaleUser user, String key) throws IOException {
+        recordMutation("preauthkey.expire", user.getName(), () -> findCachedPreAuthKey(user.getName(), key), () -> {
+            doExpirePreAuthKey(user, key);
+            return null;
+        });
+    }
+
+    private HeadscalePreAuthKey findCachedPreAuthKey(String username, String key) {
+        List<HeadscalePreAuthKey> keys = inventoryService.getCachedPreAuthKeys(username);
+        if (keys != null) {
+            for (HeadscalePreAuthKey candidate : keys) {
+                if (key.equals(candidate.getKey())) {
+                    return candidate;
+                }
+            }
+        }
+        return null;
+    }
+
+    private void doExpirePreAuthKey(HeadscaleUser user, String key) throws IOException {
+        String jsonBody = JSON.toJSONString(new HeadscaleExpirePreAuthKeyRequest(user.getId(), key));
+        Request httpRequest = new Request.Builder()
+                .url(headscaleProperties.getUrl() + "/api/v1/preauthkey/expire")
+                .post(RequestBody.create(JSON_MEDIA_TYPE, jsonBody))
+                .addHeader("Authorization", "Bearer " + headscaleProperties.getApiKey())
+                .build();
+
+        try (Response response = newCall(httpRequest).execute()) {
+            if (!response.isSuccessful()) {
+                throw new IOException("Failed to expire pre-auth key: " + response.code() + " " + response.message());
+            }
+        }
+    }
+
     /**
      * Get all nodes/devices
      */
@@ -355,28 +563,98 @@ public class HeadscaleService {
                 .addHeader("Authorization", "Bearer " + headscaleProperties.getApiKey())
                 .build();
 
-        try (Response response = httpClient.newCall(httpRequest).execute()) {
+        try (Response response = newCall(httpRequest).execute()) {
             if (!response.isSuccessful()) {
                 throw new IOException("Failed to get nodes: " + response.code() + " " + response.message());
             }
 
             String responseBody = response.body().string();
             log.debug("Get nodes response: {}", responseBody);
+            return parseNodes(responseBody);
+        }
+    }
 
-            // Try to parse as wrapped response first (this is the actual format)
-            try {
-                HeadscaleApiResponse<HeadscaleNode> apiResponse = JSON.parseObject(responseBody,
-                        new TypeReference<HeadscaleApiResponse<HeadscaleNode>>() {});
-                return apiResponse.getItems();
-            } catch (Exception e) {
-                log.warn("Failed to parse nodes as wrapped response, trying direct array", e);
-                // If that fails, try to parse as direct array
-                try {
-                    return JSON.parseArray(responseBody, HeadscaleNode.class);
-                } catch (Exception e2) {
-                    log.error("Failed to parse nodes response: {}", responseBody, e2);
-                    throw new IOException("Failed to parse nodes response: " + e2.getMessage());
+    /**
+     * Receives nodes one at a time from {@link #streamNodes}
+     */
+    public interface NodeConsumer {
+        void accept(HeadscaleNode node) throws IOException;
+    }
+
+    /**
+     * Stream nodes from Headscale, decoding the response body one node at a time so memory does not grow with the fleet
+     *
+     * @param userId   only nodes of this user id, null for all nodes
+     * @param consumer called for every node in upstream order
+     * @return number of nodes streamed
+     */
+    public int streamNodes(String userId, NodeConsumer consumer) throws IOException {
+        HttpUrl.Builder url = HttpUrl.get(headscaleProperties.getUrl() + "/api/v1/node").newBuilder();
+        if (userId != null) {
+            url.addQueryParameter("user", userId);
+        }
+        Request httpRequest = new Request.Builder()
+                .url(url.build())
+                .get()
+                .addHeader("Authorization", "Bearer " + headscaleProperties.getApiKey())
+                .build();
+
+        try (Response response = newCall(httpRequest).execute()) {
+            if (!response.isSuccessful()) {
+                throw new IOException("Failed to get nodes: " + response.code() + " " + response.message());
+            }
+
+            int count = 0;
+            try (JSONReader reader = new JSONReader(response.body().charStream())) {
+                if (reader.peek() == JSONToken.LBRACKET) {
+                    count = readNodeArray(reader, consumer);
+                } else {
+                    // wrapped response {"nodes": [...]} (the actual format); other members are skipped
+                    reader.startObject();
+                    while (reader.hasNext()) {
+                        if ("nodes".equals(reader.readString())) {
+                            count += readNodeArray(reader, consumer);
+                        } else {
+                            reader.readObject();
+                        }
+                    }
+                    reader.endObject();
                 }
+            } catch (JSONException e) {
+                throw new IOException("Failed to parse nodes response: " + e.getMessage(), e);
+            }
+            return count;
+        }
+    }
+
+    private static int readNodeArray(JSONReader reader, NodeConsumer consumer) throws IOException {
+        int count = 0;
+        reader.startArray();
+        while (reader.hasNext()) {
+            consumer.accept(reader.readObject(HeadscaleNode.class));
+            count++;
+        }
+        reader.endArray();
+        return count;
+    }
+
+    /**
+     * Parse a node list response body (wrapped or direct array)
+     */
+    List<HeadscaleNode> parseNodes(String responseBody) throws IOException {
+        // Try to parse as wrapped response first (this is the actual format)
+        try {
+            HeadscaleApiResponse<HeadscaleNode> apiResponse = JSON.parseObject(responseBody,
+                    new TypeReference<HeadscaleApiResponse<HeadscaleNode>>() {});
+            return apiResponse.getItems();
+        } catch (Exception e) {
+            log.warn("Failed to parse nodes as wrapped response, trying direct array", e);
+            // If that fails, try to parse as direct array
+            try {
+                return JSON.parseArray(responseBody, HeadscaleNode.class);
+            } catch (Exception e2) {
+                log.error("Failed to parse nodes response: {}", responseBody, e2);
+                throw new IOException("Failed to parse nodes response: " + e2.getMessage());
             }
         }
     }
@@ -406,7 +684,7 @@ public class HeadscaleService {
 
         log.debug("Getting nodes for user: {} (ID: {}) with URL: {}", username, user.getId(), httpRequest.url());
 
-        try (Response response = httpClient.newCall(httpRequest).execute()) {
+        try (Response response = newCall(httpRequest).execute()) {
             if (!response.isSuccessful()) {
                 String errorBody = "";
                 try {
@@ -456,19 +734,54 @@ public class HeadscaleService {
             throw new IllegalArgumentException("Node ID cannot be blank");
         }
 
+        recordMutation("node.delete", nodeId, () -> {
+            doDeleteNode(nodeId);
+            return null;
+        });
+    }
+
+    private void doDeleteNode(String nodeId) throws IOException {
         Request httpRequest = new Request.Builder()
                 .url(headscaleProperties.getUrl() + "/api/v1/node/" + nodeId)
                 .delete()
                 .addHeader("Authorization", "Bearer " + headscaleProperties.getApiKey())
                 .build();
 
-        try (Response response = httpClient.newCall(httpRequest).execute()) {
+        try (Response response = newCall(httpRequest).execute()) {
             if (!response.isSuccessful()) {
                 throw new IOException("Failed to delete node: " + response.code() + " " + response.message());
             }
         }
     }
 
+    /**
+     * Expire a node, forcing it to re-authenticate
+     */
+    public void expireNode(String nodeId) throws IOException {
+        if (StringUtils.isBlank(nodeId)) {
+            throw new IllegalArgumentException("Node ID cannot be blank");
+        }
+
+        recordMutation("node.expire", nodeId, () -> {
+            doExpireNode(nodeId);
+            return null;
+        });
+    }
+
+    private void doExpireNode(String nodeId) throws IOException {
+        Request httpRequest = new Request.Builder()
+                .url(headscaleProperties.getUrl() + "/api/v1/node/" + nodeId + "/expire")
+                .post(RequestBody.create(JSON_MEDIA_TYPE, "{}"))
+                .addHeader("Authorization", "Bearer " + headscaleProperties.getApiKey())
+                .build();
+
+        try (Response response = newCall(httpRequest).execute()) {
+            if (!response.isSuccessful()) {
+                throw new IOException("Failed to expire node: " + response.code() + " " + response.message());
+            }
+        }
+    }
+
     /**
      * Get current ACL policy
      */
@@ -479,7 +792,7 @@ public class HeadscaleService {
                 .addHeader("Authorization", "Bearer " + headscaleProperties.getApiKey())
                 .build();
 
-        try (Response response = httpClient.newCall(httpRequest).execute()) {
+        try (Response response = newCall(httpRequest).execute()) {
             if (!response.isSuccessful()) {
                 throw new IOException("Failed to get ACL policy: " + response.code() + " " + response.message());
             }
@@ -530,6 +843,10 @@ public class HeadscaleService {
             throw new IllegalArgumentException("Invalid JSON format: " + e.getMessage());
         }
 
+        return recordMutation("policy.update", "acl", this::getACLPolicy, () -> doUpdateACLPolicy(aclPolicyJson));
+    }
+
+    private String doUpdateACLPolicy(String aclPolicyJson) throws IOException {
         RequestBody body = RequestBody.create(JSON_MEDIA_TYPE, aclPolicyJson);
 
         Request httpRequest = new Request.Builder()
@@ -538,7 +855,7 @@ public class HeadscaleService {
                 .addHeader("Authorization", "Bearer " + headscaleProperties.getApiKey())
                 .build();
 
-        try (Response response = httpClient.newCall(httpRequest).execute()) {
+        try (Response response = newCall(httpRequest).execute()) {
             if (!response.isSuccessful()) {
                 throw new IOException("Failed to update ACL policy: " + response.code() + " " + response.message());
             }
@@ -577,8 +894,10 @@ public class HeadscaleService {
     /**
      * Check if a user has any nodes
      * Returns false if user doesn't exist or has no nodes
+     *
+     * @throws HeadscaleDeadlineUtils.DeadlineExceededException if the request budget ran out before the check completed
      */
-    public boolean userHasNodes(String username) {
+    public boolean userHasNodes(String username) throws IOException {
         if (StringUtils.isBlank(username)) {
             return false;
         }
@@ -587,6 +906,8 @@ public class HeadscaleService {
             List<HeadscaleNode> nodes = getNodesByUser(username);
             return nodes != null && !nodes.isEmpty();
         } catch (Exception e) {
+            // A failure caused by the spent request budget says nothing about the user's nodes
+            HeadscaleDeadlineUtils.check();
             // Check if the error is specifically "user not found"
             String errorMessage = e.getMessage();
             if (errorMessage != null && (errorMessage.contains("user not found") || errorMessage.contains("用户不存在"))) {
@@ -598,6 +919,83 @@ public class HeadscaleService {
         }
     }
 
+    /**
+     * Build the user management summary: every user with node counts, optional pre-auth key counts
+     * and whether it can be deleted. Users and nodes are fetched once, concurrently, and nodes are
+     * grouped by owner in a single pass instead of one getNodesByUser call per user.
+     *
+     * @param includeKeyCounts also fetch pre-auth keys per user (one call per user, bounded by fanOutConcurrency)
+     */
+    public List<HeadscaleUserSummary> getUserSummaries(boolean includeKeyCounts) throws IOException {
+        CompletableFuture<List<HeadscaleUser>> usersFuture = HeadscaleConcurrencyUtils.supplyAsync(this::getUsers, headscaleExecutor);
+        CompletableFuture<List<HeadscaleNode>> nodesFuture = HeadscaleConcurrencyUtils.supplyAsync(this::getNodes, headscaleExecutor);
+        List<HeadscaleUser> users = HeadscaleConcurrencyUtils.join(usersFuture);
+        List<HeadscaleNode> nodes = HeadscaleConcurrencyUtils.join(nodesFuture);
+
+        // userId -> {total, online}
+        Map<String, int[]> nodeCounts = new HashMap<>();
+        if (nodes != null) {
+            for (HeadscaleNode node : nodes) {
+                if (node.getUser() == null || node.getUser().getId() == null) {
+                    continue;
+                }
+                int[] counts = nodeCounts.computeIfAbsent(node.getUser().getId(), id -> new int[2]);
+                counts[0]++;
+                if (Boolean.TRUE.equals(node.getOnline())) {
+                    counts[1]++;
+                }
+            }
+        }
+
+        List<HeadscaleUserSummary> summaries = new ArrayList<>();
+        if (users == null) {
+            return summaries;
+        }
+        for (HeadscaleUser user : users) {
+            int[] counts = nodeCounts.getOrDefault(user.getId(), new int[2]);
+            HeadscaleUserSummary summary = new HeadscaleUserSummary();
+            summary.setUser(user);
+            summary.setTotalNodes(counts[0]);
+            summary.setOnlineNodes(counts[1]);
+            summary.setCanDelete(counts[0] == 0);
+            summaries.add(summary);
+        }
+
+        if (includeKeyCounts) {
+            Instant now = Instant.now();
+            HeadscaleConcurrencyUtils.mapBounded(summaries, headscaleProperties.getFanOutConcurrency(), headscaleExecutor, summary -> {
+                try {
+                    List<HeadscalePreAuthKey> keys = getPreAuthKeys(summary.getUser());
+                    int active = 0;
+                    for (HeadscalePreAuthKey key : keys) {
+                        if (isPreAuthKeyActive(key, now)) {
+                            active++;
+                        }
+                    }
+                    summary.setPreAuthKeys(keys.size());
+                    summary.setActivePreAuthKeys(active);
+                } catch (Exception e) {
+                    log.warn("Failed to count pre-auth keys for user: {}", summary.getUser().getName(), e);
+                }
+                return summary;
+            });
+        }
+
+        log.debug("Built summary for {} users and {} nodes", summaries.size(), nodes != null ? nodes.size() : 0);
+        return summaries;
+    }
+
+    /**
+     * A pre-auth key is active if it has not expired and is either reusable or still unused
+     */
+    private static boolean isPreAuthKeyActive(HeadscalePreAuthKey key, Instant now) {
+        Instant expiration = HeadscaleTimeUtils.parseHeadscaleInstant(key.getExpiration());
+        if (expiration != null && !expiration.isAfter(now)) {
+            return false;
+        }
+        return Boolean.TRUE.equals(key.getReusable()) || !Boolean.TRUE.equals(key.getUsed());
+    }
+
     /**
      * Delete user with node check
      */
@@ -611,6 +1009,7 @@ public class HeadscaleService {
         try {
             user = getUserByName(username);
         } catch (Exception e) {
+            HeadscaleDeadlineUtils.check();
             log.warn("User {} not found when attempting to delete, may have been already deleted", username);
             throw new IOException("用户不存在: " + username);
         }
@@ -627,6 +1026,116 @@ public class HeadscaleService {
 
 
 
+    /**
+     * Delete many users at once.
+     * Names are resolved against one user listing and node ownership is checked against one node
+     * listing; the deletes then run in parallel, at most {@code concurrency} at a time.
+     *
+     * @param usernames    users to delete (duplicates are ignored)
+     * @param cascadeNodes delete the users' nodes first instead of rejecting users that still own nodes
+     * @param concurrency  requested parallelism, capped by fanOutConcurrency
+     * @return one result per distinct username, in request order
+     */
+    public HeadscaleBulkResult deleteUsers(List<String> usernames, boolean cascadeNodes, Integer concurrency) throws IOException {
+        if (usernames == null || usernames.isEmpty()) {
+            throw new IllegalArgumentException("Usernames cannot be empty");
+        }
+
+        CompletableFuture<List<HeadscaleUser>> usersFuture = HeadscaleConcurrencyUtils.supplyAsync(this::getUsers, headscaleExecutor);
+        CompletableFuture<List<HeadscaleNode>> nodesFuture = HeadscaleConcurrencyUtils.supplyAsync(this::getNodes, headscaleExecutor);
+        List<HeadscaleUser> users = HeadscaleConcurrencyUtils.join(usersFuture);
+        List<HeadscaleNode> nodes = HeadscaleConcurrencyUtils.join(nodesFuture);
+
+        Map<String, HeadscaleUser> usersByName = new HashMap<>();
+        if (users != null) {
+            for (HeadscaleUser user : users) {
+                usersByName.put(user.getName(), user);
+            }
+        }
+        Map<String, List<HeadscaleNode>> nodesByUserId = new HashMap<>();
+        if (nodes != null) {
+            for (HeadscaleNode node : nodes) {
+                if (node.getUser() != null && node.getUser().getId() != null) {
+                    nodesByUserId.computeIfAbsent(node.getUser().getId(), id -> new ArrayList<>()).add(node);
+                }
+            }
+        }
+
+        int maxConcurrency = headscaleProperties.getFanOutConcurrency();
+        int parallelism = concurrency != null && concurrency > 0 ? Math.min(concurrency, maxConcurrency) : maxConcurrency;
+        List<String> distinct = new ArrayList<>(new LinkedHashSet<>(usernames));
+        log.info("Bulk deleting {} users (cascadeNodes: {}, concurrency: {})", distinct.size(), cascadeNodes, parallelism);
+
+        List<HeadscaleBulkItemResult> items = HeadscaleConcurrencyUtils.mapBounded(distinct, parallelism, headscaleExecutor, username -> {
+            if (StringUtils.isBlank(username)) {
+                return new HeadscaleBulkItemResult(username, 400, "用户名不能为空");
+            }
+            HeadscaleUser user = usersByName.get(username);
+            if (user == null) {
+                return new HeadscaleBulkItemResult(username, 404, "用户不存在: " + username);
+            }
+
+            List<HeadscaleNode> userNodes = nodesByUserId.getOrDefault(user.getId(), Collections.emptyList());
+            if (!userNodes.isEmpty() && !cascadeNodes) {
+                return new HeadscaleBulkItemResult(username, 409, "无法删除用户：该用户下还有设备节点，请先删除所有设备后再删除用户");
+            }
+
+            try {
+                for (HeadscaleNode node : userNodes) {
+                    deleteNode(node.getId());
+                }
+                deleteUserById(user.getId());
+                return new HeadscaleBulkItemResult(username, 200,
+                        userNodes.isEmpty() ? "用户删除成功" : "用户及其 " + userNodes.size() + " 个设备节点删除成功");
+            } catch (Exception e) {
+                log.warn("Bulk delete failed for user: {}", username, e);
+                return new HeadscaleBulkItemResult(username, 500, e.getMessage());
+            }
+        }, username -> new HeadscaleBulkItemResult(username, 504, "请求已超出时限，未执行"));
+
+        HeadscaleBulkResult result = new HeadscaleBulkResult(items);
+        log.info("Bulk user deletion finished: {} succeeded, {} failed", result.getSucceeded(), result.getFailed());
+        return result;
+    }
+
+    /**
+     * Run a mutating upstream call and publish a HeadscaleMutationEvent with its outcome
+     */
+    private <T> T recordMutation(String action, String target, HeadscaleConcurrencyUtils.IOCallable<T> call) throws IOException {
+        return recordMutation(action, target, null, call);
+    }
+
+    /**
+     * Like recordMutation, with the target's state read right before the call so the audit journal does not fall
+     * back to a possibly stale snapshot. A failed read leaves it unknown and does not stop the call
+     */
+    private <T> T recordMutation(String action, String target, HeadscaleConcurrencyUtils.IOCallable<?> before,
+                                 HeadscaleConcurrencyUtils.IOCallable<T> call) throws IOException {
+        Object beforeState = null;
+        if (before != null) {
+            try {
+                beforeState = before.call();
+            } catch (Exception e) {
+                log.warn("Failed to read state before {} {}: {}", action, target, e.getMessage());
+            }
+        }
+
+        long startedAt = System.currentTimeMillis();
+        T result = null;
+        Exception failure = null;
+        try {
+            result = call.call();
+            return result;
+        } catch (IOException | RuntimeException e) {
+            failure = e;
+            throw e;
+        } finally {
+            eventPublisher.publishEvent(new HeadscaleMutationEvent(action, target, failure == null,
+                    HeadscaleActorUtils.currentActor(), HeadscaleActorUtils.claimedActor(), startedAt, beforeState,
+                    result, failure != null ? failure.getMessage() : null));
+        }
+    }
+
     /**
      * Test if the Headscale server is reachable and API key is valid
      */
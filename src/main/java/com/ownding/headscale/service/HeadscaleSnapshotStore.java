@@ -0,0 +1,77 @@
+package com.ownding.headscale.service;
+
+import com.ownding.headscale.conf.HeadscaleProperties;
+import com.ownding.headscale.utils.HeadscaleSnapshotCodec;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Headscale Snapshot Store
+ * Persists the inventory snapshot to a memory-mapped file so a restart can serve data before Headscale answers.
+ * Writes go to a temporary file that is forced to disk and atomically moved over the previous snapshot.
+ */
+@Service
+@Slf4j
+public class HeadscaleSnapshotStore {
+
+    @Autowired
+    private HeadscaleProperties headscaleProperties;
+
+    public boolean isEnabled() {
+        return StringUtils.isNotBlank(headscaleProperties.getSnapshotFile());
+    }
+
+    /**
+     * Load the persisted snapshot, or null if there is none or it cannot be read
+     */
+    public HeadscaleSnapshotCodec.Contents load() {
+        if (!isEnabled()) {
+            return null;
+        }
+        Path path = Paths.get(headscaleProperties.getSnapshotFile());
+        if (!Files.isRegularFile(path)) {
+            return null;
+        }
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return HeadscaleSnapshotCodec.decode(buffer);
+        } catch (IOException e) {
+            log.warn("Ignoring unreadable Headscale snapshot {}: {}", path, e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Write the snapshot, replacing the previous file atomically
+     */
+    public void save(HeadscaleSnapshotCodec.Contents contents) throws IOException {
+        if (!isEnabled()) {
+            return;
+        }
+        Path path = Paths.get(headscaleProperties.getSnapshotFile()).toAbsolutePath();
+        Files.createDirectories(path.getParent());
+        Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+
+        byte[] bytes = HeadscaleSnapshotCodec.encode(contents);
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, bytes.length);
+            buffer.put(bytes);
+            buffer.force();
+        }
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        log.debug("Persisted Headscale snapshot version {} ({} bytes) to {}", contents.version, bytes.length, path);
+    }
+}
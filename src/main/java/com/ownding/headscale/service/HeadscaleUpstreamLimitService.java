@@ -0,0 +1,228 @@
+package com.ownding.headscale.service;
+
+import com.ownding.headscale.conf.HeadscaleProperties;
+import com.ownding.headscale.dal.vo.HeadscaleUpstreamLimit;
+import com.ownding.headscale.utils.HeadscaleAdaptiveLimiter;
+import com.ownding.headscale.utils.HeadscaleDeadlineUtils;
+import io.grpc.CallOptions;
+import io.grpc.Channel;
+import io.grpc.ClientCall;
+import io.grpc.ClientInterceptor;
+import io.grpc.Deadline;
+import io.grpc.ForwardingClientCall;
+import io.grpc.ForwardingClientCallListener;
+import io.grpc.Metadata;
+import io.grpc.MethodDescriptor;
+import io.grpc.Status;
+import lombok.extern.slf4j.Slf4j;
+import okhttp3.Interceptor;
+import okhttp3.Response;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Headscale Upstream Limit Service
+ * Wraps every REST and gRPC call to Headscale in an adaptive concurrency limiter, so a degrading
+ * control plane sees fewer concurrent calls instead of every worker piling on.
+ */
+@Service
+@Slf4j
+public class HeadscaleUpstreamLimitService {
+
+    @Autowired
+    private HeadscaleProperties headscaleProperties;
+
+    private HeadscaleAdaptiveLimiter restLimiter;
+
+    private HeadscaleAdaptiveLimiter grpcLimiter;
+
+    @PostConstruct
+    public void init() {
+        if (!headscaleProperties.isUpstreamLimitEnabled()) {
+            log.info("Adaptive upstream concurrency limit disabled");
+            return;
+        }
+        this.restLimiter = newLimiter("rest");
+        this.grpcLimiter = newLimiter("grpc");
+        log.info("Adaptive upstream concurrency limit enabled: initial {}, range {}..{}, queue {} / {}ms",
+                headscaleProperties.getUpstreamLimitInitial(), headscaleProperties.getUpstreamLimitMin(),
+                headscaleProperties.getUpstreamLimitMax(), headscaleProperties.getUpstreamLimitQueueSize(),
+                headscaleProperties.getUpstreamLimitQueueTimeout());
+    }
+
+    private HeadscaleAdaptiveLimiter newLimiter(String name) {
+        return new HeadscaleAdaptiveLimiter(name, headscaleProperties.getUpstreamLimitInitial(),
+                headscaleProperties.getUpstreamLimitMin(), headscaleProperties.getUpstreamLimitMax(),
+                headscaleProperties.getUpstreamLimitQueueSize(), headscaleProperties.getUpstreamLimitQueueTimeout(),
+                headscaleProperties.getUpstreamLimitTolerance());
+    }
+
+    /**
+     * OkHttp application interceptor limiting REST calls; timeouts, 429 and 5xx shrink the limit.
+     * A failure caused by the caller's own request deadline running out says nothing about Headscale and is
+     * ignored, otherwise any client could push the limit down by sending tiny X-Request-Timeout budgets.
+     */
+    public Interceptor restInterceptor() {
+        return chain -> {
+            if (restLimiter == null) {
+                return chain.proceed(chain.request());
+            }
+            long start = restLimiter.acquire(HeadscaleDeadlineUtils.remainingNanos());
+            Response response;
+            try {
+                response = chain.proceed(chain.request());
+            } catch (IOException | RuntimeException e) {
+                if (HeadscaleDeadlineUtils.isSpent()) {
+                    restLimiter.onIgnored();
+                } else {
+                    restLimiter.onDropped();
+                }
+                throw e;
+            }
+            if (response.code() == 429 || response.code() >= 500) {
+                restLimiter.onDropped();
+            } else {
+                restLimiter.onSuccess(start);
+            }
+            return response;
+        };
+    }
+
+    /**
+     * gRPC channel interceptor limiting all calls; DEADLINE_EXCEEDED, UNAVAILABLE and RESOURCE_EXHAUSTED
+     * shrink the limit, rejected calls fail with RESOURCE_EXHAUSTED without reaching Headscale.
+     * DEADLINE_EXCEEDED after the calling request's own deadline has passed is ignored, as for REST.
+     */
+    public ClientInterceptor grpcInterceptor() {
+        return new ClientInterceptor() {
+            @Override
+            public <ReqT, RespT> ClientCall<ReqT, RespT> interceptCall(MethodDescriptor<ReqT, RespT> method,
+                                                                       CallOptions callOptions, Channel next) {
+                ClientCall<ReqT, RespT> call = next.newCall(method, callOptions);
+                Deadline deadline = callOptions.getDeadline();
+                if (grpcLimiter == null || (deadline != null && deadline.isExpired())) {
+                    // an expired call fails locally with DEADLINE_EXCEEDED and must not count as an upstream drop
+                    return call;
+                }
+                // onClose runs on a gRPC thread without the request deadline, so remember when it ends
+                long remaining = HeadscaleDeadlineUtils.remainingNanos();
+                Long requestDeadline = remaining == Long.MAX_VALUE ? null : System.nanoTime() + remaining;
+                return new LimitedClientCall<>(call, grpcLimiter, deadline, requestDeadline);
+            }
+        };
+    }
+
+    private static class LimitedClientCall<ReqT, RespT> extends ForwardingClientCall.SimpleForwardingClientCall<ReqT, RespT> {
+
+        private final HeadscaleAdaptiveLimiter limiter;
+
+        private final Deadline deadline;
+
+        /**
+         * System.nanoTime() at which the calling request's deadline runs out, null without one
+         */
+        private final Long requestDeadline;
+
+        private boolean rejected;
+
+        LimitedClientCall(ClientCall<ReqT, RespT> delegate, HeadscaleAdaptiveLimiter limiter, Deadline deadline,
+                          Long requestDeadline) {
+            super(delegate);
+            this.limiter = limiter;
+            this.deadline = deadline;
+            this.requestDeadline = requestDeadline;
+        }
+
+        @Override
+        public void start(Listener<RespT> responseListener, Metadata headers) {
+            long start;
+            try {
+                start = limiter.acquire(deadline != null ? deadline.timeRemaining(TimeUnit.NANOSECONDS) : Long.MAX_VALUE);
+            } catch (HeadscaleAdaptiveLimiter.LimitExceededException e) {
+                rejected = true;
+                responseListener.onClose(Status.RESOURCE_EXHAUSTED.withDescription(e.getMessage()), new Metadata());
+                return;
+            }
+            super.start(new ForwardingClientCallListener.SimpleForwardingClientCallListener<RespT>(responseListener) {
+                @Override
+                public void onClose(Status status, Metadata trailers) {
+                    switch (status.getCode()) {
+                        case DEADLINE_EXCEEDED:
+                            if (requestDeadline != null && requestDeadline - System.nanoTime() <= TimeUnit.MILLISECONDS.toNanos(1)) {
+                                limiter.onIgnored();
+                            } else {
+                                limiter.onDropped();
+                            }
+                            break;
+                        case UNAVAILABLE:
+                        case RESOURCE_EXHAUSTED:
+                            limiter.onDropped();
+                            break;
+                        case CANCELLED:
+                            limiter.onIgnored();
+                            break;
+                        default:
+                            limiter.onSuccess(start);
+                    }
+                    super.onClose(status, trailers);
+                }
+            }, headers);
+        }
+
+        @Override
+        public void request(int numMessages) {
+            if (!rejected) {
+                super.request(numMessages);
+            }
+        }
+
+        @Override
+        public void sendMessage(ReqT message) {
+            if (!rejected) {
+                super.sendMessage(message);
+            }
+        }
+
+        @Override
+        public void halfClose() {
+            if (!rejected) {
+                super.halfClose();
+            }
+        }
+
+        @Override
+        public void cancel(String message, Throwable cause) {
+            if (!rejected) {
+                super.cancel(message, cause);
+            }
+        }
+    }
+
+    /**
+     * Live limit, in-flight count, queue depth and RTTs of both limiters (empty when disabled)
+     */
+    public List<HeadscaleUpstreamLimit> getLimits() {
+        List<HeadscaleUpstreamLimit> limits = new ArrayList<>();
+        for (HeadscaleAdaptiveLimiter limiter : new HeadscaleAdaptiveLimiter[]{restLimiter, grpcLimiter}) {
+            if (limiter == null) {
+                continue;
+            }
+            HeadscaleUpstreamLimit limit = new HeadscaleUpstreamLimit();
+            limit.setName(limiter.getName());
+            limit.setLimit(limiter.getLimit());
+            limit.setInFlight(limiter.getInFlight());
+            limit.setQueued(limiter.getQueued());
+            limit.setRejected(limiter.getRejected());
+            limit.setShortRttMs(limiter.getShortRttMillis());
+            limit.setBaselineRttMs(limiter.getBaselineRttMillis());
+            limits.add(limit);
+        }
+        return limits;
+    }
+}
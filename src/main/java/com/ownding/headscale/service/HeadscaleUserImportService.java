@@ -0,0 +1,396 @@
+package com.ownding.headscale.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.ownding.headscale.conf.HeadscaleProperties;
+import com.ownding.headscale.dal.vo.HeadscalePreAuthKey;
+import com.ownding.headscale.dal.vo.HeadscaleUser;
+import com.ownding.headscale.dal.vo.HeadscaleUserImportResult;
+import com.ownding.headscale.dal.vo.HeadscaleUserImportRow;
+import com.ownding.headscale.dal.vo.HeadscaleUserImportSummary;
+import com.ownding.headscale.utils.HeadscaleConcurrencyUtils;
+import com.ownding.headscale.utils.HeadscaleValidationUtils;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Headscale User Import Service
+ * Reads a CSV or NDJSON body line by line, validates each row with the precompiled name patterns and dedupes it
+ * against the inventory snapshot and earlier rows. Valid rows create the user (and an optional pre-auth key) on the
+ * executor with at most userImportConcurrency rows in flight; reading pauses while the window is full, so memory stays
+ * flat however large the upload is. Every row result is written as one NDJSON line as soon as it is known.
+ */
+@Service
+@Slf4j
+public class HeadscaleUserImportService {
+
+    public static final String FORMAT_CSV = "csv";
+    public static final String FORMAT_NDJSON = "ndjson";
+
+    /**
+     * CSV column order when the file has no header line
+     */
+    private static final String[] DEFAULT_COLUMNS = {"username", "displayname", "preauthkey", "reusable", "ephemeral", "expirationhours"};
+
+    private static final long DRAIN_INTERVAL = 100;
+
+    @Autowired
+    private HeadscaleProperties headscaleProperties;
+
+    @Autowired
+    private HeadscaleService restService;
+
+    @Autowired
+    private HeadscaleHybridService hybridService;
+
+    @Autowired
+    private HeadscaleInventoryService inventoryService;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    @Qualifier("headscaleExecutor")
+    private Executor headscaleExecutor;
+
+    /**
+     * Pick the input format from the format parameter, falling back to the Content-Type (CSV when neither says)
+     *
+     * @throws IllegalArgumentException unknown format, or a form body the servlet container would consume as parameters
+     */
+    public String resolveFormat(String format, String contentType) {
+        if (StringUtils.isNotBlank(format)) {
+            String normalized = format.trim().toLowerCase();
+            if ("jsonl".equals(normalized)) {
+                return FORMAT_NDJSON;
+            }
+            if (!FORMAT_CSV.equals(normalized) && !FORMAT_NDJSON.equals(normalized)) {
+                throw new IllegalArgumentException("format只能是csv或ndjson");
+            }
+            return normalized;
+        }
+        String type = StringUtils.defaultString(contentType).toLowerCase();
+        if (type.startsWith("application/x-www-form-urlencoded") || type.startsWith("multipart/")) {
+            throw new IllegalArgumentException("请使用Content-Type: text/csv或application/x-ndjson上传原始内容");
+        }
+        return type.contains("json") ? FORMAT_NDJSON : FORMAT_CSV;
+    }
+
+    /**
+     * Import users from the input, writing one NDJSON result per row and the summary as the last line
+     */
+    public HeadscaleUserImportSummary importUsers(InputStream input, String format, OutputStream output) throws IOException {
+        long started = System.nanoTime();
+        boolean csv = FORMAT_CSV.equals(format);
+        int maxRows = headscaleProperties.getUserImportMaxRows();
+        ResultWriter writer = new ResultWriter(output);
+
+        Set<String> existing = new HashSet<>();
+        for (HeadscaleUser user : inventoryService.current().getUsers()) {
+            existing.add(user.getName());
+        }
+        Set<String> seen = new HashSet<>();
+        Semaphore window = new Semaphore(Math.max(1, headscaleProperties.getUserImportConcurrency()));
+        BlockingQueue<HeadscaleUserImportResult> completed = new LinkedBlockingQueue<>();
+        int submitted = 0;
+
+        BufferedReader reader = new BufferedReader(new InputStreamReader(input, StandardCharsets.UTF_8));
+        String[] columns = csv ? null : DEFAULT_COLUMNS;
+        String line;
+        int lineNumber = 0;
+        while ((line = reader.readLine()) != null) {
+            lineNumber++;
+            if (lineNumber == 1 && line.startsWith("\uFEFF")) {
+                line = line.substring(1);
+            }
+            if (StringUtils.isBlank(line) || line.startsWith("#")) {
+                continue;
+            }
+            if (columns == null) {
+                List<String> first = parseCsvLine(line);
+                if ("username".equalsIgnoreCase(first.get(0).trim())) {
+                    columns = new String[first.size()];
+                    for (int i = 0; i < columns.length; i++) {
+                        columns[i] = first.get(i).trim().toLowerCase();
+                    }
+                    continue;
+                }
+                columns = DEFAULT_COLUMNS;
+            }
+            if (maxRows > 0 && writer.summary.getRows() >= maxRows) {
+                writer.summary.setTruncated(true);
+                break;
+            }
+            writer.summary.setRows(writer.summary.getRows() + 1);
+
+            HeadscaleUserImportRow row;
+            try {
+                row = csv ? toRow(columns, parseCsvLine(line)) : objectMapper.readValue(line, HeadscaleUserImportRow.class);
+            } catch (IllegalArgumentException | IOException e) {
+                writer.write(new HeadscaleUserImportResult(lineNumber, null, HeadscaleUserImportResult.INVALID,
+                        "无法解析: " + e.getMessage()));
+                continue;
+            }
+            String username = StringUtils.trimToNull(row.getUsername());
+            row.setUsername(username);
+            row.setDisplayName(StringUtils.trimToNull(row.getDisplayName()));
+            String error = HeadscaleValidationUtils.validateUser(username, row.getDisplayName());
+            if (error != null) {
+                writer.write(new HeadscaleUserImportResult(lineNumber, username, HeadscaleUserImportResult.INVALID, error));
+                continue;
+            }
+            if (!seen.add(username)) {
+                writer.write(new HeadscaleUserImportResult(lineNumber, username, HeadscaleUserImportResult.DUPLICATE,
+                        "同一导入中重复的用户名"));
+                continue;
+            }
+            if (existing.contains(username)) {
+                writer.write(new HeadscaleUserImportResult(lineNumber, username, HeadscaleUserImportResult.EXISTS, null));
+                continue;
+            }
+
+            acquire(window, completed, writer);
+            submitted++;
+            int rowLine = lineNumber;
+            HeadscaleConcurrencyUtils.supplyAsync(() -> createRow(rowLine, row), headscaleExecutor)
+                    .whenComplete((result, failure) -> {
+                        completed.offer(result != null ? result : new HeadscaleUserImportResult(rowLine, username,
+                                HeadscaleUserImportResult.FAILED, failure.getMessage()));
+                        window.release();
+                    });
+            writer.drain(completed);
+        }
+
+        // rows still in flight
+        try {
+            while (writer.async < submitted) {
+                HeadscaleUserImportResult result = completed.poll(DRAIN_INTERVAL, TimeUnit.MILLISECONDS);
+                if (result != null) {
+                    writer.writeAsync(result);
+                } else {
+                    writer.flush();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for imported users");
+        }
+
+        HeadscaleUserImportSummary summary = writer.summary;
+        summary.setElapsedMs(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started));
+        writer.writeLine(summary);
+        writer.flush();
+        log.info("User import ({}): {} rows, {} created, {} exists, {} duplicate, {} invalid, {} failed, {} keys in {}ms",
+                format, summary.getRows(), summary.getCreated(), summary.getExists(), summary.getDuplicate(),
+                summary.getInvalid(), summary.getFailed(), summary.getPreAuthKeys(), summary.getElapsedMs());
+        return summary;
+    }
+
+    /**
+     * Wait for a free slot in the in-flight window, writing results that complete meanwhile
+     */
+    private void acquire(Semaphore window, BlockingQueue<HeadscaleUserImportResult> completed, ResultWriter writer)
+            throws IOException {
+        try {
+            while (!window.tryAcquire(DRAIN_INTERVAL, TimeUnit.MILLISECONDS)) {
+                writer.drain(completed);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the import window");
+        }
+    }
+
+    /**
+     * Create the user and, when asked, its pre-auth key; never throws
+     */
+    private HeadscaleUserImportResult createRow(int line, HeadscaleUserImportRow row) {
+        HeadscaleUserImportResult result = new HeadscaleUserImportResult(line, row.getUsername(), HeadscaleUserImportResult.CREATED, null);
+        HeadscaleUser user;
+        try {
+            user = hybridService.createUser(row.getUsername(), row.getDisplayName());
+            result.setUserId(user.getId());
+        } catch (Exception e) {
+            result.setStatus(HeadscaleUserImportResult.FAILED);
+            result.setMessage(e.getMessage());
+            return result;
+        }
+        if (Boolean.TRUE.equals(row.getPreAuthKey())) {
+            try {
+                int hours = row.getExpirationHours() != null && row.getExpirationHours() > 0
+                        ? row.getExpirationHours() : headscaleProperties.getUserImportKeyExpirationHours();
+                HeadscalePreAuthKey key = restService.createPreAuthKey(user, Boolean.TRUE.equals(row.getReusable()),
+                        Boolean.TRUE.equals(row.getEphemeral()), hours);
+                result.setPreAuthKey(key != null ? key.getKey() : null);
+            } catch (Exception e) {
+                result.setMessage("预授权密钥创建失败: " + e.getMessage());
+            }
+        }
+        return result;
+    }
+
+    private static HeadscaleUserImportRow toRow(String[] columns, List<String> values) {
+        Map<String, String> fields = new HashMap<>();
+        for (int i = 0; i < columns.length && i < values.size(); i++) {
+            fields.put(columns[i], StringUtils.trimToNull(values.get(i)));
+        }
+        HeadscaleUserImportRow row = new HeadscaleUserImportRow();
+        row.setUsername(fields.get("username"));
+        row.setDisplayName(fields.get("displayname"));
+        row.setPreAuthKey(parseFlag(fields.get("preauthkey")));
+        row.setReusable(parseFlag(fields.get("reusable")));
+        row.setEphemeral(parseFlag(fields.get("ephemeral")));
+        String hours = fields.get("expirationhours");
+        if (hours != null) {
+            try {
+                row.setExpirationHours(Integer.valueOf(hours));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("无效的expirationHours: " + hours);
+            }
+        }
+        return row;
+    }
+
+    private static Boolean parseFlag(String value) {
+        if (value == null) {
+            return null;
+        }
+        switch (value.toLowerCase()) {
+            case "true":
+            case "yes":
+            case "y":
+            case "1":
+                return Boolean.TRUE;
+            case "false":
+            case "no":
+            case "n":
+            case "0":
+                return Boolean.FALSE;
+            default:
+                throw new IllegalArgumentException("无效的布尔值: " + value);
+        }
+    }
+
+    /**
+     * Split one CSV line (RFC 4180 quoting, no line breaks inside fields)
+     */
+    static List<String> parseCsvLine(String line) {
+        List<String> values = new ArrayList<>();
+        StringBuilder current = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    current.append('"');
+                    i++;
+                } else if (c == '"') {
+                    quoted = false;
+                } else {
+                    current.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                values.add(current.toString());
+                current.setLength(0);
+            } else {
+                current.append(c);
+            }
+        }
+        if (quoted) {
+            throw new IllegalArgumentException("引号未闭合");
+        }
+        values.add(current.toString());
+        return values;
+    }
+
+    /**
+     * Writes NDJSON lines and keeps the totals; only ever used from the request thread
+     */
+    private class ResultWriter {
+        private final OutputStream output;
+        private final HeadscaleUserImportSummary summary = new HeadscaleUserImportSummary();
+        private int async;
+        private boolean dirty;
+
+        ResultWriter(OutputStream output) {
+            this.output = output;
+        }
+
+        void write(HeadscaleUserImportResult result) throws IOException {
+            switch (result.getStatus()) {
+                case HeadscaleUserImportResult.CREATED:
+                    summary.setCreated(summary.getCreated() + 1);
+                    if (result.getPreAuthKey() != null) {
+                        summary.setPreAuthKeys(summary.getPreAuthKeys() + 1);
+                    } else if (result.getMessage() != null) {
+                        summary.setKeyFailures(summary.getKeyFailures() + 1);
+                    }
+                    break;
+                case HeadscaleUserImportResult.EXISTS:
+                    summary.setExists(summary.getExists() + 1);
+                    break;
+                case HeadscaleUserImportResult.DUPLICATE:
+                    summary.setDuplicate(summary.getDuplicate() + 1);
+                    break;
+                case HeadscaleUserImportResult.INVALID:
+                    summary.setInvalid(summary.getInvalid() + 1);
+                    break;
+                default:
+                    summary.setFailed(summary.getFailed() + 1);
+            }
+            writeLine(result);
+        }
+
+        void writeAsync(HeadscaleUserImportResult result) throws IOException {
+            async++;
+            write(result);
+        }
+
+        void writeLine(Object value) throws IOException {
+            output.write(objectMapper.writeValueAsBytes(value));
+            output.write('\n');
+            dirty = true;
+        }
+
+        /**
+         * Write every result completed so far and push them to the client
+         */
+        void drain(BlockingQueue<HeadscaleUserImportResult> completed) throws IOException {
+            HeadscaleUserImportResult result;
+            while ((result = completed.poll()) != null) {
+                writeAsync(result);
+            }
+            flush();
+        }
+
+        void flush() throws IOException {
+            if (dirty) {
+                output.flush();
+                dirty = false;
+            }
+        }
+    }
+}
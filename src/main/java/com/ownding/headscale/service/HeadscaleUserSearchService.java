@@ -0,0 +1,69 @@
+package com.ownding.headscale.service;
+
+import com.ownding.headscale.conf.HeadscaleProperties;
+import com.ownding.headscale.dal.vo.HeadscaleInventorySnapshot;
+import com.ownding.headscale.dal.vo.HeadscaleUserPage;
+import com.ownding.headscale.utils.HeadscaleUserIndex;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Headscale User Search Service
+ * Serves cursor-paginated, searchable pages of the user list from a HeadscaleUserIndex built once per inventory
+ * version. The index is rebuilt when the inventory changes, so a page request only does binary searches and
+ * posting-list intersections over the prebuilt index.
+ */
+@Service
+@Slf4j
+public class HeadscaleUserSearchService {
+
+    @Autowired
+    private HeadscaleProperties headscaleProperties;
+
+    @Autowired
+    private HeadscaleInventoryService inventoryService;
+
+    private volatile HeadscaleUserIndex index;
+
+    @EventListener
+    public void onInventoryChanged(HeadscaleInventoryChangedEvent event) {
+        indexOf(event.getCurrent());
+    }
+
+    /**
+     * @throws IllegalArgumentException unknown match mode or invalid cursor
+     */
+    public HeadscaleUserPage page(String query, String match, String cursor, Integer limit) throws IOException {
+        String mode = StringUtils.defaultIfBlank(match, HeadscaleUserIndex.MATCH_PREFIX).trim().toLowerCase();
+        if (!HeadscaleUserIndex.MATCH_PREFIX.equals(mode) && !HeadscaleUserIndex.MATCH_SUBSTRING.equals(mode)) {
+            throw new IllegalArgumentException("match只能是prefix或substring");
+        }
+        int pageSize = limit == null || limit <= 0 ? headscaleProperties.getUserPageDefaultLimit()
+                : Math.min(limit, headscaleProperties.getUserPageMaxLimit());
+        return indexOf(inventoryService.current()).page(query, mode, cursor, Math.max(1, pageSize));
+    }
+
+    private HeadscaleUserIndex indexOf(HeadscaleInventorySnapshot snapshot) {
+        HeadscaleUserIndex current = index;
+        if (current != null && current.getVersion() >= snapshot.getVersion()) {
+            return current;
+        }
+        synchronized (this) {
+            current = index;
+            if (current == null || current.getVersion() < snapshot.getVersion()) {
+                long started = System.nanoTime();
+                current = new HeadscaleUserIndex(snapshot.getVersion(), snapshot.getUsers());
+                index = current;
+                log.debug("Indexed {} users of inventory version {} in {}ms", current.size(), snapshot.getVersion(),
+                        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started));
+            }
+            return current;
+        }
+    }
+}
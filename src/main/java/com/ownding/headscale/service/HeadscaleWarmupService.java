@@ -0,0 +1,145 @@
+package com.ownding.headscale.service;
+
+import com.alibaba.fastjson.JSON;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.ownding.headscale.conf.HeadscaleProperties;
+import com.ownding.headscale.dal.vo.HeadscaleConnectionInfo;
+import com.ownding.headscale.dal.vo.HeadscaleDeleteCheck;
+import com.ownding.headscale.dal.vo.HeadscaleInventorySnapshot;
+import com.ownding.headscale.dal.vo.HeadscaleNodeStatusSummary;
+import com.ownding.headscale.dal.vo.HeadscalePreAuthKeyDebug;
+import com.ownding.headscale.dal.vo.HeadscaleWarmupStatus;
+import com.ownding.headscale.dal.vo.Result;
+import io.grpc.ConnectivityState;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+/**
+ * Headscale Warm-up Service
+ * Runs once the application is up: connects the gRPC channel, loads users and nodes over REST (which also fills
+ * the connection pool) and JIT-warms the parse/serialize paths. The instance reports ready only after this.
+ */
+@Service
+@Slf4j
+public class HeadscaleWarmupService {
+
+    @Autowired
+    private HeadscaleProperties headscaleProperties;
+
+    @Autowired
+    private HeadscaleService restService;
+
+    @Autowired
+    private HeadscaleGrpcService grpcService;
+
+    @Autowired
+    private HeadscaleInventoryService inventoryService;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    private final Map<String, String> steps = Collections.synchronizedMap(new LinkedHashMap<>());
+
+    private volatile boolean ready;
+
+    private volatile long startedAt;
+
+    private volatile long finishedAt;
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void onApplicationReady() {
+        Thread thread = new Thread(this::warmUp, "headscale-warmup");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public boolean isReady() {
+        return ready;
+    }
+
+    public HeadscaleWarmupStatus getStatus() {
+        HeadscaleWarmupStatus status = new HeadscaleWarmupStatus();
+        status.setReady(ready);
+        status.setStartedAt(startedAt);
+        status.setFinishedAt(finishedAt);
+        status.setDurationMs(startedAt == 0 ? 0 : (finishedAt > 0 ? finishedAt : System.currentTimeMillis()) - startedAt);
+        synchronized (steps) {
+            status.setSteps(new LinkedHashMap<>(steps));
+        }
+        return status;
+    }
+
+    /**
+     * Run every step in order; a failed step is recorded but does not keep the instance unready,
+     * otherwise a Headscale outage would take every instance out of the load balancer
+     */
+    void warmUp() {
+        startedAt = System.currentTimeMillis();
+        log.info("Headscale warm-up started");
+
+        step("grpc", () -> {
+            ConnectivityState state = grpcService.connect(headscaleProperties.getWarmupTimeout());
+            return state.name();
+        });
+
+        step("inventory", () -> {
+            HeadscaleInventorySnapshot snapshot = inventoryService.refresh();
+            return String.format("version %d, %d users, %d nodes, %d REST connections", snapshot.getVersion(),
+                    snapshot.getUsers().size(), snapshot.getNodes().size(), restService.getConnectionCount());
+        });
+
+        step("jit", this::warmUpParsing);
+
+        finishedAt = System.currentTimeMillis();
+        ready = true;
+        log.info("Headscale warm-up finished in {}ms: {}", finishedAt - startedAt, steps);
+    }
+
+    /**
+     * Round-trip the current inventory through the upstream parsers and the response serializer
+     */
+    private String warmUpParsing() throws Exception {
+        int iterations = headscaleProperties.getWarmupIterations();
+        HeadscaleInventorySnapshot snapshot = inventoryService.getSnapshot();
+        if (iterations <= 0) {
+            return "skipped";
+        }
+        if (snapshot == null || (snapshot.getUsers().isEmpty() && snapshot.getNodes().isEmpty())) {
+            return "skipped (no inventory)";
+        }
+
+        String usersBody = JSON.toJSONString(Collections.singletonMap("users", snapshot.getUsers()));
+        String nodesBody = JSON.toJSONString(Collections.singletonMap("nodes", snapshot.getNodes()));
+        for (int i = 0; i < iterations; i++) {
+            restService.parseUsers(usersBody);
+            objectMapper.writeValueAsBytes(Result.success(restService.parseNodes(nodesBody)));
+        }
+        // resolve serializers for the typed status DTOs up front so their first request pays no introspection
+        for (Object dto : Arrays.asList(new HeadscaleNodeStatusSummary(), new HeadscaleConnectionInfo(),
+                new HeadscaleDeleteCheck(), new HeadscalePreAuthKeyDebug())) {
+            objectMapper.writeValueAsBytes(Result.success(dto));
+        }
+        return iterations + " iterations";
+    }
+
+    private void step(String name, Callable<String> action) {
+        long start = System.currentTimeMillis();
+        String outcome;
+        try {
+            outcome = action.call();
+        } catch (Exception e) {
+            log.warn("Headscale warm-up step {} failed: {}", name, e.getMessage());
+            outcome = "failed: " + e.getMessage();
+        }
+        steps.put(name, outcome + " (" + (System.currentTimeMillis() - start) + "ms)");
+    }
+}
@@ -0,0 +1,102 @@
+package com.ownding.headscale.utils;
+
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+
+import javax.servlet.http.HttpServletRequest;
+
+/**
+ * 操作人识别工具类
+ * 操作人只取服务端可确认的信息（认证用户 + 客户端地址）；X-Actor 请求头由客户端任意填写，
+ * 只作为“声称的操作人”单独记录，不作为操作人。两者都支持传递到异步任务线程中
+ */
+public class HeadscaleActorUtils {
+
+    public static final String ACTOR_HEADER = "X-Actor";
+
+    private static final String SYSTEM_ACTOR = "system";
+
+    /**
+     * 声称的操作人最大长度，超出部分截断
+     */
+    private static final int MAX_CLAIMED_LENGTH = 128;
+
+    private static final ThreadLocal<String> ACTOR = new ThreadLocal<>();
+
+    private static final ThreadLocal<String> CLAIMED = new ThreadLocal<>();
+
+    /**
+     * 获取当前操作人
+     *
+     * @return 操作人，如 "alice@10.0.0.5"；非HTTP请求线程返回 "system"
+     */
+    public static String currentActor() {
+        String propagated = ACTOR.get();
+        if (propagated != null) {
+            return propagated;
+        }
+
+        RequestAttributes attributes = RequestContextHolder.getRequestAttributes();
+        if (!(attributes instanceof ServletRequestAttributes)) {
+            return SYSTEM_ACTOR;
+        }
+
+        HttpServletRequest request = ((ServletRequestAttributes) attributes).getRequest();
+        String name = request.getRemoteUser();
+        String address = request.getRemoteAddr();
+        return StringUtils.isBlank(name) ? address : name.trim() + "@" + address;
+    }
+
+    /**
+     * 获取客户端通过 X-Actor 请求头声称的操作人（未经校验）
+     *
+     * @return 声称的操作人（去除控制字符并截断）；未提供或非HTTP请求线程返回null
+     */
+    public static String claimedActor() {
+        if (ACTOR.get() != null) {
+            return CLAIMED.get();
+        }
+
+        RequestAttributes attributes = RequestContextHolder.getRequestAttributes();
+        if (!(attributes instanceof ServletRequestAttributes)) {
+            return null;
+        }
+
+        String claimed = ((ServletRequestAttributes) attributes).getRequest().getHeader(ACTOR_HEADER);
+        if (StringUtils.isBlank(claimed)) {
+            return null;
+        }
+        claimed = claimed.replaceAll("\\p{Cntrl}", "").trim();
+        return StringUtils.isEmpty(claimed) ? null : StringUtils.left(claimed, MAX_CLAIMED_LENGTH);
+    }
+
+    /**
+     * 包装异步任务，使其在执行线程中沿用提交时的操作人与声称的操作人
+     *
+     * @param task 原始任务
+     * @return 包装后的任务
+     */
+    public static Runnable propagate(Runnable task) {
+        String actor = currentActor();
+        String claimed = claimedActor();
+        return () -> {
+            String previous = ACTOR.get();
+            String previousClaimed = CLAIMED.get();
+            ACTOR.set(actor);
+            CLAIMED.set(claimed);
+            try {
+                task.run();
+            } finally {
+                if (previous == null) {
+                    ACTOR.remove();
+                    CLAIMED.remove();
+                } else {
+                    ACTOR.set(previous);
+                    CLAIMED.set(previousClaimed);
+                }
+            }
+        };
+    }
+}
@@ -0,0 +1,254 @@
+package com.ownding.headscale.utils;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 自适应并发限制器（梯度算法 + 丢弃时乘性退避）
+ * 根据调用的往返时延（RTT）动态调整允许的在途请求数：
+ * 短期RTT明显高于无负载时的基线RTT时按比例收缩上限，时延正常且上限被用满时缓慢增长；
+ * 超时/不可用等“丢弃”结果直接按系数退避。超过上限的调用在有限的队列中等待，队列满或等待超时则拒绝
+ */
+public class HeadscaleAdaptiveLimiter {
+
+    /**
+     * 发生丢弃（超时、不可用）时的乘性退避系数
+     */
+    private static final double BACKOFF_RATIO = 0.9;
+
+    /**
+     * 新计算出的上限与当前上限的平滑系数
+     */
+    private static final double SMOOTHING = 0.2;
+
+    private static final double SHORT_RTT_WEIGHT = 0.2;
+
+    /**
+     * 基线RTT向下跟随较快、向上漂移很慢：负载引起的时延上升不会被当作新的基线，
+     * 而上游真正变慢（持续数千次调用）后基线最终会跟上，避免上限永久停在最小值
+     */
+    private static final double BASELINE_DOWN_WEIGHT = 0.05;
+
+    private static final double BASELINE_UP_WEIGHT = 0.001;
+
+    private final String name;
+
+    private final int minLimit;
+
+    private final int maxLimit;
+
+    private final int maxQueue;
+
+    private final long queueTimeoutNanos;
+
+    /**
+     * 可容忍的RTT膨胀倍数，短期RTT超过 基线RTT * tolerance 时开始收缩
+     */
+    private final double tolerance;
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private final Condition available = lock.newCondition();
+
+    private final AtomicLong rejected = new AtomicLong();
+
+    private double limit;
+
+    private int inFlight;
+
+    private int queued;
+
+    private double shortRtt;
+
+    private double baselineRtt;
+
+    /**
+     * 超过并发上限且无法排队时抛出
+     */
+    public static class LimitExceededException extends IOException {
+        public LimitExceededException(String message) {
+            super(message);
+        }
+    }
+
+    public HeadscaleAdaptiveLimiter(String name, int initialLimit, int minLimit, int maxLimit,
+                                    int maxQueue, long queueTimeoutMillis, double tolerance) {
+        this.name = name;
+        this.minLimit = Math.max(1, minLimit);
+        this.maxLimit = Math.max(this.minLimit, maxLimit);
+        this.maxQueue = Math.max(0, maxQueue);
+        this.queueTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, queueTimeoutMillis));
+        this.tolerance = Math.max(1.0, tolerance);
+        this.limit = Math.min(this.maxLimit, Math.max(this.minLimit, initialLimit));
+    }
+
+    /**
+     * 获取一个在途名额，必要时排队等待
+     *
+     * @return 开始时间（System.nanoTime()），调用结束后传给 onSuccess
+     * @throws LimitExceededException 队列已满、等待超时或等待被中断
+     */
+    public long acquire() throws LimitExceededException {
+        return acquire(queueTimeoutNanos);
+    }
+
+    /**
+     * 获取一个在途名额，排队时间不超过 maxWaitNanos 和配置的排队超时中较小者（例如调用方剩余的时间预算）
+     */
+    public long acquire(long maxWaitNanos) throws LimitExceededException {
+        lock.lock();
+        try {
+            if (inFlight >= (int) limit) {
+                if (queued >= maxQueue) {
+                    throw reject("队列已满");
+                }
+                queued++;
+                try {
+                    long remaining = Math.min(queueTimeoutNanos, maxWaitNanos);
+                    while (inFlight >= (int) limit) {
+                        if (remaining <= 0) {
+                            throw reject("排队超时");
+                        }
+                        remaining = available.awaitNanos(remaining);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw reject("排队被中断");
+                } finally {
+                    queued--;
+                }
+            }
+            inFlight++;
+            return System.nanoTime();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 调用正常结束（包括业务错误），用其RTT调整上限
+     */
+    public void onSuccess(long startNanos) {
+        long rtt = Math.max(1, System.nanoTime() - startNanos);
+        lock.lock();
+        try {
+            boolean saturated = inFlight * 2 >= (int) limit;
+            inFlight--;
+
+            shortRtt = shortRtt == 0 ? rtt : shortRtt * (1 - SHORT_RTT_WEIGHT) + rtt * SHORT_RTT_WEIGHT;
+            if (baselineRtt == 0) {
+                baselineRtt = rtt;
+            } else {
+                double weight = rtt < baselineRtt ? BASELINE_DOWN_WEIGHT : BASELINE_UP_WEIGHT;
+                baselineRtt = baselineRtt * (1 - weight) + rtt * weight;
+            }
+
+            double gradient = Math.max(0.5, Math.min(1.0, tolerance * baselineRtt / shortRtt));
+            if (gradient < 1.0 || saturated) {
+                double target = limit * gradient + Math.sqrt(limit);
+                setLimit(limit * (1 - SMOOTHING) + target * SMOOTHING);
+            }
+            available.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 调用被丢弃（超时、上游不可用、过载），乘性退避
+     */
+    public void onDropped() {
+        lock.lock();
+        try {
+            inFlight--;
+            setLimit(limit * BACKOFF_RATIO);
+            available.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 调用结束但结果不反映上游负载（如被取消），只归还名额
+     */
+    public void onIgnored() {
+        lock.lock();
+        try {
+            inFlight--;
+            available.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void setLimit(double newLimit) {
+        limit = Math.min(maxLimit, Math.max(minLimit, newLimit));
+    }
+
+    private LimitExceededException reject(String reason) {
+        rejected.incrementAndGet();
+        return new LimitExceededException("Headscale " + name + " 并发已达上限(" + (int) limit + ")，" + reason);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getLimit() {
+        lock.lock();
+        try {
+            return (int) limit;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getInFlight() {
+        lock.lock();
+        try {
+            return inFlight;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getQueued() {
+        lock.lock();
+        try {
+            return queued;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getRejected() {
+        return rejected.get();
+    }
+
+    /**
+     * 短期RTT（毫秒）
+     */
+    public double getShortRttMillis() {
+        lock.lock();
+        try {
+            return shortRtt / 1_000_000d;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 基线RTT（毫秒）
+     */
+    public double getBaselineRttMillis() {
+        lock.lock();
+        try {
+            return baselineRtt / 1_000_000d;
+        } finally {
+            lock.unlock();
+        }
+    }
+}
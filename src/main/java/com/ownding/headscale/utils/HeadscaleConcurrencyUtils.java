@@ -0,0 +1,149 @@
+package com.ownding.headscale.utils;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Function;
+
+/**
+ * Headscale并发工具类
+ * 用于对上游调用做并发扇出（fan-out），并限制同时进行的调用数
+ */
+public class HeadscaleConcurrencyUtils {
+
+    /**
+     * 可抛出IOException的上游调用
+     */
+    @FunctionalInterface
+    public interface IOCallable<T> {
+        T call() throws IOException;
+    }
+
+    /**
+     * 在指定线程池中异步执行上游调用，IOException会被包装为CompletionException
+     *
+     * @param callable 上游调用
+     * @param executor 线程池
+     * @return CompletableFuture
+     */
+    public static <T> CompletableFuture<T> supplyAsync(IOCallable<T> callable, Executor executor) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return callable.call();
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            }
+        }, executor);
+    }
+
+    /**
+     * 等待异步调用完成，并将失败还原为IOException
+     * 当前请求有时限时最多等待剩余预算，超时后放弃该调用
+     *
+     * @param future 异步调用
+     * @return 调用结果
+     */
+    public static <T> T join(CompletableFuture<T> future) throws IOException {
+        try {
+            if (!HeadscaleDeadlineUtils.hasDeadline()) {
+                return future.join();
+            }
+            HeadscaleDeadlineUtils.check();
+            return future.get(HeadscaleDeadlineUtils.remainingNanos(), TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            future.cancel(false);
+            throw new HeadscaleDeadlineUtils.DeadlineExceededException("请求已超出时限，放弃等待上游调用");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("等待上游调用被中断");
+        } catch (CompletionException | ExecutionException e) {
+            Throwable cause = e.getCause() != null ? e.getCause() : e;
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException(cause.getMessage(), cause);
+        }
+    }
+
+    /**
+     * 对每个元素并发执行任务，同时进行的任务数不超过concurrency，结果顺序与输入一致
+     * 任务应自行处理异常并返回结果对象（例如每项的成功/失败状态）；时限耗尽后未开始的元素结果为null
+     *
+     * @param items       输入元素
+     * @param concurrency 最大并发数
+     * @param executor    线程池
+     * @param task        任务
+     * @return 与输入顺序一致的结果列表
+     */
+    public static <T, R> List<R> mapBounded(List<T> items, int concurrency, Executor executor, Function<T, R> task) {
+        return mapBounded(items, concurrency, executor, task, item -> null);
+    }
+
+    /**
+     * 对每个元素并发执行任务，同时进行的任务数不超过concurrency，结果顺序与输入一致
+     * 当前请求有时限时，时限耗尽后不再提交新任务，未开始的元素由skipped生成结果；
+     * 已提交的任务沿用同一时限，其上游调用会在时限到达时结束，因此等待结果的时间也有界
+     *
+     * @param items       输入元素
+     * @param concurrency 最大并发数
+     * @param executor    线程池
+     * @param task        任务
+     * @param skipped     时限耗尽后未开始的元素的结果
+     * @return 与输入顺序一致的结果列表
+     */
+    public static <T, R> List<R> mapBounded(List<T> items, int concurrency, Executor executor, Function<T, R> task,
+                                            Function<T, R> skipped) {
+        Semaphore permits = new Semaphore(Math.max(1, concurrency));
+        List<CompletableFuture<R>> futures = new ArrayList<>(items.size());
+
+        for (T item : items) {
+            if (!acquire(permits)) {
+                futures.add(CompletableFuture.completedFuture(skipped.apply(item)));
+                continue;
+            }
+            futures.add(CompletableFuture.supplyAsync(() -> {
+                try {
+                    return task.apply(item);
+                } finally {
+                    permits.release();
+                }
+            }, executor));
+        }
+
+        List<R> results = new ArrayList<>(futures.size());
+        for (CompletableFuture<R> future : futures) {
+            results.add(future.join());
+        }
+        return results;
+    }
+
+    /**
+     * 获取一个并发许可，当前请求有时限时最多等待剩余预算
+     *
+     * @return 是否获得许可，时限耗尽时为false
+     */
+    private static boolean acquire(Semaphore permits) {
+        try {
+            if (!HeadscaleDeadlineUtils.hasDeadline()) {
+                permits.acquire();
+                return true;
+            }
+            long remaining = HeadscaleDeadlineUtils.remainingNanos();
+            return remaining > 0 && permits.tryAcquire(remaining, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CompletionException(e);
+        }
+    }
+}
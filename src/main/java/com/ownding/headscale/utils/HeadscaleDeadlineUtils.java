@@ -0,0 +1,144 @@
+package com.ownding.headscale.utils;
+
+import java.io.InterruptedIOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 请求时限（deadline）工具类
+ * 每个HTTP请求在入口处获得一个绝对截止时间（来自 X-Request-Timeout 请求头或默认值），
+ * 上游REST/gRPC调用只使用剩余的时间预算，预算耗尽后不再发起新的调用；
+ * 截止时间随异步任务一起传递到执行线程
+ */
+public class HeadscaleDeadlineUtils {
+
+    public static final String TIMEOUT_HEADER = "X-Request-Timeout";
+
+    private static final ThreadLocal<Long> DEADLINE = new ThreadLocal<>();
+
+    private static final long SPENT_TOLERANCE_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    /**
+     * 请求时限已耗尽
+     */
+    public static class DeadlineExceededException extends InterruptedIOException {
+        public DeadlineExceededException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * 为当前线程设置时限
+     *
+     * @param timeoutMillis 从现在起的时间预算（毫秒）
+     */
+    public static void start(long timeoutMillis) {
+        DEADLINE.set(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis));
+    }
+
+    /**
+     * 清除当前线程的时限
+     */
+    public static void clear() {
+        DEADLINE.remove();
+    }
+
+    /**
+     * 暂时解除当前线程的时限，用于在请求线程上执行代表所有请求的共享工作（例如库存刷新），
+     * 避免某个请求的极短预算使共享工作对所有人失败
+     *
+     * @return 原时限，交给 resume 恢复；没有时限时为null
+     */
+    public static Long suspend() {
+        Long deadline = DEADLINE.get();
+        DEADLINE.remove();
+        return deadline;
+    }
+
+    /**
+     * 恢复 suspend 保存的时限
+     *
+     * @param deadline suspend 的返回值
+     */
+    public static void resume(Long deadline) {
+        if (deadline == null) {
+            DEADLINE.remove();
+        } else {
+            DEADLINE.set(deadline);
+        }
+    }
+
+    /**
+     * 当前线程是否有时限
+     */
+    public static boolean hasDeadline() {
+        return DEADLINE.get() != null;
+    }
+
+    /**
+     * 剩余时间预算（纳秒），没有时限时返回 Long.MAX_VALUE，已耗尽时返回0或负数
+     */
+    public static long remainingNanos() {
+        Long deadline = DEADLINE.get();
+        return deadline == null ? Long.MAX_VALUE : deadline - System.nanoTime();
+    }
+
+    /**
+     * 当前线程的时限是否已耗尽，用于判断一次上游超时是否由请求自身的时限导致
+     * 容忍1毫秒：boundTimeoutMillis 把剩余预算向下取整到毫秒，由它触发的超时可能略早于时限
+     */
+    public static boolean isSpent() {
+        return remainingNanos() <= SPENT_TOLERANCE_NANOS;
+    }
+
+    /**
+     * 时限已耗尽时抛出异常，用于在发起上游调用前放弃剩余工作
+     */
+    public static void check() throws DeadlineExceededException {
+        if (remainingNanos() <= 0) {
+            throw new DeadlineExceededException("请求已超出时限（" + TIMEOUT_HEADER + "）");
+        }
+    }
+
+    /**
+     * 用剩余预算收紧一个已配置的超时
+     *
+     * @param configuredMillis 配置的超时（毫秒），0 表示不限
+     * @return 不超过剩余预算的超时（毫秒），0 表示不限
+     * @throws DeadlineExceededException 预算已耗尽
+     */
+    public static long boundTimeoutMillis(long configuredMillis) throws DeadlineExceededException {
+        check();
+        long remaining = remainingNanos();
+        if (remaining == Long.MAX_VALUE) {
+            return configuredMillis;
+        }
+        long remainingMillis = Math.max(1, TimeUnit.NANOSECONDS.toMillis(remaining));
+        return configuredMillis > 0 ? Math.min(configuredMillis, remainingMillis) : remainingMillis;
+    }
+
+    /**
+     * 包装异步任务，使其在执行线程中沿用提交时的时限
+     *
+     * @param task 原始任务
+     * @return 包装后的任务
+     */
+    public static Runnable propagate(Runnable task) {
+        Long deadline = DEADLINE.get();
+        if (deadline == null) {
+            return task;
+        }
+        return () -> {
+            Long previous = DEADLINE.get();
+            DEADLINE.set(deadline);
+            try {
+                task.run();
+            } finally {
+                if (previous == null) {
+                    DEADLINE.remove();
+                } else {
+                    DEADLINE.set(previous);
+                }
+            }
+        };
+    }
+}
@@ -0,0 +1,133 @@
+package com.ownding.headscale.utils;
+
+import java.beans.IntrospectionException;
+import java.beans.Introspector;
+import java.beans.PropertyDescriptor;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 字段投影工具类
+ * 按 fields=id,name,online 只输出请求的字段。每种 类型+字段组合 只解析一次属性读取方法并缓存，
+ * 之后的请求直接复用预编译好的读取器
+ */
+public class HeadscaleFieldProjection {
+
+    /**
+     * 缓存的投影数量上限，防止任意字段组合导致缓存无限增长
+     */
+    private static final int MAX_CACHED = 256;
+
+    private static final Map<String, HeadscaleFieldProjection> CACHE = new ConcurrentHashMap<>();
+
+    private final String[] names;
+
+    private final Method[] getters;
+
+    private HeadscaleFieldProjection(String[] names, Method[] getters) {
+        this.names = names;
+        this.getters = getters;
+    }
+
+    /**
+     * 获取指定类型和字段列表的投影
+     *
+     * @param type   对象类型，如 HeadscaleNode.class
+     * @param fields 逗号分隔的字段名（Java属性名，与JSON输出一致）
+     * @return 投影，fields为空时返回null表示不投影
+     * @throws IllegalArgumentException 存在未知字段
+     */
+    public static HeadscaleFieldProjection of(Class<?> type, String fields) {
+        if (fields == null || fields.trim().isEmpty()) {
+            return null;
+        }
+
+        Set<String> requested = new LinkedHashSet<>();
+        for (String field : fields.split(",")) {
+            String name = field.trim();
+            if (!name.isEmpty()) {
+                requested.add(name);
+            }
+        }
+        if (requested.isEmpty()) {
+            return null;
+        }
+
+        String key = type.getName() + ":" + String.join(",", requested);
+        HeadscaleFieldProjection projection = CACHE.get(key);
+        if (projection == null) {
+            projection = compile(type, requested);
+            if (CACHE.size() < MAX_CACHED) {
+                CACHE.putIfAbsent(key, projection);
+            }
+        }
+        return projection;
+    }
+
+    /**
+     * 投影单个对象
+     *
+     * @param bean 源对象
+     * @return 按请求顺序排列的字段映射
+     */
+    public Map<String, Object> apply(Object bean) {
+        Map<String, Object> projected = new LinkedHashMap<>(names.length * 2);
+        for (int i = 0; i < names.length; i++) {
+            try {
+                projected.put(names[i], getters[i].invoke(bean));
+            } catch (IllegalAccessException | InvocationTargetException e) {
+                throw new IllegalStateException("读取字段失败: " + names[i], e);
+            }
+        }
+        return projected;
+    }
+
+    /**
+     * 投影对象列表
+     *
+     * @param beans 源对象列表
+     * @return 投影后的列表
+     */
+    public List<Map<String, Object>> apply(List<?> beans) {
+        List<Map<String, Object>> projected = new ArrayList<>(beans.size());
+        for (Object bean : beans) {
+            projected.add(apply(bean));
+        }
+        return projected;
+    }
+
+    private static HeadscaleFieldProjection compile(Class<?> type, Set<String> requested) {
+        Map<String, Method> readers = new HashMap<>();
+        try {
+            for (PropertyDescriptor descriptor : Introspector.getBeanInfo(type, Object.class).getPropertyDescriptors()) {
+                if (descriptor.getReadMethod() != null) {
+                    readers.put(descriptor.getName(), descriptor.getReadMethod());
+                }
+            }
+        } catch (IntrospectionException e) {
+            throw new IllegalStateException("无法解析类型: " + type.getName(), e);
+        }
+
+        String[] names = new String[requested.size()];
+        Method[] getters = new Method[requested.size()];
+        int i = 0;
+        for (String name : requested) {
+            Method getter = readers.get(name);
+            if (getter == null) {
+                throw new IllegalArgumentException("未知字段: " + name);
+            }
+            names[i] = name;
+            getters[i] = getter;
+            i++;
+        }
+        return new HeadscaleFieldProjection(names, getters);
+    }
+}
@@ -0,0 +1,180 @@
+package com.ownding.headscale.utils;
+
+import com.ownding.headscale.dal.vo.HeadscaleInventorySnapshot;
+import com.ownding.headscale.dal.vo.HeadscaleNode;
+import com.ownding.headscale.dal.vo.HeadscaleNodeEvent;
+import com.ownding.headscale.dal.vo.HeadscaleUser;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * 节点清单差异比较工具类
+ * 按节点ID和字段指纹比较两次节点清单，生成 node.added / node.removed / node.online /
+ * node.offline / node.renamed / node.updated 事件
+ */
+public class HeadscaleNodeDiffUtils {
+
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    /**
+     * 计算节点指纹（FNV-1a 64位）
+     * 不包含 last_seen / last_successful_update / updated_at：在线节点的这些字段每次轮询都会变化，
+     * 计入指纹会使每个在线节点每次都产生变更
+     *
+     * @param node 节点
+     * @return 指纹
+     */
+    public static long fingerprint(HeadscaleNode node) {
+        long hash = FNV_OFFSET;
+        hash = mix(hash, node.getId());
+        hash = mix(hash, node.getName());
+        hash = mix(hash, node.getGivenName());
+        hash = mix(hash, node.getUser() != null ? node.getUser().getId() : null);
+        hash = mix(hash, node.getUser() != null ? node.getUser().getName() : null);
+        hash = mix(hash, node.getIpAddresses());
+        hash = mix(hash, String.valueOf(node.getOnline()));
+        hash = mix(hash, node.getExpiry());
+        hash = mix(hash, node.getMachineKey());
+        hash = mix(hash, node.getNodeKey());
+        hash = mix(hash, node.getDiscoKey());
+        hash = mix(hash, String.valueOf(node.getInvalid()));
+        hash = mix(hash, node.getForcedTags());
+        hash = mix(hash, node.getValidTags());
+        hash = mix(hash, node.getInvalidTags());
+        hash = mix(hash, node.getRegisterMethod());
+        hash = mix(hash, node.getCreatedAt());
+        hash = mix(hash, node.getPreAuthKey() != null ? node.getPreAuthKey().getId() : null);
+        return hash;
+    }
+
+    /**
+     * 计算内容指纹，用于判断一次刷新是否改变了内容（决定快照版本是否递增）
+     * 节点部分只使用节点指纹：与 fingerprint 相同，不包含 last_seen / last_successful_update / updated_at，
+     * 否则每次轮询都会递增版本，使变更日志、事件流和用户索引全部失效；响应缓存和 ETag 使用 responseHash
+     *
+     * @param users       用户列表
+     * @param nodes       节点列表
+     * @param fingerprints 节点ID到节点指纹的映射
+     * @return 内容指纹
+     */
+    public static long contentHash(List<HeadscaleUser> users, List<HeadscaleNode> nodes, Map<String, Long> fingerprints) {
+        long hash = FNV_OFFSET;
+        for (HeadscaleUser user : users) {
+            hash = mix(hash, user.getId());
+            hash = mix(hash, user.getName());
+            hash = mix(hash, user.getDisplayName());
+            hash = mix(hash, user.getEmail());
+            hash = mix(hash, user.getCreatedAt());
+            hash = mix(hash, user.getUpdatedAt());
+            hash = mix(hash, user.getProvider());
+            hash = mix(hash, user.getProviderId());
+            hash = mix(hash, user.getProfilePicUrl());
+        }
+        for (HeadscaleNode node : nodes) {
+            hash = (hash ^ fingerprints.getOrDefault(node.getId(), 0L)) * FNV_PRIME;
+        }
+        return hash;
+    }
+
+    /**
+     * 计算响应指纹：在内容指纹上再混入每个节点的 last_seen / last_successful_update / updated_at
+     * 版本只随内容指纹变化，而响应缓存和 ETag 使用此指纹，保证活跃时间戳的变化能到达客户端
+     *
+     * @param contentHash 内容指纹
+     * @param nodes       节点列表
+     * @return 响应指纹
+     */
+    public static long responseHash(long contentHash, List<HeadscaleNode> nodes) {
+        long hash = contentHash;
+        for (HeadscaleNode node : nodes) {
+            hash = mix(hash, node.getId());
+            hash = mix(hash, node.getLastSeen());
+            hash = mix(hash, node.getLastSuccessfulUpdate());
+            hash = mix(hash, node.getUpdatedAt());
+        }
+        return hash;
+    }
+
+    /**
+     * 比较两个快照的节点清单
+     *
+     * @param previous 上一个快照，为null时返回空列表（首次加载不产生事件）
+     * @param current  当前快照
+     * @return 变更事件列表
+     */
+    public static List<HeadscaleNodeEvent> diff(HeadscaleInventorySnapshot previous, HeadscaleInventorySnapshot current) {
+        if (previous == null) {
+            return Collections.emptyList();
+        }
+
+        long version = current.getVersion();
+        long now = current.getRefreshedAt();
+        List<HeadscaleNodeEvent> events = new ArrayList<>();
+        Map<String, HeadscaleNode> previousNodes = previous.getNodesById();
+        Map<String, Long> previousFingerprints = previous.getNodeFingerprints();
+
+        for (HeadscaleNode node : current.getNodes()) {
+            HeadscaleNode old = previousNodes.get(node.getId());
+            if (old == null) {
+                events.add(new HeadscaleNodeEvent(HeadscaleNodeEvent.ADDED, node, version, now));
+                continue;
+            }
+            if (Objects.equals(previousFingerprints.get(node.getId()), current.getNodeFingerprints().get(node.getId()))) {
+                continue;
+            }
+
+            boolean wasOnline = Boolean.TRUE.equals(old.getOnline());
+            boolean isOnline = Boolean.TRUE.equals(node.getOnline());
+            boolean renamed = !Objects.equals(displayName(old), displayName(node));
+            if (wasOnline != isOnline) {
+                events.add(new HeadscaleNodeEvent(isOnline ? HeadscaleNodeEvent.ONLINE : HeadscaleNodeEvent.OFFLINE, node, version, now));
+            }
+            if (renamed) {
+                HeadscaleNodeEvent event = new HeadscaleNodeEvent(HeadscaleNodeEvent.RENAMED, node, version, now);
+                event.setPreviousName(displayName(old));
+                events.add(event);
+            }
+            if (wasOnline == isOnline && !renamed) {
+                events.add(new HeadscaleNodeEvent(HeadscaleNodeEvent.UPDATED, node, version, now));
+            }
+        }
+
+        Map<String, HeadscaleNode> currentNodes = current.getNodesById();
+        for (HeadscaleNode old : previous.getNodes()) {
+            if (!currentNodes.containsKey(old.getId())) {
+                events.add(new HeadscaleNodeEvent(HeadscaleNodeEvent.REMOVED, old, version, now));
+            }
+        }
+        return events;
+    }
+
+    private static String displayName(HeadscaleNode node) {
+        return node.getGivenName() != null ? node.getGivenName() : node.getName();
+    }
+
+    private static long mix(long hash, List<String> values) {
+        if (values == null) {
+            return mix(hash, (String) null);
+        }
+        for (String value : values) {
+            hash = mix(hash, value);
+        }
+        return (hash ^ values.size()) * FNV_PRIME;
+    }
+
+    private static long mix(long hash, String value) {
+        if (value == null) {
+            return (hash ^ 0xff) * FNV_PRIME;
+        }
+        for (int i = 0; i < value.length(); i++) {
+            hash = (hash ^ value.charAt(i)) * FNV_PRIME;
+        }
+        // field separator, so that ("ab", "c") and ("a", "bc") differ
+        return (hash ^ 0x1f) * FNV_PRIME;
+    }
+}
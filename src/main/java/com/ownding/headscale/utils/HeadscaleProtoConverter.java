@@ -0,0 +1,146 @@
+package com.ownding.headscale.utils;
+
+import com.google.protobuf.Timestamp;
+import com.ownding.headscale.dal.vo.HeadscaleNode;
+import com.ownding.headscale.dal.vo.HeadscalePreAuthKey;
+import com.ownding.headscale.dal.vo.HeadscaleUser;
+import headscale.v1.Headscale;
+
+import java.time.Instant;
+import java.util.List;
+
+/**
+ * REST对象到 headscale.proto 消息的转换工具类
+ * 用于 Accept: application/x-protobuf 的响应。proto中 register_method、forced_tags 定义为bool，
+ * 与REST返回的字符串/列表语义不符，因此不做填充
+ */
+public class HeadscaleProtoConverter {
+
+    /**
+     * 转换用户
+     *
+     * @param user REST用户对象
+     * @return proto用户消息
+     */
+    public static Headscale.User toProto(HeadscaleUser user) {
+        Headscale.User.Builder builder = Headscale.User.newBuilder();
+        if (user.getId() != null) builder.setId(user.getId());
+        if (user.getName() != null) builder.setName(user.getName());
+        if (user.getDisplayName() != null) builder.setDisplayName(user.getDisplayName());
+        if (user.getEmail() != null) builder.setEmail(user.getEmail());
+        if (user.getProviderId() != null) builder.setProviderId(user.getProviderId());
+        if (user.getProvider() != null) builder.setProvider(user.getProvider());
+        if (user.getProfilePicUrl() != null) builder.setProfilePicUrl(user.getProfilePicUrl());
+        Timestamp createdAt = toTimestamp(user.getCreatedAt());
+        if (createdAt != null) builder.setCreatedAt(createdAt);
+        return builder.build();
+    }
+
+    /**
+     * 转换预授权密钥
+     *
+     * @param key REST预授权密钥对象
+     * @return proto预授权密钥消息
+     */
+    public static Headscale.PreAuthKey toProto(HeadscalePreAuthKey key) {
+        Headscale.PreAuthKey.Builder builder = Headscale.PreAuthKey.newBuilder();
+        Long id = toUnsignedLong(key.getId());
+        if (id != null) builder.setId(id);
+        Long userId = toUnsignedLong(key.getUser());
+        if (userId != null) builder.setUserId(userId);
+        if (key.getKey() != null) builder.setKey(key.getKey());
+        builder.setReusable(Boolean.TRUE.equals(key.getReusable()));
+        builder.setEphemeral(Boolean.TRUE.equals(key.getEphemeral()));
+        builder.setUsed(Boolean.TRUE.equals(key.getUsed()));
+        Timestamp expiration = toTimestamp(key.getExpiration());
+        if (expiration != null) builder.setExpiration(expiration);
+        Timestamp createdAt = toTimestamp(key.getCreatedAt());
+        if (createdAt != null) builder.setCreatedAt(createdAt);
+        if (key.getAclTags() != null) builder.addAllAclTags(key.getAclTags());
+        return builder.build();
+    }
+
+    /**
+     * 转换节点
+     *
+     * @param node REST节点对象
+     * @return proto节点消息
+     */
+    public static Headscale.Node toProto(HeadscaleNode node) {
+        Headscale.Node.Builder builder = Headscale.Node.newBuilder();
+        Long id = toUnsignedLong(node.getId());
+        if (id != null) builder.setId(id);
+        if (node.getMachineKey() != null) builder.setMachineKey(node.getMachineKey());
+        if (node.getNodeKey() != null) builder.setNodeKey(node.getNodeKey());
+        if (node.getDiscoKey() != null) builder.setDiscoKey(node.getDiscoKey());
+        if (node.getIpAddresses() != null) builder.addAllIpAddresses(node.getIpAddresses());
+        if (node.getName() != null) builder.setName(node.getName());
+        if (node.getUser() != null) builder.setUser(toProto(node.getUser()));
+        Timestamp lastSeen = toTimestamp(node.getLastSeen());
+        if (lastSeen != null) builder.setLastSeen(lastSeen);
+        Timestamp lastSuccessfulUpdate = toTimestamp(node.getLastSuccessfulUpdate());
+        if (lastSuccessfulUpdate != null) builder.setLastSuccessfulUpdate(lastSuccessfulUpdate);
+        Timestamp expiry = toTimestamp(node.getExpiry());
+        if (expiry != null) builder.setExpiry(expiry);
+        if (node.getPreAuthKey() != null) builder.setPreAuthKey(toProto(node.getPreAuthKey()));
+        Timestamp createdAt = toTimestamp(node.getCreatedAt());
+        if (createdAt != null) builder.setCreatedAt(createdAt);
+        if (node.getInvalidTags() != null) builder.addAllInvalidTags(node.getInvalidTags());
+        if (node.getValidTags() != null) builder.addAllValidTags(node.getValidTags());
+        if (node.getGivenName() != null) builder.setGivenName(node.getGivenName());
+        builder.setOnline(Boolean.TRUE.equals(node.getOnline()));
+        return builder.build();
+    }
+
+    /**
+     * 转换用户列表
+     */
+    public static Headscale.ListUsersResponse toListUsersResponse(List<HeadscaleUser> users) {
+        Headscale.ListUsersResponse.Builder builder = Headscale.ListUsersResponse.newBuilder();
+        for (HeadscaleUser user : users) {
+            builder.addUsers(toProto(user));
+        }
+        return builder.build();
+    }
+
+    /**
+     * 转换节点列表
+     */
+    public static Headscale.ListNodesResponse toListNodesResponse(List<HeadscaleNode> nodes) {
+        Headscale.ListNodesResponse.Builder builder = Headscale.ListNodesResponse.newBuilder();
+        for (HeadscaleNode node : nodes) {
+            builder.addNodes(toProto(node));
+        }
+        return builder.build();
+    }
+
+    /**
+     * 转换预授权密钥列表
+     */
+    public static Headscale.ListPreAuthKeysResponse toListPreAuthKeysResponse(List<HeadscalePreAuthKey> keys) {
+        Headscale.ListPreAuthKeysResponse.Builder builder = Headscale.ListPreAuthKeysResponse.newBuilder();
+        for (HeadscalePreAuthKey key : keys) {
+            builder.addPreAuthKeys(toProto(key));
+        }
+        return builder.build();
+    }
+
+    private static Timestamp toTimestamp(String time) {
+        Instant instant = HeadscaleTimeUtils.parseHeadscaleInstant(time);
+        if (instant == null) {
+            return null;
+        }
+        return Timestamp.newBuilder().setSeconds(instant.getEpochSecond()).setNanos(instant.getNano()).build();
+    }
+
+    private static Long toUnsignedLong(String value) {
+        if (value == null) {
+            return null;
+        }
+        try {
+            return Long.parseUnsignedLong(value);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package com.ownding.headscale.utils;
+
+import com.ownding.headscale.dal.vo.HeadscaleNode;
+import com.ownding.headscale.dal.vo.HeadscalePreAuthKey;
+import org.springframework.beans.BeanUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 密钥脱敏工具类
+ * 预授权密钥明文只返回给创建它的调用方，写入审计日志等持久化位置前统一脱敏为 "***" + 末4位
+ */
+public class HeadscaleSecretUtils {
+
+    /**
+     * 脱敏密钥
+     *
+     * @param secret 密钥明文
+     * @return "***" + 末4位，null 返回 null
+     */
+    public static String mask(String secret) {
+        if (secret == null) {
+            return null;
+        }
+        return "***" + secret.substring(Math.max(0, secret.length() - 4));
+    }
+
+    /**
+     * 返回对象的脱敏副本，不修改原对象
+     * 支持预授权密钥、节点（其注册所用的预授权密钥）及它们的列表，其他对象原样返回
+     *
+     * @param value 原对象
+     * @return 脱敏后的对象
+     */
+    public static Object redact(Object value) {
+        if (value instanceof HeadscalePreAuthKey) {
+            HeadscalePreAuthKey copy = new HeadscalePreAuthKey();
+            BeanUtils.copyProperties(value, copy);
+            copy.setKey(mask(copy.getKey()));
+            return copy;
+        }
+        if (value instanceof HeadscaleNode && ((HeadscaleNode) value).getPreAuthKey() != null) {
+            HeadscaleNode copy = new HeadscaleNode();
+            BeanUtils.copyProperties(value, copy);
+            copy.setPreAuthKey((HeadscalePreAuthKey) redact(copy.getPreAuthKey()));
+            return copy;
+        }
+        if (value instanceof List) {
+            List<Object> copy = new ArrayList<>(((List<?>) value).size());
+            for (Object item : (List<?>) value) {
+                copy.add(redact(item));
+            }
+            return copy;
+        }
+        return value;
+    }
+}
@@ -0,0 +1,316 @@
+package com.ownding.headscale.utils;
+
+import com.ownding.headscale.dal.vo.HeadscaleNode;
+import com.ownding.headscale.dal.vo.HeadscalePreAuthKey;
+import com.ownding.headscale.dal.vo.HeadscaleUser;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Headscale清单快照二进制编解码工具类
+ * 格式（大端）：magic, format, version, refreshedAt, 用户列表, 节点列表, 按用户名分组的预授权密钥
+ * 字符串为 int长度 + UTF-8字节（-1表示null），Boolean为1字节（-1表示null）
+ * 预授权密钥只保存ID和元数据，不保存密钥明文：预热启动用不到明文，文件也不应成为密钥的另一个存放位置
+ */
+public class HeadscaleSnapshotCodec {
+
+    private static final int MAGIC = 0x48534E50; // "HSNP"
+    /**
+     * 2：预授权密钥不再写入密钥明文（key），旧格式文件中可能含有明文，不再读取
+     */
+    private static final int FORMAT = 2;
+    /**
+     * 单个列表的元素数上限，超过即视为文件损坏
+     */
+    private static final int MAX_COUNT = 1 << 24;
+    /**
+     * 每个元素至少占用的字节数（用户、节点、密钥、字符串都以一个int长度开头）
+     */
+    private static final int MIN_ELEMENT_BYTES = 4;
+
+    /**
+     * 解码后的快照内容
+     */
+    public static class Contents {
+        public long version;
+        public long refreshedAt;
+        public List<HeadscaleUser> users = new ArrayList<>();
+        public List<HeadscaleNode> nodes = new ArrayList<>();
+        public Map<String, List<HeadscalePreAuthKey>> preAuthKeys = new LinkedHashMap<>();
+    }
+
+    /**
+     * 编码快照内容
+     *
+     * @param contents 快照内容
+     * @return 二进制数据
+     */
+    public static byte[] encode(Contents contents) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 * 1024);
+        DataOutputStream out = new DataOutputStream(bytes);
+
+        out.writeInt(MAGIC);
+        out.writeInt(FORMAT);
+        out.writeLong(contents.version);
+        out.writeLong(contents.refreshedAt);
+
+        out.writeInt(contents.users.size());
+        for (HeadscaleUser user : contents.users) {
+            writeUser(out, user);
+        }
+
+        out.writeInt(contents.nodes.size());
+        for (HeadscaleNode node : contents.nodes) {
+            writeNode(out, node);
+        }
+
+        out.writeInt(contents.preAuthKeys.size());
+        for (Map.Entry<String, List<HeadscalePreAuthKey>> entry : contents.preAuthKeys.entrySet()) {
+            writeString(out, entry.getKey());
+            out.writeInt(entry.getValue().size());
+            for (HeadscalePreAuthKey key : entry.getValue()) {
+                writePreAuthKey(out, key);
+            }
+        }
+
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * 解码快照内容（可直接读取内存映射的缓冲区）
+     *
+     * @param buffer 二进制数据
+     * @return 快照内容
+     * @throws IOException 格式不正确或数据被截断
+     */
+    public static Contents decode(ByteBuffer buffer) throws IOException {
+        try {
+            if (buffer.getInt() != MAGIC) {
+                throw new IOException("Not a Headscale snapshot file");
+            }
+            int format = buffer.getInt();
+            if (format != FORMAT) {
+                throw new IOException("Unsupported Headscale snapshot format: " + format);
+            }
+
+            Contents contents = new Contents();
+            contents.version = buffer.getLong();
+            contents.refreshedAt = buffer.getLong();
+
+            int userCount = readCount(buffer);
+            for (int i = 0; i < userCount; i++) {
+                contents.users.add(readUser(buffer));
+            }
+
+            int nodeCount = readCount(buffer);
+            for (int i = 0; i < nodeCount; i++) {
+                contents.nodes.add(readNode(buffer));
+            }
+
+            int keyUsers = readCount(buffer);
+            for (int i = 0; i < keyUsers; i++) {
+                String username = readString(buffer);
+                int keyCount = readCount(buffer);
+                List<HeadscalePreAuthKey> keys = new ArrayList<>(keyCount);
+                for (int j = 0; j < keyCount; j++) {
+                    keys.add(readPreAuthKey(buffer));
+                }
+                contents.preAuthKeys.put(username, keys);
+            }
+            return contents;
+        } catch (BufferUnderflowException | IllegalArgumentException e) {
+            throw new IOException("Truncated or corrupt Headscale snapshot", e);
+        }
+    }
+
+    private static void writeUser(DataOutputStream out, HeadscaleUser user) throws IOException {
+        writeString(out, user.getId());
+        writeString(out, user.getName());
+        writeString(out, user.getCreatedAt());
+        writeString(out, user.getUpdatedAt());
+        writeString(out, user.getDisplayName());
+        writeString(out, user.getEmail());
+        writeString(out, user.getProviderId());
+        writeString(out, user.getProvider());
+        writeString(out, user.getProfilePicUrl());
+    }
+
+    private static HeadscaleUser readUser(ByteBuffer in) {
+        HeadscaleUser user = new HeadscaleUser();
+        user.setId(readString(in));
+        user.setName(readString(in));
+        user.setCreatedAt(readString(in));
+        user.setUpdatedAt(readString(in));
+        user.setDisplayName(readString(in));
+        user.setEmail(readString(in));
+        user.setProviderId(readString(in));
+        user.setProvider(readString(in));
+        user.setProfilePicUrl(readString(in));
+        return user;
+    }
+
+    private static void writeNode(DataOutputStream out, HeadscaleNode node) throws IOException {
+        writeString(out, node.getId());
+        writeString(out, node.getMachineKey());
+        writeString(out, node.getNodeKey());
+        writeString(out, node.getDiscoKey());
+        writeStrings(out, node.getIpAddresses());
+        writeString(out, node.getName());
+        out.writeBoolean(node.getUser() != null);
+        if (node.getUser() != null) {
+            writeUser(out, node.getUser());
+        }
+        writeString(out, node.getLastSeen());
+        writeString(out, node.getLastSuccessfulUpdate());
+        writeString(out, node.getExpiry());
+        out.writeBoolean(node.getPreAuthKey() != null);
+        if (node.getPreAuthKey() != null) {
+            writePreAuthKey(out, node.getPreAuthKey());
+        }
+        writeString(out, node.getCreatedAt());
+        writeString(out, node.getUpdatedAt());
+        writeBoolean(out, node.getOnline());
+        writeBoolean(out, node.getInvalid());
+        writeString(out, node.getGivenName());
+        writeStrings(out, node.getForcedTags());
+        writeString(out, node.getRegisterMethod());
+        writeStrings(out, node.getInvalidTags());
+        writeStrings(out, node.getValidTags());
+    }
+
+    private static HeadscaleNode readNode(ByteBuffer in) {
+        HeadscaleNode node = new HeadscaleNode();
+        node.setId(readString(in));
+        node.setMachineKey(readString(in));
+        node.setNodeKey(readString(in));
+        node.setDiscoKey(readString(in));
+        node.setIpAddresses(readStrings(in));
+        node.setName(readString(in));
+        if (in.get() != 0) {
+            node.setUser(readUser(in));
+        }
+        node.setLastSeen(readString(in));
+        node.setLastSuccessfulUpdate(readString(in));
+        node.setExpiry(readString(in));
+        if (in.get() != 0) {
+            node.setPreAuthKey(readPreAuthKey(in));
+        }
+        node.setCreatedAt(readString(in));
+        node.setUpdatedAt(readString(in));
+        node.setOnline(readBoolean(in));
+        node.setInvalid(readBoolean(in));
+        node.setGivenName(readString(in));
+        node.setForcedTags(readStrings(in));
+        node.setRegisterMethod(readString(in));
+        node.setInvalidTags(readStrings(in));
+        node.setValidTags(readStrings(in));
+        return node;
+    }
+
+    private static void writePreAuthKey(DataOutputStream out, HeadscalePreAuthKey key) throws IOException {
+        writeString(out, key.getId());
+        writeString(out, key.getUser());
+        writeBoolean(out, key.getReusable());
+        writeBoolean(out, key.getEphemeral());
+        writeBoolean(out, key.getUsed());
+        writeString(out, key.getExpiration());
+        writeString(out, key.getCreatedAt());
+        writeString(out, key.getUpdatedAt());
+        writeStrings(out, key.getAclTags());
+    }
+
+    private static HeadscalePreAuthKey readPreAuthKey(ByteBuffer in) {
+        HeadscalePreAuthKey key = new HeadscalePreAuthKey();
+        key.setId(readString(in));
+        key.setUser(readString(in));
+        key.setReusable(readBoolean(in));
+        key.setEphemeral(readBoolean(in));
+        key.setUsed(readBoolean(in));
+        key.setExpiration(readString(in));
+        key.setCreatedAt(readString(in));
+        key.setUpdatedAt(readString(in));
+        key.setAclTags(readStrings(in));
+        return key;
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer in) {
+        int length = in.getInt();
+        if (length < 0) {
+            return null;
+        }
+        if (length > in.remaining()) {
+            throw new IllegalArgumentException("String length " + length + " exceeds remaining data");
+        }
+        byte[] bytes = new byte[length];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeStrings(DataOutputStream out, List<String> values) throws IOException {
+        if (values == null) {
+            out.writeInt(-1);
+            return;
+        }
+        out.writeInt(values.size());
+        for (String value : values) {
+            writeString(out, value);
+        }
+    }
+
+    private static List<String> readStrings(ByteBuffer in) {
+        int count = in.getInt();
+        if (count < 0) {
+            return null;
+        }
+        checkCount(in, count);
+        List<String> values = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            values.add(readString(in));
+        }
+        return values;
+    }
+
+    /**
+     * 读取元素数，并按剩余数据量和上限校验，避免损坏的文件触发超大的内存分配
+     */
+    private static int readCount(ByteBuffer in) {
+        int count = in.getInt();
+        checkCount(in, count);
+        return count;
+    }
+
+    private static void checkCount(ByteBuffer in, int count) {
+        if (count < 0 || count > MAX_COUNT || (long) count * MIN_ELEMENT_BYTES > in.remaining()) {
+            throw new IllegalArgumentException("Element count " + count + " exceeds remaining data");
+        }
+    }
+
+    private static void writeBoolean(DataOutputStream out, Boolean value) throws IOException {
+        out.writeByte(value == null ? -1 : value ? 1 : 0);
+    }
+
+    private static Boolean readBoolean(ByteBuffer in) {
+        byte value = in.get();
+        return value < 0 ? null : value != 0;
+    }
+}
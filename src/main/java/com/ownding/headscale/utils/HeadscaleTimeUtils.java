@@ -1,5 +1,8 @@
 package com.ownding.headscale.utils;
 
+import java.time.DateTimeException;
+import java.time.Instant;
+import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.ZonedDateTime;
 import java.time.format.DateTimeFormatter;
@@ -34,6 +37,114 @@ public class HeadscaleTimeUtils {
         }
     }
 
+    /**
+     * 解析Headscale API返回的时间字符串为Instant（保留时区信息）
+     *
+     * @param timeStr 时间字符串，如 "2025-04-22T08:27:18.802455714Z"
+     * @return Instant对象，解析失败返回null
+     */
+    public static Instant parseHeadscaleInstant(String timeStr) {
+        if (timeStr == null || timeStr.trim().isEmpty()) {
+            return null;
+        }
+
+        Instant instant = parseUtcInstant(timeStr);
+        if (instant != null) {
+            return instant;
+        }
+
+        try {
+            return ZonedDateTime.parse(timeStr, ISO_FORMATTER).toInstant();
+        } catch (DateTimeParseException e) {
+            return null;
+        }
+    }
+
+    /**
+     * 快速解析Headscale常用的UTC时间格式 yyyy-MM-ddTHH:mm:ss[.fffffffff]Z，
+     * 避免DateTimeFormatter的开销（大列表转换时每个节点有多个时间字段）
+     *
+     * @param timeStr 时间字符串
+     * @return Instant对象，格式不符返回null（由调用方回退到通用解析）
+     */
+    private static Instant parseUtcInstant(String timeStr) {
+        int length = timeStr.length();
+        if (length < 20 || timeStr.charAt(length - 1) != 'Z' || timeStr.charAt(4) != '-' || timeStr.charAt(7) != '-'
+                || timeStr.charAt(10) != 'T' || timeStr.charAt(13) != ':' || timeStr.charAt(16) != ':') {
+            return null;
+        }
+
+        int year = digits(timeStr, 0, 4);
+        int month = digits(timeStr, 5, 7);
+        int day = digits(timeStr, 8, 10);
+        int hour = digits(timeStr, 11, 13);
+        int minute = digits(timeStr, 14, 16);
+        int second = digits(timeStr, 17, 19);
+        if (year < 0 || month < 1 || month > 12 || day < 1 || hour < 0 || hour > 23 || minute < 0 || minute > 59
+                || second < 0 || second > 59) {
+            return null;
+        }
+
+        int nanos = 0;
+        if (length > 20) {
+            int fractionDigits = length - 21;
+            if (timeStr.charAt(19) != '.' || fractionDigits < 1 || fractionDigits > 9) {
+                return null;
+            }
+            nanos = digits(timeStr, 20, length - 1);
+            if (nanos < 0) {
+                return null;
+            }
+            for (int i = fractionDigits; i < 9; i++) {
+                nanos *= 10;
+            }
+        } else if (timeStr.charAt(19) != 'Z') {
+            return null;
+        }
+
+        try {
+            long epochDay = LocalDate.of(year, month, day).toEpochDay();
+            return Instant.ofEpochSecond(epochDay * 86400 + hour * 3600 + minute * 60 + second, nanos);
+        } catch (DateTimeException e) {
+            return null;
+        }
+    }
+
+    private static int digits(String value, int from, int to) {
+        int result = 0;
+        for (int i = from; i < to; i++) {
+            char c = value.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            result = result * 10 + (c - '0');
+        }
+        return result;
+    }
+
+    /**
+     * 解析查询参数中的时间：支持ISO 8601时间字符串或epoch毫秒数
+     *
+     * @param value 时间参数，如 "2025-04-22T08:27:18Z" 或 "1745310438000"
+     * @return epoch毫秒数，参数为空返回null
+     * @throws IllegalArgumentException 格式无法识别
+     */
+    public static Long parseEpochMillis(String value) {
+        if (value == null || value.trim().isEmpty()) {
+            return null;
+        }
+
+        String trimmed = value.trim();
+        if (trimmed.chars().allMatch(Character::isDigit)) {
+            return Long.parseLong(trimmed);
+        }
+        Instant instant = parseHeadscaleInstant(trimmed);
+        if (instant == null) {
+            throw new IllegalArgumentException("无法识别的时间格式: " + value);
+        }
+        return instant.toEpochMilli();
+    }
+
     /**
      * 格式化时间为显示字符串
      *
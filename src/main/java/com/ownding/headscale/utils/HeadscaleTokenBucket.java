@@ -0,0 +1,56 @@
+package com.ownding.headscale.utils;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 无锁令牌桶（GCRA，通用信元速率算法）
+ * 只用一个 AtomicLong 保存“理论到达时间”（TAT），每次申请通过一次 CAS 完成，
+ * 拒绝时可直接算出需要等待的时间，用于 Retry-After
+ */
+public class HeadscaleTokenBucket {
+
+    /**
+     * 每个令牌的发放间隔（纳秒）
+     */
+    private final long emissionInterval;
+
+    /**
+     * 突发容量对应的时间窗口（纳秒），即 burst * emissionInterval
+     */
+    private final long burstWindow;
+
+    private final AtomicLong theoreticalArrival = new AtomicLong(Long.MIN_VALUE);
+
+    /**
+     * @param permitsPerSecond 每秒补充的令牌数，必须大于0
+     * @param burst            桶容量（允许的最大突发请求数），至少为1
+     */
+    public HeadscaleTokenBucket(double permitsPerSecond, int burst) {
+        if (permitsPerSecond <= 0) {
+            throw new IllegalArgumentException("permitsPerSecond 必须大于0");
+        }
+        this.emissionInterval = Math.max(1L, (long) (1_000_000_000L / permitsPerSecond));
+        this.burstWindow = emissionInterval * Math.max(1, burst);
+    }
+
+    /**
+     * 尝试获取一个令牌
+     *
+     * @param nowNanos 当前时间（System.nanoTime()）
+     * @return 0 表示获取成功；否则为需要等待的纳秒数
+     */
+    public long tryAcquire(long nowNanos) {
+        while (true) {
+            long tat = theoreticalArrival.get();
+            long base = tat == Long.MIN_VALUE || tat - nowNanos < 0 ? nowNanos : tat;
+            long next = base + emissionInterval;
+            long wait = next - burstWindow - nowNanos;
+            if (wait > 0) {
+                return wait;
+            }
+            if (theoreticalArrival.compareAndSet(tat, next)) {
+                return 0;
+            }
+        }
+    }
+}
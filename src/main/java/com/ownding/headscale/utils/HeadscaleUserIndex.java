@@ -0,0 +1,351 @@
+package com.ownding.headscale.utils;
+
+import com.ownding.headscale.dal.vo.HeadscaleUser;
+import com.ownding.headscale.dal.vo.HeadscaleUserPage;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * 用户列表的只读内存索引，用于服务端分页与搜索
+ * 用户按（小写用户名, id）排序成数组，游标就是上一页最后一个用户的排序键，翻页时二分查找定位，
+ * 因此用户增删后游标依然有效（不会跳过或重复）；
+ * 前缀搜索对 name/displayName/email 各维护一个排好序的小写值数组，二分查找得到命中区间；
+ * 子串搜索使用三元组（trigram）倒排索引求交集后再逐条确认，查询少于3个字符时退化为顺序扫描
+ */
+public class HeadscaleUserIndex {
+
+    public static final String MATCH_PREFIX = "prefix";
+    public static final String MATCH_SUBSTRING = "substring";
+
+    private static final int[] EMPTY = new int[0];
+
+    private final long version;
+
+    /**
+     * 按排序键排好序的用户
+     */
+    private final HeadscaleUser[] users;
+
+    /**
+     * 排序键：小写用户名 + '\0' + id
+     */
+    private final String[] sortKeys;
+
+    /**
+     * 每个用户的小写 name/displayName/email，下标同 users，缺失的字段为空串
+     */
+    private final String[][] fields;
+
+    /**
+     * 每个字段的前缀索引：按小写值排序的值数组与对应的用户下标
+     */
+    private final String[][] prefixValues;
+
+    private final int[][] prefixPositions;
+
+    /**
+     * 三元组 -> 包含该三元组的用户下标（升序、去重）
+     */
+    private final Map<String, int[]> trigrams;
+
+    /**
+     * @param version 构建索引所用的库存版本
+     * @param source  用户列表
+     */
+    public HeadscaleUserIndex(long version, List<HeadscaleUser> source) {
+        this.version = version;
+        int size = source.size();
+        String[] keys = new String[size];
+        Integer[] order = new Integer[size];
+        for (int i = 0; i < size; i++) {
+            HeadscaleUser user = source.get(i);
+            keys[i] = lower(user.getName()) + '\0' + (user.getId() != null ? user.getId() : "");
+            order[i] = i;
+        }
+        Arrays.sort(order, Comparator.comparing(i -> keys[i]));
+
+        users = new HeadscaleUser[size];
+        sortKeys = new String[size];
+        fields = new String[size][];
+        for (int i = 0; i < size; i++) {
+            HeadscaleUser user = source.get(order[i]);
+            users[i] = user;
+            sortKeys[i] = keys[order[i]];
+            fields[i] = new String[]{lower(user.getName()), lower(user.getDisplayName()), lower(user.getEmail())};
+        }
+
+        prefixValues = new String[3][];
+        prefixPositions = new int[3][];
+        for (int f = 0; f < 3; f++) {
+            buildPrefixIndex(f);
+        }
+        trigrams = buildTrigramIndex();
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public int size() {
+        return users.length;
+    }
+
+    /**
+     * 查询一页用户
+     *
+     * @param query  搜索词（不区分大小写），为空表示全部用户
+     * @param match  prefix 或 substring
+     * @param cursor 上一页返回的游标，为空表示第一页
+     * @param limit  每页数量，必须大于0
+     * @return 结果页
+     * @throws IllegalArgumentException 游标无效
+     */
+    public HeadscaleUserPage page(String query, String match, String cursor, int limit) {
+        int start = cursor == null || cursor.isEmpty() ? 0 : upperBound(sortKeys, decodeCursor(cursor));
+        String q = lower(query);
+
+        List<HeadscaleUser> items = new ArrayList<>(Math.min(limit, users.length));
+        int total;
+        int last = -1;
+        boolean more;
+        if (q.isEmpty()) {
+            total = users.length;
+            int end = Math.min(users.length, start + limit);
+            for (int i = start; i < end; i++) {
+                items.add(users[i]);
+                last = i;
+            }
+            more = end < users.length;
+        } else {
+            int[] matches = MATCH_SUBSTRING.equals(match) ? substringMatches(q) : prefixMatches(q);
+            total = matches.length;
+            int from = lowerBound(matches, start);
+            int end = Math.min(matches.length, from + limit);
+            for (int i = from; i < end; i++) {
+                items.add(users[matches[i]]);
+                last = matches[i];
+            }
+            more = end < matches.length;
+        }
+        HeadscaleUserPage page = new HeadscaleUserPage();
+        page.setVersion(version);
+        page.setTotal(total);
+        page.setNextCursor(more && last >= 0 ? encodeCursor(sortKeys[last]) : null);
+        page.setItems(items);
+        return page;
+    }
+
+    /**
+     * 任一字段以 q 开头的用户下标（升序）
+     */
+    private int[] prefixMatches(String q) {
+        boolean[] hit = new boolean[users.length];
+        int count = 0;
+        for (int f = 0; f < 3; f++) {
+            String[] values = prefixValues[f];
+            int[] positions = prefixPositions[f];
+            for (int i = lowerBound(values, q); i < values.length && values[i].startsWith(q); i++) {
+                if (!hit[positions[i]]) {
+                    hit[positions[i]] = true;
+                    count++;
+                }
+            }
+        }
+        return collect(hit, count);
+    }
+
+    /**
+     * 任一字段包含 q 的用户下标（升序）
+     */
+    private int[] substringMatches(String q) {
+        if (q.length() < 3) {
+            return scan(q);
+        }
+        int[][] postings = new int[q.length() - 2][];
+        for (int i = 0; i + 3 <= q.length(); i++) {
+            int[] posting = trigrams.get(q.substring(i, i + 3));
+            if (posting == null) {
+                return EMPTY;
+            }
+            postings[i] = posting;
+        }
+        // 从最短的倒排表开始求交集，其余表用二分查找确认
+        Arrays.sort(postings, Comparator.comparingInt(p -> p.length));
+        int[] candidates = postings[0];
+        int[] result = new int[candidates.length];
+        int count = 0;
+        for (int position : candidates) {
+            boolean inAll = true;
+            for (int p = 1; p < postings.length && inAll; p++) {
+                inAll = Arrays.binarySearch(postings[p], position) >= 0;
+            }
+            // 三元组全部命中不代表连续出现，且三元组可能来自不同字段，需要再确认一次
+            if (inAll && contains(position, q)) {
+                result[count++] = position;
+            }
+        }
+        return Arrays.copyOf(result, count);
+    }
+
+    private int[] scan(String q) {
+        int[] result = new int[users.length];
+        int count = 0;
+        for (int i = 0; i < users.length; i++) {
+            if (contains(i, q)) {
+                result[count++] = i;
+            }
+        }
+        return Arrays.copyOf(result, count);
+    }
+
+    private boolean contains(int position, String q) {
+        for (String value : fields[position]) {
+            if (value.contains(q)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void buildPrefixIndex(int field) {
+        int count = 0;
+        for (String[] values : fields) {
+            if (!values[field].isEmpty()) {
+                count++;
+            }
+        }
+        Integer[] order = new Integer[count];
+        for (int i = 0, n = 0; i < fields.length; i++) {
+            if (!fields[i][field].isEmpty()) {
+                order[n++] = i;
+            }
+        }
+        Arrays.sort(order, Comparator.comparing(i -> fields[i][field]));
+        prefixValues[field] = new String[count];
+        prefixPositions[field] = new int[count];
+        for (int i = 0; i < count; i++) {
+            prefixValues[field][i] = fields[order[i]][field];
+            prefixPositions[field][i] = order[i];
+        }
+    }
+
+    private Map<String, int[]> buildTrigramIndex() {
+        Map<String, int[]> postings = new HashMap<>();
+        Map<String, Integer> sizes = new HashMap<>();
+        // 按下标顺序写入，倒排表天然升序；同一用户的重复三元组只记一次（检查表尾）
+        for (int position = 0; position < fields.length; position++) {
+            for (String value : fields[position]) {
+                for (int i = 0; i + 3 <= value.length(); i++) {
+                    String trigram = value.substring(i, i + 3);
+                    int[] posting = postings.get(trigram);
+                    int n = posting == null ? 0 : sizes.get(trigram);
+                    if (n > 0 && posting[n - 1] == position) {
+                        continue;
+                    }
+                    if (posting == null) {
+                        posting = new int[4];
+                    } else if (n == posting.length) {
+                        posting = Arrays.copyOf(posting, n * 2);
+                    }
+                    posting[n] = position;
+                    postings.put(trigram, posting);
+                    sizes.put(trigram, n + 1);
+                }
+            }
+        }
+        for (Map.Entry<String, int[]> entry : postings.entrySet()) {
+            entry.setValue(Arrays.copyOf(entry.getValue(), sizes.get(entry.getKey())));
+        }
+        return postings;
+    }
+
+    private static int[] collect(boolean[] hit, int count) {
+        int[] result = new int[count];
+        for (int i = 0, n = 0; n < count; i++) {
+            if (hit[i]) {
+                result[n++] = i;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 第一个 >= key 的下标
+     */
+    private static int lowerBound(String[] values, String key) {
+        int low = 0;
+        int high = values.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (values[mid].compareTo(key) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * 第一个 > key 的下标
+     */
+    private static int upperBound(String[] values, String key) {
+        int low = 0;
+        int high = values.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (values[mid].compareTo(key) <= 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * 第一个 >= key 的下标
+     */
+    private static int lowerBound(int[] values, int key) {
+        int low = 0;
+        int high = values.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (values[mid] < key) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private static String lower(String value) {
+        return value == null ? "" : value.trim().toLowerCase(Locale.ROOT);
+    }
+
+    private static String encodeCursor(String sortKey) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(sortKey.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String decodeCursor(String cursor) {
+        String sortKey;
+        try {
+            sortKey = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("cursor无效", e);
+        }
+        if (sortKey.indexOf('\0') < 0) {
+            throw new IllegalArgumentException("cursor无效");
+        }
+        return sortKey;
+    }
+}
@@ -0,0 +1,57 @@
+package com.ownding.headscale.utils;
+
+import java.util.regex.Pattern;
+
+/**
+ * 名称校验工具类
+ * 正则表达式预编译为常量，避免 String.matches 每次调用都重新编译（批量导入时每行都要校验）
+ */
+public class HeadscaleValidationUtils {
+
+    private static final Pattern NAME_PATTERN = Pattern.compile("^[a-zA-Z0-9_-]+$");
+
+    private static final Pattern NUMERIC_PATTERN = Pattern.compile("^\\d+$");
+
+    /**
+     * 是否为合法名称（只包含字母、数字、下划线和连字符）
+     *
+     * @param name 用户名、显示名称或命名空间名称
+     * @return 合法返回true
+     */
+    public static boolean isValidName(String name) {
+        return name != null && NAME_PATTERN.matcher(name).matches();
+    }
+
+    /**
+     * 是否为纯数字
+     *
+     * @param value 字符串
+     * @return 纯数字返回true
+     */
+    public static boolean isNumeric(String value) {
+        return value != null && NUMERIC_PATTERN.matcher(value).matches();
+    }
+
+    /**
+     * 校验用户名和显示名称，规则与创建用户接口一致
+     *
+     * @param username    用户名
+     * @param displayName 显示名称，可为空
+     * @return 错误信息，校验通过返回null
+     */
+    public static String validateUser(String username, String displayName) {
+        if (username == null || username.trim().isEmpty()) {
+            return "用户名不能为空";
+        }
+        if (isNumeric(username)) {
+            return "用户名不能是纯数字，请使用包含字母的用户名";
+        }
+        if (!isValidName(username)) {
+            return "用户名只能包含字母、数字、下划线和连字符";
+        }
+        if (displayName != null && !displayName.trim().isEmpty() && !isValidName(displayName)) {
+            return "显示名称只能包含字母、数字、下划线和连字符";
+        }
+        return null;
+    }
+}
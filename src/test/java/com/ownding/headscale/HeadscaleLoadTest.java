@@ -0,0 +1,156 @@
+package com.ownding.headscale;
+
+import com.ownding.headscale.mock.MockHeadscaleFleet;
+import com.ownding.headscale.mock.MockHeadscaleServer;
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.Dispatcher;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Open-loop load test of the controller against the local mock Headscale
+ * Requests are issued at a fixed rate regardless of how fast responses come back, and latency is measured
+ * from the scheduled send time, so a stalled server shows up in the percentiles instead of lowering the rate.
+ * Run with: mvn test -Dtest=HeadscaleLoadTest -Dheadscale.load=true [-Dheadscale.load.rps=500 -Dheadscale.load.seconds=30
+ * -Dheadscale.load.paths=/headscale/nodes,/headscale/users -Dheadscale.load.users=200 -Dheadscale.load.nodesPerUser=10
+ * -Dheadscale.load.latencyMs=20 -Dheadscale.load.jitterMs=30 -Dheadscale.load.errorRate=0.01
+ * -Dheadscale.server.virtualThreads=true]
+ */
+@EnabledIfSystemProperty(named = "headscale.load", matches = "true")
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+class HeadscaleLoadTest {
+
+    private static final MockHeadscaleServer SERVER;
+
+    static {
+        try {
+            SERVER = MockHeadscaleServer.start(MockHeadscaleFleet.generate(Integer.getInteger("headscale.load.users", 100),
+                    Integer.getInteger("headscale.load.nodesPerUser", 10), 0.7, 42));
+            SERVER.profile()
+                    .latency(Long.getLong("headscale.load.latencyMs", 10), Long.getLong("headscale.load.jitterMs", 20))
+                    .errors(Double.parseDouble(System.getProperty("headscale.load.errorRate", "0")), 503);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @DynamicPropertySource
+    static void headscaleProperties(DynamicPropertyRegistry registry) {
+        registry.add("headscale.server.url", SERVER::getUrl);
+        registry.add("headscale.server.apiKey", () -> "mock-key");
+        registry.add("headscale.server.grpcHost", () -> "localhost");
+        registry.add("headscale.server.grpcPort", SERVER::getGrpcPort);
+        registry.add("headscale.server.snapshotFile", () -> "");
+        registry.add("headscale.server.auditDir", () -> "");
+        registry.add("headscale.server.rateLimitEnabled", () -> "false");
+    }
+
+    @LocalServerPort
+    private int port;
+
+    @AfterAll
+    static void stopServer() throws IOException {
+        SERVER.close();
+    }
+
+    @Test
+    void driveControllerAtTargetRate() throws Exception {
+        int rps = Integer.getInteger("headscale.load.rps", 200);
+        int seconds = Integer.getInteger("headscale.load.seconds", 10);
+        List<String> paths = Arrays.asList(System.getProperty("headscale.load.paths",
+                "/headscale/nodes,/headscale/users,/headscale/nodes/status").split(","));
+
+        Dispatcher dispatcher = new Dispatcher();
+        dispatcher.setMaxRequests(4096);
+        dispatcher.setMaxRequestsPerHost(4096);
+        OkHttpClient client = new OkHttpClient.Builder()
+                .dispatcher(dispatcher)
+                .readTimeout(30, TimeUnit.SECONDS)
+                .build();
+
+        int total = rps * seconds;
+        long[] latencies = new long[total];
+        Map<String, AtomicLong> statuses = new ConcurrentHashMap<>();
+        CountDownLatch done = new CountDownLatch(total);
+        long intervalNanos = TimeUnit.SECONDS.toNanos(1) / rps;
+
+        long start = System.nanoTime();
+        for (int i = 0; i < total; i++) {
+            long scheduled = start + i * intervalNanos;
+            long wait = scheduled - System.nanoTime();
+            if (wait > 0) {
+                TimeUnit.NANOSECONDS.sleep(wait);
+            }
+            int index = i;
+            Request request = new Request.Builder()
+                    .url("http://localhost:" + port + paths.get(i % paths.size()))
+                    .build();
+            client.newCall(request).enqueue(new Callback() {
+                @Override
+                public void onFailure(Call call, IOException e) {
+                    finish(e.getClass().getSimpleName());
+                }
+
+                @Override
+                public void onResponse(Call call, Response response) throws IOException {
+                    try (Response r = response) {
+                        r.body().bytes();
+                        finish(String.valueOf(r.code()));
+                    }
+                }
+
+                private void finish(String status) {
+                    latencies[index] = System.nanoTime() - scheduled;
+                    statuses.computeIfAbsent(status, s -> new AtomicLong()).incrementAndGet();
+                    done.countDown();
+                }
+            });
+        }
+        boolean completed = done.await(seconds + 60L, TimeUnit.SECONDS);
+        double elapsed = (System.nanoTime() - start) / 1e9;
+        client.dispatcher().executorService().shutdown();
+
+        List<Long> sorted = new ArrayList<>(total);
+        for (long latency : latencies) {
+            sorted.add(latency);
+        }
+        Collections.sort(sorted);
+
+        System.out.printf("load: target=%d rps, %d requests over %s, virtualThreads=%s%n",
+                rps, total, paths, System.getProperty("headscale.server.virtualThreads", "false"));
+        System.out.printf("throughput: %.1f req/s, status: %s%n", total / elapsed, new TreeMap<>(statuses));
+        System.out.printf("latency ms: p50=%.1f p90=%.1f p99=%.1f p999=%.1f max=%.1f%n",
+                percentile(sorted, 0.50), percentile(sorted, 0.90), percentile(sorted, 0.99),
+                percentile(sorted, 0.999), sorted.get(total - 1) / 1e6);
+
+        assertTrue(completed, "requests still outstanding after the run");
+    }
+
+    private static double percentile(List<Long> sorted, double p) {
+        int index = (int) Math.ceil(p * sorted.size()) - 1;
+        return sorted.get(Math.max(0, Math.min(sorted.size() - 1, index))) / 1e6;
+    }
+}
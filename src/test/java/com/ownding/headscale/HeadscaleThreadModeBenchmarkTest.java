@@ -0,0 +1,210 @@
+package com.ownding.headscale;
+
+import com.ownding.headscale.mock.MockHeadscaleFleet;
+import com.ownding.headscale.mock.MockHeadscaleServer;
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.web.servlet.context.ServletWebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Closed-loop comparison of platform threads and virtual threads on an endpoint that blocks on Headscale
+ * The application is started twice against the same mock, once per thread mode, and driven by a fixed number of
+ * concurrent clients that each send their next request as soon as the previous one completes. Every request makes
+ * an upstream call, so with platform threads the Tomcat pool caps how many wait on Headscale at once.
+ * Snapshot-backed paths (/nodes, /users) never block on Headscale and would not show a difference.
+ * Run with: mvn test -Dtest=HeadscaleThreadModeBenchmarkTest -Dheadscale.benchmark=true -Pjava21
+ * [-Dheadscale.benchmark.clients=1000 -Dheadscale.benchmark.seconds=20 -Dheadscale.benchmark.latencyMs=50
+ * -Dheadscale.benchmark.path=/headscale/users/user-0001/preauth-keys]
+ * On a JVM without virtual threads only the platform run is made.
+ */
+@EnabledIfSystemProperty(named = "headscale.benchmark", matches = "true")
+class HeadscaleThreadModeBenchmarkTest {
+
+    private static final int WARMUP_SECONDS = 3;
+
+    @Test
+    void comparePlatformAndVirtualThreads() throws Exception {
+        int clients = Integer.getInteger("headscale.benchmark.clients", 1000);
+        int seconds = Integer.getInteger("headscale.benchmark.seconds", 20);
+        String path = System.getProperty("headscale.benchmark.path", "/headscale/users/user-0001/preauth-keys");
+
+        try (MockHeadscaleServer server = MockHeadscaleServer.start(MockHeadscaleFleet.generate(20, 5, 0.7, 42))) {
+            server.profile().latency(Long.getLong("headscale.benchmark.latencyMs", 50), 0);
+
+            Run platform = run(server, false, clients, seconds, path);
+            Run virtual = virtualThreadsSupported() ? run(server, true, clients, seconds, path) : null;
+
+            System.out.printf("%d concurrent clients on %s for %ds, upstream latency %dms%n",
+                    clients, path, seconds, Long.getLong("headscale.benchmark.latencyMs", 50));
+            System.out.printf("%-10s %12s %10s %10s %10s  %s%n", "threads", "req/s", "p50 ms", "p99 ms", "max ms", "status");
+            print("platform", platform);
+            if (virtual == null) {
+                System.out.printf("virtual threads are not supported by Java %s, run with -Pjava21 on Java 21+%n",
+                        System.getProperty("java.version"));
+                return;
+            }
+            print("virtual", virtual);
+            System.out.printf("virtual/platform throughput: %.2fx%n", virtual.throughput / platform.throughput);
+
+            assertEquals(Collections.singleton("200"), virtual.statuses.keySet(), "virtual thread run had failures");
+        }
+    }
+
+    private static Run run(MockHeadscaleServer server, boolean virtualThreads, int clients, int seconds, String path)
+            throws Exception {
+        ConfigurableApplicationContext context = new SpringApplicationBuilder(HeadscaleApplication.class)
+                // command-line arguments, so they override application.properties
+                .run("--server.port=0",
+                        "--headscale.server.url=" + server.getUrl(),
+                        "--headscale.server.apiKey=mock-key",
+                        "--headscale.server.grpcHost=localhost",
+                        "--headscale.server.grpcPort=" + server.getGrpcPort(),
+                        "--headscale.server.snapshotFile=",
+                        "--headscale.server.auditDir=",
+                        "--headscale.server.rateLimitEnabled=false",
+                        // the adaptive limiter would cap upstream concurrency in both modes and hide the difference
+                        "--headscale.server.upstreamLimitEnabled=false",
+                        "--headscale.server.virtualThreads=" + virtualThreads,
+                        "--logging.level.com.ownding.headscale=WARN");
+        try {
+            String url = "http://localhost:" + ((ServletWebServerApplicationContext) context).getWebServer().getPort() + path;
+            drive(url, clients, WARMUP_SECONDS);
+            Run run = drive(url, clients, seconds);
+            assertTrue(run.requests > 0, "no request completed");
+            return run;
+        } finally {
+            context.close();
+        }
+    }
+
+    /**
+     * Keep `clients` requests in flight for the given duration
+     */
+    private static Run drive(String url, int clients, int seconds) throws InterruptedException {
+        Dispatcher dispatcher = new Dispatcher();
+        dispatcher.setMaxRequests(clients);
+        dispatcher.setMaxRequestsPerHost(clients);
+        OkHttpClient client = new OkHttpClient.Builder()
+                .dispatcher(dispatcher)
+                .connectionPool(new ConnectionPool(clients, 1, TimeUnit.MINUTES))
+                .readTimeout(60, TimeUnit.SECONDS)
+                .build();
+
+        List<Long> latencies = Collections.synchronizedList(new ArrayList<>());
+        Map<String, AtomicLong> statuses = new ConcurrentHashMap<>();
+        CountDownLatch done = new CountDownLatch(clients);
+        long start = System.nanoTime();
+        long end = start + TimeUnit.SECONDS.toNanos(seconds);
+
+        for (int i = 0; i < clients; i++) {
+            send(client, new Request.Builder().url(url).build(), end, latencies, statuses, done);
+        }
+        done.await(seconds + 120L, TimeUnit.SECONDS);
+        double elapsed = (System.nanoTime() - start) / 1e9;
+        client.dispatcher().executorService().shutdown();
+        client.connectionPool().evictAll();
+
+        Run run = new Run();
+        List<Long> sorted;
+        synchronized (latencies) {
+            sorted = new ArrayList<>(latencies);
+        }
+        Collections.sort(sorted);
+        run.requests = sorted.size();
+        run.throughput = sorted.size() / elapsed;
+        run.p50 = percentile(sorted, 0.50);
+        run.p99 = percentile(sorted, 0.99);
+        run.max = percentile(sorted, 1.0);
+        for (Map.Entry<String, AtomicLong> entry : statuses.entrySet()) {
+            run.statuses.put(entry.getKey(), entry.getValue().get());
+        }
+        return run;
+    }
+
+    /**
+     * One client: send, and on completion send again until the run ends
+     */
+    private static void send(OkHttpClient client, Request request, long end, List<Long> latencies,
+                             Map<String, AtomicLong> statuses, CountDownLatch done) {
+        long sent = System.nanoTime();
+        client.newCall(request).enqueue(new Callback() {
+            @Override
+            public void onFailure(Call call, IOException e) {
+                finish(e.getClass().getSimpleName());
+            }
+
+            @Override
+            public void onResponse(Call call, Response response) throws IOException {
+                try (Response r = response) {
+                    r.body().bytes();
+                    finish(String.valueOf(r.code()));
+                }
+            }
+
+            private void finish(String status) {
+                long now = System.nanoTime();
+                latencies.add(now - sent);
+                statuses.computeIfAbsent(status, s -> new AtomicLong()).incrementAndGet();
+                if (now < end) {
+                    send(client, request, end, latencies, statuses, done);
+                } else {
+                    done.countDown();
+                }
+            }
+        });
+    }
+
+    private static boolean virtualThreadsSupported() {
+        try {
+            Thread.class.getMethod("ofVirtual");
+            return true;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+
+    private static void print(String mode, Run run) {
+        System.out.printf("%-10s %12.1f %10.1f %10.1f %10.1f  %s%n",
+                mode, run.throughput, run.p50, run.p99, run.max, run.statuses);
+    }
+
+    private static double percentile(List<Long> sorted, double p) {
+        if (sorted.isEmpty()) {
+            return 0;
+        }
+        int index = (int) Math.ceil(p * sorted.size()) - 1;
+        return sorted.get(Math.max(0, Math.min(sorted.size() - 1, index))) / 1e6;
+    }
+
+    private static class Run {
+        long requests;
+        double throughput;
+        double p50;
+        double p99;
+        double max;
+        final Map<String, Long> statuses = new TreeMap<>();
+    }
+}
@@ -0,0 +1,178 @@
+package com.ownding.headscale.mock;
+
+import com.ownding.headscale.dal.vo.HeadscaleNode;
+import com.ownding.headscale.dal.vo.HeadscalePreAuthKey;
+import com.ownding.headscale.dal.vo.HeadscaleUser;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+import java.util.stream.Collectors;
+
+/**
+ * In-memory Headscale state behind MockHeadscaleServer, seeded with a synthetic fleet
+ * Users are named user-0001.., nodes node-000001.. and spread round-robin over the users
+ */
+public class MockHeadscaleFleet {
+
+    private final Map<String, HeadscaleUser> users = new LinkedHashMap<>();
+
+    private final Map<String, HeadscaleNode> nodes = new LinkedHashMap<>();
+
+    private final Map<String, List<HeadscalePreAuthKey>> preAuthKeys = new LinkedHashMap<>();
+
+    private String policy = "{}";
+
+    private long nextUserId = 1;
+
+    private long nextNodeId = 1;
+
+    private long nextKeyId = 1;
+
+    /**
+     * @param userCount    users to create
+     * @param nodesPerUser nodes per user
+     * @param onlineRatio  share of nodes reported online (0..1)
+     * @param seed         random seed, the same seed always produces the same fleet
+     */
+    public static MockHeadscaleFleet generate(int userCount, int nodesPerUser, double onlineRatio, long seed) {
+        MockHeadscaleFleet fleet = new MockHeadscaleFleet();
+        Random random = new Random(seed);
+        Instant now = Instant.now();
+
+        List<HeadscaleUser> created = new ArrayList<>();
+        for (int i = 1; i <= userCount; i++) {
+            created.add(fleet.createUser(String.format("user-%04d", i)));
+        }
+        for (int n = 0; n < userCount * nodesPerUser; n++) {
+            HeadscaleUser owner = created.get(n % userCount);
+            HeadscaleNode node = fleet.addNode(owner);
+            boolean online = random.nextDouble() < onlineRatio;
+            node.setOnline(online);
+            node.setLastSeen(now.minusSeconds(online ? random.nextInt(60) : 3600 + random.nextInt(30 * 86400)).toString());
+            node.setValidTags(random.nextInt(4) == 0 ? Collections.singletonList("tag:ci") : Collections.emptyList());
+        }
+        return fleet;
+    }
+
+    public synchronized List<HeadscaleUser> users() {
+        return new ArrayList<>(users.values());
+    }
+
+    public synchronized HeadscaleUser userById(String id) {
+        return users.get(id);
+    }
+
+    public synchronized List<HeadscaleNode> nodes() {
+        return new ArrayList<>(nodes.values());
+    }
+
+    /**
+     * Nodes of one user, all nodes when userId is null
+     */
+    public synchronized List<HeadscaleNode> nodes(String userId) {
+        if (userId == null) {
+            return nodes();
+        }
+        return nodes.values().stream()
+                .filter(node -> node.getUser() != null && userId.equals(node.getUser().getId()))
+                .collect(Collectors.toList());
+    }
+
+    public synchronized HeadscaleUser createUser(String name) {
+        for (HeadscaleUser user : users.values()) {
+            if (user.getName().equals(name)) {
+                throw new IllegalStateException("user already exists: " + name);
+            }
+        }
+        HeadscaleUser user = new HeadscaleUser();
+        user.setId(String.valueOf(nextUserId++));
+        user.setName(name);
+        user.setCreatedAt(Instant.now().toString());
+        users.put(user.getId(), user);
+        return user;
+    }
+
+    /**
+     * @return false if the user still owns nodes (Headscale refuses to delete it)
+     */
+    public synchronized boolean deleteUser(String id) {
+        if (!nodes(id).isEmpty()) {
+            return false;
+        }
+        preAuthKeys.remove(id);
+        return users.remove(id) != null;
+    }
+
+    public synchronized HeadscaleNode addNode(HeadscaleUser owner) {
+        long id = nextNodeId++;
+        HeadscaleNode node = new HeadscaleNode();
+        node.setId(String.valueOf(id));
+        node.setName(String.format("node-%06d", id));
+        node.setGivenName(node.getName());
+        node.setMachineKey("mkey:" + UUID.randomUUID().toString().replace("-", ""));
+        node.setNodeKey("nodekey:" + UUID.randomUUID().toString().replace("-", ""));
+        node.setIpAddresses(Collections.singletonList("100.64." + (id / 250) % 256 + "." + (id % 250 + 1)));
+        node.setUser(owner);
+        node.setOnline(false);
+        node.setCreatedAt(Instant.now().toString());
+        nodes.put(node.getId(), node);
+        return node;
+    }
+
+    public synchronized boolean deleteNode(String id) {
+        return nodes.remove(id) != null;
+    }
+
+    public synchronized HeadscaleNode expireNode(String id) {
+        HeadscaleNode node = nodes.get(id);
+        if (node != null) {
+            node.setExpiry(Instant.now().toString());
+        }
+        return node;
+    }
+
+    public synchronized List<HeadscalePreAuthKey> preAuthKeys(String userId) {
+        return new ArrayList<>(preAuthKeys.getOrDefault(userId, Collections.emptyList()));
+    }
+
+    public synchronized HeadscalePreAuthKey createPreAuthKey(String userId, boolean reusable, boolean ephemeral, String expiration) {
+        if (!users.containsKey(userId)) {
+            throw new IllegalStateException("user not found: " + userId);
+        }
+        HeadscalePreAuthKey key = new HeadscalePreAuthKey();
+        key.setId(String.valueOf(nextKeyId++));
+        key.setKey(UUID.randomUUID().toString().replace("-", ""));
+        key.setUser(userId);
+        key.setReusable(reusable);
+        key.setEphemeral(ephemeral);
+        key.setUsed(false);
+        key.setExpiration(expiration);
+        key.setCreatedAt(Instant.now().toString());
+        preAuthKeys.computeIfAbsent(userId, id -> new ArrayList<>()).add(key);
+        return key;
+    }
+
+    public synchronized boolean expirePreAuthKey(String userId, String keyValue) {
+        for (HeadscalePreAuthKey key : preAuthKeys.getOrDefault(userId, Collections.emptyList())) {
+            if (key.getKey().equals(keyValue)) {
+                key.setExpiration(Instant.now().toString());
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public synchronized String getPolicy() {
+        return policy;
+    }
+
+    public synchronized void setPolicy(String policy) {
+        this.policy = policy;
+    }
+}
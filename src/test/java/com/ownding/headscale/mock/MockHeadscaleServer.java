@@ -0,0 +1,347 @@
+package com.ownding.headscale.mock;
+
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONObject;
+import com.google.protobuf.Timestamp;
+import com.ownding.headscale.dal.vo.HeadscaleNode;
+import com.ownding.headscale.dal.vo.HeadscalePreAuthKey;
+import com.ownding.headscale.dal.vo.HeadscaleUser;
+import com.ownding.headscale.utils.HeadscaleProtoConverter;
+import headscale.v1.Headscale;
+import headscale.v1.HeadscaleServiceGrpc;
+import io.grpc.Server;
+import io.grpc.ServerBuilder;
+import io.grpc.Status;
+import io.grpc.stub.StreamObserver;
+import okhttp3.HttpUrl;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Local stand-in for a Headscale control plane: the REST API (/api/v1/*) on an OkHttp MockWebServer and
+ * headscale.proto on a gRPC server in the same JVM, both backed by one MockHeadscaleFleet.
+ * Latency and failures are injected through the mutable {@link Profile}.
+ */
+public class MockHeadscaleServer implements AutoCloseable {
+
+    /**
+     * Latency and error profile applied to every REST and gRPC request
+     */
+    public static class Profile {
+
+        private volatile long latencyMillis;
+
+        private volatile long jitterMillis;
+
+        private volatile double errorRate;
+
+        private volatile int errorStatus = 503;
+
+        /**
+         * Every request takes latencyMillis plus a uniform random 0..jitterMillis
+         */
+        public Profile latency(long latencyMillis, long jitterMillis) {
+            this.latencyMillis = latencyMillis;
+            this.jitterMillis = jitterMillis;
+            return this;
+        }
+
+        /**
+         * Share of requests (0..1) failing with the given HTTP status (UNAVAILABLE on gRPC)
+         */
+        public Profile errors(double errorRate, int errorStatus) {
+            this.errorRate = errorRate;
+            this.errorStatus = errorStatus;
+            return this;
+        }
+
+        public Profile reset() {
+            return latency(0, 0).errors(0, 503);
+        }
+
+        void delay() {
+            long delay = latencyMillis + (jitterMillis > 0 ? ThreadLocalRandom.current().nextLong(jitterMillis + 1) : 0);
+            if (delay <= 0) {
+                return;
+            }
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        boolean fails() {
+            return errorRate > 0 && ThreadLocalRandom.current().nextDouble() < errorRate;
+        }
+    }
+
+    private final MockHeadscaleFleet fleet;
+
+    private final Profile profile = new Profile();
+
+    private final MockWebServer restServer = new MockWebServer();
+
+    private Server grpcServer;
+
+    private MockHeadscaleServer(MockHeadscaleFleet fleet) {
+        this.fleet = fleet;
+    }
+
+    public static MockHeadscaleServer start(MockHeadscaleFleet fleet) throws IOException {
+        MockHeadscaleServer server = new MockHeadscaleServer(fleet);
+        server.restServer.setDispatcher(server.new RestDispatcher());
+        server.restServer.start();
+        server.grpcServer = ServerBuilder.forPort(0).addService(server.new GrpcService()).build().start();
+        return server;
+    }
+
+    public MockHeadscaleFleet fleet() {
+        return fleet;
+    }
+
+    public Profile profile() {
+        return profile;
+    }
+
+    /**
+     * Base URL for headscale.server.url (no trailing slash)
+     */
+    public String getUrl() {
+        String url = restServer.url("/").toString();
+        return url.substring(0, url.length() - 1);
+    }
+
+    public int getGrpcPort() {
+        return grpcServer.getPort();
+    }
+
+    @Override
+    public void close() throws IOException {
+        grpcServer.shutdownNow();
+        restServer.shutdown();
+    }
+
+    private class RestDispatcher extends Dispatcher {
+
+        @Override
+        public MockResponse dispatch(RecordedRequest request) {
+            profile.delay();
+            if ("HEAD".equals(request.getMethod())) {
+                return new MockResponse().setResponseCode(200);
+            }
+            if (profile.fails()) {
+                return json(profile.errorStatus, Collections.singletonMap("message", "injected failure"));
+            }
+
+            HttpUrl url = request.getRequestUrl();
+            List<String> path = url.pathSegments();
+            if (path.size() < 3 || !"api".equals(path.get(0)) || !"v1".equals(path.get(1))) {
+                return json(404, Collections.singletonMap("message", "not found"));
+            }
+            String resource = path.get(2);
+            String id = path.size() > 3 ? path.get(3) : null;
+            String method = request.getMethod();
+
+            switch (resource) {
+                case "user":
+                    if ("GET".equals(method)) {
+                        return json(200, Collections.singletonMap("users", fleet.users()));
+                    }
+                    if ("POST".equals(method)) {
+                        String name = JSON.parseObject(request.getBody().readUtf8()).getString("name");
+                        return guarded(() -> Collections.singletonMap("user", fleet.createUser(name)));
+                    }
+                    if ("DELETE".equals(method) && id != null) {
+                        return fleet.deleteUser(id) ? json(200, Collections.emptyMap())
+                                : json(500, Collections.singletonMap("message", "user not empty, node(s) found"));
+                    }
+                    break;
+                case "node":
+                    if ("GET".equals(method)) {
+                        return json(200, Collections.singletonMap("nodes", fleet.nodes(url.queryParameter("user"))));
+                    }
+                    if ("DELETE".equals(method) && id != null) {
+                        return fleet.deleteNode(id) ? json(200, Collections.emptyMap()) : notFound("node", id);
+                    }
+                    if ("POST".equals(method) && id != null && path.size() > 4 && "expire".equals(path.get(4))) {
+                        HeadscaleNode node = fleet.expireNode(id);
+                        return node != null ? json(200, Collections.singletonMap("node", node)) : notFound("node", id);
+                    }
+                    break;
+                case "preauthkey":
+                    if ("GET".equals(method)) {
+                        return json(200, Collections.singletonMap("preAuthKeys", fleet.preAuthKeys(url.queryParameter("user"))));
+                    }
+                    if ("POST".equals(method) && "expire".equals(id)) {
+                        JSONObject body = JSON.parseObject(request.getBody().readUtf8());
+                        return fleet.expirePreAuthKey(body.getString("user"), body.getString("key"))
+                                ? json(200, Collections.emptyMap()) : notFound("preauthkey", body.getString("key"));
+                    }
+                    if ("POST".equals(method)) {
+                        JSONObject body = JSON.parseObject(request.getBody().readUtf8());
+                        return guarded(() -> Collections.singletonMap("preAuthKey", fleet.createPreAuthKey(body.getString("user"),
+                                Boolean.TRUE.equals(body.getBoolean("reusable")), Boolean.TRUE.equals(body.getBoolean("ephemeral")),
+                                body.getString("expiration"))));
+                    }
+                    break;
+                case "policy":
+                    if ("GET".equals(method)) {
+                        return json(200, Collections.singletonMap("policy", fleet.getPolicy()));
+                    }
+                    if ("PUT".equals(method)) {
+                        fleet.setPolicy(request.getBody().readUtf8());
+                        return json(200, Collections.singletonMap("policy", fleet.getPolicy()));
+                    }
+                    break;
+                default:
+                    break;
+            }
+            return json(404, Collections.singletonMap("message", "not found"));
+        }
+
+        private MockResponse guarded(Supplier<Object> action) {
+            try {
+                return json(200, action.get());
+            } catch (IllegalStateException e) {
+                return json(400, Collections.singletonMap("message", e.getMessage()));
+            }
+        }
+
+        private MockResponse notFound(String kind, String id) {
+            return json(404, Collections.singletonMap("message", kind + " not found: " + id));
+        }
+
+        private MockResponse json(int status, Object body) {
+            return new MockResponse()
+                    .setResponseCode(status)
+                    .setHeader("Content-Type", "application/json")
+                    .setBody(JSON.toJSONString(body));
+        }
+    }
+
+    private class GrpcService extends HeadscaleServiceGrpc.HeadscaleServiceImplBase {
+
+        @Override
+        public void createUser(Headscale.CreateUserRequest request, StreamObserver<Headscale.CreateUserResponse> observer) {
+            respond(observer, () -> {
+                HeadscaleUser user = fleet.createUser(request.getName());
+                if (!request.getDisplayName().isEmpty()) {
+                    user.setDisplayName(request.getDisplayName());
+                }
+                return Headscale.CreateUserResponse.newBuilder().setUser(HeadscaleProtoConverter.toProto(user)).build();
+            });
+        }
+
+        @Override
+        public void listUsers(Headscale.ListUsersRequest request, StreamObserver<Headscale.ListUsersResponse> observer) {
+            respond(observer, () -> HeadscaleProtoConverter.toListUsersResponse(fleet.users()));
+        }
+
+        @Override
+        public void deleteUser(Headscale.DeleteUserRequest request, StreamObserver<Headscale.DeleteUserResponse> observer) {
+            respond(observer, () -> {
+                if (!fleet.deleteUser(resolveUser(request.getName()).getId())) {
+                    throw new IllegalStateException("user not empty, node(s) found");
+                }
+                return Headscale.DeleteUserResponse.getDefaultInstance();
+            });
+        }
+
+        @Override
+        public void listNodes(Headscale.ListNodesRequest request, StreamObserver<Headscale.ListNodesResponse> observer) {
+            respond(observer, () -> HeadscaleProtoConverter.toListNodesResponse(request.getUser().isEmpty()
+                    ? fleet.nodes() : fleet.nodes(resolveUser(request.getUser()).getId())));
+        }
+
+        @Override
+        public void deleteNode(Headscale.DeleteNodeRequest request, StreamObserver<Headscale.DeleteNodeResponse> observer) {
+            respond(observer, () -> {
+                if (!fleet.deleteNode(String.valueOf(request.getNodeId()))) {
+                    throw Status.NOT_FOUND.withDescription("node not found: " + request.getNodeId()).asRuntimeException();
+                }
+                return Headscale.DeleteNodeResponse.getDefaultInstance();
+            });
+        }
+
+        @Override
+        public void expireNode(Headscale.ExpireNodeRequest request, StreamObserver<Headscale.ExpireNodeResponse> observer) {
+            respond(observer, () -> {
+                HeadscaleNode node = fleet.expireNode(String.valueOf(request.getNodeId()));
+                if (node == null) {
+                    throw Status.NOT_FOUND.withDescription("node not found: " + request.getNodeId()).asRuntimeException();
+                }
+                return Headscale.ExpireNodeResponse.newBuilder().setNode(HeadscaleProtoConverter.toProto(node)).build();
+            });
+        }
+
+        @Override
+        public void listPreAuthKeys(Headscale.ListPreAuthKeysRequest request, StreamObserver<Headscale.ListPreAuthKeysResponse> observer) {
+            respond(observer, () -> HeadscaleProtoConverter.toListPreAuthKeysResponse(
+                    fleet.preAuthKeys(resolveUser(request.getUser()).getId())));
+        }
+
+        @Override
+        public void createPreAuthKey(Headscale.CreatePreAuthKeyRequest request, StreamObserver<Headscale.CreatePreAuthKeyResponse> observer) {
+            respond(observer, () -> {
+                Timestamp expiration = request.getExpiration();
+                HeadscalePreAuthKey key = fleet.createPreAuthKey(resolveUser(request.getUser()).getId(),
+                        request.getReusable(), request.getEphemeral(),
+                        request.hasExpiration() ? Instant.ofEpochSecond(expiration.getSeconds(), expiration.getNanos()).toString() : null);
+                return Headscale.CreatePreAuthKeyResponse.newBuilder().setPreAuthKey(HeadscaleProtoConverter.toProto(key)).build();
+            });
+        }
+
+        @Override
+        public void expirePreAuthKey(Headscale.ExpirePreAuthKeyRequest request, StreamObserver<Headscale.ExpirePreAuthKeyResponse> observer) {
+            respond(observer, () -> {
+                if (!fleet.expirePreAuthKey(resolveUser(request.getUser()).getId(), request.getKey())) {
+                    throw Status.NOT_FOUND.withDescription("pre-auth key not found").asRuntimeException();
+                }
+                return Headscale.ExpirePreAuthKeyResponse.getDefaultInstance();
+            });
+        }
+
+        /**
+         * gRPC requests name users by name; ids are accepted as well
+         */
+        private HeadscaleUser resolveUser(String nameOrId) {
+            for (HeadscaleUser user : fleet.users()) {
+                if (user.getName().equals(nameOrId)) {
+                    return user;
+                }
+            }
+            HeadscaleUser user = fleet.userById(nameOrId);
+            if (user == null) {
+                throw Status.NOT_FOUND.withDescription("user not found: " + nameOrId).asRuntimeException();
+            }
+            return user;
+        }
+
+        private <T> void respond(StreamObserver<T> observer, Supplier<T> action) {
+            profile.delay();
+            if (profile.fails()) {
+                observer.onError(Status.UNAVAILABLE.withDescription("injected failure").asRuntimeException());
+                return;
+            }
+            try {
+                observer.onNext(action.get());
+                observer.onCompleted();
+            } catch (IllegalStateException e) {
+                observer.onError(Status.INVALID_ARGUMENT.withDescription(e.getMessage()).asRuntimeException());
+            } catch (RuntimeException e) {
+                observer.onError(e);
+            }
+        }
+    }
+}
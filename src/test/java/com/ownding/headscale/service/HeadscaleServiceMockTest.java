@@ -0,0 +1,641 @@
+package com.ownding.headscale.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.ownding.headscale.conf.HeadscaleProperties;
+import com.ownding.headscale.conf.HeadscaleProtobufConfig;
+import com.ownding.headscale.dal.vo.HeadscaleBulkNodeRequest;
+import com.ownding.headscale.dal.vo.HeadscaleNode;
+import com.ownding.headscale.dal.vo.HeadscaleNodeChanges;
+import com.ownding.headscale.dal.vo.HeadscaleNodeReaperReport;
+import com.ownding.headscale.dal.vo.HeadscalePreAuthKey;
+import com.ownding.headscale.dal.vo.HeadscalePreAuthKeyPool;
+import com.ownding.headscale.dal.vo.HeadscalePreAuthKeySweepReport;
+import com.ownding.headscale.dal.vo.HeadscaleUser;
+import com.ownding.headscale.dal.vo.HeadscaleUserImportSummary;
+import com.ownding.headscale.dal.vo.HeadscaleUserPage;
+import com.ownding.headscale.mock.MockHeadscaleFleet;
+import com.ownding.headscale.mock.MockHeadscaleServer;
+import com.ownding.headscale.utils.HeadscaleActorUtils;
+import com.ownding.headscale.utils.HeadscaleConcurrencyUtils;
+import com.ownding.headscale.utils.HeadscaleDeadlineUtils;
+import com.ownding.headscale.utils.HeadscaleSecretUtils;
+import com.ownding.headscale.utils.HeadscaleSnapshotCodec;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.context.PayloadApplicationEvent;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.request.MockMvcRequestBuilders;
+import org.springframework.web.servlet.mvc.method.annotation.RequestMappingHandlerAdapter;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * HeadscaleService and HeadscaleGrpcService against the local mock control plane
+ */
+@SpringBootTest
+@AutoConfigureMockMvc
+class HeadscaleServiceMockTest {
+
+    private static final MockHeadscaleServer SERVER;
+
+    static {
+        try {
+            SERVER = MockHeadscaleServer.start(MockHeadscaleFleet.generate(5, 4, 0.5, 42));
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @DynamicPropertySource
+    static void headscaleProperties(DynamicPropertyRegistry registry) {
+        registry.add("headscale.server.url", SERVER::getUrl);
+        registry.add("headscale.server.apiKey", () -> "mock-key");
+        registry.add("headscale.server.grpcHost", () -> "localhost");
+        registry.add("headscale.server.grpcPort", SERVER::getGrpcPort);
+        registry.add("headscale.server.snapshotFile", () -> "");
+        registry.add("headscale.server.auditDir", () -> "");
+        registry.add("headscale.server.nodeReaperUsers", () -> "user-0005");
+        registry.add("headscale.server.rateLimitClientKeys", () -> "known-client-key");
+    }
+
+    @Autowired
+    private HeadscaleService headscaleService;
+
+    @Autowired
+    private HeadscaleProperties headscaleProperties;
+
+    @Autowired
+    private HeadscaleGrpcService headscaleGrpcService;
+
+    @Autowired
+    private HeadscalePreAuthKeyPoolService preAuthKeyPoolService;
+
+    @Autowired
+    private HeadscalePreAuthKeySweeperService preAuthKeySweeperService;
+
+    @Autowired
+    private HeadscaleInventoryService inventoryService;
+
+    @Autowired
+    private HeadscaleHybridService hybridService;
+
+    @Autowired
+    private HeadscaleNodeChangeLogService nodeChangeLogService;
+
+    @Autowired
+    private HeadscaleRateLimitService rateLimitService;
+
+    @Autowired
+    private HeadscaleUpstreamLimitService upstreamLimitService;
+
+    @Autowired
+    private HeadscaleNodeReaperService nodeReaperService;
+
+    @Autowired
+    private HeadscaleUserImportService userImportService;
+
+    @Autowired
+    private HeadscaleNodeExportService nodeExportService;
+
+    @Autowired
+    private HeadscaleUserSearchService userSearchService;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private ConfigurableApplicationContext applicationContext;
+
+    @AfterEach
+    void resetProfile() {
+        SERVER.profile().reset();
+        HeadscaleDeadlineUtils.clear();
+    }
+
+    @AfterAll
+    static void stopServer() throws IOException {
+        SERVER.close();
+    }
+
+    @Test
+    void restListsSeededFleet() throws IOException {
+        List<HeadscaleUser> users = headscaleService.getUsers();
+        List<HeadscaleNode> nodes = headscaleService.getNodes();
+
+        assertTrue(users.size() >= 5);
+        assertEquals(SERVER.fleet().nodes().size(), nodes.size());
+        assertEquals(4, headscaleService.getNodesByUser("user-0001").size());
+    }
+
+    @Test
+    void grpcCreateUserReachesFleet() throws IOException {
+        HeadscaleUser created = headscaleGrpcService.createUserWithNamespace("grpc-mock-user", "Mock User");
+
+        assertNotNull(created.getId());
+        assertNotNull(SERVER.fleet().userById(created.getId()));
+        assertEquals("Mock User", created.getDisplayName());
+    }
+
+    @Test
+    void preAuthKeyClaimsAreServedFromRefilledPool() throws Exception {
+        HeadscalePreAuthKey first = preAuthKeyPoolService.claim("user-0002", true, false);
+        assertNotNull(first.getKey());
+
+        long waitUntil = System.currentTimeMillis() + 5000;
+        HeadscalePreAuthKeyPool pool = null;
+        while (System.currentTimeMillis() < waitUntil) {
+            pool = preAuthKeyPoolService.getPools().stream()
+                    .filter(p -> p.getUser().equals("user-0002") && p.isReusable())
+                    .findFirst().orElse(null);
+            if (pool != null && pool.getAvailable() == pool.getTarget()) {
+                break;
+            }
+            Thread.sleep(50);
+        }
+        assertNotNull(pool);
+        assertEquals(pool.getTarget(), pool.getAvailable());
+
+        HeadscalePreAuthKey second = preAuthKeyPoolService.claim("user-0002", true, false);
+        assertNotEquals(first.getKey(), second.getKey());
+        assertEquals(1, preAuthKeyPoolService.getPools().stream()
+                .filter(p -> p.getUser().equals("user-0002") && p.isReusable())
+                .findFirst().get().getHits());
+    }
+
+    @Test
+    void claimMissesBeyondPoolCapDoNotStartPools() throws Exception {
+        int maxPools = headscaleProperties.getPreAuthKeyPoolMaxPools();
+        long existing = preAuthKeyPoolService.getPools().size();
+        headscaleProperties.setPreAuthKeyPoolMaxPools(0);
+        try {
+            HeadscalePreAuthKey key = preAuthKeyPoolService.claim("user-0004", false, true);
+            assertNotNull(key.getKey());
+            assertEquals(existing, preAuthKeyPoolService.getPools().size());
+            assertTrue(preAuthKeyPoolService.getPools().stream()
+                    .noneMatch(p -> p.getUser().equals("user-0004") && p.isEphemeral()));
+        } finally {
+            headscaleProperties.setPreAuthKeyPoolMaxPools(maxPools);
+        }
+    }
+
+    @Test
+    void sweeperExpiresUsedSingleUseKeysOverGrpc() throws IOException {
+        String userId = SERVER.fleet().users().get(2).getId();
+        HeadscalePreAuthKey used = SERVER.fleet().createPreAuthKey(userId, false, false, null);
+        HeadscalePreAuthKey unused = SERVER.fleet().createPreAuthKey(userId, false, false, null);
+        used.setUsed(true);
+
+        HeadscalePreAuthKeySweepReport dryRun = preAuthKeySweeperService.sweep(true);
+        assertEquals(1, dryRun.getSelectedUsed());
+        assertEquals(0, dryRun.getExpired());
+        assertEquals(null, used.getExpiration());
+
+        HeadscalePreAuthKeySweepReport report = preAuthKeySweeperService.sweep(false);
+        assertEquals(1, report.getExpired());
+        assertEquals(used.getId(), report.getItems().get(0).getTarget());
+        assertNotNull(used.getExpiration());
+        assertEquals(null, unused.getExpiration());
+    }
+
+    @Test
+    void rateLimitIgnoresUnknownClientKeys() {
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.setRemoteAddr("10.0.0.7");
+        request.addHeader("X-Api-Key", "made-up-" + System.nanoTime());
+        assertEquals("ip:10.0.0.7", rateLimitService.clientOf(request));
+
+        MockHttpServletRequest known = new MockHttpServletRequest();
+        known.setRemoteAddr("10.0.0.7");
+        known.addHeader("X-Api-Key", "known-client-key");
+        assertEquals("key:client-1", rateLimitService.clientOf(known));
+    }
+
+    @Test
+    void auditPayloadsMaskPreAuthKeySecrets() {
+        HeadscaleUser owner = SERVER.fleet().users().get(0);
+        HeadscalePreAuthKey key = SERVER.fleet().createPreAuthKey(owner.getId(), true, false, null);
+        String secret = key.getKey();
+        HeadscaleNode node = new HeadscaleNode();
+        node.setId("audit-node");
+        node.setPreAuthKey(key);
+
+        HeadscalePreAuthKey redactedKey = (HeadscalePreAuthKey) HeadscaleSecretUtils.redact(key);
+        assertEquals(key.getId(), redactedKey.getId());
+        assertEquals("***" + secret.substring(secret.length() - 4), redactedKey.getKey());
+        assertEquals(secret, key.getKey());
+
+        HeadscaleNode redactedNode = (HeadscaleNode) HeadscaleSecretUtils.redact(node);
+        assertEquals(redactedKey.getKey(), redactedNode.getPreAuthKey().getKey());
+        assertEquals(secret, node.getPreAuthKey().getKey());
+    }
+
+    @Test
+    void snapshotCodecDoesNotPersistPreAuthKeySecrets() throws IOException {
+        HeadscaleUser owner = SERVER.fleet().users().get(0);
+        HeadscalePreAuthKey key = SERVER.fleet().createPreAuthKey(owner.getId(), false, false, null);
+        HeadscaleNode node = SERVER.fleet().addNode(owner);
+        node.setPreAuthKey(key);
+
+        HeadscaleSnapshotCodec.Contents contents = new HeadscaleSnapshotCodec.Contents();
+        contents.nodes.add(node);
+        contents.preAuthKeys.put(owner.getName(), Collections.singletonList(key));
+        byte[] encoded = HeadscaleSnapshotCodec.encode(contents);
+
+        assertFalse(new String(encoded, StandardCharsets.UTF_8).contains(key.getKey()));
+        HeadscaleSnapshotCodec.Contents decoded = HeadscaleSnapshotCodec.decode(ByteBuffer.wrap(encoded));
+        assertEquals(key.getId(), decoded.preAuthKeys.get(owner.getName()).get(0).getId());
+        assertEquals(null, decoded.preAuthKeys.get(owner.getName()).get(0).getKey());
+        assertEquals(key.getId(), decoded.nodes.get(0).getPreAuthKey().getId());
+    }
+
+    @Test
+    void snapshotCodecRejectsOversizedCounts() throws IOException {
+        HeadscaleSnapshotCodec.Contents contents = new HeadscaleSnapshotCodec.Contents();
+        contents.preAuthKeys.put("u", Collections.emptyList());
+        byte[] encoded = HeadscaleSnapshotCodec.encode(contents);
+
+        // header (24) + user, node and key-user counts (12) + "u" (5): the key count of "u"
+        ByteBuffer.wrap(encoded).putInt(41, Integer.MAX_VALUE);
+        IOException e = assertThrows(IOException.class, () -> HeadscaleSnapshotCodec.decode(ByteBuffer.wrap(encoded)));
+        assertEquals("Truncated or corrupt Headscale snapshot", e.getMessage());
+    }
+
+    @Test
+    void livenessTimestampsDoNotBumpInventoryVersion() throws IOException {
+        HeadscaleNode node = SERVER.fleet().addNode(SERVER.fleet().users().get(2));
+        node.setLastSeen(Instant.now().minusSeconds(60).toString());
+        long version = inventoryService.refresh().getVersion();
+
+        node.setLastSeen(Instant.now().toString());
+        assertEquals(version, inventoryService.refresh().getVersion());
+
+        node.setGivenName("renamed-" + node.getId());
+        assertNotEquals(version, inventoryService.refresh().getVersion());
+    }
+
+    @Test
+    void lastSeenChangesReachCachedNodeResponses() throws Exception {
+        HeadscaleNode node = SERVER.fleet().addNode(SERVER.fleet().users().get(2));
+        String before = Instant.now().minusSeconds(60).toString();
+        node.setLastSeen(before);
+        long version = inventoryService.refresh().getVersion();
+
+        MvcResult first = mockMvc.perform(MockMvcRequestBuilders.get("/headscale/nodes")).andReturn();
+        assertTrue(first.getResponse().getContentAsString().contains(before));
+        String eTag = first.getResponse().getHeader(HttpHeaders.ETAG);
+
+        String after = Instant.now().toString();
+        node.setLastSeen(after);
+        assertEquals(version, inventoryService.refresh().getVersion());
+
+        MvcResult second = mockMvc.perform(MockMvcRequestBuilders.get("/headscale/nodes")
+                .header(HttpHeaders.IF_NONE_MATCH, eTag)).andReturn();
+        assertEquals(200, second.getResponse().getStatus());
+        assertNotEquals(eTag, second.getResponse().getHeader(HttpHeaders.ETAG));
+        assertTrue(second.getResponse().getContentAsString().contains(after));
+    }
+
+    @Test
+    void nodeChangesRequireResyncForTokensOfAnotherEpoch() throws IOException {
+        inventoryService.refresh();
+        String token = nodeChangeLogService.getChangesSince("").getToken();
+        HeadscaleNode added = SERVER.fleet().addNode(SERVER.fleet().users().get(2));
+        long version = inventoryService.refresh().getVersion();
+
+        HeadscaleNodeChanges changes = nodeChangeLogService.getChangesSince(token);
+        assertFalse(changes.isResyncRequired());
+        assertTrue(changes.getChanges().stream().anyMatch(event -> added.getId().equals(event.getNode().getId())));
+
+        assertTrue(nodeChangeLogService.getChangesSince(String.valueOf(version - 1)).isResyncRequired());
+        assertTrue(nodeChangeLogService.getChangesSince("0." + (version - 1)).isResyncRequired());
+    }
+
+    @Test
+    void bulkInactivityFilterSkipsNodesThatNeverCheckedIn() throws IOException {
+        HeadscaleUser owner = SERVER.fleet().users().get(2);
+        HeadscaleNode stale = SERVER.fleet().addNode(owner);
+        stale.setLastSeen(Instant.now().minusSeconds(30 * 86400).toString());
+        HeadscaleNode registered = SERVER.fleet().addNode(owner);
+        registered.setLastSeen(null);
+        HeadscaleNode unknown = SERVER.fleet().addNode(owner);
+        unknown.setLastSeen("0001-01-01T00:00:00Z");
+        unknown.setCreatedAt(null);
+
+        HeadscaleBulkNodeRequest request = new HeadscaleBulkNodeRequest();
+        request.setNodeIds(Arrays.asList(stale.getId(), registered.getId(), unknown.getId()));
+        request.setInactiveHours(24);
+        hybridService.deleteNodes(request);
+
+        List<HeadscaleNode> remaining = SERVER.fleet().nodes();
+        assertTrue(remaining.stream().noneMatch(n -> n.getId().equals(stale.getId())));
+        assertTrue(remaining.stream().anyMatch(n -> n.getId().equals(registered.getId())));
+        assertTrue(remaining.stream().anyMatch(n -> n.getId().equals(unknown.getId())));
+    }
+
+    @Test
+    void bulkInactivityFilterRejectsNonPositiveHours() throws Exception {
+        int nodes = SERVER.fleet().nodes().size();
+
+        for (String hours : new String[]{"0", "-1"}) {
+            MvcResult result = mockMvc.perform(MockMvcRequestBuilders.post("/headscale/nodes/bulk-delete")
+                    .contentType(MediaType.APPLICATION_JSON)
+                    .content("{\"inactiveHours\":" + hours + "}")).andReturn();
+            assertEquals(400, objectMapper.readTree(result.getResponse().getContentAsString()).get("code").asInt());
+        }
+        assertEquals(nodes, SERVER.fleet().nodes().size());
+    }
+
+    @Test
+    void protobufNodesByUserValidatesTheUser() throws Exception {
+        MvcResult missing = mockMvc.perform(MockMvcRequestBuilders.get("/headscale/users/no-such-user/nodes")
+                .accept(HeadscaleProtobufConfig.PROTOBUF_VALUE)).andReturn();
+        assertEquals(500, missing.getResponse().getStatus());
+        JsonNode error = objectMapper.readTree(missing.getResponse().getContentAsString());
+        assertEquals(500, error.get("code").asInt());
+        assertTrue(error.get("data").asText().endsWith("no-such-user"));
+
+        MvcResult blank = mockMvc.perform(MockMvcRequestBuilders.get("/headscale/users/ /nodes")
+                .accept(HeadscaleProtobufConfig.PROTOBUF_VALUE)).andReturn();
+        assertEquals(400, blank.getResponse().getStatus());
+        assertEquals(400, objectMapper.readTree(blank.getResponse().getContentAsString()).get("code").asInt());
+    }
+
+    @Test
+    void reaperDeletesStaleNodesOfPolicyUsersOnly() throws IOException {
+        HeadscaleUser owner = SERVER.fleet().users().get(4);
+        HeadscaleNode stale = SERVER.fleet().addNode(owner);
+        stale.setLastSeen(Instant.now().minusSeconds(30 * 86400).toString());
+        HeadscaleNode active = SERVER.fleet().addNode(owner);
+        active.setOnline(true);
+        active.setLastSeen(Instant.now().toString());
+        HeadscaleNode otherUser = SERVER.fleet().addNode(SERVER.fleet().users().get(3));
+        otherUser.setLastSeen(stale.getLastSeen());
+        inventoryService.refresh();
+
+        assertTrue(nodeReaperService.getStatus(1000).getUpcoming().stream()
+                .anyMatch(entry -> entry.getNodeId().equals(stale.getId()) && entry.isDue()));
+
+        HeadscaleNodeReaperReport dryRun = nodeReaperService.reap(true);
+        assertTrue(dryRun.getItems().stream().anyMatch(item -> item.getTarget().equals(stale.getId())));
+        assertNotNull(SERVER.fleet().nodes().stream().filter(n -> n.getId().equals(stale.getId())).findFirst().orElse(null));
+
+        HeadscaleNodeReaperReport report = nodeReaperService.reap(false);
+        assertEquals(0, report.getFailed());
+        List<HeadscaleNode> remaining = SERVER.fleet().nodes();
+        assertTrue(remaining.stream().noneMatch(n -> n.getId().equals(stale.getId())));
+        assertTrue(remaining.stream().anyMatch(n -> n.getId().equals(active.getId())));
+        assertTrue(remaining.stream().anyMatch(n -> n.getId().equals(otherUser.getId())));
+        assertTrue(report.getItems().stream().noneMatch(item -> item.getTarget().equals(otherUser.getId())));
+    }
+
+    @Test
+    void userPagesWalkTheSortedListWithCursors() throws IOException {
+        int users = inventoryService.refresh().getUsers().size();
+        List<String> names = new ArrayList<>();
+        String cursor = null;
+        do {
+            HeadscaleUserPage page = userSearchService.page(null, null, cursor, 2);
+            assertEquals(users, page.getTotal());
+            page.getItems().forEach(user -> names.add(user.getName().toLowerCase()));
+            cursor = page.getNextCursor();
+        } while (cursor != null);
+        assertEquals(users, names.size());
+        for (int i = 1; i < names.size(); i++) {
+            assertTrue(names.get(i - 1).compareTo(names.get(i)) < 0);
+        }
+
+        HeadscaleUserPage prefix = userSearchService.page("USER-000", "prefix", null, 2);
+        assertTrue(prefix.getTotal() >= 5);
+        assertEquals(2, prefix.getItems().size());
+        HeadscaleUserPage next = userSearchService.page("USER-000", "prefix", prefix.getNextCursor(), 2);
+        assertTrue(next.getItems().get(0).getName().compareTo(prefix.getItems().get(1).getName()) > 0);
+
+        HeadscaleUserPage substring = userSearchService.page("ER-0003", "substring", null, 10);
+        assertEquals(1, substring.getTotal());
+        assertEquals("user-0003", substring.getItems().get(0).getName());
+        assertEquals(0, userSearchService.page("ser-0003x", "substring", null, 10).getTotal());
+        assertThrows(IllegalArgumentException.class, () -> userSearchService.page(null, null, "bm9wZQ", 10));
+    }
+
+    @Test
+    void upstreamExportWritesOneNodePerLine() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        int count = nodeExportService.export(HeadscaleNodeExportService.SOURCE_UPSTREAM, null, null, out);
+
+        String[] lines = out.toString("UTF-8").split("\n");
+        assertEquals(SERVER.fleet().nodes().size(), count);
+        assertEquals(count, lines.length);
+        for (String line : lines) {
+            assertNotNull(objectMapper.readTree(line).get("id"));
+        }
+
+        HeadscaleUser owner = SERVER.fleet().users().get(1);
+        out.reset();
+        assertEquals(SERVER.fleet().nodes(owner.getId()).size(),
+                nodeExportService.export(HeadscaleNodeExportService.SOURCE_UPSTREAM, owner, null, out));
+    }
+
+    @Test
+    void streamedImportIsAttributedToTheRequestingClient() throws Exception {
+        assertSame(applicationContext.getBean("headscaleMvcAsyncExecutor"), ReflectionTestUtils.getField(
+                applicationContext.getBean(RequestMappingHandlerAdapter.class), "taskExecutor"));
+        List<HeadscaleMutationEvent> events = Collections.synchronizedList(new ArrayList<>());
+        applicationContext.addApplicationListener((PayloadApplicationEvent<?> event) -> {
+            if (event.getPayload() instanceof HeadscaleMutationEvent) {
+                events.add((HeadscaleMutationEvent) event.getPayload());
+            }
+        });
+
+        MvcResult started = mockMvc.perform(MockMvcRequestBuilders.post("/headscale/users/import")
+                .contentType("text/csv")
+                .header(HeadscaleActorUtils.ACTOR_HEADER, "importer")
+                .with(request -> {
+                    request.setRemoteAddr("10.9.8.7");
+                    return request;
+                })
+                .content("username\nimported-by-client\n")).andReturn();
+        mockMvc.perform(MockMvcRequestBuilders.asyncDispatch(started)).andReturn();
+
+        HeadscaleMutationEvent created = events.stream()
+                .filter(event -> "imported-by-client".equals(event.getTarget()))
+                .findFirst().orElse(null);
+        assertNotNull(created);
+        assertEquals("10.9.8.7", created.getActor());
+        assertEquals("importer", created.getClaimedActor());
+    }
+
+    @Test
+    void policyAndPreAuthKeyMutationsCaptureTheirBeforeState() throws IOException {
+        List<HeadscaleMutationEvent> events = Collections.synchronizedList(new ArrayList<>());
+        applicationContext.addApplicationListener((PayloadApplicationEvent<?> event) -> {
+            if (event.getPayload() instanceof HeadscaleMutationEvent) {
+                events.add((HeadscaleMutationEvent) event.getPayload());
+            }
+        });
+
+        String previous = "{\"acls\":[{\"action\":\"accept\",\"src\":[\"*\"],\"dst\":[\"*:*\"]}]}";
+        SERVER.fleet().setPolicy(previous);
+        headscaleService.updateACLPolicy("{\"acls\":[]}");
+        HeadscaleMutationEvent policyUpdate = events.stream()
+                .filter(event -> "policy.update".equals(event.getAction()))
+                .findFirst().orElse(null);
+        assertNotNull(policyUpdate);
+        assertEquals(previous, policyUpdate.getBefore());
+
+        HeadscaleUser owner = SERVER.fleet().users().get(3);
+        HeadscalePreAuthKey key = SERVER.fleet().createPreAuthKey(owner.getId(), true, false, null);
+        inventoryService.recordPreAuthKeys(owner.getName(), headscaleService.getPreAuthKeys(owner));
+        headscaleService.expirePreAuthKey(owner, key.getKey());
+        HeadscaleMutationEvent expire = events.stream()
+                .filter(event -> "preauthkey.expire".equals(event.getAction()))
+                .findFirst().orElse(null);
+        assertNotNull(expire);
+        assertEquals(key.getId(), ((HeadscalePreAuthKey) expire.getBefore()).getId());
+    }
+
+    @Test
+    void csvImportStreamsOneResultPerRow() throws IOException {
+        String csv = "username,displayName,preAuthKey,reusable\n"
+                + "import-a,Import_A,true,true\n"
+                + "import-b,,,\n"
+                + "import-a,,,\n"
+                + "user-0001,,,\n"
+                + "12345,,,\n"
+                + "import-c,,maybe,\n";
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        HeadscaleUserImportSummary summary = userImportService.importUsers(
+                new ByteArrayInputStream(csv.getBytes(StandardCharsets.UTF_8)), HeadscaleUserImportService.FORMAT_CSV, out);
+
+        Map<Integer, JsonNode> rows = new HashMap<>();
+        String[] lines = out.toString("UTF-8").split("\n");
+        for (int i = 0; i < lines.length - 1; i++) {
+            JsonNode row = objectMapper.readTree(lines[i]);
+            rows.put(row.get("line").asInt(), row);
+        }
+        assertEquals(6, rows.size());
+        assertEquals("created", rows.get(2).get("status").asText());
+        assertNotNull(rows.get(2).get("preAuthKey"));
+        assertEquals("created", rows.get(3).get("status").asText());
+        assertEquals("duplicate", rows.get(4).get("status").asText());
+        assertEquals("exists", rows.get(5).get("status").asText());
+        assertEquals("invalid", rows.get(6).get("status").asText());
+        assertEquals("invalid", rows.get(7).get("status").asText());
+        assertTrue(objectMapper.readTree(lines[lines.length - 1]).get("summary").asBoolean());
+
+        assertEquals(2, summary.getCreated());
+        assertEquals(1, summary.getPreAuthKeys());
+        HeadscaleUser created = SERVER.fleet().users().stream().filter(u -> u.getName().equals("import-a")).findFirst().get();
+        assertEquals(1, SERVER.fleet().preAuthKeys(created.getId()).size());
+    }
+
+    @Test
+    void injectedErrorsSurfaceAsIOException() {
+        SERVER.profile().errors(1.0, 503);
+
+        assertThrows(IOException.class, () -> headscaleService.getUsers());
+    }
+
+    @Test
+    void failedRefreshKeepsMutationDirtyFlag() throws IOException {
+        inventoryService.refresh();
+        headscaleService.createUser("dirty-flag-user");
+        SERVER.profile().errors(1.0, 503);
+
+        assertThrows(IOException.class, () -> inventoryService.refresh());
+        assertTrue(inventoryService.isStale(inventoryService.getSnapshot()));
+
+        SERVER.profile().reset();
+        assertFalse(inventoryService.isStale(inventoryService.refresh()));
+    }
+
+    @Test
+    void inventoryRefreshIgnoresTheCallersDeadline() throws Exception {
+        SERVER.profile().latency(100, 0);
+        HeadscaleDeadlineUtils.start(1);
+        Thread.sleep(5);
+
+        assertNotNull(inventoryService.refresh());
+        assertTrue(HeadscaleDeadlineUtils.hasDeadline());
+        assertTrue(HeadscaleDeadlineUtils.remainingNanos() <= 0);
+    }
+
+    @Test
+    void mapBoundedStopsSubmittingOnceTheDeadlinePassed() {
+        HeadscaleDeadlineUtils.start(100);
+        List<Integer> items = Arrays.asList(1, 2, 3, 4, 5, 6, 7, 8, 9, 10);
+
+        List<String> results = HeadscaleConcurrencyUtils.mapBounded(items, 1, Runnable::run, item -> {
+            try {
+                Thread.sleep(40);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return "done";
+        }, item -> "skipped");
+
+        assertEquals(items.size(), results.size());
+        assertTrue(results.contains("done"));
+        assertEquals("skipped", results.get(items.size() - 1));
+    }
+
+    @Test
+    void requestDeadlineTimeoutsDoNotShrinkUpstreamLimits() {
+        Map<String, Integer> before = new HashMap<>();
+        upstreamLimitService.getLimits().forEach(limit -> before.put(limit.getName(), limit.getLimit()));
+        SERVER.profile().latency(500, 0);
+
+        for (int i = 0; i < 5; i++) {
+            HeadscaleDeadlineUtils.start(50);
+            assertThrows(InterruptedIOException.class, () -> headscaleService.getUsers());
+            assertThrows(IOException.class, () -> headscaleGrpcService.getUsers());
+        }
+
+        upstreamLimitService.getLimits().forEach(limit -> assertEquals(before.get(limit.getName()), limit.getLimit()));
+    }
+
+    @Test
+    void slowUpstreamIsCutOffByRequestDeadline() {
+        SERVER.profile().latency(2000, 0);
+        HeadscaleDeadlineUtils.start(200);
+
+        long started = System.nanoTime();
+        assertThrows(InterruptedIOException.class, () -> headscaleService.getUsers());
+        assertTrue(System.nanoTime() - started < 1_500_000_000L);
+    }
+}
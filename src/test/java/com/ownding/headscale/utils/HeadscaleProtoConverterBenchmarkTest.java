@@ -0,0 +1,113 @@
+package com.ownding.headscale.utils;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.ownding.headscale.dal.vo.HeadscaleNode;
+import com.ownding.headscale.dal.vo.HeadscaleUser;
+import com.ownding.headscale.dal.vo.Result;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+
+import java.io.ByteArrayOutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Serialization CPU and payload size of the JSON (Result + Jackson) path versus the protobuf path
+ * Run with: mvn test -Dtest=HeadscaleProtoConverterBenchmarkTest -Dheadscale.benchmark=true
+ */
+@EnabledIfSystemProperty(named = "headscale.benchmark", matches = "true")
+class HeadscaleProtoConverterBenchmarkTest {
+
+    private static final int NODES = 5000;
+    private static final int WARMUP = 20;
+    private static final int ITERATIONS = 50;
+
+    private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+    @Test
+    void compareJsonAndProtobuf() throws Exception {
+        List<HeadscaleNode> nodes = sampleNodes();
+        ObjectMapper objectMapper = new ObjectMapper();
+
+        Serializer json = () -> objectMapper.writeValueAsBytes(Result.success(nodes));
+        Serializer protobuf = () -> HeadscaleProtoConverter.toListNodesResponse(nodes).toByteArray();
+        headscale.v1.Headscale.ListNodesResponse prebuilt = HeadscaleProtoConverter.toListNodesResponse(nodes);
+        Serializer protobufPrebuilt = prebuilt::toByteArray;
+        Serializer delimited = () -> {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            for (HeadscaleNode node : nodes) {
+                HeadscaleProtoConverter.toProto(node).writeDelimitedTo(out);
+            }
+            return out.toByteArray();
+        };
+
+        long[] jsonResult = measure(json);
+        long[] protobufResult = measure(protobuf);
+        long[] delimitedResult = measure(delimited);
+        long[] prebuiltResult = measure(protobufPrebuilt);
+
+        System.out.printf("%d nodes, %d iterations%n", NODES, ITERATIONS);
+        System.out.printf("%-22s %12s %14s%n", "path", "bytes", "cpu us/op");
+        System.out.printf("%-22s %12d %14d%n", "json", jsonResult[0], jsonResult[1] / 1000);
+        System.out.printf("%-22s %12d %14d%n", "protobuf", protobufResult[0], protobufResult[1] / 1000);
+        System.out.printf("%-22s %12d %14d%n", "protobuf-delimited", delimitedResult[0], delimitedResult[1] / 1000);
+        System.out.printf("%-22s %12d %14d%n", "protobuf (no convert)", prebuiltResult[0], prebuiltResult[1] / 1000);
+
+        assertTrue(protobufResult[0] < jsonResult[0], "protobuf payload should be smaller than JSON");
+    }
+
+    /**
+     * @return payload size in bytes and CPU nanoseconds per serialization
+     */
+    private long[] measure(Serializer serializer) throws Exception {
+        for (int i = 0; i < WARMUP; i++) {
+            serializer.serialize();
+        }
+        long size = 0;
+        long start = threads.getCurrentThreadCpuTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            size = serializer.serialize().length;
+        }
+        return new long[]{size, (threads.getCurrentThreadCpuTime() - start) / ITERATIONS};
+    }
+
+    private static List<HeadscaleNode> sampleNodes() {
+        List<HeadscaleNode> nodes = new ArrayList<>(NODES);
+        for (int i = 1; i <= NODES; i++) {
+            HeadscaleUser user = new HeadscaleUser();
+            user.setId(String.valueOf(i % 50));
+            user.setName("user" + (i % 50));
+            user.setDisplayName("User " + (i % 50));
+            user.setEmail("user" + (i % 50) + "@example.com");
+            user.setCreatedAt("2025-01-01T00:00:00Z");
+
+            HeadscaleNode node = new HeadscaleNode();
+            node.setId(String.valueOf(i));
+            node.setMachineKey("mkey:" + Long.toHexString(i * 0x9E3779B97F4A7C15L));
+            node.setNodeKey("nodekey:" + Long.toHexString(i * 0xC2B2AE3D27D4EB4FL));
+            node.setDiscoKey("discokey:" + Long.toHexString(i * 0x165667B19E3779F9L));
+            node.setIpAddresses(Arrays.asList("100.64." + (i / 256) + "." + (i % 256), "fd7a:115c:a1e0::" + Integer.toHexString(i)));
+            node.setName("node-" + i);
+            node.setGivenName("node-" + i);
+            node.setUser(user);
+            node.setLastSeen("2025-04-22T08:27:18.802455714Z");
+            node.setExpiry("0001-01-01T00:00:00Z");
+            node.setCreatedAt("2025-01-02T00:00:00Z");
+            node.setOnline(i % 3 == 0);
+            node.setValidTags(i % 2 == 0 ? Collections.singletonList("tag:ci") : Collections.emptyList());
+            nodes.add(node);
+        }
+        return nodes;
+    }
+
+    @FunctionalInterface
+    private interface Serializer {
+        byte[] serialize() throws Exception;
+    }
+}